@@ -37,7 +37,9 @@ class AccessibilityService private constructor(
 
   private val subscriptions =
     CompositeDisposable(
-      bookRegistry.bookEvents().subscribe(this::onBookEvent)
+      bookRegistry.bookEvents()
+        .ofType(BookStatusEvent.BookStatusEventForBook::class.java)
+        .subscribe(this::onBookEvent)
     )
 
   override val spokenFeedbackEnabled: Boolean
@@ -55,7 +57,7 @@ class AccessibilityService private constructor(
     return statusPrevious::class.java != statusClass
   }
 
-  private fun onBookEvent(event: BookStatusEvent) {
+  private fun onBookEvent(event: BookStatusEvent.BookStatusEventForBook) {
     val book = this.bookRegistry.bookOrNull(event.bookId)?.book ?: return
 
     return when (event.statusNow) {
@@ -37,6 +37,7 @@ import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.files.DirectoryUtilities
 import org.nypl.simplified.files.FileLocking
 import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.taskrecorder.api.TaskResult
 import org.slf4j.LoggerFactory
 
@@ -454,7 +455,7 @@ class AccountsDatabase private constructor(
 
       val accounts = ConcurrentSkipListMap<AccountID, Account>()
       val accountsByProvider = ConcurrentSkipListMap<URI, Account>()
-      val objectMapper = ObjectMapper()
+      val objectMapper = JSONObjectMappers.mapper()
 
       val errors = ArrayList<Exception>()
       if (!directory.exists()) {
@@ -765,7 +766,7 @@ class AccountsDatabase private constructor(
         FileUtilities.fileWriteUTF8Atomically(
           accountFile,
           accountFileTemp,
-          AccountDescriptionJSON.serializeToString(ObjectMapper(), description)
+          AccountDescriptionJSON.serializeToString(JSONObjectMappers.mapper(), description)
         )
       }
     }
@@ -9,6 +9,7 @@ import org.nypl.simplified.accounts.json.internal.AccountAuthenticationCredentia
 import org.nypl.simplified.accounts.json.internal.AccountAuthenticationCredentialsJSON20200604
 import org.nypl.simplified.accounts.json.internal.AccountAuthenticationCredentialsJSON20200805
 import org.nypl.simplified.accounts.json.internal.AccountAuthenticationCredentialsJSON20210512
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.json.core.JSONParseException
 import org.nypl.simplified.json.core.JSONParserUtilities
 
@@ -53,7 +54,7 @@ object AccountAuthenticationCredentialsJSON {
   fun serializeToJSON(
     credentials: AccountAuthenticationCredentials
   ): ObjectNode {
-    val objectMapper = ObjectMapper()
+    val objectMapper = JSONObjectMappers.mapper()
     val authObject = objectMapper.createObjectNode()
     authObject.put("@version", this.currentSupportedVersion)
     authObject.put("authenticationDescription", credentials.authenticationDescription)
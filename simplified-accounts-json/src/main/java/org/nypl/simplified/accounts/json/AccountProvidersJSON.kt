@@ -29,6 +29,7 @@ import org.nypl.simplified.accounts.api.AccountProviderAuthenticationDescription
 import org.nypl.simplified.accounts.api.AccountProviderType
 import org.nypl.simplified.announcements.Announcement
 import org.nypl.simplified.announcements.AnnouncementJSON
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.json.core.JSONParseException
 import org.nypl.simplified.json.core.JSONParserUtilities
 import org.slf4j.LoggerFactory
@@ -57,7 +58,7 @@ object AccountProvidersJSON {
    */
 
   fun serializeToJSON(provider: AccountProviderType): ObjectNode {
-    val mapper = ObjectMapper()
+    val mapper = JSONObjectMappers.mapper()
     val node = mapper.createObjectNode()
 
     node.put("@version", "20200527")
@@ -593,7 +594,7 @@ object AccountProvidersJSON {
 
   @Throws(IOException::class)
   fun deserializeCollectionFromStream(stream: InputStream): Map<URI, AccountProvider> {
-    val jom = ObjectMapper()
+    val jom = JSONObjectMappers.mapper()
     val node = this.mapNullToTextNode(jom.readTree(stream))
     return this.deserializeCollectionFromJSONArray(JSONParserUtilities.checkArray(null, node))
   }
@@ -608,7 +609,7 @@ object AccountProvidersJSON {
 
   @Throws(IOException::class)
   fun deserializeOneFromStream(stream: InputStream): AccountProvider {
-    val jom = ObjectMapper()
+    val jom = JSONObjectMappers.mapper()
     val node = this.mapNullToTextNode(jom.readTree(stream))
     return this.deserializeFromJSON(JSONParserUtilities.checkObject(null, node))
   }
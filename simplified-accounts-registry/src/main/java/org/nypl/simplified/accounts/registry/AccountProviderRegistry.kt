@@ -2,8 +2,10 @@ package org.nypl.simplified.accounts.registry
 
 import android.content.Context
 import com.google.common.base.Preconditions
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import io.reactivex.Observable
 import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.Subject
 import org.librarysimplified.http.api.LSHTTPClientType
 import org.nypl.simplified.accounts.api.AccountProviderDescription
 import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
@@ -26,7 +28,14 @@ import org.slf4j.LoggerFactory
 import java.net.URI
 import java.util.Collections
 import java.util.ServiceLoader
+import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 
 /**
  * The default registry of account provider descriptions.
@@ -52,8 +61,31 @@ class AccountProviderRegistry private constructor(
   private val logger =
     LoggerFactory.getLogger(AccountProviderRegistry::class.java)
 
-  private val eventsActual: PublishSubject<AccountProviderRegistryEvent> =
-    PublishSubject.create()
+  /*
+   * Sources are loaded concurrently, but their results are applied on the calling
+   * thread in the order in which the sources were given, so that the merged
+   * descriptions and the published events do not depend on which source answers first.
+   */
+
+  private val sourceExecutor: ExecutorService =
+    ThreadPoolExecutor(
+      SOURCE_THREADS,
+      SOURCE_THREADS,
+      10L,
+      TimeUnit.SECONDS,
+      LinkedBlockingQueue(),
+      ThreadFactoryBuilder()
+        .setNameFormat("simplified-account-sources-%d")
+        .setDaemon(true)
+        .build()
+    ).apply { this.allowCoreThreadTimeOut(true) }
+
+  /*
+   * Providers may be resolved on several threads at once, so events are serialized.
+   */
+
+  private val eventsActual: Subject<AccountProviderRegistryEvent> =
+    PublishSubject.create<AccountProviderRegistryEvent>().toSerialized()
 
   override val events: Observable<AccountProviderRegistryEvent> =
     this.eventsActual
@@ -78,23 +110,7 @@ class AccountProviderRegistry private constructor(
     this.eventsActual.onNext(StatusChanged)
 
     try {
-      for (source in this.sources) {
-        try {
-          when (val result = source.load(this.context, includeTestingLibraries)) {
-            is AccountProviderSourceType.SourceResult.SourceSucceeded -> {
-              val newDescriptions = result.results
-              for (key in newDescriptions.keys) {
-                this.updateDescription(newDescriptions[key]!!)
-              }
-            }
-            is AccountProviderSourceType.SourceResult.SourceFailed -> {
-              this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
-            }
-          }
-        } catch (e: Exception) {
-          this.eventsActual.onNext(SourceFailed(source.javaClass, e))
-        }
-      }
+      this.updateFromSources { source -> source.load(this.context, includeTestingLibraries) }
     } finally {
       this.initialized = true
       this.statusRef = Idle
@@ -109,23 +125,7 @@ class AccountProviderRegistry private constructor(
     this.eventsActual.onNext(StatusChanged)
 
     try {
-      for (source in this.sources) {
-        try {
-          when (val result = source.query(this.context, query)) {
-            is AccountProviderSourceType.SourceResult.SourceSucceeded -> {
-              val newDescriptions = result.results
-              for (key in newDescriptions.keys) {
-                this.updateDescription(newDescriptions[key]!!)
-              }
-            }
-            is AccountProviderSourceType.SourceResult.SourceFailed -> {
-              this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
-            }
-          }
-        } catch (e: Exception) {
-          this.eventsActual.onNext(SourceFailed(source.javaClass, e))
-        }
-      }
+      this.updateFromSources { source -> source.query(this.context, query) }
     } finally {
       this.initialized = true
       this.statusRef = Idle
@@ -133,6 +133,47 @@ class AccountProviderRegistry private constructor(
     }
   }
 
+  /**
+   * Run `operation` on every source at once, and then merge the results in source order.
+   * A source that has not answered within [SOURCE_TIMEOUT_SECONDS] of the start of the
+   * operation is treated as having failed.
+   */
+
+  private fun updateFromSources(
+    operation: (AccountProviderSourceType) -> AccountProviderSourceType.SourceResult
+  ) {
+    val futures =
+      this.sources.map { source -> this.sourceExecutor.submit(Callable { operation(source) }) }
+    val deadline =
+      System.nanoTime() + TimeUnit.SECONDS.toNanos(SOURCE_TIMEOUT_SECONDS)
+
+    for ((source, future) in this.sources.zip(futures)) {
+      try {
+        val remaining = maxOf(0L, deadline - System.nanoTime())
+        when (val result = future.get(remaining, TimeUnit.NANOSECONDS)) {
+          is AccountProviderSourceType.SourceResult.SourceSucceeded -> {
+            val newDescriptions = result.results
+            for (key in newDescriptions.keys) {
+              this.updateDescription(newDescriptions[key]!!)
+            }
+          }
+          is AccountProviderSourceType.SourceResult.SourceFailed -> {
+            this.eventsActual.onNext(SourceFailed(source.javaClass, result.exception))
+          }
+        }
+      } catch (e: ExecutionException) {
+        val cause = e.cause
+        this.eventsActual.onNext(SourceFailed(source.javaClass, if (cause is Exception) cause else e))
+      } catch (e: TimeoutException) {
+        this.logger.error("source {} timed out", source.javaClass.canonicalName)
+        future.cancel(true)
+        this.eventsActual.onNext(SourceFailed(source.javaClass, e))
+      } catch (e: Exception) {
+        this.eventsActual.onNext(SourceFailed(source.javaClass, e))
+      }
+    }
+  }
+
   override fun clear() {
     this.descriptions.clear()
     this.resolved.clear()
@@ -222,6 +263,18 @@ class AccountProviderRegistry private constructor(
 
   companion object {
 
+    /**
+     * The maximum number of sources that will be loaded at once.
+     */
+
+    private const val SOURCE_THREADS = 4
+
+    /**
+     * The maximum time allowed for all sources to load.
+     */
+
+    private const val SOURCE_TIMEOUT_SECONDS = 60L
+
     /**
      * Create a new description registry based on sources discovered by [ServiceLoader]
      */
@@ -0,0 +1,139 @@
+package org.nypl.simplified.accounts.source.nyplregistry
+
+import org.nypl.simplified.files.Digests
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.files.HTTPValidatorsFile
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.net.URI
+
+/**
+ * A disk cache of authentication documents, along with the `ETag` and `Last-Modified`
+ * validators that the server sent with them. The cached documents are used to revalidate
+ * authentication documents with conditional requests: if the server responds with
+ * `304 Not Modified`, the cached document is used instead of downloading it again.
+ *
+ * Each document is stored as a pair of files named after a digest of the document URI:
+ * the document itself, and a properties file holding the validators along with the URI
+ * and a digest of the document. An entry is only used if the document matches its digest,
+ * so a document that was replaced without its properties file is ignored.
+ */
+
+class AccountProviderAuthDocumentCache(
+  private val directory: File
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(AccountProviderAuthDocumentCache::class.java)
+
+  /**
+   * A cached authentication document.
+   */
+
+  class Entry(
+    val uri: URI,
+    val validators: HTTPValidators,
+    val data: ByteArray
+  )
+
+  /**
+   * An intrinsic lock used to prevent multiple threads from writing the same entry
+   * at the same time.
+   */
+
+  private val writeLock = Any()
+
+  private fun nameOf(uri: URI): String =
+    Digests.sha256Hex(uri.toString().toByteArray())
+
+  private fun dataFileOf(uri: URI): File =
+    File(this.directory, "${this.nameOf(uri)}.json")
+
+  private fun propertiesFileOf(uri: URI): HTTPValidatorsFile =
+    HTTPValidatorsFile(File(this.directory, "${this.nameOf(uri)}.properties"))
+
+  /**
+   * Load the cached document for the given URI, if any.
+   */
+
+  fun load(uri: URI): Entry? {
+    val contents = this.propertiesFileOf(uri).load() ?: return null
+    if (contents.property("uri") != uri.toString()) {
+      return null
+    }
+
+    return try {
+      val data = FileUtilities.fileReadBytes(this.dataFileOf(uri))
+      if (contents.property("digest") != Digests.sha256Hex(data)) {
+        this.logger.debug("cached authentication document {} does not match its digest", uri)
+        return null
+      }
+      Entry(uri = uri, validators = contents.validators, data = data)
+    } catch (e: Exception) {
+      this.logger.debug("unable to load cached authentication document {}: ", uri, e)
+      null
+    }
+  }
+
+  /**
+   * Store the given document. Documents without an `ETag` or `Last-Modified` value can't
+   * be revalidated, and cause any existing entry to be deleted instead.
+   */
+
+  fun store(
+    uri: URI,
+    validators: HTTPValidators,
+    data: ByteArray
+  ) {
+    if (!validators.isPresent) {
+      this.delete(uri)
+      return
+    }
+
+    try {
+      synchronized(this.writeLock) {
+        this.directory.mkdirs()
+
+        val dataFile = this.dataFileOf(uri)
+        FileUtilities.fileWriteBytesAtomically(
+          dataFile,
+          File(dataFile.parentFile, "${dataFile.name}.tmp"),
+          data
+        )
+
+        this.propertiesFileOf(uri).store(
+          validators,
+          mapOf(
+            "uri" to uri.toString(),
+            "digest" to Digests.sha256Hex(data)
+          )
+        )
+      }
+    } catch (e: IOException) {
+      this.logger.debug("unable to cache authentication document {}: ", uri, e)
+    }
+  }
+
+  /**
+   * Delete the cached document for the given URI, if any.
+   */
+
+  fun delete(uri: URI) {
+    synchronized(this.writeLock) {
+      this.propertiesFileOf(uri).delete()
+      this.dataFileOf(uri).delete()
+    }
+  }
+
+  /**
+   * Delete all cached documents.
+   */
+
+  fun clear() {
+    synchronized(this.writeLock) {
+      this.directory.listFiles()?.forEach(File::delete)
+    }
+  }
+}
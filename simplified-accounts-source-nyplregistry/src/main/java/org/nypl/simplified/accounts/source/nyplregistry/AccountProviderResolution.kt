@@ -23,6 +23,7 @@ import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderResolutio
 import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderResolutionErrorCodes.authDocumentUnusableLink
 import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderResolutionErrorCodes.httpRequestFailed
 import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderResolutionErrorCodes.unexpectedException
+import org.nypl.simplified.files.HTTPValidators
 import org.nypl.simplified.links.Link
 import org.nypl.simplified.opds.auth_document.api.AuthenticationDocument
 import org.nypl.simplified.opds.auth_document.api.AuthenticationDocumentParsersType
@@ -42,13 +43,18 @@ import java.util.Locale
 
 /**
  * The logic needed to resolve a description into a full provider using standard NYPL logic.
+ *
+ * If an authentication document cache is provided, authentication documents are fetched
+ * with conditional requests, and the cached document is used if the server indicates that
+ * it has not been modified.
  */
 
 class AccountProviderResolution(
   private val stringResources: AccountProviderResolutionStringsType,
   private val authDocumentParsers: AuthenticationDocumentParsersType,
   private val http: LSHTTPClientType,
-  private val description: AccountProviderDescription
+  private val description: AccountProviderDescription,
+  private val authDocumentCache: AccountProviderAuthDocumentCache? = null
 ) {
 
   private val authDocumentType =
@@ -417,25 +423,39 @@ class AccountProviderResolution(
 
     return when (targetLink) {
       is Link.LinkBasic -> {
-        val request =
+        val cached =
+          this.authDocumentCache?.load(targetLink.href)
+
+        val requestBuilder =
           this.http.newRequest(targetLink.href)
-            .build()
 
-        val result = request.execute()
+        if (cached != null) {
+          cached.validators.eTag?.let { requestBuilder.addHeader("If-None-Match", it) }
+          cached.validators.lastModified?.let { requestBuilder.addHeader("If-Modified-Since", it) }
+        }
+
+        val result = requestBuilder.build().execute()
         taskRecorder.addAttribute("Authentication Document", targetLink.href.toString())
         taskRecorder.addAttributes(result.status.properties?.problemReport?.toMap() ?: emptyMap())
 
         when (val status = result.status) {
           is LSHTTPResponseStatus.Responded.OK -> {
-            this.parseAuthenticationDocument(
-              targetURI = targetLink.href,
-              stream = status.bodyStream ?: emptyStream(),
-              taskRecorder = taskRecorder
-            )
+            if (cached != null && status.properties.status == 304) {
+              this.parseCachedAuthenticationDocument(cached, taskRecorder)
+            } else {
+              this.parseAndCacheAuthenticationDocument(
+                targetURI = targetLink.href,
+                stream = status.bodyStream ?: emptyStream(),
+                headers = status.properties.headers,
+                taskRecorder = taskRecorder
+              )
+            }
           }
 
           is LSHTTPResponseStatus.Responded.Error -> {
-            if (MIMECompatibility.isCompatibleStrictWithoutAttributes(status.properties.contentType, authDocumentType)) {
+            if (cached != null && status.properties.status == 304) {
+              this.parseCachedAuthenticationDocument(cached, taskRecorder)
+            } else if (MIMECompatibility.isCompatibleStrictWithoutAttributes(status.properties.contentType, authDocumentType)) {
               this.parseAuthenticationDocument(
                 targetURI = targetLink.href,
                 stream = status.bodyStream ?: emptyStream(),
@@ -467,6 +487,46 @@ class AccountProviderResolution(
 
   private fun emptyStream() = ByteArrayInputStream(ByteArray(0))
 
+  private fun parseCachedAuthenticationDocument(
+    cached: AccountProviderAuthDocumentCache.Entry,
+    taskRecorder: TaskRecorderType
+  ): AuthenticationDocument {
+    this.logger.debug("authentication document {} not modified", cached.uri)
+    taskRecorder.addAttribute("Authentication Document Cached", "true")
+    return this.parseAuthenticationDocument(
+      targetURI = cached.uri,
+      stream = ByteArrayInputStream(cached.data),
+      taskRecorder = taskRecorder
+    )
+  }
+
+  /**
+   * Parse a freshly downloaded authentication document, and cache it if it can be
+   * parsed. Documents are only cached if a cache is present, so the document is only
+   * read into memory in that case.
+   */
+
+  private fun parseAndCacheAuthenticationDocument(
+    targetURI: URI,
+    stream: InputStream,
+    headers: Map<String, List<String>>,
+    taskRecorder: TaskRecorderType
+  ): AuthenticationDocument {
+    val cache = this.authDocumentCache
+      ?: return this.parseAuthenticationDocument(targetURI, stream, taskRecorder)
+
+    val data = stream.use { input -> input.readBytes() }
+    val document =
+      this.parseAuthenticationDocument(targetURI, ByteArrayInputStream(data), taskRecorder)
+
+    cache.store(
+      uri = targetURI,
+      validators = HTTPValidators.ofHeaders(headers),
+      data = data
+    )
+    return document
+  }
+
   private fun parseAuthenticationDocument(
     targetURI: URI,
     stream: InputStream,
@@ -61,6 +61,17 @@ class AccountProviderSourceNYPLRegistry(
   @Volatile
   private var stringResources: AccountProviderResolutionStringsType? = null
 
+  @Volatile
+  private var authDocumentCache: AccountProviderAuthDocumentCache? = null
+
+  /**
+   * The application's cache directory, recorded by any call that provides a context so
+   * that the authentication document cache can be created by calls that don't.
+   */
+
+  @Volatile
+  private var cacheDirectory: File? = null
+
   private data class CacheFiles(
     val file: File,
     val fileTemp: File
@@ -79,6 +90,7 @@ class AccountProviderSourceNYPLRegistry(
           context.resources
         )
     }
+    this.cacheDirectory = context.cacheDir
 
     val files = this.cacheFiles(context)
     val diskResults = this.fetchDiskResults(files)
@@ -153,6 +165,8 @@ class AccountProviderSourceNYPLRegistry(
       FileUtilities.fileDelete(files.file)
       FileUtilities.fileDelete(files.fileTemp)
     }
+    this.cacheDirectory = context.cacheDir
+    this.authDocumentCache()?.clear()
   }
 
   override fun canResolve(description: AccountProviderDescription): Boolean {
@@ -171,10 +185,31 @@ class AccountProviderSourceNYPLRegistry(
       stringResources = this.stringResources!!,
       authDocumentParsers = this.authDocumentParsers,
       http = this.http,
-      description = description
+      description = description,
+      authDocumentCache = this.authDocumentCache()
     ).resolve(onProgress)
   }
 
+  /**
+   * Create the authentication document cache if it hasn't been created yet. The cache
+   * can't be created until a context has provided the cache directory.
+   */
+
+  private fun authDocumentCache(): AccountProviderAuthDocumentCache? {
+    val existing = this.authDocumentCache
+    if (existing != null) {
+      return existing
+    }
+
+    val directory = this.cacheDirectory ?: return null
+    return synchronized(this.writeLock) {
+      this.authDocumentCache
+        ?: AccountProviderAuthDocumentCache(
+          File(directory, "org.nypl.simplified.accounts.source.nyplregistry.authdocs")
+        ).also { cache -> this.authDocumentCache = cache }
+    }
+  }
+
   private fun cacheFiles(context: Context): CacheFiles {
     return CacheFiles(
       file = File(context.cacheDir, "org.nypl.simplified.accounts.source.nyplregistry.json"),
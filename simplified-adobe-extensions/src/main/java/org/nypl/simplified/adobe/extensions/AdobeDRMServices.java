@@ -33,6 +33,7 @@ import org.nypl.drm.core.AdobeAdeptResourceProviderType;
 import org.nypl.drm.core.DRMException;
 import org.nypl.drm.core.DRMUnsupportedException;
 import org.nypl.simplified.files.DirectoryUtilities;
+import org.nypl.simplified.json.core.JSONObjectMappers;
 import org.nypl.simplified.json.core.JSONParserUtilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -363,7 +364,7 @@ public final class AdobeDRMServices {
     final byte[] r)
     throws DRMUnsupportedException {
     try {
-      final ObjectMapper jom = new ObjectMapper();
+      final ObjectMapper jom = JSONObjectMappers.mapper();
       final JsonNode json = jom.readTree(r);
       final ObjectNode o = JSONParserUtilities.checkObject(null, json);
       final String appid = JSONParserUtilities.getString(o, "appid");
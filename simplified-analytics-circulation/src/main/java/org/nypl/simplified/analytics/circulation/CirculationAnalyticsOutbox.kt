@@ -0,0 +1,167 @@
+package org.nypl.simplified.analytics.circulation
+
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.files.FileUtilities
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URI
+import java.util.UUID
+
+/**
+ * A persistent, append-only queue of analytics events that have yet to be sent.
+ *
+ * Events are appended to a text file, one event per line, as they arrive. Sent events are
+ * removed from the head of the queue by rewriting the file. If the file would grow beyond
+ * the maximum size, the oldest events are dropped to make room.
+ *
+ * The outbox is not thread-safe; it is expected to be confined to a single thread.
+ */
+
+internal class CirculationAnalyticsOutbox(
+  directory: File,
+  private val maximumSizeBytes: Long
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(CirculationAnalyticsOutbox::class.java)
+
+  /**
+   * An event waiting to be sent.
+   */
+
+  data class Entry(
+    val timeMillis: Long,
+    val accountID: AccountID?,
+    val target: URI
+  ) {
+    fun toLine(): String =
+      "$timeMillis ${this.accountID ?: "-"} ${this.target.toASCIIString()}\n"
+
+    companion object {
+      fun ofLine(line: String): Entry? {
+        val segments = line.split(' ')
+        if (segments.size != 3) {
+          return null
+        }
+
+        return try {
+          Entry(
+            timeMillis = segments[0].toLong(),
+            accountID = if (segments[1] == "-") null else AccountID(UUID.fromString(segments[1])),
+            target = URI(segments[2])
+          )
+        } catch (e: Exception) {
+          null
+        }
+      }
+    }
+  }
+
+  private val file =
+    File(directory, "outbox.txt")
+  private val fileTmp =
+    File(directory, "outbox.txt.tmp")
+
+  private val entries =
+    ArrayDeque<Entry>()
+  private var sizeBytes =
+    0L
+
+  /**
+   * The number of events dropped because the outbox was full, since the outbox was opened.
+   */
+
+  var dropped: Long = 0L
+    private set
+
+  init {
+    directory.mkdirs()
+
+    if (this.file.isFile) {
+      try {
+        this.file.forEachLine { line ->
+          val entry = Entry.ofLine(line)
+          if (entry != null) {
+            this.entries.addLast(entry)
+            this.sizeBytes += entry.toLine().length
+          }
+        }
+      } catch (e: IOException) {
+        this.logger.error("unable to read analytics outbox: ", e)
+      }
+    }
+  }
+
+  /**
+   * The number of events waiting to be sent.
+   */
+
+  val size: Int
+    get() = this.entries.size
+
+  /**
+   * Append an event to the outbox, dropping the oldest events if necessary.
+   */
+
+  fun append(entry: Entry) {
+    val line = entry.toLine()
+
+    var dropping = 0
+    var sizeAfter = this.sizeBytes + line.length
+    while (sizeAfter > this.maximumSizeBytes && dropping < this.entries.size) {
+      sizeAfter -= this.entries[dropping].toLine().length
+      ++dropping
+    }
+
+    if (dropping > 0) {
+      this.logger.warn("analytics outbox is full: dropping {} events", dropping)
+      this.dropped += dropping
+      this.remove(dropping)
+    }
+
+    this.entries.addLast(entry)
+    this.sizeBytes += line.length
+
+    try {
+      FileOutputStream(this.file, true).use { stream ->
+        stream.write(line.toByteArray())
+        stream.flush()
+      }
+    } catch (e: IOException) {
+      this.logger.error("unable to append to analytics outbox: ", e)
+    }
+  }
+
+  /**
+   * @return At most `count` events from the head of the outbox
+   */
+
+  fun peek(count: Int): List<Entry> =
+    this.entries.take(count)
+
+  /**
+   * Remove `count` events from the head of the outbox.
+   */
+
+  fun remove(count: Int) {
+    if (count <= 0) {
+      return
+    }
+
+    repeat(minOf(count, this.entries.size)) {
+      this.sizeBytes -= this.entries.removeFirst().toLine().length
+    }
+
+    try {
+      FileUtilities.fileWriteUTF8Atomically(
+        this.file,
+        this.fileTmp,
+        this.entries.joinToString("") { entry -> entry.toLine() }
+      )
+    } catch (e: IOException) {
+      this.logger.error("unable to rewrite analytics outbox: ", e)
+    }
+  }
+}
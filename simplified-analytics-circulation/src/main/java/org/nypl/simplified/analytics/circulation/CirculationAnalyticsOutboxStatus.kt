@@ -0,0 +1,32 @@
+package org.nypl.simplified.analytics.circulation
+
+/**
+ * The state of the outbox of a circulation analytics system.
+ */
+
+data class CirculationAnalyticsOutboxStatus(
+
+  /**
+   * The number of events waiting to be sent.
+   */
+
+  val queued: Int,
+
+  /**
+   * The number of events dropped because the outbox was full.
+   */
+
+  val dropped: Long,
+
+  /**
+   * The number of events dropped because the server rejected them.
+   */
+
+  val rejected: Long,
+
+  /**
+   * The number of consecutive failed attempts to send events.
+   */
+
+  val failedAttempts: Int
+)
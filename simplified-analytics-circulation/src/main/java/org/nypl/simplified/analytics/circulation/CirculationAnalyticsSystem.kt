@@ -1,36 +1,134 @@
 package org.nypl.simplified.analytics.circulation
 
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
 import org.librarysimplified.http.api.LSHTTPResponseStatus
+import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.accounts.api.setAuthentication
 import org.nypl.simplified.analytics.api.AnalyticsConfiguration
 import org.nypl.simplified.analytics.api.AnalyticsEvent
 import org.nypl.simplified.analytics.api.AnalyticsSystem
 import org.slf4j.LoggerFactory
-import java.net.URI
-import java.util.concurrent.ExecutorService
+import java.io.File
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 /**
  * An analytics system based on Circulation Analytics.
+ *
+ * Events are written to a persistent outbox as they arrive and are sent in batches: a
+ * flush is scheduled shortly after an event arrives (so that events arriving close together
+ * are sent together), and whenever the device regains network connectivity. If events
+ * can't be sent, flushes are retried with exponential backoff. Events survive application
+ * restarts, although events for accounts that haven't produced an event since the
+ * restart are sent without credentials.
+ *
+ * The given executor must be single-threaded; all of the system's state is confined to it.
  */
 
 class CirculationAnalyticsSystem(
   private val configuration: AnalyticsConfiguration,
-  private val executor: ExecutorService
+  private val executor: ScheduledExecutorService,
+  outboxDirectory: File = File(configuration.context.filesDir, "circulation-analytics"),
+  outboxMaximumSizeBytes: Long = 256L * 1024L,
+  private val batchSize: Int = 50,
+  private val flushDelayMillis: Long = 10_000L,
+  private val retryDelayMinimumMillis: Long = 30_000L,
+  private val retryDelayMaximumMillis: Long = 3_600_000L
 ) : AnalyticsSystem {
 
   private val logger =
     LoggerFactory.getLogger(CirculationAnalyticsSystem::class.java)
 
+  private val outbox =
+    CirculationAnalyticsOutbox(outboxDirectory, outboxMaximumSizeBytes)
+  private val accounts =
+    mutableMapOf<AccountID, AccountReadableType>()
+  private var flushScheduled: ScheduledFuture<*>? =
+    null
+  private var failedAttempts =
+    0
+  private var rejected =
+    0L
+
+  @Volatile
+  private var statusNow =
+    CirculationAnalyticsOutboxStatus(
+      queued = this.outbox.size,
+      dropped = 0L,
+      rejected = 0L,
+      failedAttempts = 0
+    )
+
+  init {
+    this.executor.execute {
+      if (this.outbox.size > 0) {
+        this.logger.debug("{} events waiting in outbox", this.outbox.size)
+        this.scheduleFlush(this.flushDelayMillis)
+      }
+    }
+    this.registerConnectivityCallback()
+  }
+
+  /**
+   * @return The current state of the outbox. The state is also logged after every flush.
+   */
+
+  fun outboxStatus(): CirculationAnalyticsOutboxStatus =
+    this.statusNow
+
   override fun onAnalyticsEvent(event: AnalyticsEvent): Unit =
     this.executor.execute { this.consumeEvent(event) }
 
+  private fun registerConnectivityCallback() {
+    try {
+      val connectivity =
+        this.configuration.context.getSystemService(Context.CONNECTIVITY_SERVICE)
+          as ConnectivityManager? ?: return
+
+      connectivity.registerDefaultNetworkCallback(object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) {
+          this@CirculationAnalyticsSystem.executor.execute {
+            this@CirculationAnalyticsSystem.onConnectivityAvailable()
+          }
+        }
+      })
+    } catch (e: Exception) {
+      this.logger.debug("unable to monitor network connectivity: ", e)
+    }
+  }
+
+  private fun onConnectivityAvailable() {
+    if (this.outbox.size > 0) {
+      this.logger.debug("network available: flushing outbox")
+      this.flushScheduled?.cancel(false)
+      this.flushScheduled = null
+      this.failedAttempts = 0
+      this.scheduleFlush(0L)
+    }
+  }
+
   private fun consumeEvent(event: AnalyticsEvent) {
     this.logger.debug("received event {}", event::class.simpleName)
     when (event) {
       is AnalyticsEvent.BookOpened -> {
         event.targetURI?.let { target ->
-          postURI(target, event.account)
+          val account = event.account
+          if (account != null) {
+            this.accounts[account.id] = account
+          }
+          this.outbox.append(
+            CirculationAnalyticsOutbox.Entry(
+              timeMillis = System.currentTimeMillis(),
+              accountID = account?.id,
+              target = target
+            )
+          )
+          this.publishStatus()
+          this.scheduleFlush(this.flushDelayMillis)
         }
         this.logger.debug("consuming 'BookOpened' event for {}", event.targetURI)
       }
@@ -40,32 +138,131 @@ class CirculationAnalyticsSystem(
     }
   }
 
-  private fun postURI(
-    target: URI,
-    account: AccountReadableType?
-  ) {
+  /**
+   * Schedule a flush of the outbox, unless one is already scheduled.
+   */
+
+  private fun scheduleFlush(delayMillis: Long) {
+    if (this.flushScheduled != null) {
+      return
+    }
+    this.flushScheduled =
+      this.executor.schedule({ this.flush() }, delayMillis, TimeUnit.MILLISECONDS)
+  }
+
+  private enum class SendResult {
+    SENT,
+    REJECTED,
+    FAILED
+  }
+
+  private fun flush() {
+    this.flushScheduled = null
+
+    val batch = this.outbox.peek(this.batchSize)
+    this.logger.debug("flushing {} of {} events", batch.size, this.outbox.size)
+
+    var completed = 0
+    var failed = false
+    for (entry in batch) {
+      when (this.send(entry)) {
+        SendResult.SENT -> {
+          ++completed
+        }
+        SendResult.REJECTED -> {
+          ++completed
+          ++this.rejected
+        }
+        SendResult.FAILED -> {
+          failed = true
+          break
+        }
+      }
+    }
+
+    this.outbox.remove(completed)
+
+    if (failed) {
+      ++this.failedAttempts
+      val delay = this.retryDelayFor(this.failedAttempts)
+      this.logger.debug(
+        "failed to send events ({} attempts); retrying in {}ms", this.failedAttempts, delay
+      )
+      this.scheduleFlush(delay)
+    } else {
+      this.failedAttempts = 0
+      if (this.outbox.size > 0) {
+        this.scheduleFlush(0L)
+      }
+    }
+
+    this.publishStatus()
+
+    val status = this.statusNow
+    this.logger.info(
+      "outbox: {} queued, {} dropped, {} rejected, {} failed attempts",
+      status.queued,
+      status.dropped,
+      status.rejected,
+      status.failedAttempts
+    )
+  }
+
+  private fun retryDelayFor(attempts: Int): Long {
+    val shift = minOf(attempts - 1, 20)
+    return minOf(this.retryDelayMinimumMillis shl shift, this.retryDelayMaximumMillis)
+  }
+
+  private fun publishStatus() {
+    this.statusNow =
+      CirculationAnalyticsOutboxStatus(
+        queued = this.outbox.size,
+        dropped = this.outbox.dropped,
+        rejected = this.rejected,
+        failedAttempts = this.failedAttempts
+      )
+  }
+
+  private fun send(entry: CirculationAnalyticsOutbox.Entry): SendResult {
+    val account = entry.accountID?.let { this.accounts[it] }
     val request =
-      this.configuration.http.newRequest(target)
+      this.configuration.http.newRequest(entry.target)
         .apply { account?.let { setAuthentication(account) } }
         .build()
 
-    val response = request.execute()
-    return when (val status = response.status) {
-      is LSHTTPResponseStatus.Responded.OK ->
-        Unit
-      is LSHTTPResponseStatus.Responded.Error -> {
-        val problemReport = status.properties.problemReport
-        if (problemReport != null) {
-          this.logger.debug("status: {}", problemReport.status)
-          this.logger.debug("title:  {}", problemReport.title)
-          this.logger.debug("type:   {}", problemReport.type)
-          this.logger.debug("detail: {}", problemReport.detail)
-        } else {
-          Unit
+    return try {
+      request.execute().use { response ->
+        when (val status = response.status) {
+          is LSHTTPResponseStatus.Responded.OK ->
+            SendResult.SENT
+          is LSHTTPResponseStatus.Responded.Error -> {
+            val problemReport = status.properties.problemReport
+            if (problemReport != null) {
+              this.logger.debug("status: {}", problemReport.status)
+              this.logger.debug("title:  {}", problemReport.title)
+              this.logger.debug("type:   {}", problemReport.type)
+              this.logger.debug("detail: {}", problemReport.detail)
+            }
+
+            /*
+             * Server errors are retried; anything else will never succeed.
+             */
+
+            if (status.properties.status >= 500) {
+              SendResult.FAILED
+            } else {
+              SendResult.REJECTED
+            }
+          }
+          is LSHTTPResponseStatus.Failed -> {
+            this.logger.error("error sending event to {}: ", entry.target, status.exception)
+            SendResult.FAILED
+          }
         }
       }
-      is LSHTTPResponseStatus.Failed ->
-        this.logger.error("error sending event to {}: ", target, status.exception)
+    } catch (e: Exception) {
+      this.logger.error("error sending event to {}: ", entry.target, e)
+      SendResult.FAILED
     }
   }
 }
@@ -0,0 +1,19 @@
+package org.nypl.simplified.books.borrowing
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * A specification of how often download progress is published for a book.
+ *
+ * A progress update for a book is published when `interval` has elapsed since the last
+ * published update, or when the progress has advanced by at least `minimumPercentChange`
+ * percent (if the expected size of the download is known). Other updates are held back,
+ * and the latest of them is published once `interval` has elapsed. The first and last
+ * progress updates are always published.
+ */
+
+data class BorrowProgressConfiguration(
+  val interval: Long = 250L,
+  val intervalUnit: TimeUnit = TimeUnit.MILLISECONDS,
+  val minimumPercentChange: Double = 1.0
+)
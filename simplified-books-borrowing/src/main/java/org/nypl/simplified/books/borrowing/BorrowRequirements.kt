@@ -32,7 +32,8 @@ data class BorrowRequirements(
   val profiles: ProfilesDatabaseType,
   val services: ServiceDirectoryType,
   val subtasks: BorrowSubtaskDirectoryType,
-  val temporaryDirectory: File
+  val temporaryDirectory: File,
+  val progressConfiguration: BorrowProgressConfiguration = BorrowProgressConfiguration()
 ) {
 
   companion object {
@@ -21,6 +21,7 @@ import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.noSupported
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.profileNotFound
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.subtaskFailed
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.unexpectedException
+import org.nypl.simplified.books.borrowing.internal.BorrowProgressPublisher
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskCancelled
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskHaltedEarly
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskFactoryType
@@ -51,17 +52,20 @@ import java.util.concurrent.atomic.AtomicBoolean
 
 class BorrowTask private constructor(
   private val requirements: BorrowRequirements,
-  private val request: BorrowRequest
+  private val request: BorrowRequest,
+  private val onTransferStarted: () -> Unit
 ) : BorrowTaskType {
 
   companion object : BorrowTaskFactoryType {
     override fun createBorrowTask(
       requirements: BorrowRequirements,
-      request: BorrowRequest
+      request: BorrowRequest,
+      onTransferStarted: () -> Unit
     ): BorrowTaskType {
       return BorrowTask(
         requirements = requirements,
-        request = request
+        request = request,
+        onTransferStarted = onTransferStarted
       )
     }
   }
@@ -81,6 +85,7 @@ class BorrowTask private constructor(
   }
 
   private var databaseEntry: BookDatabaseEntryType? = null
+  private var context: BorrowContext? = null
   private lateinit var account: AccountType
   private lateinit var taskRecorder: TaskRecorderType
 
@@ -189,28 +194,40 @@ class BorrowTask private constructor(
         currentOPDSAcquisitionPathElement = path.elements.first(),
         httpClient = this.requirements.httpClient,
         logger = this.logger,
+        onTransferStarted = this.onTransferStarted,
         opdsAcquisitionPath = path,
+        progressConfiguration = this.requirements.progressConfiguration,
         services = this.requirements.services,
         taskRecorder = this.taskRecorder,
         temporaryDirectory = this.requirements.temporaryDirectory
       )
 
-    val elementQueue = path.elements.toMutableList()
-    while (elementQueue.isNotEmpty()) {
-      try {
-        val pathElement = elementQueue[0]
-        elementQueue.removeAt(0)
-        context.currentOPDSAcquisitionPathElement = pathElement
-        context.currentRemainingOPDSPathElements = elementQueue.toList()
-        val subtaskFactory = this.subtaskFindForPathElement(context, pathElement, book)
-        this.subtaskExecute(subtaskFactory, context, book)
-      } catch (e: BorrowSubtaskHaltedEarly) {
-        this.logger.debug("subtask halted early: ", e)
-        return
-      } catch (e: BorrowSubtaskCancelled) {
-        this.logger.debug("subtask cancelled: ", e)
-        return
+    /*
+     * Progress updates that are held back must not be published after the task has
+     * finished, as they would replace whatever final status the book was given.
+     */
+
+    this.context = context
+    try {
+      val elementQueue = path.elements.toMutableList()
+      while (elementQueue.isNotEmpty()) {
+        try {
+          val pathElement = elementQueue[0]
+          elementQueue.removeAt(0)
+          context.currentOPDSAcquisitionPathElement = pathElement
+          context.currentRemainingOPDSPathElements = elementQueue.toList()
+          val subtaskFactory = this.subtaskFindForPathElement(context, pathElement, book)
+          this.subtaskExecute(subtaskFactory, context, book)
+        } catch (e: BorrowSubtaskHaltedEarly) {
+          this.logger.debug("subtask halted early: ", e)
+          return
+        } catch (e: BorrowSubtaskCancelled) {
+          this.logger.debug("subtask cancelled: ", e)
+          return
+        }
       }
+    } finally {
+      context.progressClose()
     }
   }
 
@@ -378,6 +395,7 @@ class BorrowTask private constructor(
   }
 
   private fun publishBookFailure(book: Book) {
+    this.context?.progressClose()
     val failure = this.taskRecorder.finishFailure<Unit>()
     this.requirements.bookRegistry.update(BookWithStatus(book, BookStatus.FailedLoan(book.id, failure)))
   }
@@ -401,9 +419,21 @@ class BorrowTask private constructor(
     override val axisNowService: AxisNowServiceType?,
     override val services: ServiceDirectoryType,
     private val cacheDirectory: File,
-    private val cancelled: AtomicBoolean
+    private val cancelled: AtomicBoolean,
+    private val onTransferStarted: () -> Unit,
+    progressConfiguration: BorrowProgressConfiguration
   ) : BorrowContextType {
 
+    private val transferStarted =
+      AtomicBoolean(false)
+
+    private val progressPublisher =
+      BorrowProgressPublisher(
+        clock = this.clock,
+        configuration = progressConfiguration,
+        publish = { status -> this.bookRegistry.update(BookWithStatus(this.bookDatabaseEntry.book, status)) }
+      )
+
     override fun cacheDirectory(): File =
       this.cacheDirectory
 
@@ -436,8 +466,11 @@ class BorrowTask private constructor(
       bytesPerSecond: Long?
     ) {
       this.logDebug("downloading: {} {} {}", expectedSize, receivedSize, bytesPerSecond)
+      if (this.transferStarted.compareAndSet(false, true)) {
+        this.onTransferStarted.invoke()
+      }
 
-      this.bookPublishStatus(
+      this.progressPublisher.update(
         BookStatus.Downloading(
           id = this.bookCurrent.id,
           currentTotalBytes = receivedSize,
@@ -447,7 +480,26 @@ class BorrowTask private constructor(
       )
     }
 
+    /**
+     * Discard any progress update that is held back, along with any later updates.
+     */
+
+    fun progressClose() {
+      this.progressPublisher.close()
+    }
+
     override fun bookPublishStatus(status: BookStatus) {
+      /*
+       * Deliver any progress update that was held back before moving on to a new status.
+       */
+
+      this.progressPublisher.flush()
+      val suppressed = this.progressPublisher.suppressed
+      if (suppressed > 0L) {
+        this.logDebug("suppressed {} download progress updates", suppressed)
+        this.taskRecorder.addAttribute("Download progress updates suppressed", suppressed.toString())
+      }
+
       this.bookRegistry.update(BookWithStatus(this.bookDatabaseEntry.book, status))
     }
 
@@ -7,11 +7,14 @@ package org.nypl.simplified.books.borrowing
 interface BorrowTaskFactoryType {
 
   /**
-   * Create a new borrow task. The borrow task may be used at most once.
+   * Create a new borrow task. The borrow task may be used at most once. The task calls
+   * `onTransferStarted` (at most once) when it starts transferring the book itself, after
+   * any loan and fulfilment requests have been made.
    */
 
   fun createBorrowTask(
     requirements: BorrowRequirements,
-    request: BorrowRequest
+    request: BorrowRequest,
+    onTransferStarted: () -> Unit = {}
   ): BorrowTaskType
 }
@@ -158,11 +158,11 @@ class BorrowCopy private constructor() : BorrowSubtaskType {
 
     return when (val formatHandle = context.bookDatabaseEntry.findFormatHandleForContentType(context.currentAcquisitionPathElement.mimeType)) {
       is BookDatabaseEntryFormatHandleEPUB -> {
-        formatHandle.copyInBook(file)
+        formatHandle.moveInBook(file)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandlePDF -> {
-        formatHandle.copyInBook(file)
+        formatHandle.moveInBook(file)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandleAudioBook,
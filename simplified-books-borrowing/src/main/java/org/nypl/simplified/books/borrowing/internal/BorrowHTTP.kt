@@ -5,6 +5,10 @@ import one.irradia.mime.api.MIMECompatibility
 import one.irradia.mime.api.MIMEType
 import org.librarysimplified.http.api.LSHTTPRequestBuilderType.AllowRedirects.ALLOW_UNSAFE_REDIRECTS
 import org.librarysimplified.http.api.LSHTTPRequestProperties
+import org.librarysimplified.http.api.LSHTTPRequestType
+import org.librarysimplified.http.api.LSHTTPResponseProperties
+import org.librarysimplified.http.api.LSHTTPResponseStatus
+import org.librarysimplified.http.api.LSHTTPResponseType
 import org.librarysimplified.http.downloads.LSHTTPDownloadRequest
 import org.librarysimplified.http.downloads.LSHTTPDownloadState
 import org.librarysimplified.http.downloads.LSHTTPDownloadState.DownloadReceiving
@@ -20,7 +24,9 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseEntryFormatHandle
 import org.nypl.simplified.books.borrowing.BorrowContextType
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException
 import org.nypl.simplified.books.borrowing.subtasks.BorrowSubtaskException.BorrowSubtaskFailed
+import org.nypl.simplified.files.HTTPHeaders
 import java.io.File
+import java.io.IOException
 import java.net.URI
 
 /**
@@ -31,35 +37,81 @@ object BorrowHTTP {
 
   /**
    * Create a download request for the given URI, downloading content to the given output file.
-   * Events will be delivered to the given borrow context.
+   * Events will be delivered to the given borrow context. If `onResponseHeaders` is provided,
+   * it receives the headers of the successful response before the body is downloaded.
    */
 
   fun createDownloadRequest(
     context: BorrowContextType,
     target: URI,
     outputFile: File,
-    requestModifier: ((LSHTTPRequestProperties) -> LSHTTPRequestProperties)? = null
+    requestModifier: ((LSHTTPRequestProperties) -> LSHTTPRequestProperties)? = null,
+    onResponseHeaders: ((Map<String, List<String>>) -> Unit)? = null
   ): LSHTTPDownloadRequest {
-    val request =
+    return this.newDownloadRequest(
+      context = context,
+      target = target,
+      outputFile = outputFile,
+      requestModifier = requestModifier,
+      onResponse = onResponseHeaders?.let { onHeaders ->
+        { properties: LSHTTPResponseProperties -> onHeaders.invoke(properties.headers) }
+      },
+      isMIMETypeAcceptable = { type -> this.isMimeTypeAcceptable(context, type) }
+    )
+  }
+
+  private fun newDownloadRequest(
+    context: BorrowContextType,
+    target: URI,
+    outputFile: File,
+    requestModifier: ((LSHTTPRequestProperties) -> LSHTTPRequestProperties)?,
+    headers: Map<String, String> = mapOf(),
+    onResponse: ((LSHTTPResponseProperties) -> Unit)?,
+    isMIMETypeAcceptable: (MIMEType) -> Boolean,
+    progressOffset: () -> Long = { 0L }
+  ): LSHTTPDownloadRequest {
+    val requestBuilt =
       context.httpClient.newRequest(target)
         .setAuthentication(context.account)
         .allowRedirects(ALLOW_UNSAFE_REDIRECTS)
         .apply {
+          for ((name, value) in headers) {
+            addHeader(name, value)
+          }
           if (requestModifier != null) {
             setRequestModifier(requestModifier)
           }
         }
         .build()
 
+    /*
+     * The download API doesn't expose the response, so the request is wrapped in order to
+     * observe the response as it is returned to the download API.
+     */
+
+    val request =
+      if (onResponse != null) {
+        object : LSHTTPRequestType by requestBuilt {
+          override fun execute(): LSHTTPResponseType {
+            val response = requestBuilt.execute()
+            val status = response.status
+            if (status is LSHTTPResponseStatus.Responded.OK) {
+              onResponse.invoke(status.properties)
+            }
+            return response
+          }
+        }
+      } else {
+        requestBuilt
+      }
+
     return LSHTTPDownloadRequest(
       request = request,
       outputFile = outputFile,
       onEvent = {
-        this.onDownloadProgressEvent(context, it)
-      },
-      isMIMETypeAcceptable = {
-        this.isMimeTypeAcceptable(context, it)
+        this.onDownloadProgressEvent(context, it, progressOffset.invoke())
       },
+      isMIMETypeAcceptable = isMIMETypeAcceptable,
       isCancelled = {
         context.isCancelled
       },
@@ -136,20 +188,28 @@ object BorrowHTTP {
     throw BorrowSubtaskFailed()
   }
 
+  /**
+   * Publish download progress to the borrowing context. The given offset is the number of
+   * bytes that were already downloaded before the request began.
+   */
+
   private fun onDownloadProgressEvent(
     context: BorrowContextType,
-    event: LSHTTPDownloadState
+    event: LSHTTPDownloadState,
+    offset: Long
   ) {
     when (event) {
       is DownloadReceiving -> {
+        val receivedSize = offset + event.receivedSize
+        val expectedSize = event.expectedSize?.let { size -> offset + size }
         context.bookDownloadIsRunning(
           message = this.downloadingMessage(
-            expectedSize = event.expectedSize,
-            currentSize = event.receivedSize,
+            expectedSize = expectedSize,
+            currentSize = receivedSize,
             perSecond = event.bytesPerSecond
           ),
-          receivedSize = event.receivedSize,
-          expectedSize = event.expectedSize,
+          receivedSize = receivedSize,
+          expectedSize = expectedSize,
           bytesPerSecond = event.bytesPerSecond
         )
       }
@@ -180,6 +240,12 @@ object BorrowHTTP {
   /**
    * Download the file indicated by the given borrowing context.
    *
+   * Content is downloaded to a partial file that is kept, along with the validators of the
+   * response, if the connection fails or the download is cancelled. A later download of the
+   * same URI for the same book resumes from the end of the partial file using a `Range`
+   * request guarded by `If-Range`, and starts again from the beginning only if the server
+   * indicates that the content has changed.
+   *
    * @param context The borrowing context.
    * @param onDownloadFailedUnacceptableMIME A handler to be called if the downloaded file has a
    * content type that is not acceptable according to the borrowing context. If not provided, a
@@ -200,31 +266,58 @@ object BorrowHTTP {
       context.taskRecorder.beginNewStep("Downloading $currentURI...")
       context.taskRecorder.addAttribute("URI", currentURI.toString())
 
-      val temporaryFile = context.temporaryFile()
+      val partial =
+        BorrowPartialDownload.create(
+          cacheDirectory = context.cacheDirectory(),
+          bookID = context.bookCurrent.id,
+          uri = currentURI
+        )
+
+      /*
+       * The partial file is kept only if the download fails in a way that a later attempt
+       * could recover from.
+       */
 
+      var keepPartial = true
       try {
+        if (this.downloadResume(context, currentURI, partial, requestModifier)) {
+          keepPartial = false
+          this.saveDownloadedContent(context, partial.file)
+          return
+        }
+
+        keepPartial = false
         val downloadRequest =
           createDownloadRequest(
             context = context,
             target = currentURI,
-            outputFile = temporaryFile,
-            requestModifier = requestModifier
+            outputFile = partial.file,
+            requestModifier = requestModifier,
+            onResponseHeaders = partial::saveValidators
           )
 
         when (val result = LSHTTPDownloads.download(downloadRequest)) {
-          DownloadCancelled ->
+          DownloadCancelled -> {
+            keepPartial = true
             throw BorrowSubtaskException.BorrowSubtaskCancelled()
+          }
           is DownloadFailedServer ->
             throw onDownloadFailedServer(context, result)
           is DownloadFailedUnacceptableMIME ->
             onDownloadFailedUnacceptableMIME(context, result)
-          is DownloadFailedExceptionally ->
+          is DownloadFailedExceptionally -> {
+            keepPartial = true
             throw onDownloadFailedExceptionally(context, result)
-          is DownloadCompletedSuccessfully ->
-            this.saveDownloadedContent(context, temporaryFile)
+          }
+          is DownloadCompletedSuccessfully -> {
+            this.recordDownloadedBytes(context, resumed = 0L, fetched = partial.size)
+            this.saveDownloadedContent(context, partial.file)
+          }
         }
       } finally {
-        temporaryFile.delete()
+        if (!keepPartial || partial.validators() == null) {
+          partial.delete()
+        }
       }
     } catch (e: BorrowSubtaskFailed) {
       context.bookDownloadFailed()
@@ -232,6 +325,148 @@ object BorrowHTTP {
     }
   }
 
+  /**
+   * Try to complete the given partial download with a `Range` request.
+   *
+   * @return `true` if the partial file now holds the complete content, or `false` if the
+   * partial file has been discarded and the content must be downloaded from the beginning
+   */
+
+  private fun downloadResume(
+    context: BorrowContextType,
+    target: URI,
+    partial: BorrowPartialDownload,
+    requestModifier: ((LSHTTPRequestProperties) -> LSHTTPRequestProperties)?
+  ): Boolean {
+    val offset = partial.size
+    val ifRange = partial.validators()?.ifRange
+    if (offset == 0L || ifRange == null) {
+      partial.delete()
+      return false
+    }
+
+    context.logDebug("resuming download of {} at byte {}", target, offset)
+
+    /*
+     * A `206 Partial Content` response continues the partial file. A `200 OK` response
+     * means that the content has changed (or that the server doesn't support ranges),
+     * and so the partial file is replaced with the new content. In both cases, the body
+     * is downloaded to the range file, and whatever was received is joined to the partial
+     * file afterwards so that an interrupted request still makes progress.
+     */
+
+    var response: LSHTTPResponseProperties? = null
+    var continues = false
+    var contentLength: Long? = null
+
+    partial.rangeFile.delete()
+    val request =
+      this.newDownloadRequest(
+        context = context,
+        target = target,
+        outputFile = partial.rangeFile,
+        requestModifier = requestModifier,
+        headers = mapOf("Range" to "bytes=$offset-", "If-Range" to ifRange),
+        onResponse = { properties ->
+          val contentRange = this.contentRangeOf(properties.headers)
+          response = properties
+          continues = properties.status == 206 && contentRange?.first == offset
+          contentLength = contentRange?.second
+          if (properties.status == 200) {
+            partial.file.delete()
+            partial.saveValidators(properties.headers)
+          }
+        },
+        isMIMETypeAcceptable = { type ->
+          MIMECompatibility.isCompatibleLax(type, context.currentAcquisitionPathElement.mimeType)
+        },
+        progressOffset = { if (continues) offset else 0L }
+      )
+
+    val result = LSHTTPDownloads.download(request)
+    val responded = response
+    val replaces = responded?.status == 200 && result !is DownloadFailedUnacceptableMIME
+
+    try {
+      when {
+        continues -> partial.appendRange()
+        replaces -> partial.replaceWithRange()
+        responded == null -> partial.rangeFile.delete()
+        else -> {
+          context.logDebug("unable to resume download of {} ({})", target, responded?.status)
+          partial.delete()
+          return false
+        }
+      }
+    } catch (e: IOException) {
+      context.taskRecorder.currentStepFailed(
+        message = e.message ?: "Exception raised whilst saving the download.",
+        errorCode = BorrowErrorCodes.httpConnectionFailed,
+        exception = e
+      )
+      throw BorrowSubtaskFailed()
+    }
+
+    return when (result) {
+      is DownloadCompletedSuccessfully -> {
+        val expected = contentLength
+        if (continues && expected != null && partial.size != expected) {
+          context.taskRecorder.currentStepFailed(
+            message = "The connection was closed after ${partial.size} of $expected bytes.",
+            errorCode = BorrowErrorCodes.httpConnectionFailed
+          )
+          throw BorrowSubtaskFailed()
+        }
+
+        val resumed = if (continues) offset else 0L
+        if (replaces) {
+          context.logDebug("content of {} changed; downloaded again", target)
+        }
+        this.recordDownloadedBytes(context, resumed = resumed, fetched = partial.size - resumed)
+        true
+      }
+      DownloadCancelled ->
+        throw BorrowSubtaskException.BorrowSubtaskCancelled()
+      is DownloadFailedExceptionally ->
+        throw this.onDownloadFailedExceptionally(context, result)
+      is DownloadFailedServer,
+      is DownloadFailedUnacceptableMIME -> {
+        context.logDebug("unable to resume download of {}", target)
+        partial.delete()
+        false
+      }
+    }
+  }
+
+  /**
+   * Parse the first byte position and the complete length (if known) of a
+   * `Content-Range: bytes first-last/length` header.
+   */
+
+  private fun contentRangeOf(
+    headers: Map<String, List<String>>
+  ): Pair<Long, Long?>? {
+    val value =
+      HTTPHeaders.headerOf(headers, "content-range")?.trim() ?: return null
+    if (!value.startsWith("bytes ")) {
+      return null
+    }
+
+    val range = value.removePrefix("bytes ").trim()
+    val first = range.substringBefore('-').trim().toLongOrNull() ?: return null
+    val length = range.substringAfter('/', "*").trim()
+    return Pair(first, if (length == "*") null else length.toLongOrNull())
+  }
+
+  private fun recordDownloadedBytes(
+    context: BorrowContextType,
+    resumed: Long,
+    fetched: Long
+  ) {
+    context.taskRecorder.addAttribute("Download bytes resumed", resumed.toString())
+    context.taskRecorder.addAttribute("Download bytes fetched", fetched.toString())
+  }
+
   private fun saveDownloadedContent(
     context: BorrowContextType,
     temporaryFile: File
@@ -245,11 +480,11 @@ object BorrowHTTP {
 
     return when (formatHandle) {
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandleEPUB -> {
-        formatHandle.copyInBook(temporaryFile)
+        formatHandle.moveInBook(temporaryFile)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandlePDF -> {
-        formatHandle.copyInBook(temporaryFile)
+        formatHandle.moveInBook(temporaryFile)
         context.bookDownloadSucceeded()
       }
       is BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandleAudioBook,
@@ -0,0 +1,170 @@
+package org.nypl.simplified.books.borrowing.internal
+
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.files.Digests
+import org.nypl.simplified.files.DirectoryUtilities
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.files.HTTPValidatorsFile
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.URI
+
+/**
+ * A partially downloaded file for a book and acquisition URI.
+ *
+ * The `ETag` and `Last-Modified` validators of the response that the file was downloaded
+ * from are stored alongside the file so that the download can later be resumed with a
+ * `Range` request guarded by `If-Range`. A partial file without validators can't be
+ * safely resumed. The body of a resumed request is downloaded to a separate range file,
+ * and is joined to the partial file once the request has finished.
+ *
+ * The partial downloads of a book are kept in a directory of their own, so that they
+ * can all be discarded when the book is revoked, deleted, or its failed download is
+ * dismissed.
+ */
+
+class BorrowPartialDownload private constructor(
+  val file: File,
+  val rangeFile: File,
+  private val fileValidators: HTTPValidatorsFile
+) {
+
+  /**
+   * The number of bytes downloaded so far.
+   */
+
+  val size: Long
+    get() = if (this.file.isFile) this.file.length() else 0L
+
+  /**
+   * Load the validators stored for the partial file, if they can be used with `If-Range`.
+   */
+
+  fun validators(): HTTPValidators? =
+    this.fileValidators.load()
+      ?.validators
+      ?.takeIf { validators -> validators.ifRange != null }
+
+  /**
+   * Store the validators found in the given response headers. Headers without usable
+   * validators cause any existing validators to be deleted instead.
+   */
+
+  fun saveValidators(headers: Map<String, List<String>>) {
+    val validators = HTTPValidators.ofHeaders(headers)
+    if (validators.ifRange == null) {
+      this.fileValidators.delete()
+      return
+    }
+
+    try {
+      this.fileValidators.store(validators, mapOf())
+    } catch (e: IOException) {
+      logger.debug("unable to store download validators: ", e)
+    }
+  }
+
+  /**
+   * Append the contents of the range file to the partial file, and delete the range file.
+   */
+
+  @Throws(IOException::class)
+  fun appendRange() {
+    try {
+      if (this.rangeFile.isFile) {
+        FileOutputStream(this.file, true).use { output ->
+          FileInputStream(this.rangeFile).use { input -> input.copyTo(output) }
+        }
+      }
+    } finally {
+      this.rangeFile.delete()
+    }
+  }
+
+  /**
+   * Replace the partial file with the contents of the range file.
+   */
+
+  @Throws(IOException::class)
+  fun replaceWithRange() {
+    if (this.rangeFile.isFile) {
+      FileUtilities.fileRename(this.rangeFile, this.file)
+    } else {
+      this.file.delete()
+    }
+  }
+
+  /**
+   * Delete the partial file, its range file, and its validators.
+   */
+
+  fun delete() {
+    this.file.delete()
+    this.rangeFile.delete()
+    this.fileValidators.delete()
+  }
+
+  companion object {
+
+    private val logger =
+      LoggerFactory.getLogger(BorrowPartialDownload::class.java)
+
+    /**
+     * The name of the directory, relative to the cache directory, that holds partial downloads.
+     */
+
+    private const val DIRECTORY = "downloads"
+
+    private fun directoryFor(
+      cacheDirectory: File,
+      bookID: BookID
+    ): File =
+      File(File(cacheDirectory, DIRECTORY), bookID.toString())
+
+    /**
+     * Find the partial download of the given URI for the given book in the given cache
+     * directory. The partial file need not exist.
+     */
+
+    fun create(
+      cacheDirectory: File,
+      bookID: BookID,
+      uri: URI
+    ): BorrowPartialDownload {
+      val directory = this.directoryFor(cacheDirectory, bookID)
+      directory.mkdirs()
+
+      val name = Digests.sha256Hex(uri.toString().toByteArray())
+
+      return BorrowPartialDownload(
+        file = File(directory, "$name.part"),
+        rangeFile = File(directory, "$name.range"),
+        fileValidators = HTTPValidatorsFile(File(directory, "$name.properties"))
+      )
+    }
+
+    /**
+     * Delete all of the partial downloads of the given book in the given cache directory.
+     */
+
+    fun deleteAll(
+      cacheDirectory: File,
+      bookID: BookID
+    ) {
+      val directory = this.directoryFor(cacheDirectory, bookID)
+      if (!directory.exists()) {
+        return
+      }
+
+      try {
+        DirectoryUtilities.directoryDelete(directory)
+      } catch (e: IOException) {
+        logger.debug("unable to delete partial downloads {}: ", directory, e)
+      }
+    }
+  }
+}
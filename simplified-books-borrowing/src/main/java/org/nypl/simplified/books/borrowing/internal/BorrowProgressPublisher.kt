@@ -0,0 +1,194 @@
+package org.nypl.simplified.books.borrowing.internal
+
+import org.joda.time.Instant
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.borrowing.BorrowProgressConfiguration
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * A publisher that coalesces the download progress updates of a single book.
+ *
+ * The first update is always published. Subsequent updates are published when either the
+ * configured interval has elapsed since the last published update, or the progress has
+ * advanced by the configured amount; otherwise, the update is held back, replacing any
+ * update that was already held back. A held back update is published when the interval
+ * elapses, even if no further updates arrive. An update that completes the download, and
+ * any update held back when [flush] is called, are always published.
+ *
+ * Updates are published with the publisher's lock held, so that an update held back and
+ * published by the scheduler can never be published after a later update. Once [close]
+ * has been called, any held back update and all further updates are discarded, so that
+ * no update can be published after the final status of the download.
+ */
+
+class BorrowProgressPublisher(
+  private val clock: () -> Instant,
+  private val configuration: BorrowProgressConfiguration,
+  private val scheduler: ScheduledExecutorService = SCHEDULER,
+  private val publish: (BookStatus.Downloading) -> Unit
+) {
+
+  private val intervalMilliseconds =
+    this.configuration.intervalUnit.toMillis(this.configuration.interval)
+
+  private val lock = Any()
+
+  /*
+   * All of the following fields are guarded by `lock`.
+   */
+
+  private var published: BookStatus.Downloading? = null
+
+  private var publishedTime: Instant? = null
+
+  private var pending: BookStatus.Downloading? = null
+
+  private var pendingScheduled = false
+
+  private var closed = false
+
+  private var suppressedCount = 0L
+
+  /**
+   * The number of updates that have been held back and then replaced without ever being
+   * published.
+   */
+
+  val suppressed: Long
+    get() = synchronized(this.lock) { this.suppressedCount }
+
+  /**
+   * Submit a progress update.
+   */
+
+  fun update(status: BookStatus.Downloading) {
+    synchronized(this.lock) {
+      if (this.closed) {
+        return
+      }
+
+      val now = this.clock.invoke()
+      if (this.pending != null) {
+        this.suppressedCount += 1
+      }
+
+      if (this.shouldPublish(status, now)) {
+        this.pending = null
+        this.publishNow(status, now)
+      } else {
+        this.pending = status
+        this.schedulePending(now)
+      }
+    }
+  }
+
+  /**
+   * Publish the most recent update, if it was held back.
+   */
+
+  fun flush() {
+    synchronized(this.lock) {
+      val status = this.pending
+      if (status != null && !this.closed) {
+        this.pending = null
+        this.publishNow(status, this.clock.invoke())
+      }
+    }
+  }
+
+  /**
+   * Discard the most recent update, if it was held back, along with any further updates.
+   */
+
+  fun close() {
+    synchronized(this.lock) {
+      if (this.pending != null) {
+        this.suppressedCount += 1
+        this.pending = null
+      }
+      this.closed = true
+    }
+  }
+
+  private fun publishNow(
+    status: BookStatus.Downloading,
+    now: Instant
+  ) {
+    this.published = status
+    this.publishedTime = now
+    this.publish.invoke(status)
+  }
+
+  /**
+   * Arrange for the held back update to be published once the interval has elapsed since
+   * the last published update, if this hasn't already been arranged.
+   */
+
+  private fun schedulePending(now: Instant) {
+    if (this.pendingScheduled) {
+      return
+    }
+
+    val publishedTime = this.publishedTime ?: now
+    val delay =
+      Math.max(0L, this.intervalMilliseconds - (now.millis - publishedTime.millis))
+
+    this.pendingScheduled = true
+    this.scheduler.schedule(
+      {
+        synchronized(this.lock) {
+          this.pendingScheduled = false
+          this.flush()
+        }
+      },
+      delay,
+      TimeUnit.MILLISECONDS
+    )
+  }
+
+  private fun shouldPublish(
+    status: BookStatus.Downloading,
+    now: Instant
+  ): Boolean {
+    val published = this.published
+    val publishedTime = this.publishedTime
+    if (published == null || publishedTime == null) {
+      return true
+    }
+    if (isComplete(status)) {
+      return true
+    }
+    if (now.millis - publishedTime.millis >= this.intervalMilliseconds) {
+      return true
+    }
+
+    val percentNow = status.progressPercent
+    val percentThen = published.progressPercent
+    if (status.expectedTotalBytes == null || percentNow == null || percentThen == null) {
+      return false
+    }
+    return Math.abs(percentNow - percentThen) >= this.configuration.minimumPercentChange
+  }
+
+  private fun isComplete(status: BookStatus.Downloading): Boolean {
+    val expected = status.expectedTotalBytes ?: return false
+    val current = status.currentTotalBytes ?: return false
+    return current >= expected
+  }
+
+  companion object {
+
+    /**
+     * The scheduler used to publish held back updates of all downloads.
+     */
+
+    private val SCHEDULER: ScheduledExecutorService =
+      Executors.newSingleThreadScheduledExecutor { runnable ->
+        val thread = Thread(runnable, "simplified-borrow-progress")
+        thread.isDaemon = true
+        thread
+      }
+  }
+}
@@ -0,0 +1,29 @@
+package org.nypl.simplified.books.controller.api
+
+/**
+ * The lanes on which the books controller runs its tasks. Each lane has its own limit on
+ * the number of tasks that may run at once, so that long-running tasks on one lane can't
+ * delay tasks on another.
+ */
+
+enum class BooksControllerLane {
+
+  /**
+   * Short tasks that the user is typically waiting for, such as logging in, logging out,
+   * revoking or deleting books, dismissing failures, and managing profiles and accounts.
+   */
+
+  INTERACTIVE,
+
+  /**
+   * Synchronization of the books of accounts with the server.
+   */
+
+  SYNC,
+
+  /**
+   * Borrowing books, including downloading their content.
+   */
+
+  TRANSFER
+}
@@ -0,0 +1,46 @@
+package org.nypl.simplified.books.controller.api
+
+/**
+ * A snapshot of the activity of a books controller lane.
+ */
+
+data class BooksControllerLaneMetrics(
+
+  /**
+   * The lane.
+   */
+
+  val lane: BooksControllerLane,
+
+  /**
+   * The number of tasks that have been submitted but have not yet started.
+   */
+
+  val queued: Int,
+
+  /**
+   * The number of tasks that are currently running.
+   */
+
+  val running: Int,
+
+  /**
+   * The number of tasks that have finished, successfully or otherwise.
+   */
+
+  val completed: Long,
+
+  /**
+   * The mean time, in milliseconds, that started tasks waited between submission and
+   * starting.
+   */
+
+  val waitTimeAverageMillis: Long,
+
+  /**
+   * The longest time, in milliseconds, that a started task waited between submission and
+   * starting.
+   */
+
+  val waitTimeMaximumMillis: Long
+)
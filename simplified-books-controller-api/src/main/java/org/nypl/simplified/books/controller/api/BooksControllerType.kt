@@ -108,4 +108,10 @@ interface BooksControllerType {
     accountID: AccountID,
     bookID: BookID
   ): FluentFuture<TaskResult<Unit>>
+
+  /**
+   * @return The current activity of each of the lanes on which the controller runs tasks
+   */
+
+  fun taskLaneMetrics(): Map<BooksControllerLane, BooksControllerLaneMetrics>
 }
@@ -0,0 +1,113 @@
+package org.nypl.simplified.books.controller
+
+import com.google.common.util.concurrent.FluentFuture
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.SettableFuture
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.controller.api.BooksControllerLane
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Executor
+import javax.annotation.concurrent.GuardedBy
+
+/**
+ * A scheduler for tasks that operate on a single account.
+ *
+ * Tasks submitted for the same account run one at a time, in the order in which they were
+ * submitted, whilst tasks for different accounts run concurrently on the lanes of the given
+ * [ControllerTaskScheduler] (and so at most as many accounts are worked on at once on a
+ * lane as the lane's executor has threads).
+ *
+ * A sync that is requested whilst another sync of the same account is still waiting to
+ * start is coalesced with the waiting sync.
+ *
+ * All tasks are submitted with the given shared keys, so that they never run at the same
+ * time as a task whose key is one of them (such as a task that modifies the profile that
+ * owns the accounts).
+ */
+
+class BookSyncScheduler(
+  private val scheduler: ControllerTaskScheduler,
+  private val sharedKeys: Set<Any> = setOf()
+) {
+
+  /**
+   * Create a scheduler that runs all tasks on the given executor.
+   */
+
+  constructor(executor: Executor) : this(ControllerTaskScheduler.withExecutor(executor))
+
+  private val logger =
+    LoggerFactory.getLogger(BookSyncScheduler::class.java)
+
+  private val lock = Any()
+
+  @GuardedBy("lock")
+  private val syncsWaiting =
+    mutableMapOf<AccountID, FluentFuture<TaskResult<Unit>>>()
+
+  /**
+   * Submit a task for the given account to the given lane.
+   */
+
+  fun <A> submit(
+    accountID: AccountID,
+    lane: BooksControllerLane = BooksControllerLane.SYNC,
+    task: () -> A
+  ): FluentFuture<A> {
+    return this.scheduler.submit(lane, accountID, this.sharedKeys, task)
+  }
+
+  /**
+   * Submit a sync task for the given account to the sync lane. If a sync of the account is
+   * already waiting to start, `task` is discarded and the waiting sync's future is
+   * returned instead.
+   */
+
+  fun sync(
+    accountID: AccountID,
+    task: () -> TaskResult<Unit>
+  ): FluentFuture<TaskResult<Unit>> {
+    synchronized(this.lock) {
+      val waiting = this.syncsWaiting[accountID]
+      if (waiting != null) {
+        this.logger.debug("[{}]: sync already waiting, coalescing", accountID)
+        return waiting
+      }
+
+      /*
+       * The future is registered before the task is submitted, as the task may run (and
+       * finish) before the submission returns. The task and the completion listener only
+       * remove the registration if it is still their own.
+       */
+
+      val result = SettableFuture.create<TaskResult<Unit>>()
+      val future = FluentFuture.from(result)
+      this.syncsWaiting[accountID] = future
+
+      val submitted =
+        this.submit(accountID) {
+          this.syncNoLongerWaiting(accountID, future)
+          task.invoke()
+        }
+
+      submitted.addListener({ this.syncNoLongerWaiting(accountID, future) }, MoreExecutors.directExecutor())
+      result.setFuture(submitted)
+      return future
+    }
+  }
+
+  /**
+   * Remove the given sync from the waiting syncs, if it has not already been replaced by
+   * a later sync.
+   */
+
+  private fun syncNoLongerWaiting(
+    accountID: AccountID,
+    future: FluentFuture<TaskResult<Unit>>
+  ) {
+    synchronized(this.lock) {
+      this.syncsWaiting.remove(accountID, future)
+    }
+  }
+}
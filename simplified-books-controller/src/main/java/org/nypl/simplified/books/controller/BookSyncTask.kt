@@ -2,12 +2,14 @@ package org.nypl.simplified.books.controller
 
 import com.io7m.jfunctional.Some
 import org.joda.time.DateTime
+import org.joda.time.Duration
 import org.librarysimplified.http.api.LSHTTPClientType
 import org.librarysimplified.http.api.LSHTTPResponseStatus
 import org.nypl.simplified.accounts.api.AccountAuthenticationCredentials
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountLoginState
 import org.nypl.simplified.accounts.api.AccountProviderAuthenticationDescription
+import org.nypl.simplified.accounts.api.AccountProviderDescription
 import org.nypl.simplified.accounts.api.AccountProviderType
 import org.nypl.simplified.accounts.api.setAuthentication
 import org.nypl.simplified.accounts.database.api.AccountType
@@ -21,8 +23,11 @@ import org.nypl.simplified.books.book_registry.BookWithStatus
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.feeds.api.FeedLoading
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSAvailabilityRevoked
 import org.nypl.simplified.opds.core.OPDSFeedParserType
+import org.nypl.simplified.opds.core.OPDSJSONStreamingSerializer
 import org.nypl.simplified.opds.core.OPDSParseException
 import org.nypl.simplified.opds.core.getOrNull
 import org.nypl.simplified.patron.api.PatronUserProfile
@@ -49,7 +54,8 @@ class BookSyncTask(
   private val feedLoader: FeedLoaderType,
   private val patronParsers: PatronUserProfileParsersType,
   private val http: LSHTTPClientType,
-  private val feedParser: OPDSFeedParserType
+  private val feedParser: OPDSFeedParserType,
+  private val isBookBusy: (BookID) -> Boolean = { false }
 ) : AbstractBookTask(accountID, profileID, profiles) {
 
   override val logger =
@@ -58,6 +64,9 @@ class BookSyncTask(
   override val taskRecorder =
     TaskRecorder.create()
 
+  private val entrySerializer =
+    OPDSJSONStreamingSerializer.newSerializer()
+
   override fun execute(account: AccountType): TaskResult.Success<Unit> {
     this.logger.debug("syncing account {}", account.id)
     this.taskRecorder.beginNewStep("Syncing...")
@@ -73,6 +82,7 @@ class BookSyncTask(
     val credentials = account.loginState.credentials
     if (credentials == null) {
       this.logger.debug("no credentials, aborting!")
+      BookSyncValidators.delete(account.directory)
       this.removeExpiredBooks(account)
       return this.taskRecorder.finishSuccess(Unit)
     }
@@ -87,18 +97,47 @@ class BookSyncTask(
       return this.taskRecorder.finishSuccess(Unit)
     }
 
-    val request =
+    /*
+     * If the loans feed was successfully synced before, and the book database hasn't
+     * changed since, then the server only needs to tell us whether the feed has changed.
+     */
+
+    val validators =
+      BookSyncValidators.load(account.directory)
+        ?.takeIf { validators ->
+          validators.loansURI == loansURI &&
+            validators.booksDigest == BookSyncValidators.digestOf(account.bookDatabase.books())
+        }
+
+    val requestBuilder =
       this.http.newRequest(loansURI)
         .setAuthentication(account)
-        .build()
 
+    if (validators != null) {
+      validators.validators.eTag?.let { requestBuilder.addHeader("If-None-Match", it) }
+      validators.validators.lastModified?.let { requestBuilder.addHeader("If-Modified-Since", it) }
+    }
+
+    val request = requestBuilder.build()
     val response = request.execute()
     return when (val status = response.status) {
       is LSHTTPResponseStatus.Responded.OK -> {
-        this.onHTTPOK(status.bodyStream ?: ByteArrayInputStream(ByteArray(0)), provider, account)
+        if (validators != null && status.properties.status == 304) {
+          this.onHTTPNotModified()
+        } else {
+          val complete =
+            this.onHTTPOK(status.bodyStream ?: ByteArrayInputStream(ByteArray(0)), provider, account)
+          this.storeValidators(account, loansURI, status.properties.headers, complete)
+        }
         this.taskRecorder.finishSuccess(Unit)
       }
       is LSHTTPResponseStatus.Responded.Error -> {
+        if (validators != null && status.properties.status == 304) {
+          this.onHTTPNotModified()
+          return this.taskRecorder.finishSuccess(Unit)
+        }
+
+        BookSyncValidators.delete(account.directory)
         val recovered = this.onHTTPError(status, account)
 
         if (recovered) {
@@ -126,6 +165,10 @@ class BookSyncTask(
     for (existingId in existing) {
       try {
         this.logger.debug("[{}] checking for deletion", existingId.brief())
+        if (this.isBookBusy(existingId)) {
+          this.logger.debug("[{}] has an active task, skipping", existingId.brief())
+          continue
+        }
         val dbEntry = bookDatabase.entry(existingId)
 
         // Only expire Axis books
@@ -186,8 +229,6 @@ class BookSyncTask(
   }
 
   private fun updateAccountProvider(account: AccountType): AccountProviderType {
-    this.logger.debug("resolving the existing account provider")
-
     val oldProvider = account.provider
     var newDescription =
       this.accountRegistry.findAccountProviderDescription(oldProvider.id)
@@ -198,6 +239,19 @@ class BookSyncTask(
       this.logger.debug("found account description for {} in registry", oldProvider.id)
     }
 
+    /*
+     * The account provider is persisted along with the account, so a provider that was
+     * resolved recently doesn't need to be resolved again unless the registry has a newer
+     * description of it.
+     */
+
+    if (this.isProviderFresh(oldProvider, newDescription)) {
+      this.logger.debug("account provider resolved at {} is fresh", oldProvider.updated)
+      return oldProvider
+    }
+
+    this.logger.debug("resolving the existing account provider")
+
     val newProviderResult =
       this.accountRegistry.resolve(
         { accountProvider, message ->
@@ -219,12 +273,58 @@ class BookSyncTask(
     }
   }
 
+  private fun isProviderFresh(
+    provider: AccountProviderType,
+    description: AccountProviderDescription
+  ): Boolean {
+    val now = DateTime.now()
+    if (provider.updated.isAfter(now) || description.updated.isAfter(provider.updated)) {
+      return false
+    }
+    return Duration(provider.updated, now).isShorterThan(PROVIDER_TTL)
+  }
+
+  private fun onHTTPNotModified() {
+    this.logger.debug("loans feed not modified")
+    this.taskRecorder.addAttribute("Loans", "Not modified")
+  }
+
+  /**
+   * Store the validators of a loans feed, if the feed was reconciled with the book
+   * database completely. Otherwise, make sure that the next sync fetches the feed again.
+   */
+
+  private fun storeValidators(
+    account: AccountType,
+    loansURI: URI,
+    headers: Map<String, List<String>>,
+    complete: Boolean
+  ) {
+    if (!complete) {
+      BookSyncValidators.delete(account.directory)
+      return
+    }
+
+    BookSyncValidators.store(
+      account.directory,
+      BookSyncValidators(
+        loansURI = loansURI,
+        validators = HTTPValidators.ofHeaders(headers),
+        booksDigest = BookSyncValidators.digestOf(account.bookDatabase.books())
+      )
+    )
+  }
+
+  /**
+   * @return `true` if every book in the feed was reconciled with the book database
+   */
+
   @Throws(IOException::class)
   private fun onHTTPOK(
     stream: InputStream,
     provider: AccountProviderType,
     account: AccountType
-  ) {
+  ): Boolean {
     return stream.use { ok ->
       this.parseFeed(ok, provider, account)
     }
@@ -235,7 +335,7 @@ class BookSyncTask(
     stream: InputStream,
     provider: AccountProviderType,
     account: AccountType
-  ) {
+  ): Boolean {
     val feed = this.feedParser.parse(provider.loansURI, stream)
 
     /*
@@ -251,19 +351,58 @@ class BookSyncTask(
      * Handle each book in the received feed.
      */
 
+    var written = 0
+    var skipped = 0
+    var deleted = 0
+    var failed = 0
+    var busy = 0
+
     val received = HashSet<BookID>(64)
     val entries = feed.feedEntries
     for (opdsEntry in entries) {
       val bookId = BookID.newFromOPDSAndAccount(opdsEntry.id, accountID)
       received.add(bookId)
-      this.logger.debug("[{}] updating", bookId.brief())
+
+      /*
+       * A book that is being worked on by a book task (such as a borrow that is still
+       * transferring the book) is left to that task, and reconciled by a later sync.
+       */
+
+      if (this.isBookBusy(bookId)) {
+        this.logger.debug("[{}] has an active task, skipping", bookId.brief())
+        ++busy
+        continue
+      }
 
       try {
+        /*
+         * Books that are already in the database, and whose entries have not changed,
+         * don't need to be rewritten or republished. Their statuses are still reset if
+         * they were left behind by a failed or interrupted book task.
+         */
+
+        val current = this.bookRegistry.bookOrNull(bookId)
+        if (existing.contains(bookId) &&
+          current != null &&
+          this.isUnchanged(bookDatabase.entry(bookId).book.entry, opdsEntry)
+        ) {
+          this.logger.debug("[{}] unchanged", bookId.brief())
+          if (this.isTransient(current.status)) {
+            val book = bookDatabase.entry(bookId).book
+            this.bookRegistry.update(BookWithStatus(book, BookStatus.fromBook(book)))
+          }
+          ++skipped
+          continue
+        }
+
+        this.logger.debug("[{}] updating", bookId.brief())
         val databaseEntry = bookDatabase.createOrUpdate(bookId, opdsEntry)
         val book = databaseEntry.book
         this.bookRegistry.update(BookWithStatus(book, BookStatus.fromBook(book)))
+        ++written
       } catch (e: BookDatabaseException) {
         this.logger.error("[{}] unable to update database entry: ", bookId.brief(), e)
+        ++failed
       }
     }
 
@@ -278,6 +417,11 @@ class BookSyncTask(
         this.logger.debug("[{}] checking for deletion", existingId.brief())
 
         if (!received.contains(existingId)) {
+          if (this.isBookBusy(existingId)) {
+            this.logger.debug("[{}] has an active task, skipping", existingId.brief())
+            ++busy
+            continue
+          }
           val dbEntry = bookDatabase.entry(existingId)
           val a = dbEntry.book.entry.availability
           if (a is OPDSAvailabilityRevoked) {
@@ -286,15 +430,29 @@ class BookSyncTask(
             this.logger.debug("[{}] deleting", existingId.brief())
             this.updateRegistryForBook(account, dbEntry)
             dbEntry.delete()
+            ++deleted
           }
         } else {
           this.logger.debug("[{}] keeping", existingId.brief())
         }
       } catch (x: Throwable) {
         this.logger.error("[{}]: unable to delete entry: ", existingId, x)
+        ++failed
       }
     }
 
+    this.logger.debug(
+      "sync: {} written, {} skipped, {} deleted, {} revoking, {} busy",
+      written,
+      skipped,
+      deleted,
+      revoking.size,
+      busy
+    )
+    this.taskRecorder.addAttribute("Books written", written.toString())
+    this.taskRecorder.addAttribute("Books skipped", skipped.toString())
+    this.taskRecorder.addAttribute("Books deleted", deleted.toString())
+
     /*
      * Finish the revocation of any books that need it.
      */
@@ -303,6 +461,62 @@ class BookSyncTask(
       this.logger.debug("[{}] revoking", revoke_id.brief())
       this.booksController.bookRevoke(account.id, revoke_id)
     }
+    return failed == 0 && busy == 0 && revoking.isEmpty()
+  }
+
+  /**
+   * Determine whether the given status was set by a book task (a request in progress, or
+   * a failure) rather than derived from the book itself.
+   */
+
+  private fun isTransient(status: BookStatus): Boolean {
+    return when (status) {
+      is BookStatus.FailedDownload,
+      is BookStatus.FailedLoan,
+      is BookStatus.FailedRevoke,
+      is BookStatus.RequestingDownload,
+      is BookStatus.RequestingLoan,
+      is BookStatus.RequestingRevoke,
+      is BookStatus.Downloading,
+      is BookStatus.DownloadWaitingForExternalAuthentication,
+      is BookStatus.DownloadExternalAuthenticationInProgress ->
+        true
+      is BookStatus.Held,
+      is BookStatus.Holdable,
+      is BookStatus.Loanable,
+      is BookStatus.Loaned,
+      is BookStatus.Revoked ->
+        false
+    }
+  }
+
+  /**
+   * Determine whether a received entry is the same as the stored entry. The `updated`
+   * times are compared first; if they are equal, the entries are compared by their
+   * serialized forms, which is what the book database stores for each entry. Entries
+   * that cannot be compared are assumed to have changed.
+   */
+
+  private fun isUnchanged(
+    stored: OPDSAcquisitionFeedEntry,
+    received: OPDSAcquisitionFeedEntry
+  ): Boolean {
+    if (stored.updated.millis != received.updated.millis) {
+      return false
+    }
+
+    return try {
+      this.serializedFormOf(stored) == this.serializedFormOf(received)
+    } catch (e: Exception) {
+      this.logger.debug("unable to compare entries: ", e)
+      false
+    }
+  }
+
+  private fun serializedFormOf(
+    entry: OPDSAcquisitionFeedEntry
+  ): String {
+    return this.entrySerializer.serializeFeedEntryToString(entry)
   }
 
   private fun updateRegistryForBook(
@@ -357,4 +571,14 @@ class BookSyncTask(
     }
     return false
   }
+
+  companion object {
+
+    /**
+     * The time for which a resolved account provider is used without being resolved again.
+     */
+
+    private val PROVIDER_TTL =
+      Duration.standardHours(4)
+  }
 }
@@ -0,0 +1,105 @@
+package org.nypl.simplified.books.controller
+
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.files.Digests
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.files.HTTPValidatorsFile
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.net.URI
+
+/**
+ * The `ETag` and `Last-Modified` validators of the last loans feed that was successfully
+ * synced for an account.
+ *
+ * The validators are only meaningful if the book database still contains exactly the
+ * books that it contained when the feed was synced, so a digest of the set of book IDs
+ * is stored along with them. The validators are stored in the account directory.
+ */
+
+internal data class BookSyncValidators(
+  val loansURI: URI,
+  val validators: HTTPValidators,
+  val booksDigest: String
+) {
+
+  companion object {
+
+    private val logger =
+      LoggerFactory.getLogger(BookSyncValidators::class.java)
+
+    private fun fileOf(directory: File): HTTPValidatorsFile =
+      HTTPValidatorsFile(File(directory, "loans-validators.properties"))
+
+    /**
+     * Calculate a digest of the given set of books.
+     */
+
+    fun digestOf(books: Set<BookID>): String {
+      val digest = Digests.sha256()
+      for (book in books.map { id -> id.toString() }.sorted()) {
+        digest.update(book.toByteArray())
+        digest.update(0)
+      }
+      return Digests.hexOf(digest.digest())
+    }
+
+    /**
+     * Load the validators stored in the given account directory, if any.
+     */
+
+    fun load(directory: File): BookSyncValidators? {
+      val contents = this.fileOf(directory).load() ?: return null
+      val loansURI = contents.property("loansURI") ?: return null
+      val booksDigest = contents.property("booksDigest") ?: return null
+
+      return try {
+        BookSyncValidators(
+          loansURI = URI.create(loansURI),
+          validators = contents.validators,
+          booksDigest = booksDigest
+        )
+      } catch (e: IllegalArgumentException) {
+        this.logger.debug("unable to load loans validators: ", e)
+        null
+      }
+    }
+
+    /**
+     * Store the given validators in the given account directory. Validators without an
+     * `ETag` or `Last-Modified` value are useless, and cause any existing validators to
+     * be deleted instead.
+     */
+
+    fun store(
+      directory: File,
+      validators: BookSyncValidators
+    ) {
+      if (!validators.validators.isPresent) {
+        this.delete(directory)
+        return
+      }
+
+      try {
+        this.fileOf(directory).store(
+          validators.validators,
+          mapOf(
+            "loansURI" to validators.loansURI.toString(),
+            "booksDigest" to validators.booksDigest
+          )
+        )
+      } catch (e: IOException) {
+        this.logger.debug("unable to store loans validators: ", e)
+      }
+    }
+
+    /**
+     * Delete any validators stored in the given account directory.
+     */
+
+    fun delete(directory: File) {
+      this.fileOf(directory).delete()
+    }
+  }
+}
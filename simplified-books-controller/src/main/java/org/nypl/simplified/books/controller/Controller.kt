@@ -2,9 +2,6 @@ package org.nypl.simplified.books.controller
 
 import com.google.common.collect.ImmutableList
 import com.google.common.util.concurrent.FluentFuture
-import com.google.common.util.concurrent.ListeningExecutorService
-import com.google.common.util.concurrent.MoreExecutors
-import com.google.common.util.concurrent.SettableFuture
 import com.io7m.jfunctional.Some
 import com.io7m.junreachable.UnreachableCodeException
 import io.reactivex.Observable
@@ -15,8 +12,11 @@ import org.librarysimplified.http.api.LSHTTPClientType
 import org.librarysimplified.services.api.ServiceDirectoryType
 import org.nypl.drm.core.AdobeAdeptExecutorType
 import org.nypl.simplified.accounts.api.AccountEvent
+import org.nypl.simplified.accounts.api.AccountEventDeletion
+import org.nypl.simplified.accounts.api.AccountEventLoginStateChanged
 import org.nypl.simplified.accounts.api.AccountEventUpdated
 import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.accounts.api.AccountLoginState
 import org.nypl.simplified.accounts.api.AccountLoginStringResourcesType
 import org.nypl.simplified.accounts.api.AccountLogoutStringResourcesType
 import org.nypl.simplified.accounts.api.AccountProviderResolutionStringsType
@@ -33,12 +33,18 @@ import org.nypl.simplified.books.book_registry.BookWithStatus
 import org.nypl.simplified.books.borrowing.BorrowRequest
 import org.nypl.simplified.books.borrowing.BorrowRequirements
 import org.nypl.simplified.books.borrowing.BorrowTask
+import org.nypl.simplified.books.borrowing.internal.BorrowPartialDownload
 import org.nypl.simplified.books.controller.api.BookRevokeStringResourcesType
+import org.nypl.simplified.books.controller.api.BooksControllerLane
+import org.nypl.simplified.books.controller.api.BooksControllerLane.INTERACTIVE
+import org.nypl.simplified.books.controller.api.BooksControllerLane.TRANSFER
+import org.nypl.simplified.books.controller.api.BooksControllerLaneMetrics
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.crashlytics.api.CrashlyticsServiceType
 import org.nypl.simplified.feeds.api.Feed
 import org.nypl.simplified.feeds.api.FeedEntry
+import org.nypl.simplified.feeds.api.FeedHTTPCache
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.futures.FluentFutureExtensions
 import org.nypl.simplified.futures.FluentFutureExtensions.flatMap
@@ -86,9 +92,28 @@ class Controller private constructor(
   private val accountEvents: Subject<AccountEvent>,
   private val profileEvents: Subject<ProfileEvent>,
   private val services: ServiceDirectoryType,
-  private val taskExecutor: ListeningExecutorService
+  private val taskScheduler: ControllerTaskScheduler
 ) : BooksControllerType, ProfilesControllerType {
 
+  /**
+   * The key under which tasks that modify the profiles database (or the accounts
+   * databases of profiles) are serialized. All account and book tasks hold this key as a
+   * shared key, so that a profile task never runs at the same time as any of them.
+   */
+
+  private object ProfilesKey
+
+  /**
+   * The key under which updates to profile descriptions are serialized. Updates hold
+   * [ProfilesKey] as a shared key, so that they exclude (and are excluded by) profile
+   * tasks, but not account and book tasks, which never read or write descriptions.
+   */
+
+  private object ProfileDescriptionKey
+
+  private val syncScheduler =
+    BookSyncScheduler(this.taskScheduler, setOf(ProfilesKey))
+
   private val borrows: ConcurrentHashMap<BookID, BorrowTask>
 
   private val borrowRequirements: BorrowRequirements
@@ -132,12 +157,18 @@ class Controller private constructor(
     this.services.optionalService(CrashlyticsServiceType::class.java)
   private val metrics =
     this.services.optionalService(MetricServiceType::class.java)
+  private val feedCache =
+    this.services.optionalService(FeedHTTPCache::class.java)
 
   private val temporaryDirectory =
     File(this.cacheDirectory, "tmp")
 
+  private val profileFeedIndex =
+    ProfileFeedIndex.create(this.bookRegistry)
+
   private val accountRegistrySubscription: Disposable
   private val accountSubscription: Disposable
+  private val accountFeedCacheSubscription: Disposable
   private val profileSelectionSubscription: Disposable
   private val profileUpdateSubscription: Disposable
 
@@ -163,6 +194,9 @@ class Controller private constructor(
       this.accountEvents.ofType(AccountEventUpdated::class.java)
         .subscribe(this::onAccountUpdated)
 
+    this.accountFeedCacheSubscription =
+      this.accountEvents.subscribe(this::onAccountEventClearFeedCache)
+
     this.profileUpdateSubscription =
       this.profileEvents.ofType(ProfileUpdated::class.java)
         .subscribe(this::onProfileUpdated)
@@ -190,6 +224,28 @@ class Controller private constructor(
     this.updateCrashlytics()
   }
 
+  /**
+   * Remove the cached feeds of an account when it is logged out or deleted, as they may
+   * have been fetched with the account's credentials.
+   */
+
+  private fun onAccountEventClearFeedCache(event: AccountEvent) {
+    val accountID =
+      when (event) {
+        is AccountEventLoginStateChanged ->
+          if (event.state is AccountLoginState.AccountNotLoggedIn) event.accountID else null
+        is AccountEventDeletion.AccountEventDeletionSucceeded ->
+          event.id
+        else ->
+          null
+      }
+
+    if (accountID != null) {
+      this.logger.debug("[{}]: clearing cached feeds", accountID.uuid)
+      this.feedCache?.clearFor(accountID)
+    }
+  }
+
   private fun onProfileSelectionCompleted(
     event: ProfileSelection.ProfileSelectionCompleted
   ) {
@@ -252,7 +308,7 @@ class Controller private constructor(
     val profileCurrentOpt = this.profiles.currentProfile()
     if (profileCurrentOpt is Some<ProfileType>) {
       val profileCurrent = profileCurrentOpt.get()
-      this.submitTask {
+      this.submitTask(INTERACTIVE, ProfilesKey) {
         ProfileAccountProviderUpdatedTask(
           profile = profileCurrent,
           accountProviderID = event.id,
@@ -264,34 +320,54 @@ class Controller private constructor(
     }
   }
 
-  private fun <A> submitTask(task: () -> A): FluentFuture<A> {
-    val future = SettableFuture.create<A>()
-    this.taskExecutor.execute {
-      try {
-        future.set(task.invoke())
-      } catch (e: Throwable) {
-        this.logger.error("exception raised during task execution: ", e)
-        future.setException(e)
-        throw e
-      }
-    }
-    return FluentFuture.from(future)
-  }
-
-  private fun <A> submitTask(task: Callable<A>): FluentFuture<A> {
-    val future = SettableFuture.create<A>()
-    this.taskExecutor.execute {
-      try {
-        future.set(task.call())
-      } catch (e: Throwable) {
-        this.logger.error("exception raised during task execution: ", e)
-        future.setException(e)
-        throw e
-      }
+  /**
+   * Submit a task to the given lane. Tasks with equal non-null keys run one at a time, in
+   * submission order. Tasks that operate on a single book pass the keys returned by
+   * [bookSharedKeys] so that they never run at the same time as a task for the whole
+   * account, such as a sync, which could otherwise rewrite or delete the book underneath
+   * them, or as a profile task, which could delete the account.
+   */
+
+  private fun <A> submitTask(
+    lane: BooksControllerLane,
+    key: Any?,
+    sharedKeys: Set<Any> = setOf(),
+    task: () -> A
+  ): FluentFuture<A> {
+    return this.taskScheduler.submit(lane, key, sharedKeys, task)
+  }
+
+  private fun <A> submitTask(
+    lane: BooksControllerLane,
+    key: Any?,
+    sharedKeys: Set<Any> = setOf(),
+    task: Callable<A>
+  ): FluentFuture<A> {
+    return this.taskScheduler.submit(lane, key, sharedKeys) { task.call() }
+  }
+
+  private fun bookSharedKeys(accountID: AccountID): Set<Any> =
+    setOf(ProfilesKey, accountID)
+
+  /**
+   * @return A task that runs the given task, and then deletes any partial downloads of the
+   * given book, as they can no longer be resumed
+   */
+
+  private fun <A> discardingPartialDownloads(
+    bookID: BookID,
+    task: Callable<A>
+  ): () -> A = {
+    try {
+      task.call()
+    } finally {
+      BorrowPartialDownload.deleteAll(this.cacheDirectory, bookID)
     }
-    return FluentFuture.from(future)
   }
 
+  override fun taskLaneMetrics(): Map<BooksControllerLane, BooksControllerLaneMetrics> =
+    this.taskScheduler.metrics()
+
   override fun profiles(): SortedMap<ProfileID, ProfileReadableType> {
     return this.castMap(this.profiles.profiles())
   }
@@ -313,7 +389,9 @@ class Controller private constructor(
     profileID: ProfileID
   ): FluentFuture<ProfileDeletionEvent> {
     return this.submitTask(
-      ProfileDeletionTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileDeletionTask(
         this.profiles,
         this.profileEvents,
         profileID
@@ -327,7 +405,9 @@ class Controller private constructor(
     descriptionUpdate: (ProfileDescription) -> ProfileDescription
   ): FluentFuture<ProfileCreationEvent> {
     return this.submitTask(
-      ProfileCreationTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileCreationTask(
         displayName = displayName,
         profiles = this.profiles,
         profileEvents = this.profileEvents,
@@ -341,7 +421,9 @@ class Controller private constructor(
     profileID: ProfileID
   ): FluentFuture<Unit> {
     return this.submitTask(
-      ProfileSelectionTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileSelectionTask(
         analytics = this.analytics,
         bookRegistry = this.bookRegistry,
         events = this.profileEvents,
@@ -354,7 +436,7 @@ class Controller private constructor(
   override fun profileAccountLogin(
     request: ProfileAccountLoginRequest
   ): FluentFuture<TaskResult<Unit>> {
-    return this.submitTask { this.runProfileAccountLogin(request) }
+    return this.syncScheduler.submit(request.accountId, INTERACTIVE) { this.runProfileAccountLogin(request) }
       .flatMap { result -> this.runSyncIfLoginSucceeded(result, request.accountId) }
   }
 
@@ -394,7 +476,9 @@ class Controller private constructor(
     provider: URI
   ): FluentFuture<TaskResult<AccountType>> {
     return this.submitTask(
-      ProfileAccountCreateOrReturnExistingTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileAccountCreateOrReturnExistingTask(
         accountEvents = this.accountEvents,
         accountProviderID = provider,
         accountProviders = this.accountProviders,
@@ -409,7 +493,9 @@ class Controller private constructor(
     opdsFeed: URI
   ): FluentFuture<TaskResult<AccountType>> {
     return this.submitTask(
-      ProfileAccountCreateCustomOPDSTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileAccountCreateCustomOPDSTask(
         accountEvents = this.accountEvents,
         accountProviderRegistry = this.accountProviders,
         httpClient = this.lsHttp,
@@ -426,7 +512,9 @@ class Controller private constructor(
     provider: URI
   ): FluentFuture<TaskResult<AccountType>> {
     return this.submitTask(
-      ProfileAccountCreateTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileAccountCreateTask(
         accountEvents = this.accountEvents,
         accountProviderID = provider,
         accountProviders = this.accountProviders,
@@ -441,7 +529,9 @@ class Controller private constructor(
     provider: URI
   ): FluentFuture<TaskResult<Unit>> {
     return this.submitTask(
-      ProfileAccountDeleteTask(
+      lane = INTERACTIVE,
+      key = ProfilesKey,
+      task = ProfileAccountDeleteTask(
         accountEvents = this.accountEvents,
         accountProviderID = provider,
         profiles = this.profiles,
@@ -476,7 +566,7 @@ class Controller private constructor(
   override fun profileAccountLogout(
     accountID: AccountID
   ): FluentFuture<TaskResult<Unit>> {
-    return this.submitTask {
+    return this.syncScheduler.submit(accountID, INTERACTIVE) {
       val profile = this.profileCurrent()
       val account = profile.account(accountID)
       ProfileAccountLogoutTask(
@@ -496,7 +586,10 @@ class Controller private constructor(
     update: (ProfileDescription) -> ProfileDescription
   ): FluentFuture<ProfileUpdated> {
     return this.submitTask(
-      ProfileUpdateTask(
+      lane = INTERACTIVE,
+      key = ProfileDescriptionKey,
+      sharedKeys = setOf(ProfilesKey),
+      task = ProfileUpdateTask(
         this.profileEvents,
         requestedProfileId = null,
         profiles = this.profiles,
@@ -510,7 +603,10 @@ class Controller private constructor(
     update: (ProfileDescription) -> ProfileDescription
   ): FluentFuture<ProfileUpdated> {
     return this.submitTask(
-      ProfileUpdateTask(
+      lane = INTERACTIVE,
+      key = ProfileDescriptionKey,
+      sharedKeys = setOf(ProfilesKey),
+      task = ProfileUpdateTask(
         this.profileEvents,
         requestedProfileId = profile,
         profiles = this.profiles,
@@ -524,9 +620,11 @@ class Controller private constructor(
     request: ProfileFeedRequest
   ): FluentFuture<Feed.FeedWithoutGroups> {
     return this.submitTask(
-      ProfileFeedTask(
+      lane = INTERACTIVE,
+      key = null,
+      task = ProfileFeedTask(
         bookFormatSupport = this.bookFormatSupport,
-        bookRegistry = this.bookRegistry,
+        bookIndex = this.profileFeedIndex,
         profiles = this,
         request = request
       )
@@ -552,18 +650,29 @@ class Controller private constructor(
     accountID: AccountID,
     entry: OPDSAcquisitionFeedEntry
   ): FluentFuture<TaskResult<*>> {
-    return this.submitTask(
-      Callable<TaskResult<*>> {
-        val request =
-          BorrowRequest.Start(
-            accountId = accountID,
-            profileId = this.profileCurrent().id,
-            opdsAcquisitionFeedEntry = entry
-          )
-        BorrowTask.createBorrowTask(this.borrowRequirements, request)
-          .execute()
-      }
-    )
+    /*
+     * The account key is only needed whilst the loan and fulfilment requests are made;
+     * the (possibly lengthy) transfer of the book itself doesn't need to hold up logins,
+     * logouts, and syncs of the account. Syncs leave alone any book with an active task.
+     */
+
+    return this.taskScheduler.submitReleasing(
+      lane = TRANSFER,
+      key = BookID.newFromOPDSAndAccount(entry.id, accountID),
+      sharedKeys = this.bookSharedKeys(accountID)
+    ) { release ->
+      val request =
+        BorrowRequest.Start(
+          accountId = accountID,
+          profileId = this.profileCurrent().id,
+          opdsAcquisitionFeedEntry = entry
+        )
+      BorrowTask.createBorrowTask(
+        requirements = this.borrowRequirements,
+        request = request,
+        onTransferStarted = { release.release(accountID) }
+      ).execute()
+    }
   }
 
   override fun bookBorrowFailedDismiss(
@@ -571,12 +680,18 @@ class Controller private constructor(
     bookID: BookID
   ) {
     this.submitTask(
-      BookBorrowFailedDismissTask(
-        accountID = accountID,
-        profileID = this.profileCurrent().id,
-        profiles = this.profiles,
+      lane = INTERACTIVE,
+      key = bookID,
+      sharedKeys = this.bookSharedKeys(accountID),
+      task = this.discardingPartialDownloads(
         bookID = bookID,
-        bookRegistry = this.bookRegistry,
+        task = BookBorrowFailedDismissTask(
+          accountID = accountID,
+          profileID = this.profileCurrent().id,
+          profiles = this.profiles,
+          bookID = bookID,
+          bookRegistry = this.bookRegistry,
+        )
       )
     )
   }
@@ -599,10 +714,11 @@ class Controller private constructor(
   override fun booksSync(
     accountID: AccountID
   ): FluentFuture<TaskResult<Unit>> {
-    return this.submitTask(
+    val profileID = this.profileCurrent().id
+    return this.syncScheduler.sync(accountID) {
       BookSyncTask(
         accountID = accountID,
-        profileID = this.profileCurrent().id,
+        profileID = profileID,
         profiles = this.profiles,
         accountRegistry = this.accountProviders,
         bookRegistry = this.bookRegistry,
@@ -610,9 +726,10 @@ class Controller private constructor(
         feedParser = this.feedParser,
         feedLoader = this.feedLoader,
         patronParsers = this.patronUserProfileParsers,
-        http = this.lsHttp
-      )
-    )
+        http = this.lsHttp,
+        isBookBusy = this.taskScheduler::isActive
+      ).call()
+    }
   }
 
   override fun bookRevoke(
@@ -621,15 +738,21 @@ class Controller private constructor(
   ): FluentFuture<TaskResult<Unit>> {
     this.publishRequestingDelete(bookId)
     return this.submitTask(
-      BookRevokeTask(
-        accountID = accountID,
-        profileID = this.profileCurrent().id,
-        profiles = this.profiles,
-        adobeDRM = this.adobeDrm,
+      lane = INTERACTIVE,
+      key = bookId,
+      sharedKeys = this.bookSharedKeys(accountID),
+      task = this.discardingPartialDownloads(
         bookID = bookId,
-        bookRegistry = this.bookRegistry,
-        feedLoader = this.feedLoader,
-        revokeStrings = this.revokeStrings
+        task = BookRevokeTask(
+          accountID = accountID,
+          profileID = this.profileCurrent().id,
+          profiles = this.profiles,
+          adobeDRM = this.adobeDrm,
+          bookID = bookId,
+          bookRegistry = this.bookRegistry,
+          feedLoader = this.feedLoader,
+          revokeStrings = this.revokeStrings
+        )
       )
     )
   }
@@ -640,12 +763,18 @@ class Controller private constructor(
   ): FluentFuture<TaskResult<Unit>> {
     this.publishRequestingDelete(bookId)
     return this.submitTask(
-      BookDeleteTask(
-        accountID = accountID,
-        profileID = this.profileCurrent().id,
-        profiles = this.profiles,
+      lane = INTERACTIVE,
+      key = bookId,
+      sharedKeys = this.bookSharedKeys(accountID),
+      task = this.discardingPartialDownloads(
         bookID = bookId,
-        bookRegistry = this.bookRegistry,
+        task = BookDeleteTask(
+          accountID = accountID,
+          profileID = this.profileCurrent().id,
+          profiles = this.profiles,
+          bookID = bookId,
+          bookRegistry = this.bookRegistry,
+        )
       )
     )
   }
@@ -666,7 +795,10 @@ class Controller private constructor(
     bookID: BookID
   ): FluentFuture<TaskResult<Unit>> {
     return this.submitTask(
-      BookRevokeFailedDismissTask(
+      lane = INTERACTIVE,
+      key = bookID,
+      sharedKeys = this.bookSharedKeys(accountID),
+      task = BookRevokeFailedDismissTask(
         accountID = accountID,
         profileID = this.profileCurrent().id,
         profiles = this.profiles,
@@ -690,19 +822,37 @@ class Controller private constructor(
 
   companion object {
 
+    /**
+     * Create a new controller. Book syncs run on `syncExecutorService`, borrows and
+     * downloads run on `transferExecutorService`, and all other tasks run on
+     * `executorService`; each executor's thread count limits the number of tasks that
+     * run at once on its lane. Tasks for the same account (logins, logouts and syncs) or
+     * the same book run one at a time regardless of lane.
+     *
+     * @see BooksControllerLane
+     */
+
     fun createFromServiceDirectory(
       services: ServiceDirectoryType,
       executorService: ExecutorService,
       accountEvents: Subject<AccountEvent>,
       profileEvents: Subject<ProfileEvent>,
-      cacheDirectory: File
+      cacheDirectory: File,
+      syncExecutorService: ExecutorService = executorService,
+      transferExecutorService: ExecutorService = executorService
     ): Controller {
       return Controller(
         cacheDirectory = cacheDirectory,
         accountEvents = accountEvents,
         profileEvents = profileEvents,
         services = services,
-        taskExecutor = MoreExecutors.listeningDecorator(executorService)
+        taskScheduler = ControllerTaskScheduler(
+          mapOf(
+            BooksControllerLane.INTERACTIVE to executorService,
+            BooksControllerLane.SYNC to syncExecutorService,
+            BooksControllerLane.TRANSFER to transferExecutorService
+          )
+        )
       )
     }
   }
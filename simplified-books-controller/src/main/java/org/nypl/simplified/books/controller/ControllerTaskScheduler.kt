@@ -0,0 +1,325 @@
+package org.nypl.simplified.books.controller
+
+import com.google.common.util.concurrent.FluentFuture
+import com.google.common.util.concurrent.SettableFuture
+import org.nypl.simplified.books.controller.api.BooksControllerLane
+import org.nypl.simplified.books.controller.api.BooksControllerLaneMetrics
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.concurrent.GuardedBy
+
+/**
+ * A scheduler for controller tasks.
+ *
+ * Each [BooksControllerLane] runs its tasks on its own executor, and so at most as many
+ * tasks run at once on a lane as that lane's executor has threads. A task may additionally
+ * be submitted with a key (such as an account or book ID): tasks with equal keys run one
+ * at a time, in the order in which they were submitted, even if they were submitted to
+ * different lanes.
+ *
+ * A task may also be submitted with a set of shared keys. Tasks with equal shared keys may
+ * run concurrently, but never at the same time as a task whose key is one of their shared
+ * keys. This allows, for example, tasks that operate on individual books of an account to
+ * run concurrently with each other whilst excluding tasks that operate on the whole account.
+ * A task never starts before an earlier submitted task that it conflicts with. A running
+ * task may release its shared keys early (see [submitReleasing]) once it no longer needs
+ * to exclude the tasks that hold them.
+ */
+
+class ControllerTaskScheduler(
+  executors: Map<BooksControllerLane, Executor>
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(ControllerTaskScheduler::class.java)
+
+  private class Lane(
+    val lane: BooksControllerLane,
+    val executor: Executor
+  ) {
+    val queued = AtomicInteger(0)
+    val running = AtomicInteger(0)
+    val completed = AtomicLong(0L)
+    val started = AtomicLong(0L)
+    val waitTotalNanos = AtomicLong(0L)
+    val waitMaximumNanos = AtomicLong(0L)
+
+    fun metrics(): BooksControllerLaneMetrics {
+      val startedNow = this.started.get()
+      val waitAverage =
+        if (startedNow == 0L) 0L else this.waitTotalNanos.get() / startedNow
+
+      return BooksControllerLaneMetrics(
+        lane = this.lane,
+        queued = this.queued.get(),
+        running = this.running.get(),
+        completed = this.completed.get(),
+        waitTimeAverageMillis = TimeUnit.NANOSECONDS.toMillis(waitAverage),
+        waitTimeMaximumMillis = TimeUnit.NANOSECONDS.toMillis(this.waitMaximumNanos.get())
+      )
+    }
+  }
+
+  /**
+   * A function that a running task may call to release one of its shared keys, allowing
+   * tasks that are waiting for that key to start whilst the task continues to run.
+   */
+
+  fun interface SharedKeyRelease {
+    fun release(sharedKey: Any)
+  }
+
+  private class Pending(
+    val lane: Lane,
+    val key: Any?,
+    sharedKeys: Set<Any>,
+    val timeSubmitted: Long,
+    val onRejected: (Throwable) -> Unit
+  ) {
+    val isKeyed: Boolean =
+      this.key != null || sharedKeys.isNotEmpty()
+
+    /**
+     * The shared keys that the task still holds. Guarded by the scheduler's lock.
+     */
+
+    var sharedKeys: Set<Any> =
+      sharedKeys
+
+    lateinit var task: Runnable
+
+    /**
+     * @return `true` if this task and `other` must not run at the same time
+     */
+
+    fun conflictsWith(other: Pending): Boolean {
+      val key = this.key
+      val otherKey = other.key
+      if (key != null && (key == otherKey || other.sharedKeys.contains(key))) {
+        return true
+      }
+      return otherKey != null && this.sharedKeys.contains(otherKey)
+    }
+  }
+
+  private val lanes: Map<BooksControllerLane, Lane> =
+    BooksControllerLane.values().associate { lane ->
+      val executor =
+        executors[lane] ?: throw IllegalArgumentException("No executor provided for lane $lane")
+      Pair(lane, Lane(lane, executor))
+    }
+
+  private val lock = Any()
+
+  /**
+   * The keyed tasks that have been dispatched to a lane and have not yet finished.
+   */
+
+  @GuardedBy("lock")
+  private val active =
+    mutableListOf<Pending>()
+
+  /**
+   * The keyed tasks waiting for a conflicting task to finish, in submission order.
+   */
+
+  @GuardedBy("lock")
+  private val blocked =
+    mutableListOf<Pending>()
+
+  /**
+   * Submit a task to the given lane. If `key` is not `null`, the task will not start until
+   * all previously submitted tasks with an equal key, or with `key` as one of their shared
+   * keys, have finished. The task will not start until all previously submitted tasks whose
+   * key is one of `sharedKeys` have finished.
+   */
+
+  fun <A> submit(
+    lane: BooksControllerLane,
+    key: Any?,
+    sharedKeys: Set<Any> = setOf(),
+    task: () -> A
+  ): FluentFuture<A> {
+    return this.submitReleasing(lane, key, sharedKeys) { task.invoke() }
+  }
+
+  /**
+   * Submit a task to the given lane, as with [submit]. The task is passed a function with
+   * which it can release any of its shared keys before it finishes.
+   */
+
+  fun <A> submitReleasing(
+    lane: BooksControllerLane,
+    key: Any?,
+    sharedKeys: Set<Any> = setOf(),
+    task: (SharedKeyRelease) -> A
+  ): FluentFuture<A> {
+    val future = SettableFuture.create<A>()
+    val laneState = this.lanes.getValue(lane)
+    laneState.queued.incrementAndGet()
+
+    val pending =
+      Pending(
+        lane = laneState,
+        key = key,
+        sharedKeys = sharedKeys,
+        timeSubmitted = System.nanoTime(),
+        onRejected = { e -> future.setException(e) }
+      )
+
+    val release = SharedKeyRelease { sharedKey -> this.releaseSharedKey(pending, sharedKey) }
+    pending.task = Runnable {
+      try {
+        future.set(task.invoke(release))
+      } catch (e: Throwable) {
+        this.logger.error("[{}]: exception raised during task execution: ", lane, e)
+        future.setException(e)
+      }
+    }
+
+    if (pending.isKeyed) {
+      synchronized(this.lock) {
+        val conflicting =
+          this.active.any(pending::conflictsWith) || this.blocked.any(pending::conflictsWith)
+        if (conflicting) {
+          this.blocked.add(pending)
+          return FluentFuture.from(future)
+        }
+        this.active.add(pending)
+      }
+    }
+
+    this.dispatch(pending)
+    return FluentFuture.from(future)
+  }
+
+  /**
+   * @return `true` if a task with the given key has started and has not yet finished
+   */
+
+  fun isActive(key: Any): Boolean =
+    synchronized(this.lock) { this.active.any { pending -> pending.key == key } }
+
+  /**
+   * @return The current activity of each lane
+   */
+
+  fun metrics(): Map<BooksControllerLane, BooksControllerLaneMetrics> =
+    this.lanes.mapValues { entry -> entry.value.metrics() }
+
+  /**
+   * Dispatch the given task to its lane's executor. If the executor rejects the task, the
+   * task fails and is treated as finished, so that later tasks with the same keys can
+   * still run.
+   */
+
+  private fun dispatch(pending: Pending) {
+    try {
+      pending.lane.executor.execute { this.run(pending) }
+    } catch (e: RejectedExecutionException) {
+      this.logger.error("[{}]: task rejected: ", pending.lane.lane, e)
+      pending.lane.queued.decrementAndGet()
+      pending.onRejected.invoke(e)
+      if (pending.isKeyed) {
+        this.release(pending)
+      }
+    }
+  }
+
+  private fun run(pending: Pending) {
+    val lane = pending.lane
+    val waited = System.nanoTime() - pending.timeSubmitted
+    lane.queued.decrementAndGet()
+    lane.running.incrementAndGet()
+    lane.started.incrementAndGet()
+    lane.waitTotalNanos.addAndGet(waited)
+    while (true) {
+      val maximum = lane.waitMaximumNanos.get()
+      if (waited <= maximum || lane.waitMaximumNanos.compareAndSet(maximum, waited)) {
+        break
+      }
+    }
+
+    try {
+      pending.task.run()
+    } finally {
+      lane.running.decrementAndGet()
+      lane.completed.incrementAndGet()
+      if (pending.isKeyed) {
+        this.release(pending)
+      }
+    }
+  }
+
+  /**
+   * Mark the given task as finished, and dispatch any blocked tasks that no longer
+   * conflict with an active task or with an earlier blocked task.
+   */
+
+  private fun release(pending: Pending) {
+    synchronized(this.lock) {
+      this.active.remove(pending)
+    }
+    this.dispatchUnblocked()
+  }
+
+  /**
+   * Release one of the shared keys of the given running task.
+   */
+
+  private fun releaseSharedKey(
+    pending: Pending,
+    sharedKey: Any
+  ) {
+    synchronized(this.lock) {
+      if (!pending.sharedKeys.contains(sharedKey)) {
+        return
+      }
+      pending.sharedKeys = pending.sharedKeys.minus(sharedKey)
+    }
+    this.dispatchUnblocked()
+  }
+
+  /**
+   * Dispatch any blocked tasks that no longer conflict with an active task or with an
+   * earlier blocked task.
+   */
+
+  private fun dispatchUnblocked() {
+    val ready =
+      synchronized(this.lock) {
+        val ready = mutableListOf<Pending>()
+        val iterator = this.blocked.listIterator()
+        val stillBlocked = mutableListOf<Pending>()
+        while (iterator.hasNext()) {
+          val next = iterator.next()
+          if (this.active.none(next::conflictsWith) && stillBlocked.none(next::conflictsWith)) {
+            iterator.remove()
+            this.active.add(next)
+            ready.add(next)
+          } else {
+            stillBlocked.add(next)
+          }
+        }
+        ready
+      }
+
+    for (next in ready) {
+      this.dispatch(next)
+    }
+  }
+
+  companion object {
+
+    /**
+     * Create a scheduler that runs the tasks of all lanes on the same executor.
+     */
+
+    fun withExecutor(executor: Executor): ControllerTaskScheduler =
+      ControllerTaskScheduler(BooksControllerLane.values().associate { lane -> Pair(lane, executor) })
+  }
+}
@@ -17,26 +17,34 @@ class ProfileDataLoadTask(
   override fun run() {
     try {
       this.logger.debug("load: profile {}", this.profile.displayName)
-      this.logger.debug("clearing the book registry")
-      this.bookRegistry.clear()
 
+      /*
+       * Load every book before touching the registry, and then replace the contents
+       * of the registry in one step so that subscribers see a single snapshot event
+       * rather than an event for every book in every account.
+       */
+
+      val loaded = mutableListOf<BookWithStatus>()
       val accounts = this.profile.accounts()
       for (account in accounts.values) {
         this.logger.debug("load: profile {} / account {}", this.profile.displayName, account.id)
         val books = account.bookDatabase
         val bookIDs = books.books()
-        this.logger.debug("load: updating {} books", bookIDs.size)
+        this.logger.debug("load: loading {} books", bookIDs.size)
         for (bookId in bookIDs) {
           try {
             val entry = books.entry(bookId)
             val book = entry.book
             val status = BookStatus.fromBook(book)
-            this.bookRegistry.update(BookWithStatus(book, status))
+            loaded.add(BookWithStatus(book, status))
           } catch (e: BookDatabaseException) {
             this.logger.error("load: could not load book {}: ", bookId, e)
           }
         }
       }
+
+      this.logger.debug("load: replacing the book registry with {} books", loaded.size)
+      this.bookRegistry.replaceAll(loaded)
     } finally {
       this.logger.debug("load: profile {} loaded", this.profile.displayName)
     }
@@ -0,0 +1,345 @@
+package org.nypl.simplified.books.controller
+
+import io.reactivex.disposables.Disposable
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_registry.BookRegistryReadableType
+import org.nypl.simplified.books.book_registry.BookStatusEvent
+import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.feeds.api.FeedFacet.FeedFacetPseudo.Sorting.SortBy
+import org.slf4j.LoggerFactory
+import java.text.CollationKey
+import java.text.Collator
+import java.text.Normalizer
+import java.util.Locale
+import java.util.TreeMap
+import java.util.TreeSet
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * An in-memory index of the books in a book registry, used to search and sort the
+ * local book feeds without scanning and sorting every book on each request.
+ *
+ * Each book is indexed by the words of its title and authors, folded to a
+ * case-insensitive and accent-insensitive form, so that a search term matches any
+ * book that has a word starting with that term. Books are also kept in title order
+ * and author order using collation keys for the given locale.
+ *
+ * The index follows the registry's events. Each event causes the affected books to
+ * be reindexed from the registry's current contents, so the index converges on the
+ * registry's contents regardless of the order in which events are delivered. The
+ * registry does not publish events for changes that leave a book's status unchanged,
+ * so searches always return the registry's current version of each book, and books
+ * whose titles or authors turn out to have changed are reindexed after the search.
+ */
+
+class ProfileFeedIndex private constructor(
+  private val bookRegistry: BookRegistryReadableType,
+  private val locale: Locale
+) : AutoCloseable {
+
+  private val logger =
+    LoggerFactory.getLogger(ProfileFeedIndex::class.java)
+
+  private class Indexed(
+    val id: BookID,
+    val title: String,
+    val authors: List<String>,
+    val titleKey: CollationKey,
+    val authorKey: CollationKey?,
+    val words: Set<String>
+  ) {
+    fun isCurrentFor(book: BookWithStatus): Boolean {
+      val entry = book.book.entry
+      return entry.title == this.title && entry.authors == this.authors
+    }
+  }
+
+  /*
+   * The collator is not thread-safe, and is only used while the write lock is held.
+   */
+
+  private val collator =
+    Collator.getInstance(this.locale)
+
+  private val lock =
+    ReentrantReadWriteLock()
+
+  private val books =
+    HashMap<BookID, Indexed>()
+  private val words =
+    TreeMap<String, MutableSet<BookID>>()
+
+  private val byTitle =
+    TreeSet<Indexed>(
+      Comparator { book0, book1 ->
+        val c = book0.titleKey.compareTo(book1.titleKey)
+        if (c != 0) c else book0.id.compareTo(book1.id)
+      }
+    )
+
+  /*
+   * Books without authors are placed after all books with authors.
+   */
+
+  private val byAuthor =
+    TreeSet<Indexed>(
+      Comparator { book0, book1 ->
+        val key0 = book0.authorKey
+        val key1 = book1.authorKey
+        val c =
+          when {
+            key0 == null && key1 == null -> 0
+            key0 == null -> 1
+            key1 == null -> -1
+            else -> key0.compareTo(key1)
+          }
+        if (c != 0) c else book0.id.compareTo(book1.id)
+      }
+    )
+
+  private lateinit var subscription: Disposable
+
+  private fun start(): ProfileFeedIndex {
+    this.subscription =
+      this.bookRegistry.bookEvents()
+        .subscribe(this::onBookStatusEvent)
+    this.reindexAll()
+    return this
+  }
+
+  private fun onBookStatusEvent(event: BookStatusEvent) {
+    try {
+      when (event) {
+        is BookStatusEvent.BookStatusEventForBook ->
+          this.reindex(event.bookId)
+        is BookStatusEvent.BookStatusEventSnapshot ->
+          this.reindexAll()
+      }
+    } catch (e: Exception) {
+      this.logger.error("failed to update feed index: ", e)
+    }
+  }
+
+  private fun reindex(id: BookID) {
+    this.lock.write {
+      this.update(id, this.bookRegistry.bookOrNull(id))
+    }
+  }
+
+  private fun reindexAll() {
+    this.lock.write {
+      val current = this.bookRegistry.books()
+      for (id in this.books.keys.toList()) {
+        if (!current.containsKey(id)) {
+          this.update(id, null)
+        }
+      }
+      for ((id, book) in current) {
+        this.update(id, book)
+      }
+      this.logger.debug("indexed {} books", this.books.size)
+    }
+  }
+
+  /**
+   * Replace the indexed book with the given ID. Must be called with the write lock held.
+   */
+
+  private fun update(
+    id: BookID,
+    book: BookWithStatus?
+  ) {
+    val existing = this.books[id]
+
+    /*
+     * Most changes to books are changes of status, and don't require the book to be
+     * reindexed.
+     */
+
+    if (existing != null && book != null && existing.isCurrentFor(book)) {
+      return
+    }
+
+    if (existing != null) {
+      this.books.remove(id)
+      this.byTitle.remove(existing)
+      this.byAuthor.remove(existing)
+      for (word in existing.words) {
+        val ids = this.words[word] ?: continue
+        ids.remove(id)
+        if (ids.isEmpty()) {
+          this.words.remove(word)
+        }
+      }
+    }
+
+    if (book != null) {
+      val indexed = this.indexedOf(book)
+      this.books[id] = indexed
+      this.byTitle.add(indexed)
+      this.byAuthor.add(indexed)
+      for (word in indexed.words) {
+        this.words.getOrPut(word) { HashSet() }.add(id)
+      }
+    }
+  }
+
+  private fun indexedOf(book: BookWithStatus): Indexed {
+    val entry = book.book.entry
+    val title = entry.title
+    val authors = entry.authors.toList()
+
+    val words = HashSet<String>()
+    words.addAll(this.wordsOf(title))
+    for (author in authors) {
+      words.addAll(this.wordsOf(author))
+    }
+
+    return Indexed(
+      id = book.book.id,
+      title = title,
+      authors = authors,
+      titleKey = this.collator.getCollationKey(title),
+      authorKey = authors.firstOrNull()?.let(this.collator::getCollationKey),
+      words = words
+    )
+  }
+
+  /**
+   * Split the given text into folded words.
+   */
+
+  private fun wordsOf(text: String): List<String> {
+    return this.fold(text)
+      .split(WORD_SEPARATOR)
+      .filter { word -> word.isNotEmpty() }
+  }
+
+  /**
+   * Fold the given text to a form that ignores case and accents.
+   */
+
+  private fun fold(text: String): String {
+    return Normalizer.normalize(text, Normalizer.Form.NFD)
+      .replace(COMBINING_MARKS, "")
+      .toLowerCase(this.locale)
+  }
+
+  /**
+   * Find the books that match the given search, in the given order. A book matches if
+   * any of the words of the search is a prefix of a word in the book's title or
+   * authors, or if the search contains no words. Only books accepted by `filter` are
+   * returned.
+   */
+
+  fun search(
+    search: String?,
+    sortBy: SortBy,
+    filter: (BookWithStatus) -> Boolean
+  ): List<BookWithStatus> {
+    val terms = if (search != null) this.wordsOf(search) else listOf()
+    val candidates = this.lock.read { this.candidatesFor(terms, sortBy) }
+
+    val results = ArrayList<BookWithStatus>(candidates.size)
+    val stale = ArrayList<BookID>()
+    for (indexed in candidates) {
+      val book = this.bookRegistry.bookOrNull(indexed.id) ?: continue
+      if (!indexed.isCurrentFor(book)) {
+        stale.add(indexed.id)
+        if (!this.matchesDirectly(book, terms)) {
+          continue
+        }
+      }
+      if (filter.invoke(book)) {
+        results.add(book)
+      }
+    }
+
+    if (stale.isNotEmpty()) {
+      this.logger.debug("reindexing {} changed books", stale.size)
+      for (id in stale) {
+        this.reindex(id)
+      }
+    }
+    return results
+  }
+
+  /**
+   * Match the given book against the given terms without using the index.
+   */
+
+  private fun matchesDirectly(
+    book: BookWithStatus,
+    terms: List<String>
+  ): Boolean {
+    if (terms.isEmpty()) {
+      return true
+    }
+    val entry = book.book.entry
+    val words = this.wordsOf(entry.title) + entry.authors.flatMap(this::wordsOf)
+    return terms.any { term -> words.any { word -> word.startsWith(term) } }
+  }
+
+  /**
+   * Find the indexed books that match the given terms, in the given order. Must be
+   * called with the read lock held.
+   */
+
+  private fun candidatesFor(
+    terms: List<String>,
+    sortBy: SortBy
+  ): List<Indexed> {
+    val ordered =
+      when (sortBy) {
+        SortBy.SORT_BY_AUTHOR -> this.byAuthor
+        SortBy.SORT_BY_TITLE -> this.byTitle
+      }
+
+    if (terms.isEmpty()) {
+      return ordered.toList()
+    }
+
+    val matches = HashSet<BookID>()
+    for (term in terms) {
+      for (ids in this.words.subMap(term, true, term + Character.MAX_VALUE, false).values) {
+        matches.addAll(ids)
+      }
+    }
+
+    /*
+     * Sorting a small set of matches is cheaper than walking the whole order.
+     */
+
+    return if (matches.size * 4 < ordered.size) {
+      matches.mapNotNull(this.books::get).sortedWith(ordered.comparator())
+    } else {
+      ordered.filter { indexed -> matches.contains(indexed.id) }
+    }
+  }
+
+  override fun close() {
+    this.subscription.dispose()
+  }
+
+  companion object {
+
+    private val WORD_SEPARATOR =
+      Regex("[^\\p{L}\\p{N}]+")
+    private val COMBINING_MARKS =
+      Regex("\\p{M}+")
+
+    /**
+     * Create an index of the given registry that follows the registry's events until
+     * it is closed.
+     */
+
+    fun create(
+      bookRegistry: BookRegistryReadableType,
+      locale: Locale = Locale.getDefault()
+    ): ProfileFeedIndex {
+      return ProfileFeedIndex(bookRegistry, locale).start()
+    }
+  }
+}
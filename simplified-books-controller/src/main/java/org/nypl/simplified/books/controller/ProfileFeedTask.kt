@@ -2,7 +2,6 @@ package org.nypl.simplified.books.controller
 
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountLoginState
-import org.nypl.simplified.books.book_registry.BookRegistryReadableType
 import org.nypl.simplified.books.book_registry.BookStatus
 import org.nypl.simplified.books.book_registry.BookWithStatus
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
@@ -17,14 +16,11 @@ import org.nypl.simplified.feeds.api.FeedSearch
 import org.nypl.simplified.profiles.controller.api.ProfileFeedRequest
 import org.nypl.simplified.profiles.controller.api.ProfilesControllerType
 import org.slf4j.LoggerFactory
-import java.util.ArrayList
-import java.util.Collections
-import java.util.Locale
 import java.util.concurrent.Callable
 
 internal class ProfileFeedTask(
   private val bookFormatSupport: BookFormatSupportType,
-  private val bookRegistry: BookRegistryReadableType,
+  private val bookIndex: ProfileFeedIndex,
   private val profiles: ProfilesControllerType,
   private val request: ProfileFeedRequest
 ) : Callable<Feed.FeedWithoutGroups> {
@@ -53,17 +49,16 @@ internal class ProfileFeedTask(
       )
 
     try {
-      this.logger.debug("book registry contains {} books", this.bookRegistry.books().size)
-      val books = this.collectAllBooks(this.bookRegistry)
-      this.logger.debug("collected {} candidate books", books.size)
-
+      val accountID = this.request.filterByAccountID
       val filter = this.selectFeedFilter(this.request)
-      this.filterBooks(filter, books)
-      this.logger.debug("after filtering, {} candidate books remain", books.size)
-      this.searchBooks(this.request.search, books)
-      this.logger.debug("after searching, {} candidate books remain", books.size)
-      this.sortBooks(this.request.sortBy, books)
-      this.logger.debug("after sorting, {} candidate books remain", books.size)
+      val books =
+        this.bookIndex.search(this.request.search, this.request.sortBy) { book ->
+          (accountID == null || book.book.account == accountID) &&
+            filter.invoke(book.status) &&
+            this.isBookSupported(book) &&
+            this.accountIsLoggedIn(book.book.account)
+        }
+      this.logger.debug("after filtering and searching, {} books remain", books.size)
 
       for (book in books) {
         feed.entriesInOrder.add(
@@ -124,108 +119,6 @@ internal class ProfileFeedTask(
     return Pair(this.request.facetTitleProvider.sortBy, facets)
   }
 
-  /**
-   * Filter the given books by the given search terms.
-   */
-
-  private fun searchBooks(
-    search: String?,
-    books: ArrayList<BookWithStatus>
-  ) {
-    if (search == null) {
-      return
-    }
-
-    val termsUpper = this.searchTermsSplitUpper(search)
-    val iterator = books.iterator()
-    while (iterator.hasNext()) {
-      val book = iterator.next()
-      if (!this.searchMatches(termsUpper, book)) {
-        iterator.remove()
-      }
-    }
-  }
-
-  /**
-   * Split the given search string into a list of uppercase search terms.
-   */
-
-  private fun searchTermsSplitUpper(search: String): List<String> {
-    val terms = search.split("\\s+".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-    val termsUpper = ArrayList<String>(8)
-    for (term in terms) {
-      termsUpper.add(term.toUpperCase(Locale.ROOT))
-    }
-    return termsUpper
-  }
-
-  /**
-   * Sort the list of books by the given facet.
-   */
-
-  private fun sortBooks(
-    sortBy: SortBy,
-    books: ArrayList<BookWithStatus>
-  ) {
-    when (sortBy) {
-      SortBy.SORT_BY_AUTHOR -> this.sortBooksByAuthor(books)
-      SortBy.SORT_BY_TITLE -> this.sortBooksByTitle(books)
-    }
-  }
-
-  private fun sortBooksByTitle(books: ArrayList<BookWithStatus>) {
-    Collections.sort(books) { book0, book1 ->
-      val entry0 = book0.book.entry
-      val entry1 = book1.book.entry
-      entry0.title.compareTo(entry1.title)
-    }
-  }
-
-  private fun sortBooksByAuthor(books: ArrayList<BookWithStatus>) {
-    Collections.sort(books) { book0, book1 ->
-      val entry0 = book0.book.entry
-      val entry1 = book1.book.entry
-      val authors1 = entry0.authors
-      val authors2 = entry1.authors
-      val e0 = authors1.isEmpty()
-      val e1 = authors2.isEmpty()
-      if (e0 && e1) {
-        0
-      } else if (e0) {
-        1
-      } else if (e1) {
-        -1
-      } else {
-        val author1 = authors1[0]!!
-        val author2 = authors2[0]!!
-        author1.compareTo(author2)
-      }
-    }
-  }
-
-  /**
-   * Filter the list of books with the given filter.
-   */
-
-  private fun filterBooks(
-    filter: (BookStatus) -> Boolean,
-    books: ArrayList<BookWithStatus>
-  ) {
-    val iter = books.iterator()
-    while (iter.hasNext()) {
-      val book = iter.next()
-
-      if (!isBookSupported(book)) {
-        iter.remove()
-        continue
-      }
-      if (!filter.invoke(book.status)) {
-        iter.remove()
-        continue
-      }
-    }
-  }
-
   private fun isBookSupported(book: BookWithStatus): Boolean {
     for (format in book.book.formats) {
       if (this.bookFormatSupport.isDRMSupported(format.drmInformation.kind)) {
@@ -235,20 +128,6 @@ internal class ProfileFeedTask(
     return false
   }
 
-  private fun collectAllBooks(bookRegistry: BookRegistryReadableType): ArrayList<BookWithStatus> {
-    val accountID = this.request.filterByAccountID
-    val values = bookRegistry.books().values
-    val allBooks =
-      if (accountID != null) {
-        values.filter { book -> book.book.account == accountID }
-      } else {
-        values
-      }.filter {
-        this.accountIsLoggedIn(it.book.account)
-      }
-    return ArrayList(allBooks)
-  }
-
   private fun accountIsLoggedIn(accountID: AccountID): Boolean {
     return try {
       val account = this.profiles.profileCurrent().account(accountID)
@@ -306,38 +185,6 @@ internal class ProfileFeedTask(
     }
   }
 
-  /**
-   * @return `true` if any of the given search terms match the given book, or the list of
-   * search terms is empty
-   */
-
-  private fun searchMatches(
-    termsUpper: List<String>,
-    book: BookWithStatus
-  ): Boolean {
-    if (termsUpper.isEmpty()) {
-      return true
-    }
-
-    for (index in termsUpper.indices) {
-      val termUpper = termsUpper[index]
-      val ee = book.book.entry
-      val eTitle = ee.title.toUpperCase(Locale.ROOT)
-      if (eTitle.contains(termUpper)) {
-        return true
-      }
-
-      val authors = ee.authors
-      for (a in authors) {
-        if (a.toUpperCase(Locale.ROOT).contains(termUpper)) {
-          return true
-        }
-      }
-    }
-
-    return false
-  }
-
   private fun selectFeedFilter(
     request: ProfileFeedRequest
   ): (BookStatus) -> Boolean {
@@ -0,0 +1,150 @@
+package org.nypl.simplified.books.covers
+
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * A size-bounded disk cache of generated covers.
+ *
+ * Covers are stored as encoded images, one file per cover, named after a hash of the
+ * cover's title, author, and target dimensions. When the total size of the cache would
+ * exceed the maximum size, the least recently used covers are deleted.
+ *
+ * The cache is thread-safe.
+ */
+
+class BookCoverGeneratorCache(
+  private val directory: File,
+  private val maximumSizeBytes: Long
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(BookCoverGeneratorCache::class.java)
+
+  /**
+   * The sizes of the cached files, in least-recently-used order.
+   */
+
+  private val files =
+    LinkedHashMap<String, Long>(16, 0.75f, true)
+  private var sizeBytes =
+    0L
+
+  init {
+    this.directory.mkdirs()
+
+    val existing =
+      this.directory.listFiles()
+        ?.filter { file -> file.isFile && file.name.endsWith(".img") }
+        ?.sortedBy { file -> file.lastModified() }
+        ?: listOf()
+
+    synchronized(this.files) {
+      for (file in existing) {
+        this.files[file.name] = file.length()
+        this.sizeBytes += file.length()
+      }
+      this.evict()
+    }
+  }
+
+  /**
+   * The key of a cached cover.
+   */
+
+  data class Key(
+    val title: String,
+    val author: String,
+    val width: Int,
+    val height: Int
+  ) {
+    internal fun fileName(): String {
+      val digest = MessageDigest.getInstance("SHA-256")
+      digest.update("${this.title}\u0000${this.author}\u0000${this.width}x${this.height}".toByteArray())
+      return digest.digest().joinToString("") { byte -> "%02x".format(byte) } + ".img"
+    }
+  }
+
+  /**
+   * The current total size of the cached covers.
+   */
+
+  val size: Long
+    get() = synchronized(this.files) { this.sizeBytes }
+
+  /**
+   * @return The encoded cover for the given key, or `null` if the cover is not cached
+   */
+
+  fun get(key: Key): ByteArray? {
+    val name = key.fileName()
+    synchronized(this.files) {
+      if (this.files[name] == null) {
+        return null
+      }
+    }
+
+    val file = File(this.directory, name)
+    return try {
+      val data = file.readBytes()
+      file.setLastModified(System.currentTimeMillis())
+      data
+    } catch (e: IOException) {
+      this.logger.debug("unable to read cached cover {}: ", file, e)
+      this.forget(name)
+      null
+    }
+  }
+
+  /**
+   * Store the encoded cover for the given key, evicting older covers if necessary.
+   */
+
+  fun put(key: Key, data: ByteArray) {
+    if (data.size > this.maximumSizeBytes) {
+      return
+    }
+
+    val name = key.fileName()
+    val file = File(this.directory, name)
+    val fileTmp = File(this.directory, "$name.tmp")
+
+    try {
+      fileTmp.writeBytes(data)
+      if (!fileTmp.renameTo(file)) {
+        throw IOException("Could not rename $fileTmp to $file")
+      }
+    } catch (e: IOException) {
+      this.logger.debug("unable to cache cover {}: ", file, e)
+      fileTmp.delete()
+      return
+    }
+
+    synchronized(this.files) {
+      val previous = this.files.put(name, data.size.toLong())
+      this.sizeBytes += data.size.toLong() - (previous ?: 0L)
+      this.evict()
+    }
+  }
+
+  private fun forget(name: String) {
+    synchronized(this.files) {
+      val previous = this.files.remove(name)
+      if (previous != null) {
+        this.sizeBytes -= previous
+      }
+    }
+  }
+
+  private fun evict() {
+    val iterator = this.files.entries.iterator()
+    while (this.sizeBytes > this.maximumSizeBytes && iterator.hasNext()) {
+      val (name, length) = iterator.next()
+      iterator.remove()
+      this.sizeBytes -= length
+      File(this.directory, name).delete()
+    }
+  }
+}
@@ -1,24 +1,39 @@
 package org.nypl.simplified.books.covers
 
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import com.io7m.jnull.NullCheck
 import com.io7m.jnull.Nullable
 import com.squareup.picasso.Picasso.LoadedFrom
 import com.squareup.picasso.Request
 import com.squareup.picasso.RequestHandler
+import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.net.URI
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * A Picasso request handler.
  *
  * This delegates requests for URIs that have a scheme "generated-cover" to the given
- * book generator instead of trying to load data from the network or disk.
+ * book generator instead of trying to load data from the network or disk. If a cache
+ * is provided, generated covers are stored in the cache and subsequent requests for
+ * the same cover at the same size are served from the cache instead of being rendered
+ * again.
  */
 
 class BookCoverGeneratorRequestHandler(
-  private val generator: BookCoverGeneratorType
+  private val generator: BookCoverGeneratorType,
+  private val cache: BookCoverGeneratorCache? = null
 ) : RequestHandler() {
 
+  private val cacheHits = AtomicLong(0L)
+  private val cacheMisses = AtomicLong(0L)
+  private val renders = AtomicLong(0L)
+  private val renderTimeTotalNanos = AtomicLong(0L)
+  private val renderTimeMaximumNanos = AtomicLong(0L)
+
   override fun canHandleRequest(@Nullable requestNullable: Request): Boolean {
     val data = NullCheck.notNull(requestNullable)
     val uri = URI.create(data.uri.toString())
@@ -32,14 +47,83 @@ class BookCoverGeneratorRequestHandler(
   ): Result {
     try {
       val request = NullCheck.notNull(requestNullable)
+      val key = this.cache?.let { this.cacheKeyOf(request) }
+      if (key != null) {
+        val bitmap = this.loadCached(request, key)
+        if (bitmap != null) {
+          this.cacheHits.incrementAndGet()
+          return Result(bitmap, LoadedFrom.DISK)
+        }
+        this.cacheMisses.incrementAndGet()
+      }
+
+      val timeThen = System.nanoTime()
       val bitmap = this.generator.generateImage(
         NullCheck.notNull(URI.create(request.uri.toString())),
         request.targetWidth,
         request.targetHeight
       )
+      this.recordRenderTime(System.nanoTime() - timeThen)
+
+      if (key != null) {
+        val output = ByteArrayOutputStream()
+        if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, output)) {
+          this.cache?.put(key, output.toByteArray())
+        }
+      }
       return Result(bitmap, LoadedFrom.MEMORY)
     } catch (e: Throwable) {
       throw IOException(e)
     }
   }
+
+  /**
+   * @return The current statistics for generated covers
+   */
+
+  fun statistics(): BookCoverGeneratorStatistics {
+    val rendersNow = this.renders.get()
+    val renderAverage =
+      if (rendersNow == 0L) 0L else this.renderTimeTotalNanos.get() / rendersNow
+
+    return BookCoverGeneratorStatistics(
+      cacheHits = this.cacheHits.get(),
+      cacheMisses = this.cacheMisses.get(),
+      cacheSizeBytes = this.cache?.size ?: 0L,
+      renderTimeAverageMillis = TimeUnit.NANOSECONDS.toMillis(renderAverage),
+      renderTimeMaximumMillis = TimeUnit.NANOSECONDS.toMillis(this.renderTimeMaximumNanos.get())
+    )
+  }
+
+  private fun cacheKeyOf(request: Request): BookCoverGeneratorCache.Key {
+    return BookCoverGeneratorCache.Key(
+      title = request.uri.getQueryParameter("title") ?: "",
+      author = request.uri.getQueryParameter("author") ?: "",
+      width = request.targetWidth,
+      height = request.targetHeight
+    )
+  }
+
+  private fun loadCached(
+    request: Request,
+    key: BookCoverGeneratorCache.Key
+  ): Bitmap? {
+    val data = this.cache?.get(key) ?: return null
+    val options = BitmapFactory.Options()
+    if (request.config != null) {
+      options.inPreferredConfig = request.config
+    }
+    return BitmapFactory.decodeByteArray(data, 0, data.size, options)
+  }
+
+  private fun recordRenderTime(nanos: Long) {
+    this.renders.incrementAndGet()
+    this.renderTimeTotalNanos.addAndGet(nanos)
+    while (true) {
+      val maximum = this.renderTimeMaximumNanos.get()
+      if (nanos <= maximum || this.renderTimeMaximumNanos.compareAndSet(maximum, nanos)) {
+        break
+      }
+    }
+  }
 }
@@ -0,0 +1,49 @@
+package org.nypl.simplified.books.covers
+
+/**
+ * Statistics for generated covers.
+ */
+
+data class BookCoverGeneratorStatistics(
+
+  /**
+   * The number of generated covers that were loaded from the disk cache.
+   */
+
+  val cacheHits: Long,
+
+  /**
+   * The number of generated covers that were not in the disk cache and had to be rendered.
+   */
+
+  val cacheMisses: Long,
+
+  /**
+   * The current size of the disk cache.
+   */
+
+  val cacheSizeBytes: Long,
+
+  /**
+   * The average time taken to render a cover.
+   */
+
+  val renderTimeAverageMillis: Long,
+
+  /**
+   * The maximum time taken to render a cover.
+   */
+
+  val renderTimeMaximumMillis: Long
+) {
+
+  /**
+   * The fraction of generated covers that were loaded from the disk cache.
+   */
+
+  val cacheHitRate: Double
+    get() {
+      val total = this.cacheHits + this.cacheMisses
+      return if (total == 0L) 0.0 else this.cacheHits.toDouble() / total.toDouble()
+    }
+}
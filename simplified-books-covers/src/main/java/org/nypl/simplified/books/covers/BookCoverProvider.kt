@@ -26,7 +26,8 @@ class BookCoverProvider private constructor(
   private val bookRegistry: BookRegistryReadableType,
   private val coverGenerator: BookCoverGeneratorType,
   private val picasso: Picasso,
-  private val badgeLookup: BookCoverBadgeLookupType
+  private val badgeLookup: BookCoverBadgeLookupType,
+  private val generatorRequestHandler: BookCoverGeneratorRequestHandler
 ) : BookCoverProviderType {
 
   private val logger: Logger = LoggerFactory.getLogger(BookCoverProvider::class.java)
@@ -190,6 +191,9 @@ class BookCoverProvider private constructor(
     this.picasso.resumeTag(this.thumbnailTag)
   }
 
+  override fun generatedCoverStatistics(): BookCoverGeneratorStatistics =
+    this.generatorRequestHandler.statistics()
+
   companion object {
 
     /**
@@ -201,6 +205,7 @@ class BookCoverProvider private constructor(
      * @param bookRegistry The book registry
      * @param coverGenerator A cover generator
      * @param executor An executor
+     * @param generatedCoverCache A disk cache for generated covers, if any
      *
      * @return A new cover provider
      */
@@ -213,18 +218,28 @@ class BookCoverProvider private constructor(
       bundledContentResolver: BundledContentResolverType,
       executor: ExecutorService,
       debugCacheIndicators: Boolean,
-      debugLogging: Boolean
+      debugLogging: Boolean,
+      generatedCoverCache: BookCoverGeneratorCache? = null
     ): BookCoverProviderType {
+      val generatorRequestHandler =
+        BookCoverGeneratorRequestHandler(coverGenerator, generatedCoverCache)
+
       val picassoBuilder = Picasso.Builder(context)
       picassoBuilder.defaultBitmapConfig(Bitmap.Config.RGB_565)
       picassoBuilder.indicatorsEnabled(debugCacheIndicators)
       picassoBuilder.loggingEnabled(debugLogging)
-      picassoBuilder.addRequestHandler(BookCoverGeneratorRequestHandler(coverGenerator))
+      picassoBuilder.addRequestHandler(generatorRequestHandler)
       picassoBuilder.addRequestHandler(BookCoverBundledRequestHandler(bundledContentResolver))
       picassoBuilder.executor(executor)
 
       val picasso = picassoBuilder.build()
-      return BookCoverProvider(bookRegistry, coverGenerator, picasso, badgeLookup)
+      return BookCoverProvider(
+        bookRegistry = bookRegistry,
+        coverGenerator = coverGenerator,
+        picasso = picasso,
+        badgeLookup = badgeLookup,
+        generatorRequestHandler = generatorRequestHandler
+      )
     }
   }
 }
@@ -23,6 +23,12 @@ interface BookCoverProviderType {
 
   fun loadingThumbnailsContinue()
 
+  /**
+   * @return The current statistics for generated covers
+   */
+
+  fun generatedCoverStatistics(): BookCoverGeneratorStatistics
+
   /**
    * Load or generate a thumbnail based on `entry` into the image view
    * `imageView`, at width `width` and height `height`.
@@ -191,6 +191,22 @@ sealed class BookDatabaseEntryFormatHandle {
     @Throws(IOException::class)
     abstract fun copyInBook(file: File)
 
+    /**
+     * Move the given EPUB file into the directory as the book data. The file is renamed
+     * into place where possible, and is copied and then deleted otherwise. The caller
+     * must not use `file` afterwards.
+     *
+     * @param file The file to be moved
+     *
+     * @throws IOException On I/O errors
+     */
+
+    @Throws(IOException::class)
+    open fun moveInBook(file: File) {
+      this.copyInBook(file)
+      file.delete()
+    }
+
     /**
      * Set the last read location for the book.
      *
@@ -236,6 +252,22 @@ sealed class BookDatabaseEntryFormatHandle {
     @Throws(IOException::class)
     abstract fun copyInBook(file: File)
 
+    /**
+     * Move the given PDF file into the directory as the book data. The file is renamed
+     * into place where possible, and is copied and then deleted otherwise. The caller
+     * must not use `file` afterwards.
+     *
+     * @param file The file to be moved
+     *
+     * @throws IOException On I/O errors
+     */
+
+    @Throws(IOException::class)
+    open fun moveInBook(file: File) {
+      this.copyInBook(file)
+      file.delete()
+    }
+
     /**
      * Set the last read location for the PDF book.
      *
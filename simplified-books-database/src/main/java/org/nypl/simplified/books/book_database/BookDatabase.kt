@@ -1,6 +1,7 @@
 package org.nypl.simplified.books.book_database
 
 import android.content.Context
+import com.fasterxml.jackson.databind.node.ObjectNode
 import com.io7m.jnull.Nullable
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.books.api.Book
@@ -11,7 +12,7 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.files.DirectoryUtilities
 import org.nypl.simplified.files.FileUtilities
-import org.nypl.simplified.json.core.JSONSerializerUtilities
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSJSONParserType
 import org.nypl.simplified.opds.core.OPDSJSONSerializerType
@@ -20,10 +21,20 @@ import java.io.File
 import java.io.FileInputStream
 import java.io.IOException
 import java.util.ArrayList
+import java.util.Collections
 import java.util.SortedSet
 import java.util.TreeSet
+import java.util.concurrent.Callable
 import java.util.concurrent.ConcurrentSkipListMap
-import javax.annotation.concurrent.GuardedBy
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * The default implementation of the [BookDatabaseType] interface.
@@ -40,41 +51,84 @@ class BookDatabase private constructor(
 
   /**
    * A thread-safe map exposing read-only snapshots of database entries.
+   *
+   * Writers serialize on `mapsLock`. Readers never take the lock: entries are read directly
+   * from the concurrent map, and the set of book IDs is served from an immutable snapshot
+   * that is rebuilt at most once after each write.
    */
 
   private class BookMaps() {
 
+    /**
+     * An immutable set of book IDs, along with the version of the map it was taken from.
+     */
+
+    private class Snapshot(
+      val version: Long,
+      val books: SortedSet<BookID>
+    )
+
     val mapsLock: Any = Any()
 
-    @GuardedBy("mapsLock")
     val entries: ConcurrentSkipListMap<BookID, BookDatabaseEntry> =
       ConcurrentSkipListMap()
 
+    /**
+     * The number of writes made to the map. The version is incremented after each write
+     * completes, so a snapshot taken at a given version is current for as long as the
+     * version remains unchanged.
+     */
+
+    private val version =
+      AtomicLong(0L)
+
+    private val snapshotRef: AtomicReference<Snapshot> =
+      AtomicReference(Snapshot(0L, Collections.unmodifiableSortedSet(TreeSet())))
+
     fun contains(key: BookID): Boolean {
-      synchronized(mapsLock) {
-        LOG.debug("BookMaps.contains")
-        return this.entries.containsKey(key)
+      return this.entries.containsKey(key)
+    }
+
+    fun entry(key: BookID): BookDatabaseEntry? {
+      return this.entries[key]
+    }
+
+    fun books(): SortedSet<BookID> {
+      val snapshot = this.snapshotRef.get()
+      val versionNow = this.version.get()
+      if (snapshot.version == versionNow) {
+        return snapshot.books
       }
+
+      val books =
+        Collections.unmodifiableSortedSet(TreeSet(this.entries.keys))
+      this.snapshotRef.set(Snapshot(versionNow, books))
+      return books
     }
 
     fun clear() {
       synchronized(this.mapsLock) {
         LOG.debug("BookMaps.clear")
         this.entries.clear()
+        this.version.incrementAndGet()
       }
     }
 
     fun delete(bookID: BookID) {
       synchronized(this.mapsLock) {
         LOG.debug("BookMaps.delete: {}", bookID)
-        this.entries.remove(bookID)
+        if (this.entries.remove(bookID) != null) {
+          this.version.incrementAndGet()
+        }
       }
     }
 
     fun addEntry(entry: BookDatabaseEntry) {
       synchronized(this.mapsLock) {
         LOG.debug("BookMaps.addEntry: {}", entry.id)
-        this.entries.put(entry.id, entry)
+        if (this.entries.put(entry.id, entry) == null) {
+          this.version.incrementAndGet()
+        }
       }
     }
   }
@@ -84,9 +138,7 @@ class BookDatabase private constructor(
   }
 
   override fun books(): SortedSet<BookID> {
-    synchronized(this.maps.mapsLock) {
-      return TreeSet(this.maps.entries.keys)
-    }
+    return this.maps.books()
   }
 
   @Throws(BookDatabaseException::class)
@@ -124,7 +176,7 @@ class BookDatabase private constructor(
         FileUtilities.fileWriteUTF8Atomically(
           fileMeta,
           fileMetaTmp,
-          JSONSerializerUtilities.serializeToString(this.serializer.serializeFeedEntry(entry))
+          this.serializer.serializeFeedEntryToString(entry)
         )
 
         val book =
@@ -143,7 +195,8 @@ class BookDatabase private constructor(
             bookDir = bookDir,
             serializer = this.serializer,
             formats = this.formats,
-            bookRef = book,
+            id = id,
+            bookLoader = { book },
             onDelete = Runnable { this.maps.delete(id) }
           )
 
@@ -157,17 +210,49 @@ class BookDatabase private constructor(
 
   @Throws(BookDatabaseException::class)
   override fun entry(id: BookID): BookDatabaseEntryType {
-    synchronized(this.maps.mapsLock) {
-      return this.maps.entries[id] ?: throw BookDatabaseException(
-        "Nonexistent book entry: $id", emptyList()
-      )
-    }
+    return this.maps.entry(id) ?: throw BookDatabaseException(
+      "Nonexistent book entry: $id", emptyList()
+    )
   }
 
   companion object {
 
     private val LOG = LoggerFactory.getLogger(BookDatabase::class.java)
 
+    /**
+     * The number of books that must be parsed before it is worth parsing them in parallel.
+     */
+
+    private const val PARALLEL_OPEN_THRESHOLD = 8
+
+    /**
+     * The executor on which books are parsed in parallel. The threads are only kept
+     * whilst databases are being opened.
+     */
+
+    private val OPEN_EXECUTOR: ExecutorService by lazy {
+      val threads = Math.max(2, Runtime.getRuntime().availableProcessors())
+      val executor =
+        ThreadPoolExecutor(
+          threads,
+          threads,
+          10L,
+          TimeUnit.SECONDS,
+          LinkedBlockingQueue(),
+          ThreadFactory { runnable ->
+            val thread =
+              Thread(runnable, "simplified-book-database-open-${OPEN_THREAD_IDS.incrementAndGet()}")
+            thread.isDaemon = true
+            thread
+          }
+        )
+      executor.allowCoreThreadTimeOut(true)
+      executor
+    }
+
+    private val OPEN_THREAD_IDS =
+      AtomicInteger(0)
+
     @Throws(BookDatabaseException::class)
     fun open(
       context: Context,
@@ -229,27 +314,211 @@ class BookDatabase private constructor(
 
       migrateOldIDs(directory, account, parser, errors)
 
+      /*
+       * Books that are recorded in the index with unchanged metadata files are known to
+       * be readable, and are parsed from their summaries when they are first accessed.
+       * All other books are parsed now, so that any that can't be parsed are reported.
+       */
+
+      val index = BookDatabaseIndex.load(directory)
+      val indexedNow = ConcurrentSkipListMap<BookID, BookDatabaseIndex.Indexed>()
+      val unindexed = mutableListOf<String>()
+
       val bookDirs = directory.list()
       if (bookDirs != null) {
-        for (bookID in bookDirs) {
-          LOG.debug("opening book: {}/{}", directory, bookID)
-          val bookDirectory = File(directory, bookID)
-          val entry = openOneEntry(
-            context = context,
-            parser = parser,
-            serializer = serializer,
-            formats = formats,
-            accountID = account,
-            directory = bookDirectory,
-            maps = maps,
-            errors = errors,
-            name = bookID
-          ) ?: continue
+        for (name in bookDirs) {
+          if (BookDatabaseIndex.isIndexFile(name)) {
+            continue
+          }
+
+          val bookDirectory = File(directory, name)
+          if (bookDirectory.isDirectory && BookID.isBookID(name)) {
+            val bookId = BookID.create(name)
+            val record = BookDatabaseIndex.Record.ofFile(File(bookDirectory, "meta.json"))
+            val summary = index.entryIfCurrent(bookId, record)
+            if (record != null && summary != null) {
+              LOG.debug("opening indexed book: {}/{}", directory, name)
+              indexedNow[bookId] = BookDatabaseIndex.Indexed(record, summary)
+              maps.addEntry(
+                BookDatabaseEntry(
+                  context = context,
+                  bookDir = bookDirectory,
+                  serializer = serializer,
+                  formats = formats,
+                  id = bookId,
+                  bookLoader = { loadIndexedBook(parser, account, bookId, bookDirectory, summary) },
+                  onDelete = Runnable { maps.delete(bookId) }
+                )
+              )
+              continue
+            }
+          }
+          unindexed.add(name)
+        }
+      }
+
+      openUnindexedBooks(
+        context = context,
+        parser = parser,
+        serializer = serializer,
+        formats = formats,
+        account = account,
+        directory = directory,
+        names = unindexed,
+        maps = maps,
+        indexed = indexedNow,
+        errors = errors
+      )
+
+      if (indexedNow != index.books) {
+        BookDatabaseIndex.write(directory, indexedNow)
+      }
+    }
+
+    /**
+     * Open and parse the given books, in parallel if there are enough of them to make it
+     * worthwhile. The summaries of the books that could be parsed are added to `indexed`.
+     */
+
+    private fun openUnindexedBooks(
+      context: Context,
+      parser: OPDSJSONParserType,
+      serializer: OPDSJSONSerializerType,
+      formats: BookFormatSupportType,
+      account: AccountID,
+      directory: File,
+      names: List<String>,
+      maps: BookMaps,
+      indexed: MutableMap<BookID, BookDatabaseIndex.Indexed>,
+      errors: MutableList<Exception>
+    ) {
+      val openOne = { name: String, openErrors: MutableList<Exception> ->
+        LOG.debug("opening book: {}/{}", directory, name)
+        val bookDirectory = File(directory, name)
+        val record = BookDatabaseIndex.Record.ofFile(File(bookDirectory, "meta.json"))
+        val entry = openOneEntry(
+          context = context,
+          parser = parser,
+          serializer = serializer,
+          formats = formats,
+          accountID = account,
+          directory = bookDirectory,
+          maps = maps,
+          errors = openErrors,
+          name = name
+        )
+        if (entry != null) {
           maps.addEntry(entry)
+          val summary = summaryOf(serializer, entry)
+          if (record != null && summary != null) {
+            indexed[entry.id] = BookDatabaseIndex.Indexed(record, summary)
+          }
+        }
+      }
+
+      if (names.size < PARALLEL_OPEN_THRESHOLD) {
+        names.forEach { name -> openOne(name, errors) }
+        return
+      }
+
+      val futures = names.map { name ->
+        OPEN_EXECUTOR.submit(
+          Callable {
+            val openErrors = ArrayList<Exception>()
+            openOne(name, openErrors)
+            openErrors
+          }
+        )
+      }
+      for (future in futures) {
+        try {
+          errors.addAll(future.get())
+        } catch (e: ExecutionException) {
+          errors.add(e.cause as? Exception ?: e)
         }
       }
     }
 
+    /**
+     * @return The summary of the given (already parsed) entry, in compact serialized form
+     */
+
+    private fun summaryOf(
+      serializer: OPDSJSONSerializerType,
+      entry: BookDatabaseEntry
+    ): String? {
+      return try {
+        JSONObjectMappers.writer()
+          .writeValueAsString(serializer.serializeFeedEntry(entry.book.entry))
+      } catch (e: Exception) {
+        LOG.debug("unable to summarize book {}: ", entry.id, e)
+        null
+      }
+    }
+
+    /**
+     * Load a book from its summary in the index. The summary was produced from a book that
+     * was parsed successfully, but if it can't be parsed now (for example, because the
+     * parser has changed), the book is loaded from its `meta.json` file instead.
+     */
+
+    @Throws(BookDatabaseException::class)
+    private fun loadIndexedBook(
+      parser: OPDSJSONParserType,
+      accountID: AccountID,
+      bookId: BookID,
+      directory: File,
+      summary: String
+    ): Book {
+      val entry =
+        try {
+          parser.parseAcquisitionFeedEntry(
+            JSONObjectMappers.reader().readTree(summary) as ObjectNode
+          )
+        } catch (e: Exception) {
+          LOG.debug("unable to parse summary of {}: ", bookId, e)
+          return loadBook(parser, accountID, bookId, directory)
+        }
+
+      return Book(
+        id = bookId,
+        account = accountID,
+        cover = fileOrNull(directory, BookDatabaseEntry.COVER_FILENAME),
+        thumbnail = fileOrNull(directory, BookDatabaseEntry.THUMB_FILENAME),
+        entry = entry,
+        formats = listOf()
+      )
+    }
+
+    @Throws(BookDatabaseException::class)
+    private fun loadBook(
+      parser: OPDSJSONParserType,
+      accountID: AccountID,
+      bookId: BookID,
+      directory: File
+    ): Book {
+      LOG.debug("load: {}", directory)
+
+      try {
+        val fileMeta = File(directory, "meta.json")
+        val entry: OPDSAcquisitionFeedEntry =
+          FileInputStream(fileMeta).use { stream ->
+            parser.parseAcquisitionFeedEntryFromStream(stream)
+          }
+
+        return Book(
+          id = bookId,
+          account = accountID,
+          cover = fileOrNull(directory, BookDatabaseEntry.COVER_FILENAME),
+          thumbnail = fileOrNull(directory, BookDatabaseEntry.THUMB_FILENAME),
+          entry = entry,
+          formats = listOf()
+        )
+      } catch (e: IOException) {
+        throw BookDatabaseException(e.message, listOf<Exception>(e))
+      }
+    }
+
     private fun migrateOldIDs(
       directory: File,
       account: AccountID,
@@ -261,7 +530,7 @@ class BookDatabase private constructor(
         val bookDirs = directory.list()
         if (bookDirs != null) {
           for (dirName in bookDirs) {
-            if (!BookID.isBookID((dirName))) {
+            if (!BookID.isBookID((dirName)) && !BookDatabaseIndex.isIndexFile(dirName)) {
               val bookDirectory = File(directory, dirName)
               val fileMeta = File(bookDirectory, "meta.json")
               val entry: OPDSAcquisitionFeedEntry =
@@ -331,7 +600,8 @@ class BookDatabase private constructor(
           bookDir = directory,
           serializer = serializer,
           formats = formats,
-          bookRef = book,
+          id = bookId,
+          bookLoader = { book },
           onDelete = Runnable { maps.delete(bookId) }
         )
       } catch (e: IOException) {
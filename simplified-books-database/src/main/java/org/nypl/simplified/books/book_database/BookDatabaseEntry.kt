@@ -14,7 +14,7 @@ import org.nypl.simplified.books.book_database.api.BookFormats
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.files.DirectoryUtilities
 import org.nypl.simplified.files.FileUtilities
-import org.nypl.simplified.json.core.JSONSerializerUtilities
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSJSONSerializerType
 import org.slf4j.Logger
@@ -34,8 +34,8 @@ internal class BookDatabaseEntry internal constructor(
   private val bookDir: File,
   private val serializer: OPDSJSONSerializerType,
   private val formats: BookFormatSupportType,
-  @GuardedBy("bookLock")
-  private var bookRef: Book,
+  internal val id: BookID,
+  bookLoader: () -> Book,
   private val onDelete: Runnable
 ) : BookDatabaseEntryType {
 
@@ -47,7 +47,29 @@ internal class BookDatabaseEntry internal constructor(
   private var formatHandlesRef: MutableMap<Class<out BookDatabaseEntryFormatHandle>, BookDatabaseEntryFormatHandle> =
     mutableMapOf()
 
-  internal val id: BookID = this.bookRef.id
+  @GuardedBy("bookLock")
+  private var bookLoaded: Book? = null
+
+  /**
+   * The function that loads the book. The function is discarded once the book has been
+   * loaded, so that anything it holds (such as the book's serialized entry) can be
+   * collected.
+   */
+
+  @GuardedBy("bookLock")
+  private var bookLoader: (() -> Book)? = bookLoader
+
+  /**
+   * The book. The book is loaded, and its format handles are created, when the book is
+   * first accessed.
+   */
+
+  @GuardedBy("bookLock")
+  private var bookRef: Book
+    get() = this.bookLoaded ?: this.loadBook()
+    set(value) {
+      this.bookLoaded = value
+    }
 
   override val book: Book
     get() = synchronized(this.bookLock) {
@@ -58,6 +80,7 @@ internal class BookDatabaseEntry internal constructor(
   override val formatHandles: List<BookDatabaseEntryFormatHandle>
     get() = synchronized(this.bookLock) {
       Preconditions.checkArgument(!this.deleted, "Entry must not have been deleted")
+      this.loadBookIfNecessary()
       return this.formatHandlesRef.values.toList()
     }
 
@@ -96,10 +119,24 @@ internal class BookDatabaseEntry internal constructor(
           }
         }
     }
+  }
+
+  private fun loadBookIfNecessary() {
+    synchronized(this.bookLock) {
+      if (this.bookLoaded == null) {
+        this.loadBook()
+      }
+    }
+  }
 
-    val objectMapper = ObjectMapper()
+  private fun loadBook(): Book {
     synchronized(this.bookLock) {
-      this.bookRef.entry.acquisitions.forEach { acquisition ->
+      val book = this.bookLoader!!.invoke()
+      this.bookLoaded = book
+      this.bookLoader = null
+
+      val objectMapper = JSONObjectMappers.mapper()
+      book.entry.acquisitions.forEach { acquisition ->
         createFormatHandleIfRequired(
           context = this.context,
           logger = LOG,
@@ -114,8 +151,10 @@ internal class BookDatabaseEntry internal constructor(
         )
       }
 
-      this.bookRef =
-        this.bookRef.copy(formats = this.formatHandlesRef.map { (_, handle) -> handle.format })
+      val loaded =
+        book.copy(formats = this.formatHandlesRef.map { (_, handle) -> handle.format })
+      this.bookLoaded = loaded
+      return loaded
     }
   }
 
@@ -145,9 +184,7 @@ internal class BookDatabaseEntry internal constructor(
         FileUtilities.fileWriteUTF8Atomically(
           fileMeta,
           fileMetaTmp,
-          JSONSerializerUtilities.serializeToString(
-            this.serializer.serializeFeedEntry(opdsEntry)
-          )
+          this.serializer.serializeFeedEntryToString(opdsEntry)
         )
 
         this.bookRef = this.bookRef.copy(entry = opdsEntry)
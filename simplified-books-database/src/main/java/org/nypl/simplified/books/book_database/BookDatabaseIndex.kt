@@ -0,0 +1,176 @@
+package org.nypl.simplified.books.book_database
+
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.files.FileUtilities
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.util.zip.CRC32
+
+/**
+ * The index of a book database.
+ *
+ * The index records, for each book whose `meta.json` file was successfully parsed, the
+ * size and modification time of that file along with a summary of the book's OPDS entry:
+ * the entry in its compact serialized form. A book whose `meta.json` file still has the
+ * recorded size and modification time is known to be readable, and so its `meta.json`
+ * file needn't be read when the database is opened, and the (comparatively expensive)
+ * parsing of its summary is deferred until the book is first accessed. Books that are not
+ * in the index, or whose files have changed, must be parsed when the database is opened.
+ *
+ * The index is read in a single operation, and is only ever used as a hint: a missing,
+ * stale, or corrupt index simply causes more books to be parsed eagerly. Each summary is
+ * stored with a checksum, so that a damaged summary is detected when the index is loaded.
+ */
+
+internal class BookDatabaseIndex private constructor(
+  val books: Map<BookID, Indexed>
+) {
+
+  /**
+   * A summary of the `meta.json` file of a book.
+   */
+
+  data class Record(
+    val metaSize: Long,
+    val metaLastModified: Long
+  ) {
+    companion object {
+
+      /**
+       * @return A summary of the given `meta.json` file, or `null` if it doesn't exist
+       */
+
+      fun ofFile(fileMeta: File): Record? {
+        if (!fileMeta.isFile) {
+          return null
+        }
+        return Record(
+          metaSize = fileMeta.length(),
+          metaLastModified = fileMeta.lastModified()
+        )
+      }
+    }
+  }
+
+  /**
+   * An indexed book: the summary of its `meta.json` file, and its OPDS entry in compact
+   * serialized form.
+   */
+
+  data class Indexed(
+    val record: Record,
+    val entry: String
+  )
+
+  /**
+   * @return The serialized entry of the given book, if the index records exactly the given
+   * summary for the book
+   */
+
+  fun entryIfCurrent(
+    bookID: BookID,
+    record: Record?
+  ): String? {
+    val indexed = this.books[bookID] ?: return null
+    return if (indexed.record == record) indexed.entry else null
+  }
+
+  companion object {
+
+    private val LOG = LoggerFactory.getLogger(BookDatabaseIndex::class.java)
+
+    private const val INDEX_NAME = "index.txt"
+    private const val INDEX_VERSION = "BOOK_DATABASE_INDEX 2"
+
+    /**
+     * @return `true` if the given name is the name of an index file, rather than a book
+     */
+
+    fun isIndexFile(name: String): Boolean =
+      name.startsWith(INDEX_NAME)
+
+    /**
+     * Load the index in the given database directory. A missing or unreadable index
+     * results in an empty index.
+     */
+
+    fun load(directory: File): BookDatabaseIndex {
+      val file = File(directory, INDEX_NAME)
+      if (!file.isFile) {
+        return BookDatabaseIndex(emptyMap())
+      }
+
+      return try {
+        val lines = file.readLines()
+        if (lines.firstOrNull() != INDEX_VERSION) {
+          LOG.debug("ignoring index with unrecognized version: {}", file)
+          return BookDatabaseIndex(emptyMap())
+        }
+
+        val books = mutableMapOf<BookID, Indexed>()
+        for (line in lines.drop(1)) {
+          val segments = line.split(' ', limit = 5)
+          if (segments.size != 5 || !BookID.isBookID(segments[0])) {
+            continue
+          }
+          val size = segments[1].toLongOrNull() ?: continue
+          val time = segments[2].toLongOrNull() ?: continue
+          val entry = segments[4]
+          if (segments[3] != checksumOf(entry)) {
+            LOG.debug("ignoring damaged index entry for {}", segments[0])
+            continue
+          }
+
+          books[BookID.create(segments[0])] = Indexed(Record(size, time), entry)
+        }
+        BookDatabaseIndex(books.toMap())
+      } catch (e: IOException) {
+        LOG.debug("unable to read index {}: ", file, e)
+        BookDatabaseIndex(emptyMap())
+      }
+    }
+
+    /**
+     * Write an index of the given books to the given database directory. The serialized
+     * entries must not contain line breaks.
+     */
+
+    fun write(
+      directory: File,
+      books: Map<BookID, Indexed>
+    ) {
+      val text = StringBuilder(64 + (books.size * 2048))
+      text.append(INDEX_VERSION)
+      text.append('\n')
+      for ((bookID, book) in books) {
+        text.append(bookID.toString())
+        text.append(' ')
+        text.append(book.record.metaSize)
+        text.append(' ')
+        text.append(book.record.metaLastModified)
+        text.append(' ')
+        text.append(checksumOf(book.entry))
+        text.append(' ')
+        text.append(book.entry)
+        text.append('\n')
+      }
+
+      try {
+        FileUtilities.fileWriteUTF8Atomically(
+          File(directory, INDEX_NAME),
+          File(directory, "$INDEX_NAME.tmp"),
+          text.toString()
+        )
+      } catch (e: IOException) {
+        LOG.debug("unable to write index: ", e)
+      }
+    }
+
+    private fun checksumOf(entry: String): String {
+      val crc = CRC32()
+      crc.update(entry.toByteArray(Charsets.UTF_8))
+      return java.lang.Long.toHexString(crc.value)
+    }
+  }
+}
@@ -6,10 +6,10 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseException
 import org.nypl.simplified.books.book_database.api.BookDatabaseFactoryType
 import org.nypl.simplified.books.book_database.api.BookDatabaseType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
-import org.nypl.simplified.opds.core.OPDSJSONParser
+import org.nypl.simplified.opds.core.OPDSJSONStreamingParser
 import org.nypl.simplified.opds.core.OPDSJSONParserType
-import org.nypl.simplified.opds.core.OPDSJSONSerializer
 import org.nypl.simplified.opds.core.OPDSJSONSerializerType
+import org.nypl.simplified.opds.core.OPDSJSONStreamingSerializer
 import java.io.File
 
 object BookDatabases : BookDatabaseFactoryType {
@@ -42,8 +42,8 @@ object BookDatabases : BookDatabaseFactoryType {
   ): BookDatabaseType {
     return BookDatabase.open(
       context = context,
-      parser = OPDSJSONParser.newParser(),
-      serializer = OPDSJSONSerializer.newSerializer(),
+      parser = OPDSJSONStreamingParser.newParser(),
+      serializer = OPDSJSONStreamingSerializer.newSerializer(),
       formats = formats,
       owner = owner,
       directory = directory
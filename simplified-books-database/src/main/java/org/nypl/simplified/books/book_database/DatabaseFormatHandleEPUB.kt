@@ -151,6 +151,22 @@ internal class DatabaseFormatHandleEPUB internal constructor(
     this.parameters.onUpdated.invoke(newFormat)
   }
 
+  override fun moveInBook(file: File) {
+    if (file.isDirectory) {
+      this.copyInBook(file)
+      DirectoryUtilities.directoryDelete(file)
+      return
+    }
+
+    val newFormat = synchronized(this.dataLock) {
+      FileUtilities.fileMove(file, this.fileBook)
+      this.formatRef = this.formatRef.copy(file = this.fileBook)
+      this.formatRef
+    }
+
+    this.parameters.onUpdated.invoke(newFormat)
+  }
+
   override fun setLastReadLocation(bookmark: Bookmark?) {
     val newFormat = synchronized(this.dataLock) {
       if (bookmark != null) {
@@ -124,6 +124,16 @@ internal class DatabaseFormatHandlePDF internal constructor(
     this.parameters.onUpdated.invoke(newFormat)
   }
 
+  override fun moveInBook(file: File) {
+    val newFormat = synchronized(this.dataLock) {
+      FileUtilities.fileMove(file, this.fileBook)
+      this.formatRef = this.formatRef.copy(file = this.fileBook)
+      this.formatRef
+    }
+
+    this.parameters.onUpdated.invoke(newFormat)
+  }
+
   override fun setLastReadLocation(pageNumber: Int?) {
     val newFormat = synchronized(this.dataLock) {
       if (pageNumber != null) {
@@ -1,26 +1,79 @@
 package org.nypl.simplified.books.book_registry
 
+import com.google.common.collect.Maps
 import com.io7m.jfunctional.FunctionType
 import com.io7m.jfunctional.Option
 import com.io7m.jfunctional.OptionType
 import io.reactivex.Observable
 import io.reactivex.subjects.PublishSubject
+import io.reactivex.subjects.Subject
 import org.nypl.simplified.books.api.BookID
 import org.slf4j.LoggerFactory
 import java.util.Collections
 import java.util.SortedMap
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentSkipListMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
 
-class BookRegistry private constructor(
-  private val books: ConcurrentSkipListMap<BookID, BookWithStatus>
-) : BookRegistryType {
+/**
+ * The default book registry.
+ *
+ * Every change to a book is made with a single atomic `compute` operation on the
+ * book's key, and each change that takes effect is given a version number taken
+ * from a monotonic counter. Because a change is only committed if the book has not
+ * been changed since the change was computed, the versions of the changes made to
+ * any one book always increase in the order in which the changes were committed,
+ * and no change can silently overwrite a change that it did not observe.
+ *
+ * Events are published separately for each book: the first thread to publish for a
+ * book publishes the difference between the last published version and the current
+ * version until no other thread has asked to publish for that book. Events for a
+ * given book are therefore never published out of order, although intermediate
+ * versions may be coalesced under contention. No lock is shared between books; the
+ * only exclusive lock is taken by [replaceAll].
+ */
+
+class BookRegistry private constructor() : BookRegistryType {
+
+  private class Versioned(
+    val book: BookWithStatus,
+    val version: Long
+  )
+
+  private class Publisher(
+    @Volatile var published: Versioned?
+  ) {
+    val requests = AtomicInteger(0)
+  }
 
   private val logger =
     LoggerFactory.getLogger(BookRegistry::class.java)
-  private val booksReadOnly: SortedMap<BookID, BookWithStatus> =
-    Collections.unmodifiableSortedMap(this.books)
-  private val observable: PublishSubject<BookStatusEvent> =
-    PublishSubject.create()
+  private val observable: Subject<BookStatusEvent> =
+    PublishSubject.create<BookStatusEvent>().toSerialized()
+  private val versions =
+    AtomicLong(0L)
+  private val publishers =
+    ConcurrentHashMap<BookID, Publisher>()
+
+  /*
+   * Updates to individual books hold the (shared) read lock, so that a replacement of
+   * the entire map cannot lose concurrent updates. Readers never take the lock.
+   */
+
+  private val replaceLock =
+    ReentrantReadWriteLock()
+
+  @Volatile
+  private var books: ConcurrentSkipListMap<BookID, Versioned> =
+    ConcurrentSkipListMap()
+
+  @Volatile
+  private var booksReadOnly: SortedMap<BookID, BookWithStatus> =
+    viewOf(this.books)
 
   override fun books(): SortedMap<BookID, BookWithStatus> {
     return this.booksReadOnly
@@ -35,73 +88,173 @@ class BookRegistry private constructor(
   }
 
   override fun book(id: BookID): OptionType<BookWithStatus> {
-    return Option.of(this.books[id])
+    return Option.of(this.books[id]?.book)
   }
 
   override fun update(status: BookWithStatus) {
-    val oldStatus = this.books[status.book.id]
-    this.books[status.book.id] = status
-    this.publishUpdateEvent(oldStatus, status)
+    this.modify(status.book.id) { status }
   }
 
-  private fun publishUpdateEvent(oldStatus: BookWithStatus?, newStatus: BookWithStatus) {
-    if (newStatus.status == oldStatus?.status) {
-      return
-    }
-
-    val event =
-      if (oldStatus == null) {
-        BookStatusEvent.BookStatusEventAdded(
-          bookId = newStatus.book.id,
-          statusNow = newStatus.status
-        )
+  override fun updateIfStatusIsMoreImportant(status: BookWithStatus) {
+    this.modify(status.book.id) { current ->
+      if (current == null || current.status.priority.priority <= status.status.priority.priority) {
+        status
       } else {
-        BookStatusEvent.BookStatusEventChanged(
-          bookId = oldStatus.book.id,
-          statusPrevious = oldStatus.status,
-          statusNow = newStatus.status
-        )
+        current
       }
-
-    this.observable.onNext(event)
+    }
   }
 
-  override fun updateIfStatusIsMoreImportant(status: BookWithStatus) {
-    val current = this.books[status.book.id]
-    if (current != null) {
-      val currentPri = current.status.priority
-      val updatePri = status.status.priority
-
-      if (currentPri.priority <= updatePri.priority) {
-        this.logger.debug("current {} <= {}, updating", current, status)
-        this.update(status)
-        return
+  override fun replaceAll(books: Collection<BookWithStatus>) {
+    val booksNew = ConcurrentSkipListMap<BookID, Versioned>()
+    for (book in books) {
+      booksNew[book.book.id] = Versioned(book, this.versions.incrementAndGet())
+    }
+
+    this.replaceLock.write {
+      val booksPrevious = this.booksReadOnly
+      this.books = booksNew
+      this.booksReadOnly = viewOf(booksNew)
+
+      /*
+       * No thread can be publishing while the write lock is held, so the published
+       * versions can simply be reset to the new contents.
+       */
+
+      this.publishers.clear()
+      for ((id, versioned) in booksNew) {
+        this.publishers[id] = Publisher(versioned)
       }
 
-      this.logger.debug("current {} > {}, not updating", current, status)
-    } else {
-      this.update(status)
+      this.logger.debug("replaced {} books with {} books", booksPrevious.size, booksNew.size)
+      this.observable.onNext(
+        BookStatusEvent.BookStatusEventSnapshot(
+          booksPrevious = booksPrevious,
+          booksNow = this.booksReadOnly
+        )
+      )
     }
   }
 
   override fun clear() {
-    val entries = this.books.toMap()
-    for (entry in entries) {
-      this.observable.onNext(BookStatusEvent.BookStatusEventRemoved(entry.key, entry.value.status))
+    for (id in this.books.keys.toList()) {
+      this.clearFor(id)
     }
-    this.books.clear()
   }
 
   override fun clearFor(id: BookID) {
-    val oldStatus = this.books.remove(id)
-    if (oldStatus != null) {
-      this.observable.onNext(BookStatusEvent.BookStatusEventRemoved(id, oldStatus.status))
+    this.modify(id) { null }
+  }
+
+  /**
+   * Atomically replace the book with the given ID with the result of `f`. The function
+   * may be evaluated more than once if the book is concurrently modified, and must
+   * therefore not have side effects. If `f` returns the book it was given, nothing
+   * changes. If `f` returns `null`, the book is removed.
+   */
+
+  private fun modify(
+    id: BookID,
+    f: (BookWithStatus?) -> BookWithStatus?
+  ) {
+    this.replaceLock.read {
+      this.books.compute(id) { _, current ->
+        val next = f(current?.book)
+        when {
+          next == null -> null
+          next === current?.book -> current
+          else -> Versioned(next, this.versions.incrementAndGet())
+        }
+      }
+      this.publish(id)
+    }
+  }
+
+  /**
+   * Publish the changes made to the given book since the last publication. If another
+   * thread is already publishing for the book, that thread is asked to publish once
+   * more, and this thread returns immediately.
+   *
+   * Requests to publish are counted, and the count is decremented when a publisher
+   * stops, inside `compute` operations on the book's key. This allows the publisher of
+   * a book that has been removed to be discarded once it has published the removal,
+   * without racing with a thread that is about to ask it to publish again.
+   */
+
+  private fun publish(id: BookID) {
+    var first = false
+    val publisher =
+      this.publishers.compute(id) { _, existing ->
+        val publisher = existing ?: Publisher(null)
+        first = publisher.requests.getAndIncrement() == 0
+        publisher
+      }!!
+
+    if (!first) {
+      return
+    }
+
+    var missed = 1
+    while (true) {
+      val previous = publisher.published
+      val current = this.books[id]
+      if (current?.version != previous?.version) {
+        publisher.published = current
+        eventOf(id, previous, current)?.let(this.observable::onNext)
+      }
+
+      this.publishers.compute(id) { _, existing ->
+        missed = publisher.requests.addAndGet(-missed)
+        if (missed == 0 && publisher.published == null && existing === publisher) {
+          null
+        } else {
+          existing
+        }
+      }
+      if (missed == 0) {
+        return
+      }
     }
   }
 
   companion object {
     fun create(): BookRegistryType {
-      return BookRegistry(ConcurrentSkipListMap())
+      return BookRegistry()
+    }
+
+    private fun viewOf(
+      books: SortedMap<BookID, Versioned>
+    ): SortedMap<BookID, BookWithStatus> {
+      return Collections.unmodifiableSortedMap(Maps.transformValues(books) { v -> v!!.book })
+    }
+
+    private fun eventOf(
+      id: BookID,
+      previous: Versioned?,
+      current: Versioned?
+    ): BookStatusEvent? {
+      return when {
+        previous == null && current == null ->
+          null
+        previous == null ->
+          BookStatusEvent.BookStatusEventAdded(
+            bookId = id,
+            statusNow = current!!.book.status
+          )
+        current == null ->
+          BookStatusEvent.BookStatusEventRemoved(
+            bookId = id,
+            statusPrevious = previous.book.status
+          )
+        current.book.status == previous.book.status ->
+          null
+        else ->
+          BookStatusEvent.BookStatusEventChanged(
+            bookId = id,
+            statusPrevious = previous.book.status,
+            statusNow = current.book.status
+          )
+      }
     }
   }
 }
@@ -23,6 +23,15 @@ interface BookRegistryType : BookRegistryReadableType {
 
   fun updateIfStatusIsMoreImportant(status: BookWithStatus)
 
+  /**
+   * Replace the entire contents of the registry with the given books. Readers observe
+   * either the old contents or the new contents, and a single
+   * [BookStatusEvent.BookStatusEventSnapshot] is published instead of an event for each
+   * book that was added, changed, or removed.
+   */
+
+  fun replaceAll(books: Collection<BookWithStatus>)
+
   /**
    * Clear the book registry.
    */
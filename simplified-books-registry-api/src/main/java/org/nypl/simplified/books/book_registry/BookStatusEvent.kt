@@ -2,6 +2,7 @@ package org.nypl.simplified.books.book_registry
 
 import org.nypl.simplified.books.api.BookEvent
 import org.nypl.simplified.books.api.BookID
+import java.util.SortedMap
 
 /**
  * The type of book status events.
@@ -10,22 +11,29 @@ import org.nypl.simplified.books.api.BookID
 sealed class BookStatusEvent : BookEvent() {
 
   /**
-   * @return The ID of the book in question
+   * The previous book status, if the event concerns a single book.
    */
 
-  abstract val bookId: BookID
+  abstract val statusPrevious: BookStatus?
 
   /**
-   * The previous book status.
+   * The current book status, if the event concerns a single book.
    */
 
-  abstract val statusPrevious: BookStatus?
+  abstract val statusNow: BookStatus?
 
   /**
-   * The current book status.
+   * The type of events that concern a single book.
    */
 
-  abstract val statusNow: BookStatus?
+  sealed class BookStatusEventForBook : BookStatusEvent() {
+
+    /**
+     * @return The ID of the book in question
+     */
+
+    abstract val bookId: BookID
+  }
 
   /**
    * A new book status was added to the registry.
@@ -34,7 +42,7 @@ sealed class BookStatusEvent : BookEvent() {
   data class BookStatusEventAdded(
     override val bookId: BookID,
     override val statusNow: BookStatus,
-  ) : BookStatusEvent() {
+  ) : BookStatusEventForBook() {
     override val statusPrevious: BookStatus? =
       null
   }
@@ -46,7 +54,7 @@ sealed class BookStatusEvent : BookEvent() {
   data class BookStatusEventRemoved(
     override val bookId: BookID,
     override val statusPrevious: BookStatus,
-  ) : BookStatusEvent() {
+  ) : BookStatusEventForBook() {
     override val statusNow: BookStatus? =
       null
   }
@@ -59,5 +67,21 @@ sealed class BookStatusEvent : BookEvent() {
     override val bookId: BookID,
     override val statusPrevious: BookStatus?,
     override val statusNow: BookStatus
-  ) : BookStatusEvent()
+  ) : BookStatusEventForBook()
+
+  /**
+   * The entire contents of the registry were replaced at once. Subscribers that track
+   * individual books should re-read the books they are interested in from [booksNow]
+   * rather than expecting an event for each book.
+   */
+
+  data class BookStatusEventSnapshot(
+    val booksPrevious: SortedMap<BookID, BookWithStatus>,
+    val booksNow: SortedMap<BookID, BookWithStatus>
+  ) : BookStatusEvent() {
+    override val statusPrevious: BookStatus? =
+      null
+    override val statusNow: BookStatus? =
+      null
+  }
 }
@@ -47,6 +47,23 @@ interface BuildConfigurationCatalogType {
 
   val showOELogin: Boolean
 
+  /**
+   * Should catalog feeds be parsed with the streaming (SAX) parser rather than
+   * by building a complete DOM for each feed?
+   */
+
+  val useStreamingFeedParser: Boolean
+    get() = true
+
+  /**
+   * Should catalog feeds be requested in OPDS 2.0 format from servers that can serve
+   * it? OPDS 2.0 feeds are converted without indirect acquisitions, availability, or
+   * DRM information, so this should remain disabled until the conversion is complete.
+   */
+
+  val requestOPDS2Feeds: Boolean
+    get() = false
+
   /**
    * Enable/disable returning books.
    */
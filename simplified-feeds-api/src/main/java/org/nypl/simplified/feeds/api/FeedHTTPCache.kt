@@ -0,0 +1,439 @@
+package org.nypl.simplified.feeds.api
+
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.files.Digests
+import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.files.HTTPValidatorsFile
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.URI
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A size-bounded disk cache of raw feed documents, keyed by account, URI, and whether
+ * or not the feed was requested with the account's credentials.
+ *
+ * Each cached feed is stored along with the `ETag` and `Last-Modified` validators
+ * that the server delivered with it, so that the feed can be revalidated with a
+ * conditional request. When the total size of the cached feeds exceeds the given
+ * maximum, the least recently used feeds are evicted. Feeds may be fetched with an
+ * account's credentials, so the feeds of an account should be removed with [clearFor]
+ * when the account is logged out or deleted.
+ */
+
+class FeedHTTPCache(
+  private val directory: File,
+  private val maximumSizeBytes: Long
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(FeedHTTPCache::class.java)
+
+  private val lock = Any()
+
+  private val hits = AtomicLong(0L)
+  private val misses = AtomicLong(0L)
+  private val revalidations = AtomicLong(0L)
+  private val offlineHits = AtomicLong(0L)
+
+  init {
+    this.directory.mkdirs()
+  }
+
+  /**
+   * A cached feed.
+   */
+
+  data class Entry(
+    val uri: URI,
+    val validators: HTTPValidators,
+    val file: File
+  )
+
+  /**
+   * The cache statistics.
+   */
+
+  data class Statistics(
+
+    /**
+     * The number of requests that were answered with `304 Not Modified` and served
+     * from the cache.
+     */
+
+    val hits: Long,
+
+    /**
+     * The number of requests for which the feed had to be downloaded.
+     */
+
+    val misses: Long,
+
+    /**
+     * The number of conditional requests sent to the server.
+     */
+
+    val revalidations: Long,
+
+    /**
+     * The number of requests that failed to reach the server and were served from
+     * the cache.
+     */
+
+    val offlineHits: Long
+  )
+
+  /**
+   * @return The current cache statistics
+   */
+
+  fun statistics(): Statistics =
+    Statistics(
+      hits = this.hits.get(),
+      misses = this.misses.get(),
+      revalidations = this.revalidations.get(),
+      offlineHits = this.offlineHits.get()
+    )
+
+  /**
+   * Find the cached feed for the given account and URI, if any.
+   */
+
+  fun find(
+    accountID: AccountID,
+    uri: URI,
+    authenticated: Boolean
+  ): Entry? {
+    val key = this.keyOf(accountID, uri, authenticated)
+    synchronized(this.lock) {
+      val bodyFile = File(this.directory, "$key.body")
+      if (!bodyFile.isFile) {
+        return null
+      }
+
+      val meta = this.metaOf(key).load() ?: return null
+
+      /*
+       * Guard against the (astronomically unlikely) case of a hash collision.
+       */
+
+      if (meta.property("uri") != uri.toString()) {
+        return null
+      }
+
+      return Entry(
+        uri = uri,
+        validators = meta.validators,
+        file = bodyFile
+      )
+    }
+  }
+
+  /**
+   * Record that a conditional request is about to be sent for the given entry.
+   */
+
+  fun onRevalidating(entry: Entry) {
+    this.logger.debug("revalidating {}", entry.uri)
+    this.revalidations.incrementAndGet()
+  }
+
+  /**
+   * Record that the server confirmed that the given entry is still fresh, and open it.
+   *
+   * @return The cached feed, or `null` if the entry was evicted after it was found
+   */
+
+  fun onNotModified(entry: Entry): InputStream? {
+    this.logger.debug("not modified {}", entry.uri)
+    val stream = this.open(entry) ?: return null
+    this.hits.incrementAndGet()
+    return stream
+  }
+
+  /**
+   * Record that the server could not be reached, and open the given entry instead.
+   *
+   * @return The cached feed, or `null` if the entry was evicted after it was found
+   */
+
+  fun onOffline(entry: Entry): InputStream? {
+    this.logger.debug("offline, serving cached {}", entry.uri)
+    val stream = this.open(entry) ?: return null
+    this.offlineHits.incrementAndGet()
+    return stream
+  }
+
+  /**
+   * Open the given entry, if it has not been evicted. The entry is opened with the lock
+   * held so that it cannot be evicted whilst it is opened; an open file remains readable
+   * after it has been deleted.
+   */
+
+  private fun open(entry: Entry): InputStream? {
+    synchronized(this.lock) {
+      return try {
+        val stream = FileInputStream(entry.file)
+        this.touch(entry)
+        stream
+      } catch (e: FileNotFoundException) {
+        this.logger.debug("cached {} was evicted", entry.uri)
+        null
+      }
+    }
+  }
+
+  /**
+   * Record that a fresh copy of the feed is being downloaded. The returned stream
+   * delivers the bytes of `stream` unchanged; the feed is added to the cache if, and
+   * only if, the stream is read to the end.
+   */
+
+  fun onDownloading(
+    accountID: AccountID,
+    uri: URI,
+    authenticated: Boolean,
+    validators: HTTPValidators,
+    stream: InputStream
+  ): InputStream {
+    this.misses.incrementAndGet()
+
+    val key = this.keyOf(accountID, uri, authenticated)
+    val bodyTemp = File(this.directory, "$key.${UUID.randomUUID()}.tmp")
+    val output = try {
+      FileOutputStream(bodyTemp)
+    } catch (e: IOException) {
+      this.logger.debug("unable to create cache file {}: ", bodyTemp, e)
+      return stream
+    }
+
+    return CachingInputStream(
+      delegate = stream,
+      output = output,
+      onFinished = { complete ->
+        if (complete) {
+          this.commit(key, uri, validators, bodyTemp)
+        } else {
+          bodyTemp.delete()
+        }
+      }
+    )
+  }
+
+  /**
+   * Remove all cached feeds.
+   */
+
+  fun clear() {
+    synchronized(this.lock) {
+      this.directory.listFiles()?.forEach { file -> file.delete() }
+    }
+  }
+
+  /**
+   * Remove all cached feeds of the given account. Feeds of the account that are still
+   * being downloaded are not added to the cache.
+   */
+
+  fun clearFor(accountID: AccountID) {
+    val prefix = this.prefixOf(accountID)
+    synchronized(this.lock) {
+      this.directory.listFiles { file -> file.name.startsWith(prefix) }
+        ?.forEach { file -> file.delete() }
+    }
+  }
+
+  private fun commit(
+    key: String,
+    uri: URI,
+    validators: HTTPValidators,
+    bodyTemp: File
+  ) {
+    synchronized(this.lock) {
+
+      /*
+       * The temporary file is deleted if the account's feeds were cleared whilst the feed
+       * was being downloaded, in which case the feed must not be cached.
+       */
+
+      if (!bodyTemp.isFile) {
+        this.logger.debug("not caching {}: the account's feeds were cleared", uri)
+        return
+      }
+
+      val bodyFile = File(this.directory, "$key.body")
+      val meta = this.metaOf(key)
+      try {
+        FileUtilities.fileRename(bodyTemp, bodyFile)
+        meta.store(validators, mapOf("uri" to uri.toString()))
+        this.logger.debug("cached {} ({} bytes)", uri, bodyFile.length())
+        this.evict()
+      } catch (e: IOException) {
+        this.logger.debug("unable to cache {}: ", uri, e)
+        bodyTemp.delete()
+        bodyFile.delete()
+        meta.delete()
+      }
+    }
+  }
+
+  private fun touch(entry: Entry) {
+    entry.file.setLastModified(System.currentTimeMillis())
+  }
+
+  private fun evict() {
+    val bodies =
+      this.directory.listFiles { file -> file.name.endsWith(".body") }
+        ?: return
+
+    var total = bodies.sumOf { file -> file.length() }
+    if (total <= this.maximumSizeBytes) {
+      return
+    }
+
+    for (body in bodies.sortedBy { file -> file.lastModified() }) {
+      if (total <= this.maximumSizeBytes) {
+        break
+      }
+      val key = body.name.removeSuffix(".body")
+      this.logger.debug("evicting {}", key)
+      total -= body.length()
+      body.delete()
+      this.metaOf(key).delete()
+    }
+  }
+
+  private fun metaOf(key: String): HTTPValidatorsFile =
+    HTTPValidatorsFile(File(this.directory, "$key.meta"))
+
+  /**
+   * The names of the files of each cached feed start with the feed's account, so that
+   * the feeds of an account can be found without reading every entry.
+   */
+
+  private fun prefixOf(accountID: AccountID): String =
+    "${accountID.uuid}-"
+
+  private fun keyOf(
+    accountID: AccountID,
+    uri: URI,
+    authenticated: Boolean
+  ): String {
+    val digest = Digests.sha256()
+    digest.update(uri.toString().toByteArray())
+    digest.update(0)
+    digest.update(if (authenticated) 1.toByte() else 0.toByte())
+    return this.prefixOf(accountID) + Digests.hexOf(digest.digest())
+  }
+
+  /**
+   * A stream that copies everything read from the delegate stream to an output stream.
+   * Consumers are not obliged to read a stream to the end, so a stream that is closed
+   * early is drained up to a small limit in order to complete the copy.
+   */
+
+  private class CachingInputStream(
+    delegate: InputStream,
+    private val output: OutputStream,
+    private val onFinished: (Boolean) -> Unit
+  ) : FilterInputStream(delegate) {
+
+    private var complete = false
+    private var failed = false
+    private var closed = false
+
+    override fun read(): Int {
+      val b = super.read()
+      if (b == -1) {
+        this.complete = true
+      } else {
+        this.write(byteArrayOf(b.toByte()), 0, 1)
+      }
+      return b
+    }
+
+    override fun read(
+      buffer: ByteArray,
+      offset: Int,
+      length: Int
+    ): Int {
+      val r = super.read(buffer, offset, length)
+      if (r == -1) {
+        this.complete = true
+      } else {
+        this.write(buffer, offset, r)
+      }
+      return r
+    }
+
+    override fun skip(count: Long): Long {
+      this.failed = true
+      return super.skip(count)
+    }
+
+    private fun write(
+      buffer: ByteArray,
+      offset: Int,
+      length: Int
+    ) {
+      if (this.failed) {
+        return
+      }
+      try {
+        this.output.write(buffer, offset, length)
+      } catch (e: IOException) {
+        this.failed = true
+      }
+    }
+
+    override fun close() {
+      if (this.closed) {
+        return
+      }
+      this.closed = true
+
+      try {
+        if (!this.complete && !this.failed) {
+          this.drain()
+        }
+      } finally {
+        try {
+          this.output.close()
+        } catch (e: IOException) {
+          this.failed = true
+        }
+        try {
+          super.close()
+        } finally {
+          this.onFinished(this.complete && !this.failed)
+        }
+      }
+    }
+
+    private fun drain() {
+      try {
+        val buffer = ByteArray(4096)
+        var remaining = DRAIN_LIMIT
+        while (remaining > 0 && !this.complete) {
+          this.read(buffer, 0, buffer.size)
+          remaining -= buffer.size
+        }
+      } catch (e: IOException) {
+        this.failed = true
+      }
+    }
+  }
+
+  private companion object {
+    const val DRAIN_LIMIT = 65536
+  }
+}
@@ -6,6 +6,7 @@ import org.librarysimplified.http.api.LSHTTPRequestBuilderType
 import org.librarysimplified.http.api.LSHTTPResponseStatus
 import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.accounts.api.setAuthentication
+import org.nypl.simplified.files.HTTPValidators
 import org.nypl.simplified.opds.core.OPDSFeedTransportException
 import org.nypl.simplified.opds.core.OPDSFeedTransportIOException
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
@@ -20,10 +21,24 @@ import java.util.Locale
  * An implementation of the [OPDSFeedTransportType] interface that uses an
  * [HTTPType] instance for communication, supporting optional
  * authentication.
+ *
+ * If a [FeedHTTPCache] is provided, `GET` requests are revalidated against the
+ * cached copy of the feed using `If-None-Match` and `If-Modified-Since`, and the
+ * cached copy is served if the server responds with `304 Not Modified`. If
+ * `serveCachedWhenOffline` is `true`, the cached copy is also served if the server
+ * cannot be reached at all. This is only appropriate for feeds that are displayed
+ * to the user; callers that act on the state of the server must see connection
+ * failures as failures.
+ *
+ * If `acceptOPDS2` is `true`, requests indicate that OPDS 2.0 feeds are preferred
+ * to OPDS 1.2 feeds. Servers that cannot serve OPDS 2.0 continue to return OPDS 1.2.
  */
 
 class FeedHTTPTransport(
-  private val http: LSHTTPClientType
+  private val http: LSHTTPClientType,
+  private val cache: FeedHTTPCache? = null,
+  private val acceptOPDS2: Boolean = false,
+  private val serveCachedWhenOffline: Boolean = false
 ) : OPDSFeedTransportType<AccountReadableType> {
 
   private val logger =
@@ -38,16 +53,65 @@ class FeedHTTPTransport(
   ): InputStream {
     this.logger.debug("get stream: {} {}", uri, account)
 
-    val request =
+    val requestMethod =
+      this.methodOfName(method)
+    val cached =
+      if (requestMethod == LSHTTPRequestBuilderType.Method.Get) {
+        this.cache?.find(account.id, uri, authenticate)
+      } else {
+        null
+      }
+
+    return this.execute(account, uri, requestMethod, authenticate, cached)
+  }
+
+  @Throws(OPDSFeedTransportException::class)
+  private fun execute(
+    account: AccountReadableType,
+    uri: URI,
+    requestMethod: LSHTTPRequestBuilderType.Method,
+    authenticate: Boolean,
+    cached: FeedHTTPCache.Entry?
+  ): InputStream {
+    val builder =
       this.http.newRequest(uri)
-        .setMethod(this.methodOfName(method))
+        .setMethod(requestMethod)
         .apply { if (authenticate) { setAuthentication(account) } }
-        .build()
+        .apply { if (acceptOPDS2) { addHeader("Accept", ACCEPT_OPDS2) } }
+
+    if (cached != null) {
+      this.addValidators(builder, cached)
+    }
+
+    val response = builder.build().execute()
+    val status = response.status
+    if (cached != null && this.isNotModified(status)) {
+      response.close()
+
+      /*
+       * If the cached copy was evicted in the meantime, the feed must be requested again
+       * without the validators.
+       */
 
-    val response = request.execute()
-    return when (val status = response.status) {
-      is LSHTTPResponseStatus.Responded.OK ->
-        status.bodyStream ?: ByteArrayInputStream(ByteArray(0))
+      return this.cache!!.onNotModified(cached)
+        ?: this.execute(account, uri, requestMethod, authenticate, null)
+    }
+
+    return when (status) {
+      is LSHTTPResponseStatus.Responded.OK -> {
+        val stream = status.bodyStream ?: ByteArrayInputStream(ByteArray(0))
+        if (this.cache != null && requestMethod == LSHTTPRequestBuilderType.Method.Get) {
+          this.cache.onDownloading(
+            accountID = account.id,
+            uri = uri,
+            authenticated = authenticate,
+            validators = HTTPValidators.ofHeaders(status.properties.headers),
+            stream = stream
+          )
+        } else {
+          stream
+        }
+      }
 
       is LSHTTPResponseStatus.Responded.Error ->
         throw FeedHTTPTransportException(
@@ -56,11 +120,39 @@ class FeedHTTPTransport(
           report = status.properties.problemReport
         )
 
-      is LSHTTPResponseStatus.Failed ->
-        throw OPDSFeedTransportIOException(
+      is LSHTTPResponseStatus.Failed -> {
+        val offline =
+          if (cached != null && this.serveCachedWhenOffline) {
+            this.cache!!.onOffline(cached)
+          } else {
+            null
+          }
+        offline ?: throw OPDSFeedTransportIOException(
           message = "Connection failed",
           cause = IOException(status.exception)
         )
+      }
+    }
+  }
+
+  private fun addValidators(
+    builder: LSHTTPRequestBuilderType,
+    cached: FeedHTTPCache.Entry
+  ) {
+    if (!cached.validators.isPresent) {
+      return
+    }
+
+    this.cache!!.onRevalidating(cached)
+    cached.validators.eTag?.let { builder.addHeader("If-None-Match", it) }
+    cached.validators.lastModified?.let { builder.addHeader("If-Modified-Since", it) }
+  }
+
+  private fun isNotModified(status: LSHTTPResponseStatus): Boolean {
+    return when (status) {
+      is LSHTTPResponseStatus.Responded.OK -> status.properties.status == 304
+      is LSHTTPResponseStatus.Responded.Error -> status.properties.status == 304
+      is LSHTTPResponseStatus.Failed -> false
     }
   }
 
@@ -74,4 +166,9 @@ class FeedHTTPTransport(
       else -> throw IllegalArgumentException("Unsupported request method: $method")
     }
   }
+
+  private companion object {
+    const val ACCEPT_OPDS2 =
+      "application/opds+json, application/atom+xml;q=0.9, */*;q=0.1"
+  }
 }
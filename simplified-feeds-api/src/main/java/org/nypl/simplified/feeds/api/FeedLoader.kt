@@ -1,8 +1,17 @@
 package org.nypl.simplified.feeds.api
 
+import com.google.common.io.ByteStreams
+import com.google.common.io.CountingInputStream
 import com.google.common.util.concurrent.FluentFuture
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
 import com.io7m.jfunctional.Some
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
+import org.joda.time.DateTime
+import org.joda.time.Duration
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountReadableType
 import org.nypl.simplified.books.bundled.api.BundledContentResolverType
@@ -22,20 +31,41 @@ import org.nypl.simplified.opds.core.OPDSAcquisitionFeed
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSAcquisitionPath
 import org.nypl.simplified.opds.core.OPDSAcquisitionPaths
+import org.nypl.simplified.opds.core.OPDSFeedEntryReceiverType
 import org.nypl.simplified.opds.core.OPDSFeedParserType
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
 import org.nypl.simplified.opds.core.OPDSOpenSearch1_1
 import org.nypl.simplified.opds.core.OPDSSearchLink
+import org.nypl.simplified.opds.core.OPDSParseException
 import org.nypl.simplified.opds.core.OPDSSearchParserType
+import org.nypl.simplified.opds2.parser.api.OPDS2ParsersType
+import org.nypl.simplified.parser.api.ParseResult
 import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
 import java.io.FileNotFoundException
+import java.io.FilterInputStream
+import java.io.InputStream
 import java.net.URI
+import java.security.DigestInputStream
+import java.security.MessageDigest
 import java.util.SortedMap
 import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.atomic.AtomicBoolean
+import javax.annotation.concurrent.GuardedBy
 
 /**
  * The default implementation of the [FeedLoaderType] interface.
+ *
+ * Feeds are parsed with the OPDS 1.2 feed parser unless an OPDS 2.0 parser provider
+ * is given and the server returns an OPDS 2.0 (JSON) feed, in which case the feed is
+ * converted with [FeedOPDS2Converter].
+ *
+ * Feeds fetched with [fetchURI] always use `transport`, and so reflect the state
+ * of the server. Feeds fetched for display ([fetchURIIncrementally] and
+ * [fetchURICached]) use `catalogTransport`, which may serve cached copies of feeds
+ * when the server cannot be reached.
  */
 
 class FeedLoader private constructor(
@@ -44,12 +74,67 @@ class FeedLoader private constructor(
   private val contentResolver: ContentResolverType,
   private val exec: ListeningExecutorService,
   private val parser: OPDSFeedParserType,
+  private val opds2Parsers: OPDS2ParsersType?,
   private val searchParser: OPDSSearchParserType,
-  private val transport: OPDSFeedTransportType<AccountReadableType>
+  private val transport: OPDSFeedTransportType<AccountReadableType>,
+  private val catalogTransport: OPDSFeedTransportType<AccountReadableType>,
+  private val maximumCachedFeeds: Int,
+  private val searchExec: ListeningExecutorService,
+  private val searchCacheDuration: Duration
 ) : FeedLoaderType {
 
   private val log = LoggerFactory.getLogger(FeedLoader::class.java)
 
+  private data class CacheKey(
+    val accountID: AccountID,
+    val uri: URI,
+    val showOnlySupportedBooks: Boolean
+  )
+
+  private class CachedFeed(
+    val feed: Feed,
+    val digest: ByteArray
+  )
+
+  @GuardedBy("feedCache")
+  private val feedCache =
+    object : LinkedHashMap<CacheKey, CachedFeed>(16, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<CacheKey, CachedFeed>?): Boolean =
+        this.size > this@FeedLoader.maximumCachedFeeds
+    }
+
+  @GuardedBy("feedCache")
+  private val feedsRefreshing =
+    mutableSetOf<CacheKey>()
+
+  private val feedRefreshEvents =
+    PublishSubject.create<FeedLoaderRefreshEvent>()
+
+  private data class SearchKey(
+    val accountID: AccountID,
+    val uri: URI
+  )
+
+  private class CachedSearch(
+    val search: OPDSOpenSearch1_1,
+    val expires: DateTime
+  )
+
+  @GuardedBy("searchCache")
+  private val searchCache =
+    mutableMapOf<SearchKey, CachedSearch>()
+
+  /**
+   * A search description fetch that was started while the feed declaring the search
+   * link was still being parsed. Only the first search link in a feed is fetched early;
+   * if the feed's final search link differs, that link is fetched after parsing.
+   */
+
+  private class SearchFetch(
+    val uri: URI,
+    val future: ListenableFuture<OPDSOpenSearch1_1>
+  )
+
   private val filterFlag =
     AtomicBoolean(true)
 
@@ -69,10 +154,58 @@ class FeedLoader private constructor(
       this.exec.submit(
         Callable {
           this.fetchSynchronously(
+            transport = this.transport,
             account = account,
             uri = uri,
             method = method,
-            authenticate = authenticate
+            authenticate = authenticate,
+            onEntry = null
+          )
+        }
+      )
+    )
+  }
+
+  override fun fetchURICached(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean,
+    onEntry: (FeedLoaderEntry) -> Unit
+  ): FluentFuture<FeedLoaderResult> {
+    val key = this.cacheKeyOf(account, uri, method)
+    if (key != null) {
+      val cached = synchronized(this.feedCache) { this.feedCache[key] }
+      if (cached != null) {
+        this.log.debug("serving cached feed {}", uri)
+        this.refreshInBackground(key, account, uri, method, authenticate)
+        return FluentFuture.from(Futures.immediateFuture<FeedLoaderResult>(FeedLoaderSuccess(cached.feed)))
+      }
+    }
+
+    return this.fetchURIIncrementally(account, uri, method, authenticate, onEntry)
+  }
+
+  override fun feedRefreshes(): Observable<FeedLoaderRefreshEvent> =
+    this.feedRefreshEvents
+
+  override fun fetchURIIncrementally(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean,
+    onEntry: (FeedLoaderEntry) -> Unit
+  ): FluentFuture<FeedLoaderResult> {
+    return FluentFuture.from(
+      this.exec.submit(
+        Callable {
+          this.fetchSynchronously(
+            transport = this.catalogTransport,
+            account = account,
+            uri = uri,
+            method = method,
+            authenticate = authenticate,
+            onEntry = onEntry
           )
         }
       )
@@ -80,10 +213,12 @@ class FeedLoader private constructor(
   }
 
   private fun fetchSynchronously(
+    transport: OPDSFeedTransportType<AccountReadableType>,
     account: AccountReadableType,
     uri: URI,
     method: String,
-    authenticate: Boolean
+    authenticate: Boolean,
+    onEntry: ((FeedLoaderEntry) -> Unit)?
   ): FeedLoaderResult {
     try {
       /*
@@ -92,7 +227,7 @@ class FeedLoader private constructor(
        */
 
       if (BundledURIs.isBundledURI(uri)) {
-        return this.parseFromBundledContent(account.id, uri)
+        return this.parseFromBundledContent(account.id, uri, onEntry)
       }
 
       /*
@@ -101,18 +236,48 @@ class FeedLoader private constructor(
        */
 
       if (uri.scheme == "content") {
-        return this.parseFromContentResolver(account.id, uri)
+        return this.parseFromContentResolver(account.id, uri, onEntry)
       }
 
       /*
        * Otherwise, parse the OPDS feed including any embedded search links.
        */
 
+      /*
+       * The digest must cover the entire body, as it does when the feed is refreshed, and
+       * so any data that the parser didn't consume is read after parsing. The parser is
+       * prevented from closing the stream before then.
+       */
+
+      val digest =
+        MessageDigest.getInstance("SHA-256")
+      var searchFetch: SearchFetch? = null
       val opdsFeed =
-        this.transport.getStream(account, uri, method, authenticate)
-          .use { stream -> this.parser.parse(uri, stream) }
+        transport.getStream(account, uri, method, authenticate).use { stream ->
+          val digestStream = DigestInputStream(stream, digest)
+          val feed =
+            this.parse(
+              accountId = account.id,
+              uri = uri,
+              stream = object : FilterInputStream(digestStream) {
+                override fun close() {
+                }
+              },
+              onEntry = onEntry,
+              onSearchLink = { link ->
+                if (searchFetch == null) {
+                  searchFetch = SearchFetch(
+                    uri = link.uri,
+                    future = this.searchFetch(account, link.uri, method, authenticate)
+                  )
+                }
+              }
+            )
+          ByteStreams.exhaust(digestStream)
+          feed
+        }
       val search =
-        this.fetchSearchLink(opdsFeed, account, method, authenticate)
+        this.fetchSearchLink(opdsFeed, account, method, authenticate, searchFetch)
       val feed =
         Feed.fromAcquisitionFeed(
           accountId = account.id,
@@ -121,6 +286,9 @@ class FeedLoader private constructor(
           search = search
         )
 
+      this.cacheKeyOf(account, uri, method)?.let { key ->
+        this.cacheStore(key, CachedFeed(feed, digest.digest()))
+      }
       return FeedLoaderSuccess(feed)
     } catch (e: FeedHTTPTransportException) {
       this.log.error("feed transport exception: ", e)
@@ -151,6 +319,228 @@ class FeedLoader private constructor(
     }
   }
 
+  /**
+   * @return The key under which the given feed is cached, or `null` if the feed is not cacheable
+   */
+
+  private fun cacheKeyOf(
+    account: AccountReadableType,
+    uri: URI,
+    method: String
+  ): CacheKey? {
+    if (!method.equals("GET", ignoreCase = true)) {
+      return null
+    }
+    if (BundledURIs.isBundledURI(uri) || uri.scheme == "content") {
+      return null
+    }
+    return CacheKey(account.id, uri, this.showOnlySupportedBooks)
+  }
+
+  private fun cacheStore(
+    key: CacheKey,
+    cached: CachedFeed
+  ) {
+    synchronized(this.feedCache) {
+      this.feedCache[key] = cached
+    }
+  }
+
+  /**
+   * Revalidate a cached feed on the feed executor, publishing the feed if its content
+   * has changed. At most one revalidation of a given feed is in progress at any time.
+   */
+
+  private fun refreshInBackground(
+    key: CacheKey,
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean
+  ) {
+    synchronized(this.feedCache) {
+      if (!this.feedsRefreshing.add(key)) {
+        return
+      }
+    }
+
+    this.exec.execute {
+      try {
+        this.refreshSynchronously(key, account, uri, method, authenticate)
+      } catch (e: Exception) {
+        this.log.debug("unable to refresh feed {}: ", uri, e)
+      } finally {
+        synchronized(this.feedCache) {
+          this.feedsRefreshing.remove(key)
+        }
+      }
+    }
+  }
+
+  private fun refreshSynchronously(
+    key: CacheKey,
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean
+  ) {
+    val data =
+      this.catalogTransport.getStream(account, uri, method, authenticate)
+        .use { stream -> stream.readBytes() }
+    val digest =
+      MessageDigest.getInstance("SHA-256").digest(data)
+
+    val previous = synchronized(this.feedCache) { this.feedCache[key] }
+    if (previous != null && previous.digest.contentEquals(digest)) {
+      this.log.debug("cached feed {} is unchanged", uri)
+      return
+    }
+
+    this.log.debug("cached feed {} has changed", uri)
+    val opdsFeed =
+      this.parse(account.id, uri, ByteArrayInputStream(data), onEntry = null)
+    val search =
+      this.fetchSearchLink(opdsFeed, account, method, authenticate)
+    val feed =
+      Feed.fromAcquisitionFeed(
+        accountId = account.id,
+        feed = opdsFeed,
+        filter = this::isEntrySupported,
+        search = search
+      )
+
+    /*
+     * The feed was filtered according to the current setting; if that setting has changed
+     * since the refresh began, the feed no longer belongs under this key.
+     */
+
+    if (this.cacheKeyOf(account, uri, method) != key) {
+      this.log.debug("cached feed {} is no longer current; discarding refresh", uri)
+      return
+    }
+
+    this.cacheStore(key, CachedFeed(feed, digest))
+    this.feedRefreshEvents.onNext(
+      FeedLoaderRefreshEvent(
+        accountID = account.id,
+        uri = uri,
+        showOnlySupportedBooks = key.showOnlySupportedBooks,
+        result = FeedLoaderSuccess(feed)
+      )
+    )
+  }
+
+  /**
+   * Parse a feed, delivering each entry that will appear in the resulting [Feed]
+   * to `onEntry` as it is parsed, and each search link to `onSearchLink`.
+   */
+
+  private fun parse(
+    accountId: AccountID,
+    uri: URI,
+    stream: InputStream,
+    onEntry: ((FeedLoaderEntry) -> Unit)?,
+    onSearchLink: (OPDSSearchLink) -> Unit = { }
+  ): OPDSAcquisitionFeed {
+    val receiver =
+      this.receiverOf(accountId, onEntry, onSearchLink)
+    val counted =
+      CountingInputStream(stream)
+    val buffered =
+      BufferedInputStream(counted, 8192)
+
+    val timeThen = System.nanoTime()
+    val opds2Parsers = this.opds2Parsers
+    val opds2 = opds2Parsers != null && this.isJSON(buffered)
+    val feed =
+      if (opds2) {
+        this.parseOPDS2(opds2Parsers!!, uri, buffered, receiver)
+      } else {
+        this.parser.parseIncrementally(uri, buffered, receiver)
+      }
+
+    this.log.debug(
+      "parsed {} feed {} ({} bytes) in {}ms",
+      if (opds2) "OPDS 2.0" else "OPDS 1.2",
+      uri,
+      counted.count,
+      (System.nanoTime() - timeThen) / 1_000_000L
+    )
+    return feed
+  }
+
+  /**
+   * @return `true` if the first significant character of the stream opens a JSON object
+   */
+
+  private fun isJSON(
+    stream: BufferedInputStream
+  ): Boolean {
+    stream.mark(64)
+    try {
+      for (index in 0 until 64) {
+        when (val c = stream.read()) {
+          -1 -> return false
+          0xEF, 0xBB, 0xBF, ' '.code, '\t'.code, '\r'.code, '\n'.code -> continue
+          else -> return c == '{'.code
+        }
+      }
+      return false
+    } finally {
+      stream.reset()
+    }
+  }
+
+  private fun parseOPDS2(
+    parsers: OPDS2ParsersType,
+    uri: URI,
+    stream: InputStream,
+    receiver: OPDSFeedEntryReceiverType
+  ): OPDSAcquisitionFeed {
+    val result =
+      parsers.createParser(uri, stream, warningsAsErrors = false).use { parser -> parser.parse() }
+
+    return when (result) {
+      is ParseResult.Success -> {
+        for (warning in result.warnings) {
+          this.log.warn("{}: {}", warning.source, warning.message)
+        }
+        FeedOPDS2Converter(result.result).convert(receiver)
+      }
+      is ParseResult.Failure -> {
+        for (error in result.errors) {
+          this.log.error("{}:{}:{}: {}", error.source, error.line, error.column, error.message)
+        }
+        throw OPDSParseException(
+          result.errors.firstOrNull()?.message ?: "Unparseable OPDS 2.0 feed"
+        )
+      }
+    }
+  }
+
+  private fun receiverOf(
+    accountId: AccountID,
+    onEntry: ((FeedLoaderEntry) -> Unit)?,
+    onSearchLink: (OPDSSearchLink) -> Unit
+  ): OPDSFeedEntryReceiverType {
+    return object : OPDSFeedEntryReceiverType {
+      override fun onEntry(entry: OPDSAcquisitionFeedEntry) {
+        if (onEntry != null && entry.acquisitions.isNotEmpty() && this@FeedLoader.isEntrySupported(entry)) {
+          onEntry.invoke(
+            FeedLoaderEntry(
+              entry = FeedEntry.FeedEntryOPDS(accountId, entry),
+              groups = entry.groups.map { group -> group.left }
+            )
+          )
+        }
+      }
+
+      override fun onSearchLink(link: OPDSSearchLink) {
+        onSearchLink.invoke(link)
+      }
+    }
+  }
+
   private fun isEntrySupported(
     entry: OPDSAcquisitionFeedEntry
   ): Boolean {
@@ -185,7 +575,8 @@ class FeedLoader private constructor(
 
   private fun parseFromContentResolver(
     accountId: AccountID,
-    uri: URI
+    uri: URI,
+    onEntry: ((FeedLoaderEntry) -> Unit)?
   ): FeedLoaderResult {
     val streamMaybe = this.contentResolver.openInputStream(uri)
     return if (streamMaybe != null) {
@@ -193,7 +584,7 @@ class FeedLoader private constructor(
         FeedLoaderSuccess(
           Feed.fromAcquisitionFeed(
             accountId = accountId,
-            feed = this.parser.parse(uri, stream),
+            feed = this.parse(accountId, uri, stream, onEntry),
             search = null,
             filter = this::isEntrySupported
           )
@@ -223,13 +614,14 @@ class FeedLoader private constructor(
 
   private fun parseFromBundledContent(
     accountId: AccountID,
-    uri: URI
+    uri: URI,
+    onEntry: ((FeedLoaderEntry) -> Unit)?
   ): FeedLoaderSuccess {
     return this.bundledContent.resolve(uri).use { stream ->
       FeedLoaderSuccess(
         Feed.fromAcquisitionFeed(
           accountId = accountId,
-          feed = this.parser.parse(uri, stream),
+          feed = this.parse(accountId, uri, stream, onEntry),
           filter = this::isEntrySupported,
           search = null
         )
@@ -237,23 +629,74 @@ class FeedLoader private constructor(
     }
   }
 
+  /**
+   * Fetch the search description for the given feed, using the fetch that was started
+   * during parsing if it refers to the feed's final search link.
+   */
+
   private fun fetchSearchLink(
     opdsFeed: OPDSAcquisitionFeed,
     account: AccountReadableType,
     method: String,
-    authenticate: Boolean
+    authenticate: Boolean,
+    started: SearchFetch? = null
   ): OPDSOpenSearch1_1? {
     val searchLinkOpt = opdsFeed.feedSearchURI
     return if (searchLinkOpt is Some<OPDSSearchLink>) {
       val searchLink = searchLinkOpt.get()
-      this.transport.getStream(account, searchLink.uri, method, authenticate).use { stream ->
-        return this.searchParser.parse(searchLink.uri, stream)
+      val future =
+        if (started != null && started.uri == searchLink.uri) {
+          started.future
+        } else {
+          this.searchFetch(account, searchLink.uri, method, authenticate)
+        }
+
+      try {
+        future.get()
+      } catch (e: ExecutionException) {
+        throw e.cause ?: e
       }
     } else {
       null
     }
   }
 
+  /**
+   * Fetch the search description at the given URI, answering from the per-account
+   * cache if a sufficiently recent copy is available.
+   */
+
+  private fun searchFetch(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean
+  ): ListenableFuture<OPDSOpenSearch1_1> {
+    val key = SearchKey(account.id, uri)
+    synchronized(this.searchCache) {
+      val cached = this.searchCache[key]
+      if (cached != null && cached.expires.isAfterNow) {
+        this.log.debug("serving cached search description {}", uri)
+        return Futures.immediateFuture(cached.search)
+      }
+    }
+
+    return this.searchExec.submit(
+      Callable {
+        val search =
+          this.transport.getStream(account, uri, method, authenticate).use { stream ->
+            this.searchParser.parse(uri, stream)
+          }
+
+        synchronized(this.searchCache) {
+          this.searchCache.values.removeAll { cached -> !cached.expires.isAfterNow }
+          this.searchCache[key] = CachedSearch(search, DateTime.now().plus(this.searchCacheDuration))
+        }
+        search
+      }
+    )
+  }
+
   companion object {
 
     /**
@@ -267,7 +710,12 @@ class FeedLoader private constructor(
       parser: OPDSFeedParserType,
       searchParser: OPDSSearchParserType,
       transport: OPDSFeedTransportType<AccountReadableType>,
-      bundledContent: BundledContentResolverType
+      bundledContent: BundledContentResolverType,
+      catalogTransport: OPDSFeedTransportType<AccountReadableType> = transport,
+      maximumCachedFeeds: Int = 32,
+      searchExec: ListeningExecutorService = MoreExecutors.newDirectExecutorService(),
+      searchCacheDuration: Duration = Duration.standardHours(1L),
+      opds2Parsers: OPDS2ParsersType? = null
     ): FeedLoaderType {
       return FeedLoader(
         bookFormatSupport = bookFormatSupport,
@@ -275,8 +723,13 @@ class FeedLoader private constructor(
         contentResolver = contentResolver,
         exec = exec,
         parser = parser,
+        opds2Parsers = opds2Parsers,
         searchParser = searchParser,
-        transport = transport
+        transport = transport,
+        catalogTransport = catalogTransport,
+        maximumCachedFeeds = maximumCachedFeeds,
+        searchExec = searchExec,
+        searchCacheDuration = searchCacheDuration
       )
     }
   }
@@ -0,0 +1,21 @@
+package org.nypl.simplified.feeds.api
+
+/**
+ * An entry delivered by a feed loader while the rest of the feed is still loading.
+ */
+
+data class FeedLoaderEntry(
+
+  /**
+   * The entry.
+   */
+
+  val entry: FeedEntry.FeedEntryOPDS,
+
+  /**
+   * The titles of the groups to which the entry belongs. This is empty if the entry
+   * does not belong to any group.
+   */
+
+  val groups: List<String>
+)
@@ -0,0 +1,36 @@
+package org.nypl.simplified.feeds.api
+
+import org.nypl.simplified.accounts.api.AccountID
+import java.net.URI
+
+/**
+ * A feed that was served from the feed loader's cache has been revalidated in the
+ * background, and its content turned out to have changed.
+ */
+
+data class FeedLoaderRefreshEvent(
+
+  /**
+   * The account that owns the feed.
+   */
+
+  val accountID: AccountID,
+
+  /**
+   * The URI of the feed.
+   */
+
+  val uri: URI,
+
+  /**
+   * `true` if the feed contains only the books that the application supports.
+   */
+
+  val showOnlySupportedBooks: Boolean,
+
+  /**
+   * The new feed.
+   */
+
+  val result: FeedLoaderResult.FeedLoaderSuccess
+)
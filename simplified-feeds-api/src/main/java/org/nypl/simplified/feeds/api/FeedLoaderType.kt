@@ -1,6 +1,7 @@
 package org.nypl.simplified.feeds.api
 
 import com.google.common.util.concurrent.FluentFuture
+import io.reactivex.Observable
 import org.nypl.simplified.accounts.api.AccountReadableType
 import java.net.URI
 
@@ -32,4 +33,67 @@ interface FeedLoaderType {
     method: String,
     authenticate: Boolean = true
   ): FluentFuture<FeedLoaderResult>
+
+  /**
+   * Load a feed from the given URI, passing each entry to `onEntry` as soon as it has
+   * been parsed. Entries are delivered on the loader's thread, and are filtered in
+   * the same way as the entries of the resulting feed. The returned future completes
+   * with the full feed exactly as [fetchURI] would.
+   *
+   * The default implementation delivers no entries.
+   *
+   * @param account  The account the URI is associated with
+   * @param uri      The URI
+   * @param onEntry  A function that receives entries as they are parsed
+   *
+   * @return A future that can be used to cancel the loading feed
+   */
+
+  fun fetchURIIncrementally(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean = true,
+    onEntry: (FeedLoaderEntry) -> Unit
+  ): FluentFuture<FeedLoaderResult> {
+    return this.fetchURI(account, uri, method, authenticate)
+  }
+
+  /**
+   * Load a feed from the given URI, answering from the loader's memory cache if the
+   * feed has been loaded recently. A cached feed is returned immediately and is then
+   * revalidated in the background; if its content has changed, the new feed is
+   * published on [feedRefreshes]. A feed that is not cached is loaded exactly as
+   * [fetchURIIncrementally] would load it.
+   *
+   * Callers that need the current state of the server (as opposed to a feed for
+   * display) should use [fetchURI] instead.
+   *
+   * The default implementation does not cache feeds.
+   *
+   * @param account  The account the URI is associated with
+   * @param uri      The URI
+   * @param onEntry  A function that receives entries as they are parsed
+   *
+   * @return A future that can be used to cancel the loading feed
+   */
+
+  fun fetchURICached(
+    account: AccountReadableType,
+    uri: URI,
+    method: String,
+    authenticate: Boolean = true,
+    onEntry: (FeedLoaderEntry) -> Unit = { }
+  ): FluentFuture<FeedLoaderResult> {
+    return this.fetchURIIncrementally(account, uri, method, authenticate, onEntry)
+  }
+
+  /**
+   * @return An observable that publishes feeds that changed on revalidation
+   *
+   * @see fetchURICached
+   */
+
+  fun feedRefreshes(): Observable<FeedLoaderRefreshEvent> =
+    Observable.never()
 }
@@ -0,0 +1,236 @@
+package org.nypl.simplified.feeds.api
+
+import com.io7m.jfunctional.Option
+import org.joda.time.DateTime
+import org.nypl.simplified.links.Link
+import org.nypl.simplified.opds.core.OPDSAcquisition
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeed
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedBuilderType
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoanable
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
+import org.nypl.simplified.opds.core.OPDSFeedEntryReceiverType
+import org.nypl.simplified.opds.core.OPDSSearchLink
+import org.nypl.simplified.opds2.OPDS2Feed
+import org.nypl.simplified.opds2.OPDS2Publication
+import org.nypl.simplified.parser.api.ParseError
+import java.net.URI
+
+/**
+ * A converter from OPDS 2.0 feeds to the acquisition feeds produced by the OPDS 1.2
+ * parsers, so that feeds served in either format can be presented in the same way.
+ *
+ * Each publication becomes an entry, and publications that appear in groups are
+ * placed into groups named after the group titles, as with OPDS 1.2 "collection"
+ * links. A publication that appears in several groups becomes a single entry that
+ * is a member of each of them.
+ *
+ * The OPDS 2.0 model does not currently carry link properties, so the conversion is
+ * lossy: acquisitions have no indirect acquisitions, every publication that is not
+ * open access is assumed to be loanable, and summaries, categories, publishers,
+ * distributors, and loan and hold state are not converted. OPDS 2.0 feeds are
+ * therefore only requested if the build configuration enables them.
+ */
+
+class FeedOPDS2Converter(
+  private val feed: OPDS2Feed
+) {
+
+  private class Member(
+    val publication: OPDS2Publication,
+    val groups: MutableList<Pair<String, URI>>
+  )
+
+  /**
+   * Convert the feed, delivering each entry to `receiver` as it is converted.
+   */
+
+  fun convert(
+    receiver: OPDSFeedEntryReceiverType
+  ): OPDSAcquisitionFeed {
+    val updated =
+      this.feed.metadata.modified ?: DateTime.now()
+
+    val builder =
+      OPDSAcquisitionFeed.newBuilder(
+        this.feed.uri,
+        this.feed.metadata.identifier?.toString() ?: this.feed.uri.toString(),
+        updated,
+        this.feed.metadata.title.title
+      )
+
+    this.linkOf(this.feed.links, "next")?.hrefURI?.let { next ->
+      builder.setNextOption(Option.some(next))
+    }
+
+    this.searchLinkOf(this.feed.links)?.let { search ->
+      builder.setSearchOption(Option.some(search))
+      receiver.onSearchLink(search)
+    }
+
+    for (member in this.membersOf()) {
+      val entry = this.convertPublication(builder, member, updated) ?: continue
+      builder.addEntry(entry)
+      receiver.onEntry(entry)
+    }
+
+    return builder.build()
+  }
+
+  /**
+   * Collect the publications of the feed in order of first appearance, along with the
+   * groups in which each publication appears.
+   */
+
+  private fun membersOf(): Collection<Member> {
+    val members = LinkedHashMap<Any, Member>()
+
+    fun add(publication: OPDS2Publication, group: Pair<String, URI>?) {
+      val key: Any = publication.metadata.identifier ?: publication
+      val member = members.getOrPut(key) { Member(publication, mutableListOf()) }
+      if (group != null) {
+        member.groups.add(group)
+      }
+    }
+
+    for (publication in this.feed.publications) {
+      add(publication, null)
+    }
+    for (group in this.feed.groups) {
+      val uri =
+        this.linkOf(group.links, "self")?.hrefURI ?: this.feed.uri
+      for (publication in group.publications) {
+        add(publication, Pair(group.metadata.title.title, uri))
+      }
+    }
+    return members.values
+  }
+
+  private fun convertPublication(
+    builder: OPDSAcquisitionFeedBuilderType,
+    member: Member,
+    feedUpdated: DateTime
+  ): OPDSAcquisitionFeedEntry? {
+    val publication = member.publication
+    val metadata = publication.metadata
+    val identifier = metadata.identifier
+    if (identifier == null) {
+      builder.addParseError(
+        ParseError(
+          source = this.feed.uri,
+          message = "Publication '${metadata.title.title}' has no identifier"
+        )
+      )
+      return null
+    }
+
+    val acquisitions =
+      publication.links.mapNotNull(this::acquisitionOf)
+    val availability =
+      if (acquisitions.any { a -> a.relation == OPDSAcquisition.Relation.ACQUISITION_OPEN_ACCESS }) {
+        OPDSAvailabilityOpenAccess.get(Option.none())
+      } else {
+        OPDSAvailabilityLoanable.get()
+      }
+
+    val entry =
+      OPDSAcquisitionFeedEntry.newBuilder(
+        identifier.toString(),
+        metadata.title.title,
+        metadata.modified ?: metadata.published ?: feedUpdated,
+        availability
+      )
+
+    for (acquisition in acquisitions) {
+      entry.addAcquisition(acquisition)
+    }
+    for (author in metadata.author) {
+      entry.addAuthor(author.name.name)
+    }
+    for (group in member.groups) {
+      entry.addGroup(group.second, group.first)
+    }
+
+    metadata.published?.let { time ->
+      entry.setPublishedOption(Option.some(time))
+    }
+
+    val images =
+      publication.images.filterIsInstance<Link.LinkBasic>()
+    images.maxByOrNull { image -> image.width ?: 0 }?.let { image ->
+      entry.setCoverOption(Option.some(image.href))
+    }
+    images.minByOrNull { image -> image.width ?: Int.MAX_VALUE }?.let { image ->
+      entry.setThumbnailOption(Option.some(image.href))
+    }
+
+    /*
+     * The alternate link is used to refresh entries with the OPDS 1.2 parser, so
+     * links to OPDS 2.0 publication documents are not usable here.
+     */
+
+    publication.links
+      .find { link ->
+        this.hasRelation(link, "alternate") &&
+          (link.type == null || link.type?.fullType == "application/atom+xml")
+      }
+      ?.hrefURI
+      ?.let { uri -> entry.setAlternateOption(Option.some(uri)) }
+
+    return entry.build()
+  }
+
+  private fun acquisitionOf(
+    link: Link
+  ): OPDSAcquisition? {
+    val uri = link.hrefURI ?: return null
+    val type = link.type ?: return null
+    val relation =
+      OPDSAcquisition.Relation.values().find { relation ->
+        this.hasRelation(link, relation.uri.toString())
+      } ?: return null
+
+    return OPDSAcquisition(
+      relation = relation,
+      uri = uri,
+      type = type,
+      indirectAcquisitions = listOf()
+    )
+  }
+
+  /**
+   * OPDS 2.0 search links are usually templated links to OPDS 2.0 feeds; only links
+   * to OpenSearch descriptions can be used by the feed loader.
+   */
+
+  private fun searchLinkOf(
+    links: List<Link>
+  ): OPDSSearchLink? {
+    val link =
+      links.find { link ->
+        this.hasRelation(link, "search") &&
+          link.hrefURI != null &&
+          link.type?.fullType == "application/opensearchdescription+xml"
+      } ?: return null
+
+    return OPDSSearchLink(link.type!!.fullType, link.hrefURI!!)
+  }
+
+  private fun linkOf(
+    links: List<Link>,
+    relation: String
+  ): Link? {
+    return links.find { link -> this.hasRelation(link, relation) }
+  }
+
+  /**
+   * The converted links carry all of their relations as a space-separated list.
+   */
+
+  private fun hasRelation(
+    link: Link,
+    relation: String
+  ): Boolean {
+    return link.relation?.split(' ')?.contains(relation) ?: false
+  }
+}
@@ -0,0 +1,60 @@
+package org.nypl.simplified.files;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Functions to calculate digests.
+ */
+
+public final class Digests
+{
+  private Digests()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @return A new SHA-256 digest
+   */
+
+  public static MessageDigest sha256()
+  {
+    try {
+      return NullCheck.notNull(MessageDigest.getInstance("SHA-256"));
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param data The data
+   *
+   * @return The SHA-256 digest of the given data, as a lowercase hexadecimal string
+   */
+
+  public static String sha256Hex(final byte[] data)
+  {
+    NullCheck.notNull(data);
+    return Digests.hexOf(Digests.sha256().digest(data));
+  }
+
+  /**
+   * @param digest The completed digest
+   *
+   * @return The given digest as a lowercase hexadecimal string
+   */
+
+  public static String hexOf(final byte[] digest)
+  {
+    NullCheck.notNull(digest);
+    final StringBuilder text = new StringBuilder(digest.length * 2);
+    for (final byte b : digest) {
+      text.append(String.format("%02x", b & 0xff));
+    }
+    return text.toString();
+  }
+}
@@ -14,6 +14,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
 
 /**
@@ -22,6 +23,8 @@ import java.security.SecureRandom;
 
 public final class FileUtilities
 {
+  private static final long TRANSFER_SIZE = 8L * 1024L * 1024L;
+
   private FileUtilities()
   {
     throw new UnreachableCodeException();
@@ -76,6 +79,98 @@ public final class FileUtilities
     }
   }
 
+  /**
+   * Move the file {@code from} to {@code to}, replacing {@code to} if it exists. The file
+   * is renamed if {@code from} and {@code to} are on the same filesystem; otherwise, the
+   * file is copied using channel transfers to a temporary file beside {@code to}, the
+   * temporary file is renamed to {@code to}, and {@code from} is then deleted. In both
+   * cases, {@code to} is never observed partially written.
+   *
+   * @param from The source file
+   * @param to   The target file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void fileMove(
+    final File from,
+    final File to)
+    throws IOException
+  {
+    NullCheck.notNull(from);
+    NullCheck.notNull(to);
+
+    if (from.renameTo(to)) {
+      return;
+    }
+
+    if (from.isFile() == false) {
+      throw new IOException(
+        String.format(
+          "Could not move '%s' to '%s' ('%s' does not exist or is not a file)",
+          from,
+          to,
+          from));
+    }
+
+    final File toTmp =
+      new File(to.getParentFile(), to.getName() + "." + FileUtilities.randomHex(16) + ".tmp");
+
+    try {
+      FileUtilities.fileTransfer(from, toTmp);
+      FileUtilities.fileRename(toTmp, to);
+    } finally {
+      toTmp.delete();
+    }
+    from.delete();
+  }
+
+  /**
+   * Copy the file {@code from} to {@code to} using channel transfers, which allow the
+   * platform to avoid copying the data through user space.
+   */
+
+  private static void fileTransfer(
+    final File from,
+    final File to)
+    throws IOException
+  {
+    final FileInputStream in = new FileInputStream(from);
+    try {
+      final FileOutputStream out = new FileOutputStream(to);
+      try {
+        final FileChannel inChannel = in.getChannel();
+        final FileChannel outChannel = out.getChannel();
+        final long size = inChannel.size();
+
+        long position = 0L;
+        while (position < size) {
+          final long count =
+            inChannel.transferTo(position, Math.min(TRANSFER_SIZE, size - position), outChannel);
+          if (count <= 0L) {
+            break;
+          }
+          position += count;
+        }
+
+        if (position != size) {
+          throw new IOException(
+            String.format(
+              "Could not copy '%s' to '%s' (copied %d of %d bytes)",
+              from,
+              to,
+              Long.valueOf(position),
+              Long.valueOf(size)));
+        }
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
   /**
    * Delete the file {@code f} if it exists.
    *
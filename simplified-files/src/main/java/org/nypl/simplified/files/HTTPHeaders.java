@@ -0,0 +1,50 @@
+package org.nypl.simplified.files;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Functions over the headers of HTTP responses.
+ */
+
+public final class HTTPHeaders
+{
+  private HTTPHeaders()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Find the first value of the named header. Header names are compared without regard
+   * to case.
+   *
+   * @param headers The response headers
+   * @param name    The header name
+   *
+   * @return The first value of the header, or {@code null} if there is no such header
+   */
+
+  public static @Nullable String headerOf(
+    final Map<String, List<String>> headers,
+    final String name)
+  {
+    NullCheck.notNull(headers);
+    NullCheck.notNull(name);
+
+    for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+      final String key = entry.getKey();
+      if (key != null && key.equalsIgnoreCase(name)) {
+        final List<String> values = entry.getValue();
+        if (values == null || values.isEmpty()) {
+          return null;
+        }
+        return values.get(0);
+      }
+    }
+    return null;
+  }
+}
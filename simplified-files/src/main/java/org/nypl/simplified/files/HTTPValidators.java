@@ -0,0 +1,125 @@
+package org.nypl.simplified.files;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The {@code ETag} and {@code Last-Modified} validators of an HTTP response. Either
+ * validator may be absent.
+ */
+
+public final class HTTPValidators
+{
+  private final @Nullable String e_tag;
+  private final @Nullable String last_modified;
+
+  private HTTPValidators(
+    final @Nullable String in_e_tag,
+    final @Nullable String in_last_modified)
+  {
+    this.e_tag = in_e_tag;
+    this.last_modified = in_last_modified;
+  }
+
+  /**
+   * @param e_tag         The {@code ETag} value, if any
+   * @param last_modified The {@code Last-Modified} value, if any
+   *
+   * @return A set of validators
+   */
+
+  public static HTTPValidators of(
+    final @Nullable String e_tag,
+    final @Nullable String last_modified)
+  {
+    return new HTTPValidators(e_tag, last_modified);
+  }
+
+  /**
+   * @param headers The response headers
+   *
+   * @return The validators present in the given response headers
+   */
+
+  public static HTTPValidators ofHeaders(
+    final Map<String, List<String>> headers)
+  {
+    NullCheck.notNull(headers);
+    return new HTTPValidators(
+      HTTPHeaders.headerOf(headers, "ETag"),
+      HTTPHeaders.headerOf(headers, "Last-Modified"));
+  }
+
+  /**
+   * @return The {@code ETag} value, if any
+   */
+
+  public @Nullable String getETag()
+  {
+    return this.e_tag;
+  }
+
+  /**
+   * @return The {@code Last-Modified} value, if any
+   */
+
+  public @Nullable String getLastModified()
+  {
+    return this.last_modified;
+  }
+
+  /**
+   * @return {@code true} if at least one validator is present, and so a conditional
+   * request can be made
+   */
+
+  public boolean isPresent()
+  {
+    return this.e_tag != null || this.last_modified != null;
+  }
+
+  /**
+   * @return The value to send in an {@code If-Range} header, if any. Weak entity tags
+   * can't be used with {@code If-Range}, so {@code Last-Modified} is used in their place.
+   */
+
+  public @Nullable String getIfRange()
+  {
+    final String tag = this.e_tag;
+    if (tag != null && !tag.startsWith("W/")) {
+      return tag;
+    }
+    return this.last_modified;
+  }
+
+  @Override
+  public boolean equals(final @Nullable Object other)
+  {
+    if (this == other) {
+      return true;
+    }
+    if (other == null || this.getClass() != other.getClass()) {
+      return false;
+    }
+    final HTTPValidators that = (HTTPValidators) other;
+    return Objects.equals(this.e_tag, that.e_tag)
+      && Objects.equals(this.last_modified, that.last_modified);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(this.e_tag, this.last_modified);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "[HTTPValidators %s %s]", this.e_tag, this.last_modified);
+  }
+}
@@ -0,0 +1,174 @@
+package org.nypl.simplified.files;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A properties file holding the validators of an HTTP response, along with any other
+ * properties that the owner of the file needs in order to decide whether the validators
+ * still apply (such as the URI they were received from).
+ */
+
+public final class HTTPValidatorsFile
+{
+  private static final Logger LOG;
+
+  private static final String ETAG = "etag";
+  private static final String LAST_MODIFIED = "lastModified";
+
+  static {
+    LOG = NullCheck.notNull(LoggerFactory.getLogger(HTTPValidatorsFile.class));
+  }
+
+  private final File file;
+  private final File file_tmp;
+
+  /**
+   * The contents of a validators file.
+   */
+
+  public static final class Contents
+  {
+    private final HTTPValidators validators;
+    private final Map<String, String> properties;
+
+    private Contents(
+      final HTTPValidators in_validators,
+      final Map<String, String> in_properties)
+    {
+      this.validators = NullCheck.notNull(in_validators);
+      this.properties = NullCheck.notNull(in_properties);
+    }
+
+    /**
+     * @return The stored validators
+     */
+
+    public HTTPValidators getValidators()
+    {
+      return this.validators;
+    }
+
+    /**
+     * @param name The property name
+     *
+     * @return The value of the given property, if any
+     */
+
+    public @Nullable String property(final String name)
+    {
+      return this.properties.get(NullCheck.notNull(name));
+    }
+  }
+
+  /**
+   * Construct a validators file.
+   *
+   * @param in_file The file
+   */
+
+  public HTTPValidatorsFile(final File in_file)
+  {
+    this.file = NullCheck.notNull(in_file);
+    this.file_tmp = new File(in_file.getParentFile(), in_file.getName() + ".tmp");
+  }
+
+  /**
+   * @return The file
+   */
+
+  public File getFile()
+  {
+    return this.file;
+  }
+
+  /**
+   * Load the contents of the file.
+   *
+   * @return The contents, or {@code null} if the file does not exist or can't be read
+   */
+
+  public @Nullable Contents load()
+  {
+    if (!this.file.isFile()) {
+      return null;
+    }
+
+    try {
+      final Properties loaded = new Properties();
+      try (FileInputStream stream = new FileInputStream(this.file)) {
+        loaded.load(stream);
+      }
+
+      final Map<String, String> properties = new HashMap<>();
+      for (final String name : loaded.stringPropertyNames()) {
+        properties.put(name, loaded.getProperty(name));
+      }
+
+      final HTTPValidators validators =
+        HTTPValidators.of(properties.remove(ETAG), properties.remove(LAST_MODIFIED));
+      return new Contents(validators, Collections.unmodifiableMap(properties));
+    } catch (final IOException | IllegalArgumentException e) {
+      LOG.debug("unable to load validators {}: ", this.file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Atomically replace the contents of the file.
+   *
+   * @param validators The validators
+   * @param properties Any other properties
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public void store(
+    final HTTPValidators validators,
+    final Map<String, String> properties)
+    throws IOException
+  {
+    NullCheck.notNull(validators);
+    NullCheck.notNull(properties);
+
+    final Properties stored = new Properties();
+    for (final Map.Entry<String, String> entry : properties.entrySet()) {
+      stored.setProperty(entry.getKey(), entry.getValue());
+    }
+
+    final String e_tag = validators.getETag();
+    if (e_tag != null) {
+      stored.setProperty(ETAG, e_tag);
+    }
+    final String last_modified = validators.getLastModified();
+    if (last_modified != null) {
+      stored.setProperty(LAST_MODIFIED, last_modified);
+    }
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    stored.store(output, null);
+    FileUtilities.fileWriteUTF8Atomically(
+      this.file, this.file_tmp, output.toString("ISO-8859-1"));
+  }
+
+  /**
+   * Delete the file, if it exists.
+   */
+
+  public void delete()
+  {
+    this.file.delete();
+    this.file_tmp.delete();
+  }
+}
@@ -0,0 +1,79 @@
+package org.nypl.simplified.json.core;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * <p>Shared, pre-configured Jackson object mappers, readers, and writers.</p>
+ * <p>
+ * <p>Constructing an {@link ObjectMapper} is expensive, and each mapper
+ * maintains its own caches of introspected types and serializers. Parsers and
+ * serializers should use the instances provided here rather than constructing
+ * their own. All of the instances are thread-safe.</p>
+ * <p>
+ * <p>The shared mapper must not be reconfigured: code that requires a
+ * different configuration should derive an {@link ObjectReader} or
+ * {@link ObjectWriter} from it instead.</p>
+ */
+
+public final class JSONObjectMappers {
+  private static final ObjectMapper MAPPER =
+    new ObjectMapper();
+  private static final ObjectReader READER =
+    MAPPER.reader();
+  private static final ObjectWriter WRITER =
+    MAPPER.writer();
+  private static final ObjectWriter WRITER_PRETTY =
+    MAPPER.writerWithDefaultPrettyPrinter();
+  private static final ObjectWriter WRITER_SORTED =
+    MAPPER.writer()
+      .without(SerializationFeature.INDENT_OUTPUT)
+      .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+  private JSONObjectMappers() {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @return The shared object mapper
+   */
+
+  public static ObjectMapper mapper() {
+    return MAPPER;
+  }
+
+  /**
+   * @return A reader derived from the shared object mapper
+   */
+
+  public static ObjectReader reader() {
+    return READER;
+  }
+
+  /**
+   * @return A compact writer derived from the shared object mapper
+   */
+
+  public static ObjectWriter writer() {
+    return WRITER;
+  }
+
+  /**
+   * @return A pretty-printing writer derived from the shared object mapper
+   */
+
+  public static ObjectWriter prettyWriter() {
+    return WRITER_PRETTY;
+  }
+
+  /**
+   * @return A compact writer that writes map entries in key order
+   */
+
+  public static ObjectWriter sortedWriter() {
+    return WRITER_SORTED;
+  }
+}
@@ -1,7 +1,7 @@
 package org.nypl.simplified.links.json
 
-import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.node.ObjectNode
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.links.Link
 
 /**
@@ -10,7 +10,7 @@ import org.nypl.simplified.links.Link
 
 object LinkSerialization {
 
-  private val mapper = ObjectMapper()
+  private val mapper = JSONObjectMappers.mapper()
 
   /**
    * Serialize a link to a JSON object.
@@ -5,7 +5,6 @@ import android.content.pm.PackageManager
 import android.content.res.AssetManager
 import android.content.res.Resources
 import android.graphics.Color
-import com.fasterxml.jackson.databind.ObjectMapper
 import com.squareup.picasso.Picasso
 import io.reactivex.subjects.PublishSubject
 import org.joda.time.LocalDateTime
@@ -57,6 +56,7 @@ import org.nypl.simplified.books.controller.api.BookRevokeStringResourcesType
 import org.nypl.simplified.books.controller.api.BooksControllerType
 import org.nypl.simplified.books.covers.BookCoverBadgeLookupType
 import org.nypl.simplified.books.covers.BookCoverGenerator
+import org.nypl.simplified.books.covers.BookCoverGeneratorCache
 import org.nypl.simplified.books.covers.BookCoverGeneratorType
 import org.nypl.simplified.books.covers.BookCoverProvider
 import org.nypl.simplified.books.covers.BookCoverProviderType
@@ -71,10 +71,12 @@ import org.nypl.simplified.cardcreator.CardCreatorServiceType
 import org.nypl.simplified.content.api.ContentResolverSane
 import org.nypl.simplified.content.api.ContentResolverType
 import org.nypl.simplified.crashlytics.api.CrashlyticsServiceType
+import org.nypl.simplified.feeds.api.FeedHTTPCache
 import org.nypl.simplified.feeds.api.FeedHTTPTransport
 import org.nypl.simplified.feeds.api.FeedLoader
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.files.DirectoryUtilities
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.metrics.api.MetricServiceFactoryType
 import org.nypl.simplified.metrics.api.MetricServiceType
 import org.nypl.simplified.networkconnectivity.NetworkConnectivity
@@ -86,7 +88,9 @@ import org.nypl.simplified.opds.auth_document.api.AuthenticationDocumentParsersT
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser
 import org.nypl.simplified.opds.core.OPDSFeedParser
 import org.nypl.simplified.opds.core.OPDSFeedParserType
+import org.nypl.simplified.opds.core.OPDSFeedStreamingParser
 import org.nypl.simplified.opds.core.OPDSSearchParser
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
 import org.nypl.simplified.patron.PatronUserProfileParsers
 import org.nypl.simplified.patron.api.PatronUserProfileParsersType
 import org.nypl.simplified.profiles.ProfilesDatabases
@@ -292,7 +296,7 @@ internal object MainServices {
   @Throws(IOException::class)
   private fun createBundledCredentials(assets: AssetManager): AccountBundledCredentialsType {
     return assets.open("account_bundled_credentials.json").use { stream ->
-      AccountBundledCredentialsJSON.deserializeFromStream(ObjectMapper(), stream)
+      AccountBundledCredentialsJSON.deserializeFromStream(JSONObjectMappers.mapper(), stream)
     }
   }
 
@@ -357,19 +361,36 @@ internal object MainServices {
   }
 
   private fun createFeedLoader(
+    buildConfig: BuildConfigurationServiceType,
     http: LSHTTPClientType,
     opdsFeedParser: OPDSFeedParserType,
     bookFormatSupport: BookFormatSupportType,
     bookRegistry: BookRegistryType,
     bundledContent: BundledContentResolverType,
-    contentResolver: ContentResolverType
+    contentResolver: ContentResolverType,
+    feedCache: FeedHTTPCache
   ): FeedLoaderType {
     val execCatalogFeeds =
       NamedThreadPools.namedThreadPool(1, "catalog-feed", 19)
+    val execCatalogSearch =
+      NamedThreadPools.namedThreadPool(1, "catalog-search", 19)
     val feedSearchParser =
       OPDSSearchParser.newParser()
     val feedTransport =
-      FeedHTTPTransport(http)
+      FeedHTTPTransport(http, feedCache, acceptOPDS2 = buildConfig.requestOPDS2Feeds)
+
+    /*
+     * Only feeds that are displayed in the catalog may be served from the cache when
+     * the server can't be reached; the controller must see the state of the server.
+     */
+
+    val catalogFeedTransport =
+      FeedHTTPTransport(
+        http = http,
+        cache = feedCache,
+        acceptOPDS2 = buildConfig.requestOPDS2Feeds,
+        serveCachedWhenOffline = true
+      )
 
     return FeedLoader.create(
       bookFormatSupport = bookFormatSupport,
@@ -378,12 +399,21 @@ internal object MainServices {
       exec = execCatalogFeeds,
       parser = opdsFeedParser,
       searchParser = feedSearchParser,
-      transport = feedTransport
+      transport = feedTransport,
+      catalogTransport = catalogFeedTransport,
+      searchExec = execCatalogSearch,
+      opds2Parsers = if (buildConfig.requestOPDS2Feeds) OPDS2ParsersIrradia else null
     )
   }
 
-  private fun createFeedParser(): OPDSFeedParserType {
-    return OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser())
+  private fun createFeedParser(
+    buildConfig: BuildConfigurationServiceType
+  ): OPDSFeedParserType {
+    return if (buildConfig.useStreamingFeedParser) {
+      OPDSFeedStreamingParser.newParser()
+    } else {
+      OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser())
+    }
   }
 
   private fun <T : Any> optionalFromServiceLoader(interfaceType: Class<T>): T? {
@@ -412,7 +442,7 @@ internal object MainServices {
       ReaderBookmarkServiceProviderType.Requirements(
         threads = threadFactory,
         events = PublishSubject.create(),
-        httpCalls = ReaderBookmarkHTTPCalls(ObjectMapper(), http),
+        httpCalls = ReaderBookmarkHTTPCalls(JSONObjectMappers.mapper(), http),
         profilesController = bookController
       )
     )
@@ -435,7 +465,11 @@ internal object MainServices {
       bundledContentResolver = bundledContentResolver,
       executor = execCovers,
       debugCacheIndicators = false,
-      debugLogging = false
+      debugLogging = false,
+      generatedCoverCache = BookCoverGeneratorCache(
+        directory = File(context.cacheDir, "generated-covers"),
+        maximumSizeBytes = 16L * 1024L * 1024L
+      )
     )
   }
 
@@ -691,11 +725,12 @@ internal object MainServices {
       serviceConstructor = { this.createLocalImageLoader(context) }
     )
 
-    addService(
-      message = strings.bootingGeneral("build configuration service"),
-      interfaceType = BuildConfigurationServiceType::class.java,
-      serviceConstructor = { this.findBuildConfiguration() }
-    )
+    val buildConfiguration =
+      addService(
+        message = strings.bootingGeneral("build configuration service"),
+        interfaceType = BuildConfigurationServiceType::class.java,
+        serviceConstructor = { this.findBuildConfiguration() }
+      )
 
     val contentResolver =
       addService(
@@ -837,7 +872,19 @@ internal object MainServices {
         message = strings.bootingGeneral("feed parser"),
         interfaceType = OPDSFeedParserType::class.java,
         serviceConstructor = {
-          this.createFeedParser()
+          this.createFeedParser(buildConfiguration)
+        }
+      )
+
+    val feedCache =
+      addService(
+        message = strings.bootingGeneral("feed cache"),
+        interfaceType = FeedHTTPCache::class.java,
+        serviceConstructor = {
+          FeedHTTPCache(
+            directory = File(context.cacheDir, "feeds"),
+            maximumSizeBytes = 32L * 1024L * 1024L
+          )
         }
       )
 
@@ -846,10 +893,12 @@ internal object MainServices {
       interfaceType = FeedLoaderType::class.java,
       serviceConstructor = {
         this.createFeedLoader(
+          buildConfig = buildConfiguration,
           bookFormatSupport = bookFormatService,
           bookRegistry = bookRegistry,
           bundledContent = bundledContent,
           contentResolver = contentResolver,
+          feedCache = feedCache,
           http = lsHTTP,
           opdsFeedParser = opdsFeedParser
         )
@@ -890,14 +939,20 @@ internal object MainServices {
     val bookController = this.run {
       publishEvent(strings.bootingGeneral("books controller"))
       val execBooks =
-        NamedThreadPools.namedThreadPool(1, "books", 19)
+        NamedThreadPools.namedThreadPool(2, "books", 19)
+      val execBooksSync =
+        NamedThreadPools.namedThreadPool(3, "books-sync", 19)
+      val execBooksTransfer =
+        NamedThreadPools.namedThreadPool(2, "books-transfer", 19)
       val controller =
         Controller.createFromServiceDirectory(
           services = services.build(),
           executorService = execBooks,
           accountEvents = accountEvents,
           profileEvents = profileEvents,
-          cacheDirectory = context.cacheDir
+          cacheDirectory = context.cacheDir,
+          syncExecutorService = execBooksSync,
+          transferExecutorService = execBooksTransfer
         )
       addService(
         message = strings.bootingGeneral("books controller"),
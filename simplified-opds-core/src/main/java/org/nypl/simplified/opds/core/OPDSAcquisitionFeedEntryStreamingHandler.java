@@ -0,0 +1,725 @@
+package org.nypl.simplified.opds.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+
+import org.joda.time.DateTime;
+import org.nypl.simplified.opds.core.OPDSAcquisition.Relation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import one.irradia.mime.api.MIMEType;
+import one.irradia.mime.vanilla.MIMEParser;
+
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ACQUISITION_URI_PREFIX_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ALTERNATE_REL_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ANNOTATION_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ATOM_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.BIBFRAME_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.DRM_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.DUBLIN_CORE_TERMS_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.GROUP_REL_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.IMAGE_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ISSUES_REL_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.OPDS_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.RELATED_REL_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.REVOKE_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.THUMBNAIL_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.attribute;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.attributeOrEmpty;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.hrefAttributeOfLinkRel;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.invalidURI;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.nameIs;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.scrubURI;
+
+/**
+ * <p>A single-pass interpreter for OPDS acquisition feed entries.</p>
+ *
+ * <p>The handler receives the events for exactly one {@code entry} element (including the
+ * start and end events of the element itself) and accumulates the minimum state required
+ * to produce an {@link OPDSAcquisitionFeedEntry}. Links are retained as small records until
+ * the end of the entry because the interpretation of acquisition links depends on the
+ * revocation link, which may appear anywhere in the entry.</p>
+ *
+ * <p>The interpretation matches that of {@link OPDSAcquisitionFeedEntryParser}.</p>
+ */
+
+final class OPDSAcquisitionFeedEntryStreamingHandler
+  implements OPDSStreamingXML.EventReceiverType {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(OPDSAcquisitionFeedEntryStreamingHandler.class);
+
+  private static final class IndirectRecord {
+    private final String type;
+    private final int depth;
+    private final List<IndirectRecord> children;
+
+    IndirectRecord(
+      final String in_type,
+      final int in_depth) {
+      this.type = in_type;
+      this.depth = in_depth;
+      this.children = new ArrayList<>(2);
+    }
+  }
+
+  private static final class LinkRecord {
+    private final String rel;
+    private final String href;
+    private final String title;
+    private final String type;
+    private final List<IndirectRecord> indirects;
+    private Attributes copies;
+    private Attributes holds;
+    private Attributes availability;
+    private OPDSStreamingXML.LicensorAccumulator licensor;
+
+    LinkRecord(final Attributes attributes) {
+      this.rel = attribute(attributes, "rel");
+      this.href = attribute(attributes, "href");
+      this.title = attribute(attributes, "title");
+      this.type = attribute(attributes, "type");
+      this.indirects = new ArrayList<>(2);
+    }
+  }
+
+  private final URI source;
+  private final List<LinkRecord> links;
+  private final List<OPDSCategory> categories;
+  private final List<String> authors;
+  private final List<IndirectRecord> indirectStack;
+  private int depth;
+  private String id;
+  private String title;
+  private String updated;
+  private String summary;
+  private String publisher;
+  private String published;
+  private String distribution;
+  private StringBuilder text;
+  private String textTarget;
+  private LinkRecord linkCurrent;
+  private boolean authorCurrent;
+  private boolean authorNamed;
+  private int authorElements;
+  private boolean licensorOpen;
+  private boolean finished;
+
+  OPDSAcquisitionFeedEntryStreamingHandler(final URI in_source) {
+    this.source = Objects.requireNonNull(in_source, "Source");
+    this.links = new ArrayList<>(16);
+    this.categories = new ArrayList<>(4);
+    this.authors = new ArrayList<>(2);
+    this.indirectStack = new ArrayList<>(4);
+    this.depth = 0;
+  }
+
+  /**
+   * @return {@code true} if the end of the entry element has been received
+   */
+
+  boolean isFinished() {
+    return this.finished;
+  }
+
+  @Override
+  public void onElementStart(
+    final String namespace,
+    final String name,
+    final Attributes attributes)
+    throws OPDSParseException {
+
+    ++this.depth;
+
+    switch (this.depth) {
+      case 1: {
+        return;
+      }
+      case 2: {
+        this.onEntryChildStart(namespace, name, attributes);
+        return;
+      }
+      case 3: {
+        if (this.authorCurrent) {
+          if (!this.authorNamed && nameIs(ATOM_URI, "name", namespace, name)) {
+            this.textStart("author");
+          }
+          return;
+        }
+        if (this.linkCurrent != null) {
+          this.onLinkChildStart(namespace, name, attributes);
+        }
+        return;
+      }
+      default: {
+        if (this.linkCurrent != null) {
+          this.onLinkDescendantStart(namespace, name, attributes);
+        }
+      }
+    }
+  }
+
+  private void onEntryChildStart(
+    final String namespace,
+    final String name,
+    final Attributes attributes) {
+
+    if (ATOM_URI.toString().equals(namespace)) {
+      switch (name) {
+        case "link": {
+          this.linkCurrent = new LinkRecord(attributes);
+          this.links.add(this.linkCurrent);
+          return;
+        }
+        case "author": {
+          this.authorCurrent = true;
+          this.authorNamed = false;
+          ++this.authorElements;
+          return;
+        }
+        case "category": {
+          final String label = attribute(attributes, "label");
+          this.categories.add(new OPDSCategory(
+            attributeOrEmpty(attributes, "term"),
+            attributeOrEmpty(attributes, "scheme"),
+            Option.of(label)));
+          return;
+        }
+        case "id": {
+          if (this.id == null) {
+            this.textStart("id");
+          }
+          return;
+        }
+        case "title": {
+          if (this.title == null) {
+            this.textStart("title");
+          }
+          return;
+        }
+        case "updated": {
+          if (this.updated == null) {
+            this.textStart("updated");
+          }
+          return;
+        }
+        case "summary": {
+          if (this.summary == null) {
+            this.textStart("summary");
+          }
+          return;
+        }
+        default: {
+          return;
+        }
+      }
+    }
+
+    if (nameIs(DUBLIN_CORE_TERMS_URI, "publisher", namespace, name)) {
+      if (this.publisher == null) {
+        this.textStart("publisher");
+      }
+      return;
+    }
+
+    if (nameIs(DUBLIN_CORE_TERMS_URI, "issued", namespace, name)) {
+      if (this.published == null) {
+        this.textStart("issued");
+      }
+      return;
+    }
+
+    if (nameIs(BIBFRAME_URI, "distribution", namespace, name)) {
+      if (this.distribution == null) {
+        final String provider =
+          attributes.getValue(BIBFRAME_URI.toString(), "ProviderName");
+        this.distribution = provider == null ? "" : provider.trim();
+      }
+    }
+  }
+
+  private void onLinkChildStart(
+    final String namespace,
+    final String name,
+    final Attributes attributes) {
+
+    final LinkRecord link = this.linkCurrent;
+    if (OPDS_URI.toString().equals(namespace)) {
+      switch (name) {
+        case "indirectAcquisition": {
+          final IndirectRecord indirect =
+            new IndirectRecord(attribute(attributes, "type"), this.depth);
+          link.indirects.add(indirect);
+          this.indirectStack.add(indirect);
+          return;
+        }
+        case "copies": {
+          if (link.copies == null) {
+            link.copies = copyAttributes(attributes);
+          }
+          return;
+        }
+        case "holds": {
+          if (link.holds == null) {
+            link.holds = copyAttributes(attributes);
+          }
+          return;
+        }
+        case "availability": {
+          if (link.availability == null) {
+            link.availability = copyAttributes(attributes);
+          }
+          return;
+        }
+        default: {
+          return;
+        }
+      }
+    }
+
+    if (nameIs(DRM_URI, "licensor", namespace, name)) {
+      if (link.licensor == null) {
+        link.licensor = new OPDSStreamingXML.LicensorAccumulator(attributes);
+        this.licensorOpen = true;
+      }
+    }
+  }
+
+  private void onLinkDescendantStart(
+    final String namespace,
+    final String name,
+    final Attributes attributes) {
+
+    final LinkRecord link = this.linkCurrent;
+
+    /*
+     * Direct children of a licensor.
+     */
+
+    if (this.depth == 4 && this.licensorOpen) {
+      link.licensor.onChildStart(name, attributes);
+      return;
+    }
+
+    /*
+     * Nested indirect acquisitions.
+     */
+
+    if (!this.indirectStack.isEmpty()) {
+      final IndirectRecord top = this.indirectStack.get(this.indirectStack.size() - 1);
+      if (top.depth == this.depth - 1 && nameIs(OPDS_URI, "indirectAcquisition", namespace, name)) {
+        final IndirectRecord indirect =
+          new IndirectRecord(attribute(attributes, "type"), this.depth);
+        top.children.add(indirect);
+        this.indirectStack.add(indirect);
+      }
+    }
+  }
+
+  /**
+   * SAX implementations are permitted to reuse attribute instances, so attributes that
+   * must survive past the current event are copied.
+   */
+
+  private static Attributes copyAttributes(final Attributes attributes) {
+    return new AttributesImpl(attributes);
+  }
+
+  private void textStart(final String target) {
+    this.text = new StringBuilder(64);
+    this.textTarget = target;
+  }
+
+  @Override
+  public void onText(
+    final char[] text,
+    final int start,
+    final int length) {
+    if (this.text != null) {
+      this.text.append(text, start, length);
+    }
+
+    if (this.licensorOpen) {
+      this.linkCurrent.licensor.onText(text, start, length);
+    }
+  }
+
+  @Override
+  public void onElementEnd(
+    final String namespace,
+    final String name) {
+
+    switch (this.depth) {
+      case 1: {
+        this.finished = true;
+        break;
+      }
+      case 2: {
+        this.textFinish();
+        this.linkCurrent = null;
+        this.authorCurrent = false;
+        break;
+      }
+      case 3: {
+        if (this.authorCurrent) {
+          this.textFinish();
+        }
+        this.licensorOpen = false;
+        break;
+      }
+      case 4: {
+        if (this.licensorOpen) {
+          this.linkCurrent.licensor.onChildEnd(name);
+        }
+        break;
+      }
+      default: {
+        break;
+      }
+    }
+
+    if (!this.indirectStack.isEmpty()) {
+      final int last = this.indirectStack.size() - 1;
+      if (this.indirectStack.get(last).depth == this.depth) {
+        this.indirectStack.remove(last);
+      }
+    }
+
+    --this.depth;
+  }
+
+  private void textFinish() {
+    if (this.text == null) {
+      return;
+    }
+
+    final String value = this.text.toString().trim();
+    switch (this.textTarget) {
+      case "id": {
+        this.id = value;
+        break;
+      }
+      case "title": {
+        this.title = value;
+        break;
+      }
+      case "updated": {
+        this.updated = value;
+        break;
+      }
+      case "summary": {
+        this.summary = value;
+        break;
+      }
+      case "publisher": {
+        this.publisher = value;
+        break;
+      }
+      case "issued": {
+        this.published = value;
+        break;
+      }
+      case "author": {
+        this.authors.add(value);
+        this.authorNamed = true;
+        break;
+      }
+      default: {
+        break;
+      }
+    }
+
+    this.text = null;
+    this.textTarget = null;
+  }
+
+  /**
+   * Build an entry from the events received so far.
+   *
+   * @return A parsed entry
+   * @throws OPDSParseException On errors
+   */
+
+  OPDSAcquisitionFeedEntry build()
+    throws OPDSParseException {
+
+    if (this.id == null) {
+      throw OPDSStreamingXML.missingElement(ATOM_URI, "id");
+    }
+    if (this.title == null) {
+      throw OPDSStreamingXML.missingElement(ATOM_URI, "title");
+    }
+    if (this.updated == null) {
+      throw OPDSStreamingXML.missingElement(ATOM_URI, "updated");
+    }
+
+    final DateTime updatedTime =
+      OPDSDateParsers.dateTimeParser().parseDateTime(this.updated);
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder =
+      OPDSAcquisitionFeedEntry.newBuilder(
+        this.id, this.title, updatedTime, OPDSAvailabilityLoanable.get());
+
+    if (this.links.isEmpty()) {
+      throw OPDSStreamingXML.missingElementNonEmpty(ATOM_URI, "link");
+    }
+
+    final OptionType<URI> revoke = this.findRevocationLink(entry_builder);
+    for (final LinkRecord link : this.links) {
+      if (link.rel != null) {
+        this.consumeLink(entry_builder, revoke, link);
+      }
+    }
+
+    for (final OPDSCategory category : this.categories) {
+      entry_builder.addCategory(category);
+    }
+
+    if (this.authors.size() < this.authorElements) {
+      throw OPDSStreamingXML.missingElement(ATOM_URI, "name");
+    }
+    for (final String author : this.authors) {
+      entry_builder.addAuthor(author);
+    }
+
+    entry_builder.setPublisherOption(Option.of(this.publisher));
+    entry_builder.setDistribution(this.distribution == null ? "" : this.distribution);
+    if (this.published != null) {
+      entry_builder.setPublishedOption(
+        Option.some(OPDSDateParsers.dateTimeParser().parseDateTime(this.published)));
+    } else {
+      entry_builder.setPublishedOption(Option.none());
+    }
+    entry_builder.setSummaryOption(Option.of(this.summary));
+    return entry_builder.build();
+  }
+
+  private OptionType<URI> findRevocationLink(
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder) {
+    for (final LinkRecord link : this.links) {
+      if (REVOKE_URI_TEXT.equals(link.rel) && link.href != null) {
+        try {
+          return Option.some(scrubURI(this.source, link.href));
+        } catch (final URISyntaxException e) {
+          entry_builder.addParseError(
+            invalidURI(this.source, hrefAttributeOfLinkRel(REVOKE_URI_TEXT), e));
+          return Option.none();
+        }
+      }
+    }
+    return Option.none();
+  }
+
+  private interface EntryURIOperationType {
+    void apply(OPDSAcquisitionFeedEntryBuilderType builder, URI target);
+  }
+
+  private void consumeLink(
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder,
+    final OptionType<URI> revoke,
+    final LinkRecord link)
+    throws OPDSParseException {
+
+    final String rel = link.rel;
+    final boolean has_href = link.href != null;
+
+    if (GROUP_REL_TEXT.equals(rel)) {
+      final String link_title = link.title == null ? "" : link.title;
+      this.consumeURI(entry_builder, link, (b, u) -> b.addGroup(u, link_title));
+      return;
+    }
+    if (ISSUES_REL_TEXT.equals(rel)) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setIssuesOption(Option.some(u)));
+      return;
+    }
+    if (ALTERNATE_REL_TEXT.equals(rel)) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setAlternateOption(Option.some(u)));
+      return;
+    }
+    if (CIRCULATION_ANALYTICS_OPEN_BOOK_REL_TEXT.equals(rel)) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setAnalyticsOption(Option.some(u)));
+      return;
+    }
+    if (RELATED_REL_TEXT.equals(rel) && has_href) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setRelatedOption(Option.some(u)));
+      return;
+    }
+    if (ANNOTATION_URI_TEXT.equals(rel) && has_href) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setAnnotationsOption(Option.some(u)));
+      return;
+    }
+    if (THUMBNAIL_URI_TEXT.equals(rel) && has_href) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setThumbnailOption(Option.some(u)));
+      return;
+    }
+    if (IMAGE_URI_TEXT.equals(rel) && has_href) {
+      this.consumeURI(entry_builder, link, (b, u) -> b.setCoverOption(Option.some(u)));
+      return;
+    }
+
+    this.consumeAcquisitions(entry_builder, revoke, link);
+  }
+
+  /**
+   * Resolve the target of the given link and pass it to {@code op}. A missing {@code href}
+   * is treated as an empty string, matching {@link org.w3c.dom.Element#getAttribute(String)}.
+   */
+
+  private void consumeURI(
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder,
+    final LinkRecord link,
+    final EntryURIOperationType op) {
+    try {
+      op.apply(entry_builder, scrubURI(this.source, link.href == null ? "" : link.href));
+    } catch (final URISyntaxException e) {
+      entry_builder.addParseError(
+        invalidURI(this.source, hrefAttributeOfLinkRel(link.rel), e));
+    }
+  }
+
+  private void consumeAcquisitions(
+    final OPDSAcquisitionFeedEntryBuilderType entry_builder,
+    final OptionType<URI> revoke,
+    final LinkRecord link)
+    throws OPDSParseException {
+
+    final String rel = link.rel;
+    if (!rel.startsWith(ACQUISITION_URI_PREFIX_TEXT)) {
+      return;
+    }
+
+    for (final Relation v : Relation.values()) {
+      if (rel.equals(v.getUri().toString())) {
+        final URI href;
+        try {
+          href = scrubURI(this.source, link.href == null ? "" : link.href);
+        } catch (final URISyntaxException e) {
+          entry_builder.addParseError(
+            invalidURI(this.source, "'href' attribute of element with relation " + v, e));
+          continue;
+        }
+
+        final List<OPDSIndirectAcquisition> indirects =
+          interpretIndirectAcquisitions(link.indirects);
+        final OptionType<MIMEType> typeOpt =
+          typeWithSupportedValue(link.type);
+
+        if (typeOpt.isSome()) {
+          final MIMEType type = ((Some<MIMEType>) typeOpt).get();
+          entry_builder.addAcquisition(new OPDSAcquisition(v, href, type, indirects));
+          entry_builder.setAvailability(inferAvailability(link, revoke));
+          break;
+        }
+      }
+    }
+
+    if (link.licensor != null) {
+      final OptionType<DRMLicensor> licensor = link.licensor.build();
+      if (licensor.isSome()) {
+        entry_builder.setLicensorOption(licensor);
+      }
+    }
+  }
+
+  private static List<OPDSIndirectAcquisition> interpretIndirectAcquisitions(
+    final List<IndirectRecord> records)
+    throws OPDSParseException {
+    final List<OPDSIndirectAcquisition> indirects = new ArrayList<>(records.size());
+    for (final IndirectRecord record : records) {
+      try {
+        final MIMEType type =
+          MIMEParser.Companion.parseRaisingException(record.type == null ? "" : record.type);
+        indirects.add(
+          new OPDSIndirectAcquisition(type, interpretIndirectAcquisitions(record.children)));
+      } catch (final OPDSParseException e) {
+        throw e;
+      } catch (final Exception e) {
+        throw new OPDSParseException(e);
+      }
+    }
+    return indirects;
+  }
+
+  private static OptionType<MIMEType> typeWithSupportedValue(final String text) {
+    if (text == null || text.isEmpty()) {
+      return Option.none();
+    }
+
+    try {
+      return Option.of(MIMEParser.Companion.parseRaisingException(text));
+    } catch (final Exception e) {
+      LOG.warn("unparseable MIME type: ", e);
+      return Option.none();
+    }
+  }
+
+  private static OPDSAvailabilityType inferAvailability(
+    final LinkRecord link,
+    final OptionType<URI> revoke)
+    throws OPDSParseException {
+
+    final Attributes available = link.availability;
+    if (available != null) {
+      final String status = attribute(available, "status");
+
+      if ("ready".equals(status)) {
+        final OptionType<DateTime> end_date =
+          OPDSStreamingXML.dateOptional(attribute(available, "until"));
+        return OPDSAvailabilityHeldReady.get(end_date, revoke);
+      }
+
+      if ("reserved".equals(status)) {
+        final OptionType<DateTime> end_date =
+          OPDSStreamingXML.dateOptional(attribute(available, "until"));
+        final OptionType<DateTime> start_date =
+          OPDSStreamingXML.dateOptional(attribute(available, "since"));
+        OptionType<Integer> queue = Option.none();
+        if (link.holds != null) {
+          queue = OPDSStreamingXML.integerOptional(attribute(link.holds, "position"));
+        }
+        return OPDSAvailabilityHeld.get(start_date, queue, end_date, revoke);
+      }
+
+      if ("available".equals(status)) {
+        final OptionType<DateTime> end_date =
+          OPDSStreamingXML.dateOptional(attribute(available, "until"));
+        final OptionType<DateTime> start_date =
+          OPDSStreamingXML.dateOptional(attribute(available, "since"));
+        final String rel = link.rel;
+        if (Relation.ACQUISITION_BORROW.getUri().toString().equals(rel)) {
+          return OPDSAvailabilityLoanable.get();
+        } else if (Relation.ACQUISITION_GENERIC.getUri().toString().equals(rel)) {
+          return OPDSAvailabilityLoaned.get(start_date, end_date, revoke);
+        } else if (Relation.ACQUISITION_OPEN_ACCESS.getUri().toString().equals(rel)) {
+          return OPDSAvailabilityOpenAccess.get(revoke, end_date);
+        }
+      }
+    }
+
+    /*
+     * The user has never seen the book before, and the book
+     * did not have an availability:available element for its
+     * borrow link, so it must be holdable.
+     */
+
+    if (link.copies != null) {
+      final int copies_available =
+        OPDSStreamingXML.integer("available", attribute(link.copies, "available"));
+      if (copies_available > 0) {
+        return OPDSAvailabilityLoanable.get();
+      }
+    }
+
+    return OPDSAvailabilityHoldable.get();
+  }
+}
@@ -0,0 +1,77 @@
+package org.nypl.simplified.opds.core;
+
+import org.nypl.simplified.parser.api.ParseError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Objects;
+
+/**
+ * <p>A streaming implementation of the {@link OPDSAcquisitionFeedEntryParserType} type.</p>
+ *
+ * <p>Entries read from streams are interpreted in a single pass over SAX events without
+ * constructing a DOM. Entries passed in as DOM elements are replayed as events through
+ * the same interpreter, so both paths produce identical results.</p>
+ */
+
+public final class OPDSAcquisitionFeedEntryStreamingParser
+  implements OPDSAcquisitionFeedEntryParserType {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(OPDSAcquisitionFeedEntryStreamingParser.class);
+
+  private OPDSAcquisitionFeedEntryStreamingParser() {
+
+  }
+
+  /**
+   * @return A new feed entry parser
+   */
+
+  public static OPDSAcquisitionFeedEntryParserType newParser() {
+    return new OPDSAcquisitionFeedEntryStreamingParser();
+  }
+
+  static OPDSAcquisitionFeedEntry buildAndLog(
+    final URI source,
+    final OPDSAcquisitionFeedEntryStreamingHandler handler)
+    throws OPDSParseException {
+    final OPDSAcquisitionFeedEntry entry = handler.build();
+    for (final ParseError error : entry.getErrors()) {
+      LOG.error("{}: parse error: {}: ", source, error.getMessage(), error.getException());
+    }
+    return entry;
+  }
+
+  @Override
+  public OPDSAcquisitionFeedEntry parseEntry(
+    final URI source,
+    final Element element)
+    throws OPDSParseException {
+
+    Objects.requireNonNull(element, "Element");
+
+    final OPDSAcquisitionFeedEntryStreamingHandler handler =
+      new OPDSAcquisitionFeedEntryStreamingHandler(source);
+    OPDSStreamingXML.replayElement(element, handler);
+    return buildAndLog(source, handler);
+  }
+
+  @Override
+  public OPDSAcquisitionFeedEntry parseEntryStream(
+    final URI source,
+    final InputStream stream)
+    throws OPDSParseException {
+
+    Objects.requireNonNull(stream, "Stream");
+
+    final OPDSAcquisitionFeedEntryStreamingHandler handler =
+      new OPDSAcquisitionFeedEntryStreamingHandler(source);
+
+    OPDSStreamingXML.parseStream(stream, handler);
+    return buildAndLog(source, handler);
+  }
+}
@@ -0,0 +1,35 @@
+package org.nypl.simplified.opds.core;
+
+/**
+ * A receiver of feed entries, called as each entry is parsed.
+ * The receiver is also told about the feed's search link as soon as it is
+ * known, so that the search description can be fetched while the rest of
+ * the feed is still being parsed.
+ *
+ * @see OPDSFeedParserType#parseIncrementally
+ */
+
+public interface OPDSFeedEntryReceiverType
+{
+  /**
+   * An entry was parsed. Entries are delivered in document order, and only
+   * entries that will appear in the resulting feed are delivered.
+   *
+   * @param entry The entry
+   */
+
+  void onEntry(OPDSAcquisitionFeedEntry entry);
+
+  /**
+   * The feed's search link was parsed. If a feed declares more than one
+   * search link, this method is called for each, and the last link is the
+   * one that will appear in the resulting feed.
+   *
+   * @param link The search link
+   */
+
+  default void onSearchLink(final OPDSSearchLink link)
+  {
+    // Nothing by default
+  }
+}
@@ -1,7 +1,12 @@
 package org.nypl.simplified.opds.core;
 
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * <p>
@@ -33,4 +38,51 @@ public interface OPDSFeedParserType
     final URI uri,
     final InputStream s)
       throws OPDSParseException;
+
+  /**
+   * Parse the feed associated with the given stream {@code s}, passing each
+   * entry to {@code receiver} as soon as it is available. The feed is assumed
+   * to exist at {@code uri}.
+   *
+   * The default implementation parses the entire feed and then delivers the
+   * search link and the entries; parsers that can do better should override this method.
+   *
+   * @param uri
+   *          The URI of the feed
+   * @param s
+   *          The input stream
+   * @param receiver
+   *          The receiver of entries
+   * @return A parsed feed
+   * @throws OPDSParseException
+   *           On errors
+   */
+
+  default OPDSAcquisitionFeed parseIncrementally(
+    final URI uri,
+    final InputStream s,
+    final OPDSFeedEntryReceiverType receiver)
+      throws OPDSParseException
+  {
+    final OPDSAcquisitionFeed feed = this.parse(uri, s);
+    final OptionType<OPDSSearchLink> search = feed.getFeedSearchURI();
+    if (search instanceof Some) {
+      receiver.onSearchLink(((Some<OPDSSearchLink>) search).get());
+    }
+
+    final Set<OPDSAcquisitionFeedEntry> delivered =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (final String group : feed.getFeedGroupsOrder()) {
+      for (final OPDSAcquisitionFeedEntry e : feed.getFeedGroups().get(group).getGroupEntries()) {
+        if (delivered.add(e)) {
+          receiver.onEntry(e);
+        }
+      }
+    }
+    for (final OPDSAcquisitionFeedEntry e : feed.getFeedEntries()) {
+      receiver.onEntry(e);
+    }
+    return feed;
+  }
 }
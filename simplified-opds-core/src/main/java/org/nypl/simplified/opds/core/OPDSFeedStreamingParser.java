@@ -0,0 +1,486 @@
+package org.nypl.simplified.opds.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+
+import org.joda.time.DateTime;
+import org.nypl.simplified.parser.api.ParseError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.ATOM_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.DRM_URI;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.FACET_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.OPDS_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSFeedConstants.SIMPLIFIED_URI_TEXT;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.attribute;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.hrefAttributeOfLinkRel;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.invalidURI;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.nameIs;
+import static org.nypl.simplified.opds.core.OPDSStreamingXML.scrubURI;
+
+/**
+ * <p>A streaming implementation of the {@link OPDSFeedParserType}.</p>
+ *
+ * <p>The feed is interpreted in a single pass over SAX events; no DOM is constructed
+ * for either the feed or any of its entries. The interpretation of feeds and entries
+ * matches that of {@link OPDSFeedParser} and {@link OPDSAcquisitionFeedEntryParser}, but
+ * peak memory usage is bounded by the size of the resulting feed rather than by the size
+ * of the feed's document tree.</p>
+ */
+
+public final class OPDSFeedStreamingParser implements OPDSFeedParserType {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(OPDSFeedStreamingParser.class);
+
+  private OPDSFeedStreamingParser() {
+
+  }
+
+  /**
+   * @return A new feed parser
+   */
+
+  public static OPDSFeedParserType newParser() {
+    return new OPDSFeedStreamingParser();
+  }
+
+  @Override
+  public OPDSAcquisitionFeed parse(
+    final URI uri,
+    final InputStream s)
+    throws OPDSParseException {
+    return this.parseIncrementally(uri, s, entry -> {
+
+    });
+  }
+
+  @Override
+  public OPDSAcquisitionFeed parseIncrementally(
+    final URI uri,
+    final InputStream s,
+    final OPDSFeedEntryReceiverType receiver)
+    throws OPDSParseException {
+    Objects.requireNonNull(uri);
+    Objects.requireNonNull(s);
+    Objects.requireNonNull(receiver);
+
+    final long time_pre_parse = System.nanoTime();
+    try {
+      LOG.debug("parsing: {}", uri);
+
+      final FeedHandler handler = new FeedHandler(uri, receiver);
+      OPDSStreamingXML.parseStream(s, handler);
+      return handler.build();
+    } finally {
+      LOG.debug(
+        "parsing completed ({}ms): {}",
+        TimeUnit.MILLISECONDS.convert(System.nanoTime() - time_pre_parse, TimeUnit.NANOSECONDS),
+        uri);
+    }
+  }
+
+  /**
+   * An operation that will be applied to the feed builder once it exists. The builder
+   * cannot be created until the feed's ID, title, and update time are known, and nothing
+   * in the Atom specification requires those to precede links or entries.
+   */
+
+  private interface BuilderOperationType {
+    void apply(OPDSAcquisitionFeedBuilderType builder);
+  }
+
+  private interface BuilderLinkOperationType {
+    void apply(OPDSAcquisitionFeedBuilderType builder, OptionType<URI> target);
+  }
+
+  private enum Mode {
+    MODE_INITIAL,
+    MODE_FEED,
+    MODE_ENTRY
+  }
+
+  private static final class FeedHandler implements OPDSStreamingXML.EventReceiverType {
+    private final URI source;
+    private final OPDSFeedEntryReceiverType receiver;
+    private final List<BuilderOperationType> pending;
+    private OPDSAcquisitionFeedBuilderType builder;
+    private Mode mode;
+    private int depth;
+    private String id;
+    private String title;
+    private String updated;
+    private StringBuilder text;
+    private String textTarget;
+    private OPDSStreamingXML.LicensorAccumulator licensor;
+    private OPDSAcquisitionFeedEntryStreamingHandler entry;
+
+    FeedHandler(
+      final URI in_source,
+      final OPDSFeedEntryReceiverType in_receiver) {
+      this.source = Objects.requireNonNull(in_source);
+      this.receiver = Objects.requireNonNull(in_receiver);
+      this.pending = new ArrayList<>(32);
+      this.mode = Mode.MODE_INITIAL;
+    }
+
+    @Override
+    public void onElementStart(
+      final String namespace,
+      final String name,
+      final Attributes attributes)
+      throws OPDSParseException {
+
+      ++this.depth;
+
+      if (this.entry != null) {
+        this.entry.onElementStart(namespace, name, attributes);
+        return;
+      }
+
+      switch (this.depth) {
+        case 1: {
+          if (nameIs(ATOM_URI, "feed", namespace, name)) {
+            LOG.debug("parsing feed as ordinary feed: {}", this.source);
+            this.mode = Mode.MODE_FEED;
+            return;
+          }
+          if (nameIs(ATOM_URI, "entry", namespace, name)) {
+            LOG.debug("parsing feed as single entry: {}", this.source);
+            this.mode = Mode.MODE_ENTRY;
+            this.entry = new OPDSAcquisitionFeedEntryStreamingHandler(this.source);
+            this.entry.onElementStart(namespace, name, attributes);
+            return;
+          }
+          throw new OPDSParseException(
+            String.format("Feed root is '%s', expected 'feed' or 'entry'", name));
+        }
+        case 2: {
+          this.onFeedChildStart(namespace, name, attributes);
+          return;
+        }
+        case 3: {
+          if (this.licensor != null) {
+            this.licensor.onChildStart(name, attributes);
+          }
+          return;
+        }
+        default: {
+          return;
+        }
+      }
+    }
+
+    private void onFeedChildStart(
+      final String namespace,
+      final String name,
+      final Attributes attributes)
+      throws OPDSParseException {
+
+      if (ATOM_URI.toString().equals(namespace)) {
+        switch (name) {
+          case "entry": {
+            this.entry = new OPDSAcquisitionFeedEntryStreamingHandler(this.source);
+            this.entry.onElementStart(namespace, name, attributes);
+            return;
+          }
+          case "link": {
+            this.onLink(attributes);
+            return;
+          }
+          case "id": {
+            if (this.id == null) {
+              this.textStart("id");
+            }
+            return;
+          }
+          case "title": {
+            if (this.title == null) {
+              this.textStart("title");
+            }
+            return;
+          }
+          case "updated": {
+            if (this.updated == null) {
+              this.textStart("updated");
+            }
+            return;
+          }
+          default: {
+            return;
+          }
+        }
+      }
+
+      if (nameIs(DRM_URI, "licensor", namespace, name)) {
+        this.licensor = new OPDSStreamingXML.LicensorAccumulator(attributes);
+      }
+    }
+
+    private void textStart(final String target) {
+      this.text = new StringBuilder(64);
+      this.textTarget = target;
+    }
+
+    private void textFinish()
+      throws OPDSParseException {
+      if (this.text == null) {
+        return;
+      }
+
+      final String value = this.text.toString().trim();
+      switch (this.textTarget) {
+        case "id": {
+          this.id = value;
+          break;
+        }
+        case "title": {
+          this.title = value;
+          break;
+        }
+        case "updated": {
+          this.updated = value;
+          break;
+        }
+        default: {
+          break;
+        }
+      }
+
+      this.text = null;
+      this.textTarget = null;
+      this.builderCreateIfPossible();
+    }
+
+    private void builderCreateIfPossible()
+      throws OPDSParseException {
+      if (this.builder == null && this.id != null && this.title != null && this.updated != null) {
+        final DateTime time = OPDSDateParsers.dateTimeParser().parseDateTime(this.updated);
+        this.builder = OPDSAcquisitionFeed.newBuilder(this.source, this.id, time, this.title);
+        for (final BuilderOperationType op : this.pending) {
+          op.apply(this.builder);
+        }
+        this.pending.clear();
+      }
+    }
+
+    private void withBuilder(final BuilderOperationType op) {
+      if (this.builder != null) {
+        op.apply(this.builder);
+      } else {
+        this.pending.add(op);
+      }
+    }
+
+    @Override
+    public void onText(
+      final char[] text,
+      final int start,
+      final int length) {
+
+      if (this.entry != null) {
+        this.entry.onText(text, start, length);
+        return;
+      }
+      if (this.text != null) {
+        this.text.append(text, start, length);
+      }
+      if (this.licensor != null) {
+        this.licensor.onText(text, start, length);
+      }
+    }
+
+    @Override
+    public void onElementEnd(
+      final String namespace,
+      final String name)
+      throws OPDSParseException {
+
+      try {
+        if (this.entry != null) {
+          this.entry.onElementEnd(namespace, name);
+          if (this.entry.isFinished()) {
+            this.onEntryFinished();
+          }
+          return;
+        }
+
+        switch (this.depth) {
+          case 2: {
+            this.textFinish();
+            if (this.licensor != null) {
+              final OptionType<DRMLicensor> result = this.licensor.build();
+              if (result.isSome()) {
+                this.withBuilder(b -> b.setLisensor(result));
+              }
+              this.licensor = null;
+            }
+            break;
+          }
+          case 3: {
+            if (this.licensor != null) {
+              this.licensor.onChildEnd(name);
+            }
+            break;
+          }
+          default: {
+            break;
+          }
+        }
+      } finally {
+        --this.depth;
+      }
+    }
+
+    private void onEntryFinished()
+      throws OPDSParseException {
+      final OPDSAcquisitionFeedEntry result =
+        OPDSAcquisitionFeedEntryStreamingParser.buildAndLog(this.source, this.entry);
+      this.entry = null;
+
+      if (this.mode == Mode.MODE_FEED && !result.getAcquisitions().isEmpty()) {
+        this.withBuilder(b -> b.addEntry(result));
+        this.receiver.onEntry(result);
+      }
+      if (this.mode == Mode.MODE_ENTRY) {
+        this.builder = OPDSAcquisitionFeed.newBuilder(
+          this.source, "urn:simplified-entry", DateTime.now(), "Entry");
+        if (!result.getAcquisitions().isEmpty()) {
+          this.builder.addEntry(result);
+          this.receiver.onEntry(result);
+        }
+      }
+    }
+
+    private void onLink(final Attributes attributes) {
+      final String rel = attribute(attributes, "rel");
+      final String href = attribute(attributes, "href");
+      if (rel == null) {
+        return;
+      }
+
+      if ("search".equals(rel)) {
+        final String type = attribute(attributes, "type");
+        if (type != null && href != null) {
+          try {
+            final OPDSSearchLink link = new OPDSSearchLink(type, scrubURI(this.source, href));
+            this.withBuilder(b -> b.setSearchOption(Option.some(link)));
+            this.receiver.onSearchLink(link);
+          } catch (final URISyntaxException e) {
+            this.addError(hrefAttributeOfLinkRel("search"), e);
+          }
+        }
+        return;
+      }
+
+      if ("next".equals(rel)) {
+        if (href != null) {
+          try {
+            final URI next = scrubURI(this.source, href);
+            this.withBuilder(b -> b.setNextOption(Option.some(next)));
+          } catch (final URISyntaxException e) {
+            this.addError(hrefAttributeOfLinkRel("next"), e);
+          }
+        }
+        return;
+      }
+
+      if (FACET_URI_TEXT.equals(rel)) {
+        this.onLinkFacet(attributes, href);
+        return;
+      }
+
+      if (href == null) {
+        return;
+      }
+
+      if ("about".equals(rel)) {
+        this.onLinkTarget(rel, href, (b, u) -> b.setAboutOption(u));
+      } else if ("terms-of-service".equals(rel)) {
+        this.onLinkTarget(rel, href, (b, u) -> b.setTermsOfServiceOption(u));
+      } else if ("privacy-policy".equals(rel)) {
+        this.onLinkTarget(rel, href, (b, u) -> b.setPrivacyPolicyOption(u));
+      } else if (AUTHENTICATION_DOCUMENT_RELATION_URI_TEXT.equals(rel)) {
+        this.onLinkTarget(rel, href, (b, u) -> b.setAuthenticationDocumentLink(u));
+      } else if ("http://www.w3.org/ns/oa#annotationService".equals(rel)) {
+        this.onLinkTarget(rel, href, (b, u) -> b.setAnnotationsOption(u));
+      }
+    }
+
+    private void onLinkTarget(
+      final String rel,
+      final String href,
+      final BuilderLinkOperationType op) {
+      try {
+        final OptionType<URI> target = Option.some(scrubURI(this.source, href));
+        this.withBuilder(b -> op.apply(b, target));
+      } catch (final URISyntaxException e) {
+        this.addError(hrefAttributeOfLinkRel(rel), e);
+      }
+    }
+
+    private void onLinkFacet(
+      final Attributes attributes,
+      final String href) {
+      final String title = attribute(attributes, "title");
+      final String group = attributes.getValue(OPDS_URI_TEXT, "facetGroup");
+      if (title == null || href == null || group == null) {
+        return;
+      }
+
+      final OptionType<String> group_type =
+        Option.of(attributes.getValue(SIMPLIFIED_URI_TEXT, "facetGroupType"));
+      final String active_text =
+        attributes.getValue(OPDS_URI_TEXT, "activeFacet");
+      final boolean active =
+        active_text != null && Boolean.valueOf(active_text);
+
+      try {
+        final OPDSFacet facet =
+          new OPDSFacet(active, scrubURI(this.source, href), group, title, group_type);
+        this.withBuilder(b -> b.addFacet(facet));
+      } catch (final URISyntaxException e) {
+        this.addError(hrefAttributeOfLinkRel(FACET_URI_TEXT), e);
+      }
+    }
+
+    private void addError(
+      final String location,
+      final Exception e) {
+      final ParseError error =
+        invalidURI(this.source, location, e);
+      this.withBuilder(b -> b.addParseError(error));
+    }
+
+    OPDSAcquisitionFeed build()
+      throws OPDSParseException {
+      if (this.mode == Mode.MODE_FEED) {
+        if (this.id == null) {
+          throw OPDSStreamingXML.missingElement(ATOM_URI, "id");
+        }
+        if (this.title == null) {
+          throw OPDSStreamingXML.missingElement(ATOM_URI, "title");
+        }
+        if (this.updated == null) {
+          throw OPDSStreamingXML.missingElement(ATOM_URI, "updated");
+        }
+      }
+
+      if (this.builder == null) {
+        throw new OPDSParseException("Feed root is not 'feed' or 'entry'");
+      }
+      return this.builder.build();
+    }
+  }
+}
@@ -2,7 +2,6 @@ package org.nypl.simplified.opds.core;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.io7m.jfunctional.Option;
@@ -12,6 +11,7 @@ import com.io7m.jfunctional.Unit;
 import com.io7m.jnull.NullCheck;
 
 import org.joda.time.DateTime;
+import org.nypl.simplified.json.core.JSONObjectMappers;
 import org.nypl.simplified.json.core.JSONParseException;
 import org.nypl.simplified.json.core.JSONParserUtilities;
 import org.nypl.simplified.opds.core.OPDSAcquisition.Relation;
@@ -480,10 +480,9 @@ public final class OPDSJSONParser implements OPDSJSONParserType {
     final InputStream s)
     throws OPDSParseException {
     try {
-      final ObjectMapper jom = new ObjectMapper();
       return this.parseAcquisitionFeedEntry(
         JSONParserUtilities.checkObject(
-          null, jom.readTree(s)));
+          null, JSONObjectMappers.reader().readTree(s)));
     } catch (final JsonProcessingException e) {
       throw new OPDSParseException(e);
     } catch (final IOException e) {
@@ -496,10 +495,9 @@ public final class OPDSJSONParser implements OPDSJSONParserType {
     final InputStream s)
     throws OPDSParseException {
     try {
-      final ObjectMapper jom = new ObjectMapper();
       return this.parseAcquisitionFeed(
         JSONParserUtilities.checkObject(
-          null, jom.readTree(s)));
+          null, JSONObjectMappers.reader().readTree(s)));
     } catch (final JsonProcessingException e) {
       throw new OPDSParseException(e);
     } catch (final IOException e) {
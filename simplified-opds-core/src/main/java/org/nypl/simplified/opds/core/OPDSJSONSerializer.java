@@ -12,6 +12,7 @@ import com.io7m.junreachable.UnreachableCodeException;
 
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
+import org.nypl.simplified.json.core.JSONObjectMappers;
 import org.nypl.simplified.json.core.JSONSerializerUtilities;
 
 import java.io.IOException;
@@ -43,7 +44,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     throws OPDSSerializationException {
     NullCheck.notNull(a, "Acquisition");
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode node = jom.createObjectNode();
     node.put("type", a.getRelation().toString());
     node.put("uri", a.getUri().toString());
@@ -58,7 +59,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     throws OPDSSerializationException {
     NullCheck.notNull(indirects, "Indirects");
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ArrayNode node = jom.createArrayNode();
 
     for (OPDSIndirectAcquisition indirect : indirects) {
@@ -73,7 +74,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     throws OPDSSerializationException {
     NullCheck.notNull(indirect, "Indirect");
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode node = jom.createObjectNode();
 
     node.put("type", indirect.getType().getFullType());
@@ -88,7 +89,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     NullCheck.notNull(av);
 
     final DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     return av.matchAvailability(
       new OPDSAvailabilityMatcherType<ObjectNode, UnreachableCodeException>() {
         @Override
@@ -198,7 +199,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     final OPDSCategory c) {
     NullCheck.notNull(c);
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode je = jom.createObjectNode();
     je.put("scheme", c.getScheme());
     je.put("term", c.getTerm());
@@ -216,7 +217,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
   public ObjectNode serializeLicensor(final DRMLicensor l) {
     NullCheck.notNull(l);
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode je = jom.createObjectNode();
     je.put("vendor", l.getVendor());
     je.put("clientToken", l.getClientToken());
@@ -232,7 +233,7 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
   public ObjectNode serializeFeedEntry(
     final OPDSAcquisitionFeedEntry e)
     throws OPDSSerializationException {
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode je = jom.createObjectNode();
     final DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
 
@@ -325,13 +326,24 @@ public final class OPDSJSONSerializer implements OPDSJSONSerializerType {
     return NullCheck.notNull(je);
   }
 
+  @Override
+  public String serializeFeedEntryToString(
+    final OPDSAcquisitionFeedEntry e)
+    throws OPDSSerializationException {
+    try {
+      return JSONSerializerUtilities.serializeToString(this.serializeFeedEntry(e));
+    } catch (final IOException ex) {
+      throw new OPDSSerializationException(ex);
+    }
+  }
+
   @Override
   public ObjectNode serializeFeed(
     final OPDSAcquisitionFeed e)
     throws OPDSSerializationException {
     NullCheck.notNull(e);
 
-    final ObjectMapper jom = new ObjectMapper();
+    final ObjectMapper jom = JSONObjectMappers.mapper();
     final ObjectNode je = jom.createObjectNode();
     final DateTimeFormatter fmt = ISODateTimeFormat.dateTime();
 
@@ -37,6 +37,18 @@ public interface OPDSJSONSerializerType {
     OPDSAcquisitionFeedEntry e)
     throws OPDSSerializationException;
 
+  /**
+   * Serialize the given feed entry to a pretty-printed JSON string.
+   *
+   * @param e The feed entry
+   * @return JSON text
+   * @throws OPDSSerializationException On serialization errors
+   */
+
+  String serializeFeedEntryToString(
+    OPDSAcquisitionFeedEntry e)
+    throws OPDSSerializationException;
+
   /**
    * Serialize the given availability type to JSON.
    *
@@ -0,0 +1,925 @@
+package org.nypl.simplified.opds.core;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Pair;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.nypl.simplified.json.core.JSONObjectMappers;
+import org.nypl.simplified.opds.core.OPDSAcquisition.Relation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import one.irradia.mime.api.MIMEType;
+import one.irradia.mime.vanilla.MIMEParser;
+
+/**
+ * <p>An implementation of the {@link OPDSJSONParserType} interface that reads
+ * JSON as a stream of tokens instead of first building a tree of nodes.</p>
+ * <p>
+ * <p>The parser accepts exactly the same format as {@link OPDSJSONParser}, and
+ * produces the same values.</p>
+ */
+
+public final class OPDSJSONStreamingParser implements OPDSJSONParserType {
+
+  private static final DateTimeFormatter TIMESTAMP_FORMAT =
+    ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+  /**
+   * The keys that may specify availability, in order of precedence.
+   */
+
+  private static final List<String> AVAILABILITY_KEYS =
+    Collections.unmodifiableList(Arrays.asList(
+      "loanable",
+      "holdable",
+      "loaned",
+      "held",
+      "held_ready",
+      "open_access",
+      "revoked"));
+
+  private OPDSJSONStreamingParser() {
+    // Nothing
+  }
+
+  /**
+   * @return A new JSON parser
+   */
+
+  public static OPDSJSONParserType newParser() {
+    return new OPDSJSONStreamingParser();
+  }
+
+  private static OPDSParseException error(
+    final JsonParser p,
+    final String message) {
+    return new OPDSParseException(
+      message + " (at " + p.getCurrentLocation() + ")");
+  }
+
+  private static void checkToken(
+    final JsonParser p,
+    final @Nullable String key,
+    final JsonToken expected)
+    throws OPDSParseException {
+    final JsonToken token = p.currentToken();
+    if (token != expected) {
+      final StringBuilder sb = new StringBuilder(128);
+      sb.append("Expected: ");
+      if (key != null) {
+        sb.append("A key '");
+        sb.append(key);
+        sb.append("' with a value of type ");
+      }
+      sb.append(expected);
+      sb.append("\nGot: ");
+      sb.append(token);
+      throw error(p, sb.toString());
+    }
+  }
+
+  private static <T> T require(
+    final JsonParser p,
+    final String key,
+    final @Nullable T value)
+    throws OPDSParseException {
+    if (value == null) {
+      throw error(p, "Expected a key '" + key + "'");
+    }
+    return value;
+  }
+
+  private static String stringOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    checkToken(p, key, JsonToken.VALUE_STRING);
+    return p.getText();
+  }
+
+  private static OptionType<String> stringOptionalOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    if (p.currentToken() == JsonToken.VALUE_NULL) {
+      return Option.none();
+    }
+    return Option.some(stringOf(p, key));
+  }
+
+  private static URI uriOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    try {
+      return new URI(stringOf(p, key).trim());
+    } catch (final URISyntaxException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  private static OptionType<URI> uriOptionalOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    if (p.currentToken() == JsonToken.VALUE_NULL) {
+      return Option.none();
+    }
+    try {
+      return Option.some(new URI(stringOf(p, key)));
+    } catch (final URISyntaxException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  private static DateTime timestampOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    try {
+      return TIMESTAMP_FORMAT.parseDateTime(stringOf(p, key));
+    } catch (final IllegalArgumentException e) {
+      throw new OPDSParseException(
+        String.format("Could not parse RFC3999 date for key '%s'", key), e);
+    }
+  }
+
+  private static int integerOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    final JsonToken token = p.currentToken();
+    if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+      checkToken(p, key, JsonToken.VALUE_NUMBER_INT);
+    }
+    return p.getValueAsInt();
+  }
+
+  private static boolean booleanOf(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException {
+    final JsonToken token = p.currentToken();
+    if (token == JsonToken.VALUE_TRUE) {
+      return true;
+    }
+    checkToken(p, key, JsonToken.VALUE_FALSE);
+    return false;
+  }
+
+  private static MIMEType mimeOf(
+    final String text)
+    throws OPDSParseException {
+    try {
+      return MIMEParser.Companion.parseRaisingException(text);
+    } catch (final Exception e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  /**
+   * Move to the first token of the document, and check that it starts an object.
+   */
+
+  private static void startDocument(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    if (p.currentToken() == null) {
+      p.nextToken();
+    }
+    checkToken(p, null, JsonToken.START_OBJECT);
+  }
+
+  /**
+   * Move to the next field of the current object.
+   *
+   * @return The name of the field, or {@code null} at the end of the object
+   */
+
+  private static @Nullable String nextField(
+    final JsonParser p)
+    throws IOException {
+    if (p.nextToken() == JsonToken.FIELD_NAME) {
+      final String name = p.getCurrentName();
+      p.nextToken();
+      return name;
+    }
+    return null;
+  }
+
+  /**
+   * Move to the next element of the current array.
+   *
+   * @return {@code false} at the end of the array
+   */
+
+  private static boolean nextElement(
+    final JsonParser p)
+    throws IOException {
+    return p.nextToken() != JsonToken.END_ARRAY;
+  }
+
+  private static OPDSAcquisition parseAcquisition(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    Relation relation = null;
+    URI uri = null;
+    List<OPDSIndirectAcquisition> indirects = Collections.emptyList();
+
+    /*
+     * XXX: COMPATIBILITY: The content type field will not be present for old versions of the
+     * book database. Luckily, old book databases can only contain epub files.
+     */
+
+    String type = "application/epub+zip";
+
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "type": {
+          try {
+            relation = Relation.valueOf(stringOf(p, key));
+          } catch (final IllegalArgumentException e) {
+            throw new OPDSParseException(e);
+          }
+          break;
+        }
+        case "uri": {
+          uri = uriOf(p, key);
+          break;
+        }
+        case OPDSJSONParser.INDIRECT_ACQUISITIONS_FIELD: {
+          indirects = parseIndirectAcquisitions(p, key);
+          break;
+        }
+        case OPDSJSONParser.CONTENT_TYPE_FIELD: {
+          type = stringOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    return new OPDSAcquisition(
+      require(p, "type", relation),
+      require(p, "uri", uri),
+      mimeOf(type),
+      indirects);
+  }
+
+  private static List<OPDSIndirectAcquisition> parseIndirectAcquisitions(
+    final JsonParser p,
+    final String key)
+    throws OPDSParseException, IOException {
+    checkToken(p, key, JsonToken.START_ARRAY);
+
+    final List<OPDSIndirectAcquisition> results = new ArrayList<>();
+    while (nextElement(p)) {
+      results.add(parseIndirectAcquisition(p));
+    }
+    return results;
+  }
+
+  private static OPDSIndirectAcquisition parseIndirectAcquisition(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    String type = null;
+    List<OPDSIndirectAcquisition> indirects = null;
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "type": {
+          type = stringOf(p, key);
+          break;
+        }
+        case OPDSJSONParser.INDIRECT_ACQUISITIONS_FIELD: {
+          indirects = parseIndirectAcquisitions(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    return new OPDSIndirectAcquisition(
+      mimeOf(require(p, "type", type)),
+      require(p, OPDSJSONParser.INDIRECT_ACQUISITIONS_FIELD, indirects));
+  }
+
+  private static OPDSAvailabilityType parseAvailability(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, "availability", JsonToken.START_OBJECT);
+
+    /*
+     * If more than one kind of availability is present, the one that appears first
+     * in the list of availability keys wins, regardless of the order in the document.
+     */
+
+    OPDSAvailabilityType result = null;
+    int resultPrecedence = Integer.MAX_VALUE;
+
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      final int precedence = AVAILABILITY_KEYS.indexOf(key);
+      if (precedence == -1) {
+        p.skipChildren();
+        continue;
+      }
+
+      final OPDSAvailabilityType availability = parseAvailabilityOf(p, key);
+      if (precedence < resultPrecedence) {
+        result = availability;
+        resultPrecedence = precedence;
+      }
+    }
+
+    if (result == null) {
+      throw new OPDSParseException("Expected availability information");
+    }
+    return result;
+  }
+
+  private static OPDSAvailabilityType parseAvailabilityOf(
+    final JsonParser p,
+    final String kind)
+    throws OPDSParseException, IOException {
+    switch (kind) {
+      case "loanable": {
+        p.skipChildren();
+        return OPDSAvailabilityLoanable.get();
+      }
+      case "holdable": {
+        p.skipChildren();
+        return OPDSAvailabilityHoldable.get();
+      }
+      default: {
+        break;
+      }
+    }
+
+    checkToken(p, kind, JsonToken.START_OBJECT);
+
+    OptionType<DateTime> startDate = Option.none();
+    OptionType<DateTime> endDate = Option.none();
+    OptionType<Integer> position = Option.none();
+    OptionType<URI> revoke = Option.none();
+
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "start_date": {
+          startDate = Option.some(timestampOf(p, key));
+          break;
+        }
+        case "end_date": {
+          endDate = Option.some(timestampOf(p, key));
+          break;
+        }
+        case "position": {
+          position = Option.some(integerOf(p, key));
+          break;
+        }
+        case "revoke": {
+          if ("revoked".equals(kind)) {
+            revoke = Option.some(uriOf(p, key));
+          } else {
+            revoke = uriOptionalOf(p, key);
+          }
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    switch (kind) {
+      case "loaned":
+        return OPDSAvailabilityLoaned.get(startDate, endDate, revoke);
+      case "held":
+        return OPDSAvailabilityHeld.get(startDate, position, endDate, revoke);
+      case "held_ready":
+        return OPDSAvailabilityHeldReady.get(endDate, revoke);
+      case "open_access":
+        return OPDSAvailabilityOpenAccess.get(revoke, endDate);
+      default: {
+        if (revoke.isNone()) {
+          throw error(p, "Expected a key 'revoke'");
+        }
+        return OPDSAvailabilityRevoked.get(((Some<URI>) revoke).get());
+      }
+    }
+  }
+
+  private static OPDSCategory parseCategory(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    String term = null;
+    String scheme = null;
+    OptionType<String> label = Option.none();
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "term": {
+          term = stringOf(p, key);
+          break;
+        }
+        case "scheme": {
+          scheme = stringOf(p, key);
+          break;
+        }
+        case "label": {
+          label = stringOptionalOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    return new OPDSCategory(
+      require(p, "term", term),
+      require(p, "scheme", scheme),
+      label);
+  }
+
+  private static DRMLicensor parseLicensor(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, "licensor", JsonToken.START_OBJECT);
+
+    String vendor = null;
+    String clientToken = null;
+    OptionType<String> deviceManager = Option.none();
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "vendor": {
+          vendor = stringOf(p, key);
+          break;
+        }
+        case "clientToken": {
+          clientToken = stringOf(p, key);
+          break;
+        }
+        case "deviceManager": {
+          deviceManager = stringOptionalOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    return new DRMLicensor(
+      require(p, "vendor", vendor),
+      require(p, "clientToken", clientToken),
+      deviceManager);
+  }
+
+  private static List<Pair<String, URI>> parseGroups(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, "groups", JsonToken.START_ARRAY);
+
+    final List<Pair<String, URI>> groups = new ArrayList<>();
+    while (nextElement(p)) {
+      checkToken(p, null, JsonToken.START_OBJECT);
+
+      String uri = null;
+      String name = null;
+      for (String key = nextField(p); key != null; key = nextField(p)) {
+        switch (key) {
+          case "uri": {
+            uri = stringOf(p, key);
+            break;
+          }
+          case "name": {
+            name = stringOf(p, key);
+            break;
+          }
+          default: {
+            p.skipChildren();
+            break;
+          }
+        }
+      }
+
+      try {
+        groups.add(Pair.pair(require(p, "name", name), new URI(require(p, "uri", uri))));
+      } catch (final URISyntaxException e) {
+        throw new OPDSParseException(e);
+      }
+    }
+    return groups;
+  }
+
+  private static OPDSAcquisitionFeedEntry parseEntry(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    /*
+     * The entry builder requires the ID, title, update time, and availability up front,
+     * but these may appear anywhere in the object. Everything else is collected first,
+     * and applied to the builder once the object has been read.
+     */
+
+    String id = null;
+    String title = null;
+    DateTime updated = null;
+    OPDSAvailabilityType availability = null;
+    String distribution = null;
+    List<String> authors = null;
+    List<OPDSAcquisition> acquisitions = null;
+    List<OPDSCategory> categories = null;
+    List<Pair<String, URI>> groups = null;
+    OptionType<DRMLicensor> licensor = Option.none();
+    OptionType<URI> cover = Option.none();
+    OptionType<URI> thumbnail = Option.none();
+    OptionType<URI> alternate = Option.none();
+    OptionType<URI> analytics = Option.none();
+    OptionType<URI> annotations = Option.none();
+    OptionType<DateTime> published = Option.none();
+    OptionType<String> publisher = Option.none();
+    OptionType<String> summary = Option.none();
+
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "id": {
+          id = stringOf(p, key);
+          break;
+        }
+        case "title": {
+          title = stringOf(p, key);
+          break;
+        }
+        case "updated": {
+          updated = timestampOf(p, key);
+          break;
+        }
+        case "availability": {
+          availability = parseAvailability(p);
+          break;
+        }
+        case "distribution": {
+          distribution = stringOf(p, key);
+          break;
+        }
+        case "authors": {
+          checkToken(p, key, JsonToken.START_ARRAY);
+          authors = new ArrayList<>();
+          while (nextElement(p)) {
+            if (p.currentToken().isScalarValue()) {
+              authors.add(p.getText());
+            } else {
+              p.skipChildren();
+              authors.add("");
+            }
+          }
+          break;
+        }
+        case "acquisitions": {
+          checkToken(p, key, JsonToken.START_ARRAY);
+          acquisitions = new ArrayList<>();
+          while (nextElement(p)) {
+            acquisitions.add(parseAcquisition(p));
+          }
+          break;
+        }
+        case "categories": {
+          checkToken(p, key, JsonToken.START_ARRAY);
+          categories = new ArrayList<>();
+          while (nextElement(p)) {
+            categories.add(parseCategory(p));
+          }
+          break;
+        }
+        case "groups": {
+          groups = parseGroups(p);
+          break;
+        }
+        case "licensor": {
+          licensor = Option.some(parseLicensor(p));
+          break;
+        }
+        case "cover": {
+          cover = uriOptionalOf(p, key);
+          break;
+        }
+        case "thumbnail": {
+          thumbnail = uriOptionalOf(p, key);
+          break;
+        }
+        case "alternate": {
+          alternate = uriOptionalOf(p, key);
+          break;
+        }
+        case "analytics": {
+          analytics = uriOptionalOf(p, key);
+          break;
+        }
+        case "annotations": {
+          annotations = uriOptionalOf(p, key);
+          break;
+        }
+        case "published": {
+          published = Option.some(timestampOf(p, key));
+          break;
+        }
+        case "publisher": {
+          publisher = stringOptionalOf(p, key);
+          break;
+        }
+        case "summary": {
+          summary = stringOptionalOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    final OPDSAcquisitionFeedEntryBuilderType fb =
+      OPDSAcquisitionFeedEntry.newBuilder(
+        require(p, "id", id),
+        require(p, "title", title),
+        require(p, "updated", updated),
+        require(p, "availability", availability));
+
+    for (final String author : require(p, "authors", authors)) {
+      fb.addAuthor(author);
+    }
+    for (final OPDSAcquisition acquisition : require(p, "acquisitions", acquisitions)) {
+      fb.addAcquisition(acquisition);
+    }
+    fb.setLicensorOption(licensor);
+    for (final OPDSCategory category : require(p, "categories", categories)) {
+      fb.addCategory(category);
+    }
+    for (final Pair<String, URI> group : require(p, "groups", groups)) {
+      fb.addGroup(group.getRight(), group.getLeft());
+    }
+
+    fb.setCoverOption(cover);
+    fb.setThumbnailOption(thumbnail);
+    fb.setAlternateOption(alternate);
+    fb.setAnalyticsOption(analytics);
+    fb.setAnnotationsOption(annotations);
+    fb.setPublishedOption(published);
+    fb.setPublisherOption(publisher);
+    fb.setDistribution(require(p, "distribution", distribution));
+    fb.setSummaryOption(summary);
+    return fb.build();
+  }
+
+  private static OPDSFacet parseFacet(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    Boolean active = null;
+    String uri = null;
+    String group = null;
+    String title = null;
+    OptionType<String> groupType = Option.none();
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "active": {
+          active = booleanOf(p, key);
+          break;
+        }
+        case "uri": {
+          uri = stringOf(p, key);
+          break;
+        }
+        case "group": {
+          group = stringOf(p, key);
+          break;
+        }
+        case "group_type": {
+          groupType = stringOptionalOf(p, key);
+          break;
+        }
+        case "title": {
+          title = stringOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    try {
+      return new OPDSFacet(
+        require(p, "active", active),
+        new URI(require(p, "uri", uri)),
+        require(p, "group", group),
+        require(p, "title", title),
+        groupType);
+    } catch (final URISyntaxException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  private static OPDSSearchLink parseSearch(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, "search", JsonToken.START_OBJECT);
+
+    String type = null;
+    URI uri = null;
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "type": {
+          type = stringOf(p, key);
+          break;
+        }
+        case "uri": {
+          uri = uriOf(p, key);
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    return new OPDSSearchLink(require(p, "type", type), require(p, "uri", uri));
+  }
+
+  private static OPDSAcquisitionFeed parseFeed(
+    final JsonParser p)
+    throws OPDSParseException, IOException {
+    checkToken(p, null, JsonToken.START_OBJECT);
+
+    String uri = null;
+    String id = null;
+    DateTime updated = null;
+    String title = null;
+    OptionType<URI> next = Option.none();
+    OptionType<OPDSSearchLink> search = Option.none();
+    List<OPDSFacet> facets = null;
+    List<OPDSAcquisitionFeedEntry> entries = null;
+
+    for (String key = nextField(p); key != null; key = nextField(p)) {
+      switch (key) {
+        case "uri": {
+          uri = stringOf(p, key);
+          break;
+        }
+        case "id": {
+          id = stringOf(p, key);
+          break;
+        }
+        case "updated": {
+          updated = timestampOf(p, key);
+          break;
+        }
+        case "title": {
+          title = stringOf(p, key);
+          break;
+        }
+        case "next": {
+          next = uriOptionalOf(p, key);
+          break;
+        }
+        case "search": {
+          search = Option.some(parseSearch(p));
+          break;
+        }
+        case "facets": {
+          checkToken(p, key, JsonToken.START_ARRAY);
+          facets = new ArrayList<>();
+          while (nextElement(p)) {
+            facets.add(parseFacet(p));
+          }
+          break;
+        }
+        case "entries": {
+          checkToken(p, key, JsonToken.START_ARRAY);
+          entries = new ArrayList<>();
+          while (nextElement(p)) {
+            entries.add(parseEntry(p));
+          }
+          break;
+        }
+        default: {
+          p.skipChildren();
+          break;
+        }
+      }
+    }
+
+    try {
+      final OPDSAcquisitionFeedBuilderType fb =
+        OPDSAcquisitionFeed.newBuilder(
+          new URI(require(p, "uri", uri)),
+          require(p, "id", id),
+          require(p, "updated", updated),
+          require(p, "title", title));
+
+      fb.setNextOption(next);
+      fb.setSearchOption(search);
+      for (final OPDSFacet facet : require(p, "facets", facets)) {
+        fb.addFacet(facet);
+      }
+      for (final OPDSAcquisitionFeedEntry entry : require(p, "entries", entries)) {
+        fb.addEntry(entry);
+      }
+      return fb.build();
+    } catch (final URISyntaxException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  private static JsonParser parserFor(final ObjectNode s) {
+    return NullCheck.notNull(s).traverse(JSONObjectMappers.mapper());
+  }
+
+  private static JsonParser parserFor(final InputStream s)
+    throws IOException {
+    return JSONObjectMappers.mapper().getFactory().createParser(NullCheck.notNull(s));
+  }
+
+  @Override
+  public OPDSAcquisitionFeed parseAcquisitionFeed(
+    final ObjectNode s)
+    throws OPDSParseException {
+    try (JsonParser p = parserFor(s)) {
+      startDocument(p);
+      return parseFeed(p);
+    } catch (final IOException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  @Override
+  public OPDSAcquisitionFeedEntry parseAcquisitionFeedEntry(
+    final ObjectNode s)
+    throws OPDSParseException {
+    try (JsonParser p = parserFor(s)) {
+      startDocument(p);
+      return parseEntry(p);
+    } catch (final IOException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  @Override
+  public OPDSAcquisitionFeedEntry parseAcquisitionFeedEntryFromStream(
+    final InputStream s)
+    throws OPDSParseException {
+    try (JsonParser p = parserFor(s)) {
+      startDocument(p);
+      return parseEntry(p);
+    } catch (final IOException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  @Override
+  public OPDSAcquisitionFeed parseAcquisitionFeedFromStream(
+    final InputStream s)
+    throws OPDSParseException {
+    try (JsonParser p = parserFor(s)) {
+      startDocument(p);
+      return parseFeed(p);
+    } catch (final IOException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+}
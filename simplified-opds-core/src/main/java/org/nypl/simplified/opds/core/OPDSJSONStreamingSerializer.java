@@ -0,0 +1,441 @@
+package org.nypl.simplified.opds.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Pair;
+import com.io7m.jfunctional.Some;
+import com.io7m.jfunctional.Unit;
+import com.io7m.jnull.NullCheck;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.nypl.simplified.json.core.JSONObjectMappers;
+import org.nypl.simplified.json.core.JSONSerializerUtilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * <p>An implementation of the {@link OPDSJSONSerializerType} interface that
+ * writes JSON as a stream of tokens instead of first building a tree of
+ * nodes.</p>
+ * <p>
+ * <p>The serializer produces exactly the same JSON as
+ * {@link OPDSJSONSerializer}. The methods that return trees build them from
+ * the token stream, and so only
+ * {@link #serializeFeedEntryToString(OPDSAcquisitionFeedEntry)} avoids
+ * building a tree.</p>
+ */
+
+public final class OPDSJSONStreamingSerializer implements OPDSJSONSerializerType {
+
+  private static final DateTimeFormatter TIMESTAMP_FORMAT =
+    ISODateTimeFormat.dateTime();
+
+  private OPDSJSONStreamingSerializer() {
+    // Nothing
+  }
+
+  /**
+   * @return A new JSON serializer
+   */
+
+  public static OPDSJSONSerializerType newSerializer() {
+    return new OPDSJSONStreamingSerializer();
+  }
+
+  private interface WriterType {
+    void write(JsonGenerator g)
+      throws IOException, OPDSSerializationException;
+  }
+
+  private static <T extends JsonNode> T treeOf(
+    final WriterType writer)
+    throws OPDSSerializationException {
+    final ObjectMapper mapper = JSONObjectMappers.mapper();
+    try (TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+      writer.write(buffer);
+      return mapper.readTree(buffer.asParser());
+    } catch (final IOException e) {
+      throw new OPDSSerializationException(e);
+    }
+  }
+
+  private static void writeTimestampOptional(
+    final JsonGenerator g,
+    final String name,
+    final OptionType<DateTime> time)
+    throws IOException {
+    if (time.isSome()) {
+      g.writeStringField(name, TIMESTAMP_FORMAT.print(((Some<DateTime>) time).get()));
+    }
+  }
+
+  private static void writeURIOptional(
+    final JsonGenerator g,
+    final String name,
+    final OptionType<URI> uri)
+    throws IOException {
+    if (uri.isSome()) {
+      g.writeStringField(name, ((Some<URI>) uri).get().toString());
+    }
+  }
+
+  private static void writeAcquisition(
+    final JsonGenerator g,
+    final OPDSAcquisition a)
+    throws IOException {
+    g.writeStartObject();
+    g.writeStringField("type", a.getRelation().toString());
+    g.writeStringField("uri", a.getUri().toString());
+    g.writeStringField("content_type", a.getType().getFullType());
+    g.writeFieldName("indirect_acquisitions");
+    writeIndirectAcquisitions(g, a.getIndirectAcquisitions());
+    g.writeEndObject();
+  }
+
+  private static void writeIndirectAcquisitions(
+    final JsonGenerator g,
+    final List<OPDSIndirectAcquisition> indirects)
+    throws IOException {
+    g.writeStartArray();
+    for (final OPDSIndirectAcquisition indirect : indirects) {
+      writeIndirectAcquisition(g, indirect);
+    }
+    g.writeEndArray();
+  }
+
+  private static void writeIndirectAcquisition(
+    final JsonGenerator g,
+    final OPDSIndirectAcquisition indirect)
+    throws IOException {
+    g.writeStartObject();
+    g.writeStringField("type", indirect.getType().getFullType());
+    g.writeFieldName("indirect_acquisitions");
+    writeIndirectAcquisitions(g, indirect.getIndirectAcquisitions());
+    g.writeEndObject();
+  }
+
+  private static void writeAvailability(
+    final JsonGenerator g,
+    final OPDSAvailabilityType av)
+    throws IOException {
+    g.writeStartObject();
+    av.matchAvailability(
+      new OPDSAvailabilityMatcherType<Unit, IOException>() {
+        @Override
+        public Unit onHeldReady(final OPDSAvailabilityHeldReady a)
+          throws IOException {
+          g.writeObjectFieldStart("held_ready");
+          writeTimestampOptional(g, "end_date", a.getEndDate());
+          writeURIOptional(g, "revoke", a.getRevoke());
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onHeld(final OPDSAvailabilityHeld a)
+          throws IOException {
+          g.writeObjectFieldStart("held");
+          writeTimestampOptional(g, "start_date", a.getStartDate());
+          if (a.getPosition().isSome()) {
+            g.writeNumberField("position", ((Some<Integer>) a.getPosition()).get());
+          }
+          writeURIOptional(g, "revoke", a.getRevoke());
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onHoldable(final OPDSAvailabilityHoldable a)
+          throws IOException {
+          g.writeObjectFieldStart("holdable");
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onLoanable(final OPDSAvailabilityLoanable a)
+          throws IOException {
+          g.writeObjectFieldStart("loanable");
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onLoaned(final OPDSAvailabilityLoaned a)
+          throws IOException {
+          g.writeObjectFieldStart("loaned");
+          writeTimestampOptional(g, "start_date", a.getStartDate());
+          writeTimestampOptional(g, "end_date", a.getEndDate());
+          writeURIOptional(g, "revoke", a.getRevoke());
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onOpenAccess(final OPDSAvailabilityOpenAccess a)
+          throws IOException {
+          g.writeObjectFieldStart("open_access");
+          writeURIOptional(g, "revoke", a.getRevoke());
+          writeTimestampOptional(g, "end_date", a.getEndDate());
+          g.writeEndObject();
+          return Unit.unit();
+        }
+
+        @Override
+        public Unit onRevoked(final OPDSAvailabilityRevoked a)
+          throws IOException {
+          g.writeObjectFieldStart("revoked");
+          g.writeStringField("revoke", a.getRevoke().toString());
+          g.writeEndObject();
+          return Unit.unit();
+        }
+      });
+    g.writeEndObject();
+  }
+
+  private static void writeCategory(
+    final JsonGenerator g,
+    final OPDSCategory c)
+    throws IOException {
+    g.writeStartObject();
+    g.writeStringField("scheme", c.getScheme());
+    g.writeStringField("term", c.getTerm());
+
+    final OptionType<String> label = c.getLabel();
+    if (label.isSome()) {
+      g.writeStringField("label", ((Some<String>) label).get());
+    }
+    g.writeEndObject();
+  }
+
+  private static void writeLicensor(
+    final JsonGenerator g,
+    final DRMLicensor l)
+    throws IOException {
+    g.writeStartObject();
+    g.writeStringField("vendor", l.getVendor());
+    g.writeStringField("clientToken", l.getClientToken());
+    if (l.getDeviceManager().isSome()) {
+      g.writeStringField("deviceManager", ((Some<String>) l.getDeviceManager()).get());
+    }
+    g.writeEndObject();
+  }
+
+  private static void writeFeedEntry(
+    final JsonGenerator g,
+    final OPDSAcquisitionFeedEntry e)
+    throws IOException {
+    g.writeStartObject();
+
+    g.writeArrayFieldStart("authors");
+    for (final String a : e.getAuthors()) {
+      g.writeString(a);
+    }
+    g.writeEndArray();
+
+    g.writeArrayFieldStart("acquisitions");
+    for (final OPDSAcquisition a : e.getAcquisitions()) {
+      writeAcquisition(g, NullCheck.notNull(a));
+    }
+    g.writeEndArray();
+
+    g.writeFieldName("availability");
+    writeAvailability(g, e.getAvailability());
+
+    if (e.getLicensor().isSome()) {
+      g.writeFieldName("licensor");
+      writeLicensor(g, ((Some<DRMLicensor>) e.getLicensor()).get());
+    }
+
+    g.writeArrayFieldStart("categories");
+    for (final OPDSCategory c : e.getCategories()) {
+      writeCategory(g, NullCheck.notNull(c));
+    }
+    g.writeEndArray();
+
+    writeURIOptional(g, "cover", e.getCover());
+
+    g.writeArrayFieldStart("groups");
+    for (final Pair<String, URI> p : e.getGroups()) {
+      g.writeStartObject();
+      g.writeStringField("name", p.getLeft());
+      g.writeStringField("uri", p.getRight().toString());
+      g.writeEndObject();
+    }
+    g.writeEndArray();
+
+    g.writeStringField("id", e.getID());
+    writeTimestampOptional(g, "published", e.getPublished());
+
+    if (e.getPublisher().isSome()) {
+      g.writeStringField("publisher", ((Some<String>) e.getPublisher()).get());
+    }
+
+    g.writeStringField("distribution", e.getDistribution());
+    g.writeStringField("summary", e.getSummary());
+    g.writeStringField("title", e.getTitle());
+    writeURIOptional(g, "thumbnail", e.getThumbnail());
+
+    if (e.getAlternate().isSome()) {
+      final String alternate = ((Some<URI>) e.getAlternate()).get().toString();
+      g.writeStringField("alternate", alternate);
+      g.writeStringField("analytics", alternate.replace("/works/", "/analytics/"));
+    }
+
+    writeURIOptional(g, "annotations", e.getAnnotations());
+    g.writeStringField("updated", TIMESTAMP_FORMAT.print(e.getUpdated()));
+    g.writeEndObject();
+  }
+
+  private static void writeFeed(
+    final JsonGenerator g,
+    final OPDSAcquisitionFeed e)
+    throws IOException {
+    g.writeStartObject();
+    g.writeStringField("id", e.getFeedID());
+    g.writeStringField("title", e.getFeedTitle());
+    writeURIOptional(g, "next", e.getFeedNext());
+
+    g.writeArrayFieldStart("facets");
+    for (final OPDSFacet k : e.getFeedFacetsOrder()) {
+      g.writeStartObject();
+      g.writeStringField("group", k.getGroup());
+      g.writeBooleanField("active", k.isActive());
+      g.writeStringField("title", k.getTitle());
+      g.writeStringField("uri", k.getUri().toString());
+      if (k.getGroupType().isSome()) {
+        g.writeStringField("group_type", ((Some<String>) k.getGroupType()).get());
+      }
+      g.writeEndObject();
+    }
+    g.writeEndArray();
+
+    g.writeArrayFieldStart("entries");
+    for (final OPDSAcquisitionFeedEntry fe : e.getFeedEntries()) {
+      writeFeedEntry(g, fe);
+    }
+    g.writeEndArray();
+
+    if (e.getFeedSearchURI().isSome()) {
+      final OPDSSearchLink search = ((Some<OPDSSearchLink>) e.getFeedSearchURI()).get();
+      g.writeObjectFieldStart("search");
+      g.writeStringField("type", search.getType());
+      g.writeStringField("uri", search.getURI().toString());
+      g.writeEndObject();
+    }
+
+    g.writeStringField("updated", TIMESTAMP_FORMAT.print(e.getFeedUpdated()));
+    g.writeStringField("uri", e.getFeedURI().toString());
+    g.writeEndObject();
+  }
+
+  @Override
+  public ObjectNode serializeFeed(
+    final OPDSAcquisitionFeed e)
+    throws OPDSSerializationException {
+    NullCheck.notNull(e);
+    return treeOf(g -> writeFeed(g, e));
+  }
+
+  @Override
+  public ObjectNode serializeFeedEntry(
+    final OPDSAcquisitionFeedEntry e)
+    throws OPDSSerializationException {
+    NullCheck.notNull(e);
+    return treeOf(g -> writeFeedEntry(g, e));
+  }
+
+  @Override
+  public String serializeFeedEntryToString(
+    final OPDSAcquisitionFeedEntry e)
+    throws OPDSSerializationException {
+    NullCheck.notNull(e);
+
+    final JsonFactory factory = JSONObjectMappers.mapper().getFactory();
+    final SegmentedStringWriter writer = new SegmentedStringWriter(factory._getBufferRecycler());
+    try (JsonGenerator g = factory.createGenerator(writer)) {
+      g.useDefaultPrettyPrinter();
+      writeFeedEntry(g, e);
+    } catch (final IOException ex) {
+      throw new OPDSSerializationException(ex);
+    }
+    return writer.getAndClear();
+  }
+
+  @Override
+  public ObjectNode serializeAvailability(
+    final OPDSAvailabilityType a) {
+    NullCheck.notNull(a);
+    try {
+      return treeOf(g -> writeAvailability(g, a));
+    } catch (final OPDSSerializationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public ObjectNode serializeAcquisition(
+    final OPDSAcquisition a)
+    throws OPDSSerializationException {
+    NullCheck.notNull(a, "Acquisition");
+    return treeOf(g -> writeAcquisition(g, a));
+  }
+
+  @Override
+  public ObjectNode serializeCategory(
+    final OPDSCategory c) {
+    NullCheck.notNull(c);
+    try {
+      return treeOf(g -> writeCategory(g, c));
+    } catch (final OPDSSerializationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public ObjectNode serializeLicensor(
+    final DRMLicensor l) {
+    NullCheck.notNull(l);
+    try {
+      return treeOf(g -> writeLicensor(g, l));
+    } catch (final OPDSSerializationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public ArrayNode serializeIndirectAcquisitions(
+    final List<OPDSIndirectAcquisition> indirects)
+    throws OPDSSerializationException {
+    NullCheck.notNull(indirects, "Indirects");
+    return treeOf(g -> writeIndirectAcquisitions(g, indirects));
+  }
+
+  @Override
+  public ObjectNode serializeIndirectAcquisition(
+    final OPDSIndirectAcquisition indirect)
+    throws OPDSSerializationException {
+    NullCheck.notNull(indirect, "Indirect");
+    return treeOf(g -> writeIndirectAcquisition(g, indirect));
+  }
+
+  @Override
+  public void serializeToStream(
+    final ObjectNode d,
+    final OutputStream os)
+    throws IOException {
+    JSONSerializerUtilities.serialize(d, os);
+  }
+}
@@ -0,0 +1,508 @@
+package org.nypl.simplified.opds.core;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import org.joda.time.DateTime;
+import org.nypl.simplified.parser.api.ParseError;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Objects;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Functions shared by the streaming (SAX) OPDS parsers.
+ *
+ * The streaming parsers never see an element tree, so the helpers here operate on element
+ * names and {@link Attributes} values as they are delivered by the XML parser.
+ */
+
+final class OPDSStreamingXML {
+
+  private OPDSStreamingXML() {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * A receiver of XML events. This is a narrow subset of the SAX content handler interface
+   * that allows for raising {@link OPDSParseException} directly.
+   */
+
+  interface EventReceiverType {
+
+    /**
+     * An element has started.
+     *
+     * @param namespace  The element namespace
+     * @param name       The element local name
+     * @param attributes The element attributes
+     * @throws OPDSParseException On errors
+     */
+
+    void onElementStart(
+      String namespace,
+      String name,
+      Attributes attributes)
+      throws OPDSParseException;
+
+    /**
+     * Text was received.
+     *
+     * @param text   The text buffer
+     * @param start  The offset of the first character
+     * @param length The number of characters
+     */
+
+    void onText(
+      char[] text,
+      int start,
+      int length);
+
+    /**
+     * An element has ended.
+     *
+     * @param namespace The element namespace
+     * @param name      The element local name
+     * @throws OPDSParseException On errors
+     */
+
+    void onElementEnd(
+      String namespace,
+      String name)
+      throws OPDSParseException;
+  }
+
+  /**
+   * @return A new namespace-aware SAX parser
+   * @throws ParserConfigurationException On parser configuration errors
+   * @throws SAXException                 On parser configuration errors
+   */
+
+  static SAXParser newSAXParser()
+    throws ParserConfigurationException, SAXException {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setValidating(false);
+
+    /*
+     * Feeds never legitimately reference external entities; refusing them means
+     * the parser never blocks on a second network request mid-feed.
+     */
+
+    try {
+      factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+      factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+    } catch (final SAXNotRecognizedException | SAXNotSupportedException e) {
+      // Not all platform parsers recognize these features.
+    }
+    return factory.newSAXParser();
+  }
+
+  /**
+   * Parse the given stream, delivering events to the given receiver.
+   *
+   * @param stream   The input stream
+   * @param receiver The event receiver
+   * @throws OPDSParseException On errors
+   */
+
+  static void parseStream(
+    final InputStream stream,
+    final EventReceiverType receiver)
+    throws OPDSParseException {
+    try {
+      newSAXParser().parse(stream, new SAXAdapter(receiver));
+    } catch (final SAXException e) {
+      if (e.getException() instanceof OPDSParseException) {
+        throw (OPDSParseException) e.getException();
+      }
+      throw new OPDSParseException(e);
+    } catch (final ParserConfigurationException | IOException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  /**
+   * An adapter from SAX to event receivers.
+   */
+
+  private static final class SAXAdapter extends DefaultHandler {
+    private final EventReceiverType receiver;
+
+    SAXAdapter(final EventReceiverType in_receiver) {
+      this.receiver = Objects.requireNonNull(in_receiver);
+    }
+
+    @Override
+    public void startElement(
+      final String uri,
+      final String localName,
+      final String qName,
+      final Attributes attributes)
+      throws SAXException {
+      try {
+        this.receiver.onElementStart(uri, localName, attributes);
+      } catch (final OPDSParseException e) {
+        throw new SAXException(e);
+      }
+    }
+
+    @Override
+    public void endElement(
+      final String uri,
+      final String localName,
+      final String qName)
+      throws SAXException {
+      try {
+        this.receiver.onElementEnd(uri, localName);
+      } catch (final OPDSParseException e) {
+        throw new SAXException(e);
+      }
+    }
+
+    @Override
+    public void characters(
+      final char[] ch,
+      final int start,
+      final int length) {
+      this.receiver.onText(ch, start, length);
+    }
+  }
+
+  /**
+   * Deliver the given DOM element (and all of its descendants) to the given receiver as
+   * a sequence of events. This allows the streaming parsers to consume elements that have
+   * been produced by a DOM parser elsewhere.
+   *
+   * @param element  The element
+   * @param receiver The event receiver
+   * @throws OPDSParseException On errors
+   */
+
+  static void replayElement(
+    final Element element,
+    final EventReceiverType receiver)
+    throws OPDSParseException {
+
+    final String namespace = namespaceOf(element);
+    final String name = localNameOf(element);
+    receiver.onElementStart(namespace, name, attributesOf(element));
+
+    final NodeList children = element.getChildNodes();
+    for (int index = 0; index < children.getLength(); ++index) {
+      final Node child = children.item(index);
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE: {
+          replayElement((Element) child, receiver);
+          break;
+        }
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE: {
+          final char[] text = child.getNodeValue().toCharArray();
+          receiver.onText(text, 0, text.length);
+          break;
+        }
+        default: {
+          break;
+        }
+      }
+    }
+
+    receiver.onElementEnd(namespace, name);
+  }
+
+  private static String namespaceOf(final Node node) {
+    final String namespace = node.getNamespaceURI();
+    return namespace == null ? "" : namespace;
+  }
+
+  private static String localNameOf(final Node node) {
+    final String name = node.getLocalName();
+    return name == null ? node.getNodeName() : name;
+  }
+
+  private static Attributes attributesOf(final Element element) {
+    final NamedNodeMap attributes = element.getAttributes();
+    final AttributesImpl result = new AttributesImpl();
+    for (int index = 0; index < attributes.getLength(); ++index) {
+      final Attr attribute = (Attr) attributes.item(index);
+      result.addAttribute(
+        namespaceOf(attribute),
+        localNameOf(attribute),
+        attribute.getName(),
+        "CDATA",
+        attribute.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * @param namespace The expected namespace
+   * @param name      The expected local name
+   * @param elementNamespace The actual namespace
+   * @param elementName      The actual local name
+   * @return {@code true} if the given names match
+   */
+
+  static boolean nameIs(
+    final URI namespace,
+    final String name,
+    final String elementNamespace,
+    final String elementName) {
+    return name.equals(elementName) && namespace.toString().equals(elementNamespace);
+  }
+
+  /**
+   * Retrieve an attribute that is not in any namespace.
+   *
+   * @param attributes The attributes
+   * @param name       The attribute name
+   * @return The attribute value, or {@code null} if the attribute is not present
+   */
+
+  static String attribute(
+    final Attributes attributes,
+    final String name) {
+    return attributes.getValue("", name);
+  }
+
+  /**
+   * Retrieve an attribute that is not in any namespace, returning the empty string if the
+   * attribute is not present. This matches the behaviour of {@link Element#getAttribute(String)}.
+   *
+   * @param attributes The attributes
+   * @param name       The attribute name
+   * @return The attribute value
+   */
+
+  static String attributeOrEmpty(
+    final Attributes attributes,
+    final String name) {
+    final String value = attribute(attributes, name);
+    return value == null ? "" : value;
+  }
+
+  /**
+   * Parse the value of an attribute as an RFC3339 date, if the attribute is present.
+   *
+   * @param value The attribute value, or {@code null}
+   * @return A date, if any
+   * @throws OPDSParseException On parse errors
+   */
+
+  static OptionType<DateTime> dateOptional(
+    final String value)
+    throws OPDSParseException {
+    if (value == null) {
+      return Option.none();
+    }
+    try {
+      return Option.some(OPDSDateParsers.dateTimeParser().parseDateTime(value));
+    } catch (final Exception e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  /**
+   * Parse the value of an attribute as an integer, if the attribute is present.
+   *
+   * @param value The attribute value, or {@code null}
+   * @return An integer, if any
+   * @throws OPDSParseException On parse errors
+   */
+
+  static OptionType<Integer> integerOptional(
+    final String value)
+    throws OPDSParseException {
+    if (value == null) {
+      return Option.none();
+    }
+    try {
+      return Option.some(Integer.valueOf(value));
+    } catch (final NumberFormatException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  /**
+   * Parse the value of a required attribute as an integer.
+   *
+   * @param name  The attribute name
+   * @param value The attribute value, or {@code null}
+   * @return An integer
+   * @throws OPDSParseException On parse errors, or if the attribute is missing
+   */
+
+  static int integer(
+    final String name,
+    final String value)
+    throws OPDSParseException {
+    if (value == null) {
+      final StringBuilder m = new StringBuilder(128);
+      m.append("Expected required attribute.\n");
+      m.append("Expected name:      ");
+      m.append(name);
+      m.append("\n");
+      throw new OPDSParseException(m.toString());
+    }
+    try {
+      return Integer.valueOf(value);
+    } catch (final NumberFormatException e) {
+      throw new OPDSParseException(e);
+    }
+  }
+
+  /**
+   * @param namespace The expected namespace
+   * @param name      The expected name
+   * @return An exception indicating that a required element was missing
+   */
+
+  static OPDSParseException missingElement(
+    final URI namespace,
+    final String name) {
+    final StringBuilder m = new StringBuilder(128);
+    m.append("Expected required element.\n");
+    m.append("Expected namespace: ");
+    m.append(namespace);
+    m.append("\n");
+    m.append("Expected name:      ");
+    m.append(name);
+    m.append("\n");
+    return new OPDSParseException(m.toString());
+  }
+
+  /**
+   * @param namespace The expected namespace
+   * @param name      The expected name
+   * @return An exception indicating that at least one of a required element was missing
+   */
+
+  static OPDSParseException missingElementNonEmpty(
+    final URI namespace,
+    final String name) {
+    final StringBuilder m = new StringBuilder(128);
+    m.append("Missing at least one required element.\n");
+    m.append("Expected namespace: ");
+    m.append(namespace);
+    m.append("\n");
+    m.append("Expected name:      ");
+    m.append(name);
+    m.append("\n");
+    return new OPDSParseException(m.toString());
+  }
+
+  static URI scrubURI(
+    final URI base,
+    final String text) throws URISyntaxException {
+
+    final URI unresolvedURI = new URI(text.trim());
+    if (unresolvedURI.isAbsolute()) {
+      return unresolvedURI;
+    }
+    return base.resolve(unresolvedURI);
+  }
+
+  static String hrefAttributeOfLinkRel(final String relValue) {
+    return "'href' attribute of 'link' with 'rel' " + relValue;
+  }
+
+  static ParseError invalidURI(
+    final URI source,
+    final String sourceLocation,
+    final Exception e) {
+    final StringBuilder builder = new StringBuilder(128);
+    builder.append("Could not parse URI: ");
+    builder.append(sourceLocation);
+    builder.append(": ");
+    builder.append(e.getMessage());
+
+    return new ParseError(
+      source,
+      builder.toString(),
+      -1,
+      0,
+      e);
+  }
+
+  /**
+   * An accumulator for {@code drm:licensor} elements. The element is interpreted in
+   * the same manner as the DOM parsers: The last {@code clientToken} child wins, and the
+   * device manager is taken from any {@code link} child with the devices relation.
+   */
+
+  static final class LicensorAccumulator {
+    private final String vendor;
+    private String clientToken;
+    private OptionType<String> deviceManager;
+    private StringBuilder clientTokenText;
+
+    LicensorAccumulator(final Attributes attributes) {
+      final String in_vendor =
+        attributes.getValue(OPDSFeedConstants.DRM_URI_TEXT, "vendor");
+      this.vendor = in_vendor == null ? "" : in_vendor;
+      this.deviceManager = Option.none();
+    }
+
+    void onChildStart(
+      final String name,
+      final Attributes attributes) {
+      if (name.contains("clientToken")) {
+        this.clientTokenText = new StringBuilder(64);
+        return;
+      }
+
+      if (name.contains("link")) {
+        final String r = attribute(attributes, "rel");
+        final String h = attribute(attributes, "href");
+        if (r != null && h != null) {
+          if ("http://librarysimplified.org/terms/drm/rel/devices".equals(r)) {
+            this.deviceManager = Option.some(h);
+          }
+        }
+      }
+    }
+
+    void onText(
+      final char[] text,
+      final int start,
+      final int length) {
+      if (this.clientTokenText != null) {
+        this.clientTokenText.append(text, start, length);
+      }
+    }
+
+    void onChildEnd(final String name) {
+      if (this.clientTokenText != null && name.contains("clientToken")) {
+        this.clientToken = this.clientTokenText.toString();
+        this.clientTokenText = null;
+      }
+    }
+
+    OptionType<DRMLicensor> build() {
+      if (this.clientToken != null) {
+        return Option.some(
+          new DRMLicensor(this.vendor, this.clientToken, this.deviceManager));
+      }
+      return Option.none();
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package org.nypl.simplified.profiles
+
+import io.reactivex.subjects.Subject
+import org.nypl.simplified.accounts.api.AccountEvent
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationInProgress
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
+import org.nypl.simplified.accounts.api.AccountProviderType
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryType
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.nypl.simplified.threads.NamedThreadPools
+import org.slf4j.LoggerFactory
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+/**
+ * A resolver for the account providers that are marked as "add automatically".
+ *
+ * Providers that have already been resolved, and that are at least as recent as their
+ * descriptions, are used as they are. The remaining providers are resolved concurrently
+ * on at most [threads] threads, and the results are returned in the order of the provider
+ * descriptions regardless of the order in which the resolutions complete. Each resolution
+ * is allowed [timeout] from the moment that it starts, and so resolutions that have to wait
+ * for a thread are not penalized for the time spent waiting.
+ */
+
+class AutomaticAccountProviderResolver(
+  private val threads: Int = 4,
+  private val timeout: Long = 30L,
+  private val timeoutUnit: TimeUnit = TimeUnit.SECONDS,
+  private val executors: (Int) -> ExecutorService = { count ->
+    NamedThreadPools.namedThreadPool(count, "account-resolution", 19)
+  }
+) {
+
+  private val logger =
+    LoggerFactory.getLogger(AutomaticAccountProviderResolver::class.java)
+
+  /**
+   * A single resolution submitted to the executor.
+   */
+
+  private class Resolution(
+    val description: AccountProviderDescription
+  ) {
+    val started = CountDownLatch(1)
+
+    @Volatile
+    var startedAt: Long = 0L
+
+    lateinit var future: Future<TaskResult<AccountProviderType>>
+  }
+
+  /**
+   * Resolve all of the automatic account providers in the given registry. Progress and
+   * failures are published to `accountEvents`; providers that could not be resolved are
+   * omitted from the returned list.
+   */
+
+  fun resolve(
+    profile: ProfileID,
+    accountEvents: Subject<AccountEvent>,
+    accountProviders: AccountProviderRegistryType
+  ): List<AccountProviderType> {
+    this.logger.debug("[{}]: resolving automatic account providers", profile.uuid)
+
+    val descriptions = mutableListOf<AccountProviderDescription>()
+    for (entry in accountProviders.accountProviderDescriptions()) {
+      val description = entry.value
+      if (description.isAutomatic) {
+        descriptions.add(description)
+      } else {
+        this.logger.debug(
+          "[{}]: account provider {} is not automatic",
+          profile.uuid, description.id
+        )
+      }
+    }
+
+    if (descriptions.isEmpty()) {
+      return listOf()
+    }
+
+    val existing =
+      descriptions.map { description -> this.freshResolvedProvider(accountProviders, description) }
+    val unresolved =
+      existing.count { provider -> provider == null }
+
+    if (unresolved == 0) {
+      this.logger.debug("[{}]: all automatic account providers are resolved", profile.uuid)
+      return existing.filterNotNull()
+    }
+
+    /*
+     * Progress messages arrive on the resolution threads.
+     */
+
+    val onProgress: AccountProviderResolutionListenerType = { _, message ->
+      synchronized(accountEvents) {
+        accountEvents.onNext(AccountEventCreationInProgress(message))
+      }
+    }
+
+    val executor = this.executors.invoke(minOf(unresolved, this.threads))
+    try {
+      val resolutions =
+        descriptions.zip(existing).map { (description, provider) ->
+          if (provider != null) {
+            this.logger.debug(
+              "[{}]: using already resolved automatic account provider {}",
+              profile.uuid, description.id
+            )
+            null
+          } else {
+            this.logger.debug(
+              "[{}]: resolving automatic account provider {}",
+              profile.uuid, description.id
+            )
+            this.submit(executor, accountProviders, onProgress, description)
+          }
+        }
+
+      val resolvedProviders = mutableListOf<AccountProviderType>()
+      for ((index, description) in descriptions.withIndex()) {
+        val resolution = resolutions[index]
+        if (resolution == null) {
+          resolvedProviders.add(existing[index]!!)
+          continue
+        }
+
+        when (val resolutionResult = this.await(resolution)) {
+          is TaskResult.Success -> {
+            this.logger.debug(
+              "[{}]: resolved automatic account provider {}",
+              profile.uuid, description.id
+            )
+            resolvedProviders.add(resolutionResult.result)
+          }
+          is TaskResult.Failure -> {
+            this.logger.error(
+              "[{}]: failed to resolve automatic account provider {}",
+              profile.uuid, description.id
+            )
+            this.publishResolutionError(accountEvents, resolutionResult)
+          }
+        }
+      }
+
+      this.logger.debug("[{}]: resolved {} account providers", profile.uuid, resolvedProviders.size)
+      return resolvedProviders
+    } finally {
+      executor.shutdownNow()
+    }
+  }
+
+  private fun submit(
+    executor: ExecutorService,
+    accountProviders: AccountProviderRegistryType,
+    onProgress: AccountProviderResolutionListenerType,
+    description: AccountProviderDescription
+  ): Resolution {
+    val resolution = Resolution(description)
+    resolution.future =
+      executor.submit(
+        Callable {
+          resolution.startedAt = System.nanoTime()
+          resolution.started.countDown()
+          accountProviders.resolve(onProgress, description)
+        }
+      )
+    return resolution
+  }
+
+  /**
+   * @return The resolved provider for the given description, if it is at least as recent
+   *   as the description
+   */
+
+  private fun freshResolvedProvider(
+    accountProviders: AccountProviderRegistryType,
+    description: AccountProviderDescription
+  ): AccountProviderType? {
+    val existing = accountProviders.resolvedProviders[description.id] ?: return null
+    return if (existing.updated.isBefore(description.updated)) null else existing
+  }
+
+  /**
+   * Wait for the given resolution to start, and then wait for at most the timeout from
+   * the moment it started for it to complete.
+   */
+
+  private fun await(
+    resolution: Resolution
+  ): TaskResult<AccountProviderType> {
+    val description = resolution.description
+    val future = resolution.future
+    return try {
+      resolution.started.await()
+      val deadline = resolution.startedAt + this.timeoutUnit.toNanos(this.timeout)
+      future.get(maxOf(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+    } catch (e: TimeoutException) {
+      future.cancel(true)
+      val taskRecorder = TaskRecorder.create()
+      taskRecorder.beginNewStep("Resolving description...")
+      taskRecorder.currentStepFailed(
+        message = "Timed out resolving ${description.title}",
+        errorCode = "resolutionTimedOut ${description.id}",
+        exception = e
+      )
+      taskRecorder.finishFailure()
+    } catch (e: CancellationException) {
+      this.failureOf(e)
+    } catch (e: InterruptedException) {
+      future.cancel(true)
+      Thread.currentThread().interrupt()
+      this.failureOf(e)
+    } catch (e: ExecutionException) {
+      this.failureOf(e.cause ?: e)
+    }
+  }
+
+  private fun failureOf(
+    cause: Throwable
+  ): TaskResult.Failure<AccountProviderType> {
+    val taskRecorder = TaskRecorder.create()
+    taskRecorder.beginNewStep("Resolving description...")
+    taskRecorder.currentStepFailed(
+      message = cause.message ?: cause.javaClass.canonicalName ?: "unknown",
+      errorCode = "unexpectedException",
+      exception = cause
+    )
+    return taskRecorder.finishFailure()
+  }
+
+  private fun publishResolutionError(
+    accountEvents: Subject<AccountEvent>,
+    resolutionResult: TaskResult.Failure<AccountProviderType>
+  ) {
+    val failure: TaskResult.Failure<Any> =
+      TaskResult.Failure(
+        steps = resolutionResult.steps,
+        attributes = resolutionResult.attributes
+      )
+
+    synchronized(accountEvents) {
+      accountEvents.onNext(AccountEventCreationFailed(failure))
+    }
+  }
+}
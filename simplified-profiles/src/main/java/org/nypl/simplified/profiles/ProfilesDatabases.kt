@@ -7,8 +7,6 @@ import io.reactivex.subjects.Subject
 import org.nypl.simplified.accounts.api.AccountAuthenticationCredentialsStoreType
 import org.nypl.simplified.accounts.api.AccountBundledCredentialsType
 import org.nypl.simplified.accounts.api.AccountEvent
-import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
-import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationInProgress
 import org.nypl.simplified.accounts.api.AccountLoginState
 import org.nypl.simplified.accounts.api.AccountProviderType
 import org.nypl.simplified.accounts.database.api.AccountsDatabaseException
@@ -20,6 +18,7 @@ import org.nypl.simplified.analytics.api.AnalyticsType
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.files.FileLocking
 import org.nypl.simplified.files.FileUtilities
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.profiles.api.ProfileAttributes
 import org.nypl.simplified.profiles.api.ProfileDatabaseAccountsException
 import org.nypl.simplified.profiles.api.ProfileDatabaseException
@@ -31,7 +30,6 @@ import org.nypl.simplified.profiles.api.ProfilePreferences
 import org.nypl.simplified.profiles.api.ProfilesDatabaseType
 import org.nypl.simplified.profiles.api.ProfilesDatabaseType.AnonymousProfileEnabled.ANONYMOUS_PROFILE_ENABLED
 import org.nypl.simplified.reader.api.ReaderPreferences
-import org.nypl.simplified.taskrecorder.api.TaskResult
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.IOException
@@ -52,6 +50,13 @@ object ProfilesDatabases {
   val ANONYMOUS_PROFILE_ID =
     ProfileID(UUID(0L, 0L))
 
+  /**
+   * The resolver used to resolve the providers of automatically created accounts.
+   */
+
+  private val automaticProviders =
+    AutomaticAccountProviderResolver()
+
   /**
    * Open a profile database from the given directory, creating a new database if one does not
    * exist. The anonymous profile will not be enabled, and will be ignored even if one is present
@@ -76,7 +81,7 @@ object ProfilesDatabases {
     this.logger.debug("opening profile database: {}", directory)
 
     val profiles = ConcurrentSkipListMap<ProfileID, Profile>()
-    val jom = ObjectMapper()
+    val jom = JSONObjectMappers.mapper()
 
     val errors = ArrayList<Exception>()
     this.openAllProfiles(
@@ -189,7 +194,7 @@ object ProfilesDatabases {
     this.logger.debug("opening profile database: {}", directory)
 
     val profiles = ConcurrentSkipListMap<ProfileID, Profile>()
-    val jom = ObjectMapper()
+    val jom = JSONObjectMappers.mapper()
 
     val errors = ArrayList<Exception>()
     this.openAllProfiles(
@@ -536,7 +541,7 @@ object ProfilesDatabases {
 
     try {
       val autoProviders =
-        this.findAndResolveAutomaticProviders(
+        this.automaticProviders.resolve(
           profile = profile,
           accountEvents = accountEvents,
           accountProviders = accountProviders
@@ -574,71 +579,6 @@ object ProfilesDatabases {
     }
   }
 
-  private fun findAndResolveAutomaticProviders(
-    profile: ProfileID,
-    accountEvents: Subject<AccountEvent>,
-    accountProviders: AccountProviderRegistryType
-  ): List<AccountProviderType> {
-    this.logger.debug("[{}]: resolving automatic account providers", profile.uuid)
-
-    val resolvedProviders = mutableListOf<AccountProviderType>()
-    for (entry in accountProviders.accountProviderDescriptions()) {
-      val description = entry.value
-      if (description.isAutomatic) {
-        this.logger.debug(
-          "[{}]: resolving automatic account provider {}",
-          profile.uuid, description.id
-        )
-
-        val resolutionResult =
-          accountProviders.resolve(
-            { _, message ->
-              accountEvents.onNext(AccountEventCreationInProgress(message))
-            },
-            description
-          )
-
-        when (resolutionResult) {
-          is TaskResult.Success -> {
-            this.logger.debug(
-              "[{}]: resolved automatic account provider {}",
-              profile.uuid, description.id
-            )
-            resolvedProviders.add(resolutionResult.result)
-          }
-          is TaskResult.Failure -> {
-            this.logger.error(
-              "[{}]: failed to resolve automatic account provider {}",
-              profile.uuid, description.id
-            )
-            publishResolutionError(accountEvents, resolutionResult)
-          }
-        }
-      } else {
-        this.logger.debug(
-          "[{}]: account provider {} is not automatic",
-          profile.uuid, description.id
-        )
-      }
-    }
-
-    this.logger.debug("[{}]: resolved {} account providers", profile.uuid, resolvedProviders.size)
-    return resolvedProviders
-  }
-
-  private fun publishResolutionError(
-    accountEvents: Subject<AccountEvent>,
-    resolutionResult: TaskResult.Failure<AccountProviderType>
-  ) {
-    val failure: TaskResult.Failure<Any> =
-      TaskResult.Failure(
-        steps = resolutionResult.steps,
-        attributes = resolutionResult.attributes
-      )
-
-    accountEvents.onNext(AccountEventCreationFailed(failure))
-  }
-
   @Throws(IOException::class)
   internal fun writeDescription(
     directory: File,
@@ -665,7 +605,7 @@ object ProfilesDatabases {
       FileUtilities.fileWriteUTF8Atomically(
         profileFile,
         profileFileTemp,
-        ProfileDescriptionJSON.serializeToString(ObjectMapper(), newDescription)
+        ProfileDescriptionJSON.serializeToString(JSONObjectMappers.mapper(), newDescription)
       )
     }
   }
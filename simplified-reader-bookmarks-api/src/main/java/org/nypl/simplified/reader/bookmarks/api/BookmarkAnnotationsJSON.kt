@@ -2,13 +2,13 @@ package org.nypl.simplified.reader.bookmarks.api
 
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.ObjectMapper
-import com.fasterxml.jackson.databind.SerializationFeature
 import com.fasterxml.jackson.databind.node.ArrayNode
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.io7m.jfunctional.OptionType
 import com.io7m.jfunctional.Some
 import org.nypl.simplified.books.api.BookChapterProgress
 import org.nypl.simplified.books.api.BookLocation
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.json.core.JSONParseException
 import org.nypl.simplified.json.core.JSONParserUtilities
 
@@ -148,9 +148,7 @@ object BookmarkAnnotationsJSON {
     objectMapper: ObjectMapper,
     annotation: BookmarkAnnotation
   ): ByteArray {
-    objectMapper.configure(SerializationFeature.INDENT_OUTPUT, false)
-    objectMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
-    return objectMapper.writeValueAsBytes(this.serializeBookmarkAnnotationToJSON(objectMapper, annotation))
+    return JSONObjectMappers.sortedWriter().writeValueAsBytes(this.serializeBookmarkAnnotationToJSON(objectMapper, annotation))
   }
 
   @Throws(JSONParseException::class)
@@ -267,9 +265,7 @@ object BookmarkAnnotationsJSON {
     objectMapper: ObjectMapper,
     location: BookLocation
   ): String {
-    objectMapper.configure(SerializationFeature.INDENT_OUTPUT, false)
-    objectMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
-    return objectMapper.writeValueAsString(this.serializeLocationToNode(objectMapper, location))
+    return JSONObjectMappers.sortedWriter().writeValueAsString(this.serializeLocationToNode(objectMapper, location))
   }
 
   @Throws(JSONParseException::class)
@@ -30,6 +30,7 @@ import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Even
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Event.Remote.BookmarkSaved
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyInput.Event.Remote.SyncingEnabled
 import org.nypl.simplified.books.reader.bookmarks.ReaderBookmarkPolicyOutput.Command
+import org.nypl.simplified.json.core.JSONObjectMappers
 import org.nypl.simplified.profiles.api.ProfileEvent
 import org.nypl.simplified.profiles.api.ProfileNoneCurrentException
 import org.nypl.simplified.profiles.api.ProfileReadableType
@@ -96,7 +97,7 @@ class ReaderBookmarkService private constructor(
     get() = this.bookmarkEventsOut
 
   private val logger = LoggerFactory.getLogger(ReaderBookmarkService::class.java)
-  private val objectMapper = ObjectMapper()
+  private val objectMapper = JSONObjectMappers.mapper()
   private val accountsSyncChanging = Collections.synchronizedSet(hashSetOf<AccountID>())
 
   @Volatile
@@ -0,0 +1,207 @@
+package org.nypl.simplified.tests.analytics
+
+import android.content.Context
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.QueueDispatcher
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.librarysimplified.http.api.LSHTTPClientConfiguration
+import org.librarysimplified.http.vanilla.LSHTTPClients
+import org.mockito.Mockito
+import org.nypl.simplified.analytics.api.AnalyticsConfiguration
+import org.nypl.simplified.analytics.api.AnalyticsEvent
+import org.nypl.simplified.analytics.circulation.CirculationAnalyticsSystem
+import org.nypl.simplified.books.formats.api.StandardFormatNames.genericEPUBFiles
+import org.nypl.simplified.tests.TestDirectories
+import org.nypl.simplified.tests.books.borrowing.BorrowTestFeeds
+import java.io.File
+import java.net.URI
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class CirculationAnalyticsSystemTest {
+
+  private lateinit var configuration: AnalyticsConfiguration
+  private lateinit var directory: File
+  private lateinit var executor: ScheduledExecutorService
+  private lateinit var webServer: MockWebServer
+
+  @BeforeEach
+  fun testSetup() {
+    this.webServer = MockWebServer()
+    this.webServer.start(20000)
+
+    val androidContext =
+      Mockito.mock(Context::class.java)
+
+    this.configuration =
+      AnalyticsConfiguration(
+        context = androidContext,
+        http = LSHTTPClients()
+          .create(
+            context = androidContext,
+            configuration = LSHTTPClientConfiguration(
+              applicationName = "simplified-tests",
+              applicationVersion = "999.999.0",
+              tlsOverrides = null,
+              timeout = Pair(5L, TimeUnit.SECONDS)
+            )
+          )
+      )
+
+    this.directory = TestDirectories.temporaryDirectory()
+    this.executor = Executors.newSingleThreadScheduledExecutor()
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.executor.shutdown()
+    this.webServer.close()
+  }
+
+  private fun createSystem(
+    outboxMaximumSizeBytes: Long = 256L * 1024L
+  ): CirculationAnalyticsSystem {
+    return CirculationAnalyticsSystem(
+      configuration = this.configuration,
+      executor = this.executor,
+      outboxDirectory = this.directory,
+      outboxMaximumSizeBytes = outboxMaximumSizeBytes,
+      flushDelayMillis = 0L,
+      retryDelayMinimumMillis = 10L,
+      retryDelayMaximumMillis = 100L
+    )
+  }
+
+  private fun bookOpened(index: Int): AnalyticsEvent.BookOpened {
+    return AnalyticsEvent.BookOpened(
+      account = null,
+      profileUUID = UUID.randomUUID(),
+      profileDisplayName = "Profile",
+      accountProvider = URI.create("urn:provider"),
+      accountUUID = UUID.randomUUID(),
+      opdsEntry = BorrowTestFeeds.opdsLoanedFeedEntryOfType(this.webServer, genericEPUBFiles.fullType),
+      targetURI = this.webServer.url("/analytics/open_book/$index").toUri()
+    )
+  }
+
+  private fun waitForExecutor() {
+    val latch = CountDownLatch(1)
+    this.executor.execute { latch.countDown() }
+    latch.await()
+  }
+
+  private fun waitForEmptyOutbox(system: CirculationAnalyticsSystem) {
+    this.waitForExecutor()
+    while (system.outboxStatus().queued > 0) {
+      Thread.sleep(10L)
+    }
+  }
+
+  private fun failAllRequests() {
+    (this.webServer.dispatcher as QueueDispatcher)
+      .setFailFast(MockResponse().setResponseCode(503))
+  }
+
+  /**
+   * Events that fail to send are retried, in order, until they are sent.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testRetriedAfterFailure() {
+    this.webServer.enqueue(MockResponse().setResponseCode(503))
+    this.webServer.enqueue(MockResponse().setResponseCode(503))
+    repeat(3) { this.webServer.enqueue(MockResponse().setResponseCode(200)) }
+
+    val system = this.createSystem()
+    (0 until 3).forEach { index -> system.onAnalyticsEvent(this.bookOpened(index)) }
+
+    val paths = (0 until 5).map { this.webServer.takeRequest().path }
+    this.waitForEmptyOutbox(system)
+    Assertions.assertEquals(
+      listOf(
+        "/analytics/open_book/0",
+        "/analytics/open_book/0",
+        "/analytics/open_book/0",
+        "/analytics/open_book/1",
+        "/analytics/open_book/2"
+      ),
+      paths
+    )
+    Assertions.assertEquals(0L, system.outboxStatus().rejected)
+  }
+
+  /**
+   * Events that haven't been sent survive the system being recreated.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testPersistent() {
+    this.failAllRequests()
+
+    val system0 = this.createSystem()
+    system0.onAnalyticsEvent(this.bookOpened(0))
+    system0.onAnalyticsEvent(this.bookOpened(1))
+    this.waitForExecutor()
+    this.executor.shutdownNow()
+    this.executor.awaitTermination(5L, TimeUnit.SECONDS)
+    Assertions.assertEquals(2, system0.outboxStatus().queued)
+    repeat(this.webServer.requestCount) { this.webServer.takeRequest() }
+
+    this.executor = Executors.newSingleThreadScheduledExecutor()
+    repeat(2) { this.webServer.enqueue(MockResponse().setResponseCode(200)) }
+
+    val system1 = this.createSystem()
+    this.waitForEmptyOutbox(system1)
+
+    Assertions.assertEquals("/analytics/open_book/0", this.webServer.takeRequest().path)
+    Assertions.assertEquals("/analytics/open_book/1", this.webServer.takeRequest().path)
+  }
+
+  /**
+   * The oldest events are dropped when the outbox is full.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testDroppedWhenFull() {
+    this.failAllRequests()
+
+    val system = this.createSystem(outboxMaximumSizeBytes = 200L)
+    (0 until 10).forEach { index -> system.onAnalyticsEvent(this.bookOpened(index)) }
+    this.waitForExecutor()
+
+    val status = system.outboxStatus()
+    Assertions.assertTrue(status.dropped > 0L)
+    Assertions.assertEquals(10L, status.dropped + status.queued)
+  }
+
+  /**
+   * Events that the server rejects are not retried.
+   */
+
+  @Test
+  @Timeout(value = 10L, unit = TimeUnit.SECONDS)
+  fun testRejectedNotRetried() {
+    this.webServer.enqueue(MockResponse().setResponseCode(404))
+    this.webServer.enqueue(MockResponse().setResponseCode(200))
+
+    val system = this.createSystem()
+    system.onAnalyticsEvent(this.bookOpened(0))
+    system.onAnalyticsEvent(this.bookOpened(1))
+
+    Assertions.assertEquals("/analytics/open_book/0", this.webServer.takeRequest().path)
+    Assertions.assertEquals("/analytics/open_book/1", this.webServer.takeRequest().path)
+    this.waitForEmptyOutbox(system)
+    Assertions.assertEquals(1L, system.outboxStatus().rejected)
+  }
+}
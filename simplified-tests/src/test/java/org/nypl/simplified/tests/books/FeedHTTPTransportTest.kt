@@ -0,0 +1,309 @@
+package org.nypl.simplified.tests.books
+
+import android.content.Context
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.librarysimplified.http.api.LSHTTPClientConfiguration
+import org.librarysimplified.http.api.LSHTTPClientType
+import org.librarysimplified.http.vanilla.LSHTTPClients
+import org.mockito.Mockito
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.accounts.api.AccountReadableType
+import org.nypl.simplified.feeds.api.FeedHTTPCache
+import org.nypl.simplified.feeds.api.FeedHTTPTransport
+import org.nypl.simplified.files.HTTPValidators
+import org.nypl.simplified.opds.core.OPDSFeedTransportIOException
+import org.nypl.simplified.tests.TestDirectories
+import org.nypl.simplified.tests.mocking.MockAccount
+import java.io.File
+import java.net.URI
+import java.util.concurrent.TimeUnit
+
+class FeedHTTPTransportTest {
+
+  private lateinit var account: AccountReadableType
+  private lateinit var directory: File
+  private lateinit var http: LSHTTPClientType
+  private lateinit var server: MockWebServer
+
+  @BeforeEach
+  fun setup() {
+    this.server = MockWebServer()
+    this.server.start()
+
+    this.http =
+      LSHTTPClients()
+        .create(
+          Mockito.mock(Context::class.java),
+          LSHTTPClientConfiguration(
+            applicationName = "simplified-tests",
+            applicationVersion = "99.99.0"
+          )
+        )
+
+    this.account = MockAccount(AccountID.generate())
+    this.directory = TestDirectories.temporaryDirectory()
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.server.close()
+  }
+
+  private fun fetch(
+    transport: FeedHTTPTransport,
+    uri: URI
+  ): String {
+    return transport.getStream(this.account, uri, "GET", false)
+      .use { stream -> String(stream.readBytes()) }
+  }
+
+  /**
+   * A cached feed is revalidated with its ETag and served from the cache on a 304.
+   */
+
+  @Test
+  fun testNotModifiedServedFromCache() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("ETag", "\"abcd\"")
+        .setHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+        .setBody("<feed/>")
+    )
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(304)
+    )
+
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+
+    val first = this.server.takeRequest(1L, TimeUnit.SECONDS)!!
+    Assertions.assertNull(first.getHeader("If-None-Match"))
+
+    val second = this.server.takeRequest(1L, TimeUnit.SECONDS)!!
+    Assertions.assertEquals("\"abcd\"", second.getHeader("If-None-Match"))
+    Assertions.assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", second.getHeader("If-Modified-Since"))
+
+    val statistics = cache.statistics()
+    Assertions.assertEquals(1L, statistics.hits)
+    Assertions.assertEquals(1L, statistics.misses)
+    Assertions.assertEquals(1L, statistics.revalidations)
+    Assertions.assertEquals(0L, statistics.offlineHits)
+  }
+
+  /**
+   * A modified feed replaces the cached copy.
+   */
+
+  @Test
+  fun testModifiedReplacesCache() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"0\"").setBody("<feed>0</feed>"))
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"1\"").setBody("<feed>1</feed>"))
+    this.server.enqueue(MockResponse().setResponseCode(304))
+
+    Assertions.assertEquals("<feed>0</feed>", this.fetch(transport, uri))
+    Assertions.assertEquals("<feed>1</feed>", this.fetch(transport, uri))
+    Assertions.assertEquals("<feed>1</feed>", this.fetch(transport, uri))
+
+    this.server.takeRequest(1L, TimeUnit.SECONDS)
+    this.server.takeRequest(1L, TimeUnit.SECONDS)
+    val third = this.server.takeRequest(1L, TimeUnit.SECONDS)!!
+    Assertions.assertEquals("\"1\"", third.getHeader("If-None-Match"))
+  }
+
+  /**
+   * A cached feed is served if the server cannot be reached, if the transport is
+   * configured to do so.
+   */
+
+  @Test
+  fun testOfflineServedFromCache() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache, serveCachedWhenOffline = true)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.enqueue(MockResponse().setBody("<feed/>"))
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+
+    this.server.shutdown()
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+    Assertions.assertEquals(1L, cache.statistics().offlineHits)
+  }
+
+  /**
+   * By default, a connection failure is an error even if a cached copy exists.
+   */
+
+  @Test
+  fun testOfflineNotServedByDefault() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.enqueue(MockResponse().setBody("<feed/>"))
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+
+    this.server.shutdown()
+    Assertions.assertThrows(OPDSFeedTransportIOException::class.java) {
+      this.fetch(transport, uri)
+    }
+    Assertions.assertEquals(0L, cache.statistics().offlineHits)
+  }
+
+  /**
+   * Without a cached copy, a connection failure is an error.
+   */
+
+  @Test
+  fun testOfflineNotCached() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.shutdown()
+    Assertions.assertThrows(OPDSFeedTransportIOException::class.java) {
+      this.fetch(transport, uri)
+    }
+  }
+
+  /**
+   * Feeds are cached per account.
+   */
+
+  @Test
+  fun testCachePerAccount() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val uri = URI.create("http://www.example.com/feed")
+
+    cache.onDownloading(this.account.id, uri, false, HTTPValidators.of("\"x\"", null), "<feed/>".byteInputStream())
+      .use { stream -> stream.readBytes() }
+
+    Assertions.assertNotNull(cache.find(this.account.id, uri, false))
+    Assertions.assertNull(cache.find(AccountID.generate(), uri, false))
+  }
+
+  /**
+   * Feeds fetched with and without credentials are cached separately.
+   */
+
+  @Test
+  fun testCachePerAuthentication() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val uri = URI.create("http://www.example.com/feed")
+
+    cache.onDownloading(this.account.id, uri, true, HTTPValidators.of("\"x\"", null), "<feed/>".byteInputStream())
+      .use { stream -> stream.readBytes() }
+
+    Assertions.assertNotNull(cache.find(this.account.id, uri, true))
+    Assertions.assertNull(cache.find(this.account.id, uri, false))
+  }
+
+  /**
+   * Feeds that are not read to the end are not cached.
+   */
+
+  @Test
+  fun testIncompleteNotCached() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val uri = URI.create("http://www.example.com/feed")
+    val body = ByteArray(200_000)
+
+    cache.onDownloading(this.account.id, uri, false, HTTPValidators.of("\"x\"", null), body.inputStream())
+      .use { stream -> stream.read() }
+
+    Assertions.assertNull(cache.find(this.account.id, uri, false))
+  }
+
+  /**
+   * The least recently used feeds are evicted when the cache exceeds its maximum size.
+   */
+
+  @Test
+  fun testEviction() {
+    val cache = FeedHTTPCache(this.directory, 250L)
+    val uri0 = URI.create("http://www.example.com/feed/0")
+    val uri1 = URI.create("http://www.example.com/feed/1")
+    val uri2 = URI.create("http://www.example.com/feed/2")
+
+    cache.onDownloading(this.account.id, uri0, false, HTTPValidators.of("\"0\"", null), ByteArray(100).inputStream())
+      .use { stream -> stream.readBytes() }
+    this.directory.listFiles { file -> file.name.endsWith(".body") }!!
+      .single()
+      .setLastModified(System.currentTimeMillis() - 10_000L)
+
+    cache.onDownloading(this.account.id, uri1, false, HTTPValidators.of("\"1\"", null), ByteArray(100).inputStream())
+      .use { stream -> stream.readBytes() }
+    cache.onDownloading(this.account.id, uri2, false, HTTPValidators.of("\"2\"", null), ByteArray(100).inputStream())
+      .use { stream -> stream.readBytes() }
+
+    Assertions.assertNull(cache.find(this.account.id, uri0, false))
+    Assertions.assertNotNull(cache.find(this.account.id, uri1, false))
+    Assertions.assertNotNull(cache.find(this.account.id, uri2, false))
+  }
+
+  /**
+   * Clearing the feeds of an account removes only that account's feeds.
+   */
+
+  @Test
+  fun testClearForRemovesAccountFeeds() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+    val other = MockAccount(AccountID.generate())
+
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"0\"").setBody("<feed>0</feed>"))
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"1\"").setBody("<feed>1</feed>"))
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"2\"").setBody("<feed>2</feed>"))
+
+    Assertions.assertEquals("<feed>0</feed>", this.fetch(transport, uri))
+    transport.getStream(other, uri, "GET", false).use { stream -> stream.readBytes() }
+    Assertions.assertNotNull(cache.find(this.account.id, uri, false))
+    Assertions.assertNotNull(cache.find(other.id, uri, false))
+
+    cache.clearFor(this.account.id)
+    Assertions.assertNull(cache.find(this.account.id, uri, false))
+    Assertions.assertNotNull(cache.find(other.id, uri, false))
+
+    Assertions.assertEquals("<feed>2</feed>", this.fetch(transport, uri))
+    this.server.takeRequest(1L, TimeUnit.SECONDS)
+    this.server.takeRequest(1L, TimeUnit.SECONDS)
+    val third = this.server.takeRequest(1L, TimeUnit.SECONDS)!!
+    Assertions.assertNull(third.getHeader("If-None-Match"))
+  }
+
+  /**
+   * An entry whose feed was evicted after the entry was found is treated as a miss.
+   */
+
+  @Test
+  fun testEvictedEntryIsMiss() {
+    val cache = FeedHTTPCache(this.directory, 1_000_000L)
+    val transport = FeedHTTPTransport(this.http, cache)
+    val uri = this.server.url("/feed").toUri()
+
+    this.server.enqueue(MockResponse().setHeader("ETag", "\"0\"").setBody("<feed/>"))
+    Assertions.assertEquals("<feed/>", this.fetch(transport, uri))
+
+    val entry = cache.find(this.account.id, uri, false)!!
+    Assertions.assertTrue(entry.file.delete())
+    Assertions.assertNull(cache.onNotModified(entry))
+    Assertions.assertNull(cache.onOffline(entry))
+    Assertions.assertEquals(0L, cache.statistics().hits)
+    Assertions.assertEquals(0L, cache.statistics().offlineHits)
+  }
+}
@@ -2,16 +2,32 @@ package org.nypl.simplified.tests.books
 
 import com.google.common.util.concurrent.ListeningExecutorService
 import com.google.common.util.concurrent.MoreExecutors
+import com.io7m.jfunctional.Option
+import com.io7m.jfunctional.Pair
+import one.irradia.mime.vanilla.MIMEParser
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.nypl.simplified.accounts.api.AccountID
 import org.nypl.simplified.accounts.api.AccountReadableType
+import org.nypl.simplified.feeds.api.Feed
+import org.nypl.simplified.feeds.api.FeedEntry
+import org.nypl.simplified.feeds.api.FeedLoaderEntry
+import org.nypl.simplified.feeds.api.FeedLoaderRefreshEvent
 import org.nypl.simplified.feeds.api.FeedLoaderResult
 import org.nypl.simplified.feeds.api.FeedLoaderType
+import org.nypl.simplified.feeds.api.FeedSearch
+import org.nypl.simplified.opds.core.OPDSAcquisition
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoanable
+import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
+import org.nypl.simplified.opds.core.OPDSAvailabilityType
+import org.nypl.simplified.opds.core.getOrNull
+import org.nypl.simplified.tests.TestDirectories
 import org.nypl.simplified.tests.mocking.MockAccount
+import java.io.File
 import java.net.URI
+import java.util.Collections
 import java.util.concurrent.Executors
 
 abstract class FeedLoaderContract {
@@ -77,4 +93,428 @@ abstract class FeedLoaderContract {
     val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed
     Assertions.assertEquals(0, feed.size)
   }
+
+  /**
+   * Entries delivered incrementally are exactly the entries of the resulting feed.
+   */
+
+  @Test
+  fun testFeedIncrementalWithoutGroups() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val received =
+      Collections.synchronizedList(mutableListOf<FeedLoaderEntry>())
+    val future =
+      loader.fetchURIIncrementally(
+        account = this.account,
+        uri = resource("feed-incremental-without-groups.xml"),
+        method = "GET",
+        onEntry = { entry -> received.add(entry) }
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess)
+    val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithoutGroups
+    Assertions.assertEquals(3, feed.size)
+    Assertions.assertEquals(feed.entriesInOrder.toList(), received.map { entry -> entry.entry })
+    Assertions.assertTrue(received.all { entry -> entry.groups.isEmpty() })
+  }
+
+  /**
+   * Entries delivered incrementally carry the groups in which they appear in the resulting feed.
+   */
+
+  @Test
+  fun testFeedIncrementalWithGroups() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val received =
+      Collections.synchronizedList(mutableListOf<FeedLoaderEntry>())
+    val future =
+      loader.fetchURIIncrementally(
+        account = this.account,
+        uri = resource("feed-incremental-with-groups.xml"),
+        method = "GET",
+        onEntry = { entry -> received.add(entry) }
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess)
+    val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithGroups
+    Assertions.assertEquals(2, feed.feedGroupsInOrder.size)
+    for (group in feed.feedGroupsInOrder) {
+      Assertions.assertEquals(
+        group.groupEntries.toList(),
+        received.filter { entry -> entry.groups.contains(group.groupTitle) }
+          .map { entry -> entry.entry }
+      )
+    }
+  }
+
+  /**
+   * OPDS 2.0 feeds are delivered incrementally in the same way as OPDS 1.2 feeds.
+   */
+
+  @Test
+  fun testFeedOPDS2IncrementalWithoutGroups() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val received =
+      Collections.synchronizedList(mutableListOf<FeedLoaderEntry>())
+    val future =
+      loader.fetchURIIncrementally(
+        account = this.account,
+        uri = resource("feed-incremental-without-groups.json"),
+        method = "GET",
+        onEntry = { entry -> received.add(entry) }
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess)
+    val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithoutGroups
+    Assertions.assertEquals(3, feed.size)
+    Assertions.assertEquals(feed.entriesInOrder.toList(), received.map { entry -> entry.entry })
+    Assertions.assertTrue(received.all { entry -> entry.groups.isEmpty() })
+  }
+
+  /**
+   * Publications in OPDS 2.0 groups are placed into the groups of the resulting feed.
+   */
+
+  @Test
+  fun testFeedOPDS2IncrementalWithGroups() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val received =
+      Collections.synchronizedList(mutableListOf<FeedLoaderEntry>())
+    val future =
+      loader.fetchURIIncrementally(
+        account = this.account,
+        uri = resource("feed-incremental-with-groups.json"),
+        method = "GET",
+        onEntry = { entry -> received.add(entry) }
+      )
+    val result =
+      future.get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess)
+    val feed = (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithGroups
+    Assertions.assertEquals(
+      listOf("Fiction", "Nonfiction"),
+      feed.feedGroupsInOrder.map { group -> group.groupTitle }
+    )
+    for (group in feed.feedGroupsInOrder) {
+      Assertions.assertEquals(
+        group.groupEntries.toList(),
+        received.filter { entry -> entry.groups.contains(group.groupTitle) }
+          .map { entry -> entry.entry }
+      )
+    }
+  }
+
+  /**
+   * The same lane served as OPDS 1.2 and as OPDS 2.0 yields the same entries in the same
+   * groups: acquisitions keep their relations, URIs and types, and availability is open
+   * access for publications with an open access acquisition and loanable otherwise.
+   */
+
+  @Test
+  fun testFeedOPDS2EquivalentToOPDS1() {
+    val loader =
+      this.createFeedLoader(this.exec)
+
+    val feedOPDS1 =
+      this.loadGroupedFeed(loader, "feed-equivalent.xml")
+    val feedOPDS2 =
+      this.loadGroupedFeed(loader, "feed-equivalent.json")
+
+    Assertions.assertEquals(
+      listOf("Fiction", "Mystery"),
+      feedOPDS1.feedGroupsInOrder.map { group -> group.groupTitle }
+    )
+    Assertions.assertEquals(
+      feedOPDS1.feedGroupsInOrder.map { group -> group.groupTitle },
+      feedOPDS2.feedGroupsInOrder.map { group -> group.groupTitle }
+    )
+
+    for (index in feedOPDS1.feedGroupsInOrder.indices) {
+      val groupOPDS1 = feedOPDS1.feedGroupsInOrder[index]
+      val groupOPDS2 = feedOPDS2.feedGroupsInOrder[index]
+      Assertions.assertEquals(
+        groupOPDS1.groupEntries.map(this::comparableEntryOf),
+        groupOPDS2.groupEntries.map(this::comparableEntryOf),
+        "Group ${groupOPDS1.groupTitle}"
+      )
+    }
+
+    val entries =
+      feedOPDS2.feedGroupsInOrder
+        .flatMap { group -> group.groupEntries }
+        .map(this::comparableEntryOf)
+        .associateBy { entry -> entry.id }
+
+    Assertions.assertEquals(
+      OPDSAvailabilityOpenAccess.get(Option.none()),
+      entries["urn:example:equivalent:1"]!!.availability
+    )
+    Assertions.assertEquals(
+      OPDSAvailabilityLoanable.get(),
+      entries["urn:example:equivalent:2"]!!.availability
+    )
+    Assertions.assertEquals(
+      listOf(
+        OPDSAcquisition(
+          relation = OPDSAcquisition.Relation.ACQUISITION_BORROW,
+          uri = URI.create("http://example.com/borrow/2"),
+          type = MIMEParser.parseRaisingException("application/epub+zip"),
+          indirectAcquisitions = listOf()
+        )
+      ),
+      entries["urn:example:equivalent:2"]!!.acquisitions
+    )
+    Assertions.assertEquals(
+      2,
+      entries["urn:example:equivalent:4"]!!.acquisitions.size
+    )
+  }
+
+  /**
+   * The parts of an entry that both the OPDS 1.2 parsers and the OPDS 2.0 converter
+   * produce.
+   */
+
+  private data class ComparableEntry(
+    val id: String,
+    val title: String,
+    val authors: List<String>,
+    val updated: Long,
+    val availability: OPDSAvailabilityType,
+    val acquisitions: List<OPDSAcquisition>,
+    val cover: URI?,
+    val thumbnail: URI?,
+    val groups: Set<Pair<String, URI>>
+  )
+
+  private fun comparableEntryOf(entry: FeedEntry): ComparableEntry {
+    val feedEntry = (entry as FeedEntry.FeedEntryOPDS).feedEntry
+    return ComparableEntry(
+      id = feedEntry.id,
+      title = feedEntry.title,
+      authors = feedEntry.authors,
+      updated = feedEntry.updated.millis,
+      availability = feedEntry.availability,
+      acquisitions = feedEntry.acquisitions,
+      cover = feedEntry.cover.getOrNull(),
+      thumbnail = feedEntry.thumbnail.getOrNull(),
+      groups = feedEntry.groups
+    )
+  }
+
+  private fun loadGroupedFeed(
+    loader: FeedLoaderType,
+    name: String
+  ): Feed.FeedWithGroups {
+    val result =
+      loader.fetchURI(
+        account = this.account,
+        uri = resource(name),
+        method = "GET"
+      ).get()
+
+    Assertions.assertTrue(result is FeedLoaderResult.FeedLoaderSuccess, "$name loads")
+    return (result as FeedLoaderResult.FeedLoaderSuccess).feed as Feed.FeedWithGroups
+  }
+
+  /**
+   * Copy the named resource to a file that the test can subsequently modify.
+   */
+
+  private fun resourceCopy(
+    name: String,
+    file: File
+  ): URI {
+    this.resource(name).toURL().openStream().use { input ->
+      file.outputStream().use { output -> input.copyTo(output) }
+    }
+    return file.toURI()
+  }
+
+  /**
+   * Wait for all of the tasks submitted to the (single-threaded) loader executor to finish.
+   */
+
+  private fun drainExecutor() {
+    this.exec.submit { }.get()
+  }
+
+  /**
+   * A cached feed is served immediately, and an unchanged feed is not republished.
+   */
+
+  @Test
+  fun testFeedCachedUnchanged() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val refreshes =
+      Collections.synchronizedList(mutableListOf<FeedLoaderRefreshEvent>())
+    loader.feedRefreshes().subscribe { event -> refreshes.add(event) }
+
+    val uri =
+      this.resourceCopy(
+        "feed-incremental-without-groups.xml",
+        File(TestDirectories.temporaryDirectory(), "feed.xml")
+      )
+
+    val result0 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    val result1 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+
+    this.drainExecutor()
+    Assertions.assertSame(result0.feed, result1.feed)
+    Assertions.assertEquals(listOf<FeedLoaderRefreshEvent>(), refreshes.toList())
+  }
+
+  /**
+   * A feed whose body extends beyond the data consumed by the parser is not considered
+   * changed when it is refreshed.
+   */
+
+  @Test
+  fun testFeedCachedUnchangedTrailingData() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val refreshes =
+      Collections.synchronizedList(mutableListOf<FeedLoaderRefreshEvent>())
+    loader.feedRefreshes().subscribe { event -> refreshes.add(event) }
+
+    val file =
+      File(TestDirectories.temporaryDirectory(), "feed.xml")
+    val uri =
+      this.resourceCopy("feed-incremental-without-groups.xml", file)
+    file.appendText(" ".repeat(65536))
+
+    val result0 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    val result1 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+
+    this.drainExecutor()
+    Assertions.assertSame(result0.feed, result1.feed)
+    Assertions.assertEquals(listOf<FeedLoaderRefreshEvent>(), refreshes.toList())
+  }
+
+  /**
+   * A cached feed is served immediately, and a feed that has changed is republished.
+   */
+
+  @Test
+  fun testFeedCachedChanged() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val refreshes =
+      Collections.synchronizedList(mutableListOf<FeedLoaderRefreshEvent>())
+    loader.feedRefreshes().subscribe { event -> refreshes.add(event) }
+
+    val file =
+      File(TestDirectories.temporaryDirectory(), "feed.xml")
+    val uri =
+      this.resourceCopy("feed-incremental-without-groups.xml", file)
+
+    val result0 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    Assertions.assertTrue(result0.feed is Feed.FeedWithoutGroups)
+
+    this.resourceCopy("feed-incremental-with-groups.xml", file)
+
+    val result1 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    Assertions.assertSame(result0.feed, result1.feed)
+
+    this.drainExecutor()
+    Assertions.assertEquals(1, refreshes.size)
+    Assertions.assertEquals(uri, refreshes[0].uri)
+    Assertions.assertEquals(this.account.id, refreshes[0].accountID)
+    Assertions.assertTrue(refreshes[0].result.feed is Feed.FeedWithGroups)
+
+    val result2 =
+      loader.fetchURICached(this.account, uri, "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    Assertions.assertSame(refreshes[0].result.feed, result2.feed)
+  }
+
+  /**
+   * Feeds fetched with other methods are never cached.
+   */
+
+  @Test
+  fun testFeedCachedOnlyGET() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val uri =
+      this.resource("feed-incremental-without-groups.xml")
+
+    val result0 =
+      loader.fetchURICached(this.account, uri, "PUT").get() as FeedLoaderResult.FeedLoaderSuccess
+    val result1 =
+      loader.fetchURICached(this.account, uri, "PUT").get() as FeedLoaderResult.FeedLoaderSuccess
+    Assertions.assertNotSame(result0.feed, result1.feed)
+  }
+
+  /**
+   * The search description of a feed is cached per account, so a feed can still be
+   * loaded with its search after the search description has become unavailable.
+   */
+
+  @Test
+  fun testFeedSearchCached() {
+    val loader =
+      this.createFeedLoader(this.exec)
+    val directory =
+      TestDirectories.temporaryDirectory()
+
+    val searchFile = File(directory, "search.xml")
+    searchFile.writeText(
+      """<?xml version="1.0" encoding="UTF-8"?>
+<OpenSearchDescription xmlns="http://a9.com/-/spec/opensearch/1.1/">
+  <ShortName>Search</ShortName>
+  <Url type="application/atom+xml;profile=opds-catalog" template="http://example.com/search?q={searchTerms}"/>
+</OpenSearchDescription>
+"""
+    )
+
+    val feedFile = File(directory, "feed.xml")
+    feedFile.writeText(
+      """<feed xmlns="http://www.w3.org/2005/Atom">
+  <id>urn:example:feed:search</id>
+  <title>Search</title>
+  <updated>2020-01-01T00:00:00Z</updated>
+  <link rel="search" type="application/opensearchdescription+xml" href="${searchFile.toURI()}"/>
+</feed>
+"""
+    )
+
+    val result0 =
+      loader.fetchURI(this.account, feedFile.toURI(), "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    val search0 =
+      result0.feed.feedSearch as FeedSearch.FeedSearchOpen1_1
+    Assertions.assertEquals(
+      URI.create("http://example.com/search?q=cats"),
+      search0.search.getQueryURIForTerms("cats")
+    )
+
+    Assertions.assertTrue(searchFile.delete())
+
+    val result1 =
+      loader.fetchURI(this.account, feedFile.toURI(), "GET").get() as FeedLoaderResult.FeedLoaderSuccess
+    val search1 =
+      result1.feed.feedSearch as FeedSearch.FeedSearchOpen1_1
+    Assertions.assertSame(search0.search, search1.search)
+
+    val result2 =
+      loader.fetchURI(MockAccount(AccountID.generate()), feedFile.toURI(), "GET").get()
+    Assertions.assertTrue(result2 is FeedLoaderResult.FeedLoaderFailure)
+  }
 }
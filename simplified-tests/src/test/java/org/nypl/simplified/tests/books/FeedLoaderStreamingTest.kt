@@ -0,0 +1,11 @@
+package org.nypl.simplified.tests.books
+
+import org.nypl.simplified.opds.core.OPDSFeedParserType
+import org.nypl.simplified.opds.core.OPDSFeedStreamingParser
+
+class FeedLoaderStreamingTest : FeedLoaderTest() {
+
+  override fun createParser(): OPDSFeedParserType {
+    return OPDSFeedStreamingParser.newParser()
+  }
+}
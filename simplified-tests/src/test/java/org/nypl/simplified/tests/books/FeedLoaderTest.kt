@@ -12,18 +12,22 @@ import org.nypl.simplified.feeds.api.FeedLoader
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser
 import org.nypl.simplified.opds.core.OPDSFeedParser
+import org.nypl.simplified.opds.core.OPDSFeedParserType
 import org.nypl.simplified.opds.core.OPDSFeedTransportType
 import org.nypl.simplified.opds.core.OPDSSearchParser
+import org.nypl.simplified.opds2.irradia.OPDS2ParsersIrradia
 import java.io.FileNotFoundException
 import java.net.URI
 
-class FeedLoaderTest : FeedLoaderContract() {
+open class FeedLoaderTest : FeedLoaderContract() {
+
+  protected open fun createParser(): OPDSFeedParserType {
+    return OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser())
+  }
 
   override fun createFeedLoader(exec: ListeningExecutorService): FeedLoaderType {
-    val entryParser =
-      OPDSAcquisitionFeedEntryParser.newParser()
     val parser =
-      OPDSFeedParser.newParser(entryParser)
+      this.createParser()
     val transport =
       OPDSFeedTransportType<AccountReadableType> { context, uri, method, authenticate ->
         uri.toURL().openStream()
@@ -56,7 +60,8 @@ class FeedLoaderTest : FeedLoaderContract() {
       exec = exec,
       parser = parser,
       searchParser = searchParser,
-      transport = transport
+      transport = transport,
+      opds2Parsers = OPDS2ParsersIrradia
     )
   }
 
@@ -23,6 +23,8 @@ import org.nypl.simplified.taskrecorder.api.TaskResult
 import org.nypl.simplified.tests.mocking.MockAccountProviders
 import org.slf4j.Logger
 import java.net.URI
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 
 abstract class AccountProviderDescriptionRegistryContract {
 
@@ -360,6 +362,42 @@ abstract class AccountProviderDescriptionRegistryContract {
     Assertions.assertEquals(registry.resolvedProviders[existing0.id], existing0)
   }
 
+  /**
+   * Sources are loaded concurrently, but their results are applied in source order even
+   * if a later source finishes first.
+   */
+
+  @Test
+  fun testRefreshConcurrentSources() {
+    val latch = CountDownLatch(2)
+    val registry =
+      this.createRegistry(
+        MockAccountProviders.fakeProvider("urn:fake:0"),
+        listOf(
+          RendezvousSource(latch, description1, delayMilliseconds = 200L),
+          RendezvousSource(latch, description0, delayMilliseconds = 0L)
+        )
+      )
+
+    registry.events.subscribe { this.events.add(it) }
+    registry.refresh(true)
+
+    Assertions.assertEquals(Idle, registry.status)
+    Assertions.assertEquals(4, this.events.size)
+    run {
+      this.events.removeAt(0) as StatusChanged
+    }
+    run {
+      Assertions.assertEquals(URI.create("urn:1"), (this.events.removeAt(0) as Updated).id)
+    }
+    run {
+      Assertions.assertEquals(URI.create("urn:0"), (this.events.removeAt(0) as Updated).id)
+    }
+    run {
+      this.events.removeAt(0) as StatusChanged
+    }
+  }
+
   /**
    * Refreshing publishes the correct status.
    */
@@ -535,6 +573,43 @@ abstract class AccountProviderDescriptionRegistryContract {
     }
   }
 
+  /**
+   * A source that only succeeds if it is loaded at the same time as the other sources
+   * sharing its latch.
+   */
+
+  class RendezvousSource(
+    private val latch: CountDownLatch,
+    private val description: AccountProviderDescription,
+    private val delayMilliseconds: Long
+  ) : AccountProviderSourceType {
+    override fun load(context: Context, includeTestingLibraries: Boolean): SourceResult {
+      this.latch.countDown()
+      if (!this.latch.await(10L, TimeUnit.SECONDS)) {
+        return SourceResult.SourceFailed(mapOf(), Exception("Sources were not loaded concurrently"))
+      }
+      Thread.sleep(this.delayMilliseconds)
+      return SourceResult.SourceSucceeded(mapOf(Pair(this.description.id, this.description)))
+    }
+
+    override fun query(context: Context, query: AccountSearchQuery): SourceResult {
+      return this.load(context, query.includeTestingLibraries)
+    }
+
+    override fun clear(context: Context) {}
+
+    override fun canResolve(description: AccountProviderDescription): Boolean {
+      return false
+    }
+
+    override fun resolve(
+      onProgress: AccountProviderResolutionListenerType,
+      description: AccountProviderDescription
+    ): TaskResult<AccountProviderType> {
+      throw IllegalStateException()
+    }
+  }
+
   class CrashingSource : AccountProviderSourceType {
     override fun load(context: Context, includeTestingLibraries: Boolean): SourceResult {
       throw Exception()
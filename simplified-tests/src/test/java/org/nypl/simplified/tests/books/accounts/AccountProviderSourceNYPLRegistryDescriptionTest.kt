@@ -21,6 +21,7 @@ import org.nypl.simplified.accounts.api.AccountProviderAuthenticationDescription
 import org.nypl.simplified.accounts.api.AccountProviderAuthenticationDescription.Companion.COPPA_TYPE
 import org.nypl.simplified.accounts.api.AccountProviderAuthenticationDescription.Companion.OAUTH_CLIENT_CREDENTIALS
 import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderAuthDocumentCache
 import org.nypl.simplified.accounts.source.nyplregistry.AccountProviderResolution
 import org.nypl.simplified.links.Link
 import org.nypl.simplified.opds.auth_document.api.AuthenticationDocument
@@ -33,6 +34,8 @@ import org.nypl.simplified.parser.api.ParseResult
 import org.nypl.simplified.taskrecorder.api.TaskResult
 import org.nypl.simplified.tests.mocking.MockAccountProviderResolutionStrings
 import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.InputStream
 import java.net.URI
 import java.util.concurrent.TimeUnit
 
@@ -1218,6 +1221,103 @@ class AccountProviderSourceNYPLRegistryDescriptionTest {
     Assertions.assertEquals("resolvingAuthDocumentNoStartURI", result.steps.last().resolution.message)
   }
 
+  /**
+   * A cached authentication document is revalidated with a conditional request, and is
+   * used if the server indicates that it has not been modified.
+   */
+
+  @Test
+  fun testAuthDocumentNotModifiedUsesCache() {
+    val cacheDirectory = File.createTempFile("auth-document-cache", "dir")
+    cacheDirectory.delete()
+
+    try {
+      val metadata =
+        AccountProviderDescription(
+          id = URI.create("urn:fake:0"),
+          title = "Title",
+          updated = DateTime.parse("2019-07-09T08:33:40+00:00"),
+          links = listOf(
+            Link.LinkBasic(
+              this.server.url("auth").toUri(),
+              AUTH_DOCUMENT_TYPE
+            )
+          ),
+          images = listOf(),
+          isProduction = true,
+          isAutomatic = false,
+          location = null
+        )
+
+      val cache = AccountProviderAuthDocumentCache(cacheDirectory)
+      fun resolution(): AccountProviderResolution {
+        return AccountProviderResolution(
+          stringResources = this.stringResources,
+          authDocumentParsers = this.authDocumentParsers,
+          http = this.http,
+          description = metadata,
+          authDocumentCache = cache
+        )
+      }
+
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(200)
+          .setHeader("ETag", "\"abc\"")
+          .setBody("{ \"document\": 0 }")
+      )
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(304)
+      )
+
+      val parsed = mutableListOf<String>()
+      Mockito.`when`(
+        this.authDocumentParsers.createParser(anyNotNull(), anyNotNull(), Mockito.anyBoolean())
+      ).thenAnswer { invocation ->
+        parsed.add(String((invocation.arguments[1] as InputStream).readBytes()))
+        this.authDocumentParser
+      }
+
+      val authDocument =
+        AuthenticationDocument(
+          id = URI("http://www.example.com/auth"),
+          announcements = emptyList(),
+          title = "Auth",
+          mainColor = "blue",
+          description = null,
+          features = AuthenticationObjectNYPLFeatures(setOf(), setOf()),
+          authentication = listOf(),
+          links = listOf(
+            Link.LinkBasic(
+              href = URI("http://www.example.com/feed.xml"),
+              relation = "start"
+            )
+          )
+        )
+
+      Mockito.`when`(this.authDocumentParser.parse())
+        .thenReturn(ParseResult.Success(listOf(), authDocument))
+
+      val result0 =
+        resolution().resolve { _, message -> this.logger.debug("{}", message) }
+      val result1 =
+        resolution().resolve { _, message -> this.logger.debug("{}", message) }
+
+      result0 as TaskResult.Success
+      result1 as TaskResult.Success
+      Assertions.assertEquals(result0.result, result1.result)
+
+      val request0 = this.server.takeRequest()
+      val request1 = this.server.takeRequest()
+      Assertions.assertNull(request0.getHeader("If-None-Match"))
+      Assertions.assertEquals("\"abc\"", request1.getHeader("If-None-Match"))
+      Assertions.assertEquals(listOf("{ \"document\": 0 }", "{ \"document\": 0 }"), parsed)
+    } finally {
+      cacheDirectory.deleteRecursively()
+    }
+  }
+
   private fun <T> anyNotNull(): T {
     return Mockito.argThat<T> { x -> x != null }
   }
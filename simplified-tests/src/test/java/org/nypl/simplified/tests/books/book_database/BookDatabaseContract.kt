@@ -7,6 +7,7 @@ import one.irradia.mime.vanilla.MIMEParser
 import org.joda.time.DateTime
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
 import org.librarysimplified.audiobook.api.PlayerPosition
 import org.nypl.drm.core.AdobeAdeptLoan
 import org.nypl.drm.core.AdobeLoanID
@@ -24,7 +25,9 @@ import org.nypl.simplified.books.book_database.api.BookDatabaseEntryFormatHandle
 import org.nypl.simplified.books.book_database.api.BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandleEPUB
 import org.nypl.simplified.books.book_database.api.BookDatabaseEntryFormatHandle.BookDatabaseEntryFormatHandlePDF
 import org.nypl.simplified.books.book_database.api.BookDatabaseEntryType
+import org.nypl.simplified.books.book_database.api.BookDatabaseException
 import org.nypl.simplified.files.DirectoryUtilities
+import org.nypl.simplified.json.core.JSONSerializerUtilities
 import org.nypl.simplified.opds.core.OPDSAcquisition
 import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
 import org.nypl.simplified.opds.core.OPDSAvailabilityOpenAccess
@@ -38,6 +41,11 @@ import java.io.FileOutputStream
 import java.io.IOException
 import java.net.URI
 import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
 
 abstract class BookDatabaseContract {
 
@@ -226,6 +234,254 @@ abstract class BookDatabaseContract {
     Assertions.assertEquals(0, db0.books().size.toLong())
   }
 
+  /**
+   * Reopening a database uses the index, and books whose metadata changed since the index
+   * was written are parsed again.
+   */
+
+  @Test
+  fun testOpenIndexedReopen() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val ids = (0 until 20).map { index ->
+      val id = BookID.newFromText("book-$index")
+      database0.createOrUpdate(id, this.entryWithTitle("book-$index", "Title"))
+      id
+    }
+
+    val database1 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    Assertions.assertTrue(File(directory, "index.txt").isFile)
+    Assertions.assertEquals(ids.toSet(), database1.books())
+
+    /*
+     * Change the metadata of one book behind the database's back.
+     */
+
+    val changedId = ids[3]
+    val changedMeta = File(File(directory, changedId.toString()), "meta.json")
+    val changedTime = changedMeta.lastModified()
+    changedMeta.writeText(
+      JSONSerializerUtilities.serializeToString(
+        serializer.serializeFeedEntry(this.entryWithTitle("book-3", "A Different Title"))
+      )
+    )
+    changedMeta.setLastModified(changedTime + 2_000L)
+
+    val database2 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    Assertions.assertEquals(ids.toSet(), database2.books())
+    for (id in ids) {
+      val entry = database2.entry(id)
+      Assertions.assertEquals(id, entry.book.id)
+      Assertions.assertEquals(accountID, entry.book.account)
+      if (id == changedId) {
+        Assertions.assertEquals("A Different Title", entry.book.entry.title)
+      } else {
+        Assertions.assertEquals("Title", entry.book.entry.title)
+      }
+    }
+  }
+
+  /**
+   * A corrupt index does not prevent a database from being opened.
+   */
+
+  @Test
+  fun testOpenIndexCorrupt() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val id0 = BookID.newFromText("a")
+    database0.createOrUpdate(id0, this.entryWithTitle("a", "Title"))
+
+    File(directory, "index.txt").writeText("BOOK_DATABASE_INDEX 1\nnonsense\n$id0 x y\n")
+
+    val database1 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    Assertions.assertEquals(setOf(id0), database1.books())
+    Assertions.assertEquals("Title", database1.entry(id0).book.entry.title)
+
+    /*
+     * Damage the summary of the book without updating its checksum.
+     */
+
+    val indexFile = File(directory, "index.txt")
+    indexFile.writeText(indexFile.readText().replace("Title", "Damaged"))
+
+    val database2 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    Assertions.assertEquals(setOf(id0), database2.books())
+    Assertions.assertEquals("Title", database2.entry(id0).book.entry.title)
+  }
+
+  /**
+   * A book whose metadata was corrupted since the index was written is reported when the
+   * database is opened.
+   */
+
+  @Test
+  fun testOpenIndexedCorruptMetadata() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val id0 = BookID.newFromText("a")
+    database0.createOrUpdate(id0, this.entryWithTitle("a", "Title"))
+    BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    Assertions.assertTrue(File(directory, "index.txt").isFile)
+
+    val meta = File(File(directory, id0.toString()), "meta.json")
+    val metaTime = meta.lastModified()
+    meta.writeText("{")
+    meta.setLastModified(metaTime + 2_000L)
+
+    Assertions.assertThrows(BookDatabaseException::class.java) {
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+    }
+  }
+
+  /**
+   * Measure the time taken to open databases of various sizes with and without an index,
+   * and then to access every book in them as the book registry does at startup.
+   */
+
+  @Test
+  fun testOpenTiming() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+
+    for (size in listOf(10, 100, 1000)) {
+      val directory = DirectoryUtilities.directoryCreateTemporary()
+      val database0 =
+        BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+      for (index in 0 until size) {
+        database0.createOrUpdate(
+          BookID.newFromText("book-$index"),
+          this.entryWithTitle("book-$index", "Title")
+        )
+      }
+
+      val timeCold = System.nanoTime()
+      val database1 =
+        BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+      val timeColdOpened = System.nanoTime()
+      val books1 = database1.books().map { id -> database1.entry(id).book }
+      val timeIndexed = System.nanoTime()
+      val database2 =
+        BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+      val timeIndexedOpened = System.nanoTime()
+      val books2 = database2.books().map { id -> database2.entry(id).book }
+      val timeEnd = System.nanoTime()
+
+      this.logger.debug(
+        "open {} books: cold {}ms (open {}ms), indexed {}ms (open {}ms)",
+        size,
+        (timeIndexed - timeCold) / 1_000_000L,
+        (timeColdOpened - timeCold) / 1_000_000L,
+        (timeEnd - timeIndexed) / 1_000_000L,
+        (timeIndexedOpened - timeIndexed) / 1_000_000L
+      )
+      Assertions.assertEquals(size, books1.size)
+      Assertions.assertEquals(size, books2.size)
+      Assertions.assertEquals(books1.map { book -> book.entry.id }, books2.map { book -> book.entry.id })
+    }
+  }
+
+  /**
+   * Readers see consistent, read-only snapshots whilst a writer adds books, and measure
+   * the read throughput of several reader threads against one writer.
+   */
+
+  @Test
+  @Timeout(value = 60L, unit = TimeUnit.SECONDS)
+  fun testConcurrentReadersOneWriter() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val readerCount = 4
+    val bookCount = 200
+    val writing = AtomicBoolean(true)
+    val reads = AtomicLong(0L)
+    val failures = ConcurrentLinkedQueue<Throwable>()
+    val executor = Executors.newFixedThreadPool(readerCount)
+
+    try {
+      val readers = (0 until readerCount).map {
+        executor.submit {
+          try {
+            var sizeLast = 0
+            while (writing.get()) {
+              val books = database.books()
+              Assertions.assertTrue(books.size >= sizeLast)
+              sizeLast = books.size
+              for (id in books) {
+                Assertions.assertEquals(id, database.entry(id).book.id)
+              }
+              reads.incrementAndGet()
+            }
+          } catch (e: Throwable) {
+            failures.add(e)
+          }
+        }
+      }
+
+      val timeStart = System.nanoTime()
+      for (index in 0 until bookCount) {
+        database.createOrUpdate(
+          BookID.newFromText("book-$index"),
+          this.entryWithTitle("book-$index", "Title")
+        )
+      }
+      val timeWrites = System.nanoTime() - timeStart
+      writing.set(false)
+      readers.forEach { reader -> reader.get() }
+
+      this.logger.debug(
+        "{} readers performed {} snapshot reads whilst one writer added {} books in {}ms",
+        readerCount,
+        reads.get(),
+        bookCount,
+        timeWrites / 1_000_000L
+      )
+    } finally {
+      executor.shutdown()
+    }
+
+    Assertions.assertEquals(listOf<Throwable>(), failures.toList())
+
+    val books = database.books()
+    Assertions.assertEquals(bookCount, books.size)
+    Assertions.assertSame(books, database.books())
+    Assertions.assertThrows(UnsupportedOperationException::class.java) {
+      books.add(BookID.newFromText("x"))
+    }
+  }
+
+  private fun entryWithTitle(
+    id: String,
+    title: String
+  ): OPDSAcquisitionFeedEntry {
+    return OPDSAcquisitionFeedEntry.newBuilder(
+      id,
+      title,
+      DateTime.now(),
+      OPDSAvailabilityOpenAccess.get(Option.none<URI>())
+    ).build()
+  }
+
   /**
    * Creating and reopening an empty database works.
    */
@@ -596,6 +852,64 @@ abstract class BookDatabaseContract {
     format!!
   }
 
+  /**
+   * Creating a book database entry with an epub format, and moving in a book, works: the
+   * book file is moved into the database rather than copied.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  fun testEntryEPUBMoveIn() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val feedEntry: OPDSAcquisitionFeedEntry = this.acquisitionFeedEntryWithEPUB()
+    val bookID = BookID.newFromText("abcd")
+    val databaseEntry = database0.createOrUpdate(bookID, feedEntry)
+
+    val format = databaseEntry.findFormatHandle(BookDatabaseEntryFormatHandleEPUB::class.java)!!
+    val file = copyToTempFile("/org/nypl/simplified/tests/books/empty.epub")
+    val bytes = file.readBytes()
+    format.moveInBook(file)
+
+    Assertions.assertFalse(file.exists(), "Source file was moved")
+    Assertions.assertTrue(format.format.isDownloaded)
+    Assertions.assertArrayEquals(bytes, format.format.file!!.readBytes())
+  }
+
+  /**
+   * Creating a book database entry with a PDF format, and moving in a book, works: the
+   * book file is moved into the database rather than copied.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  fun testEntryPDFMoveIn() {
+    val parser = OPDSJSONParser.newParser()
+    val serializer = OPDSJSONSerializer.newSerializer()
+    val directory = DirectoryUtilities.directoryCreateTemporary()
+    val database0 =
+      BookDatabase.open(context(), parser, serializer, BookFormatsTesting.supportsEverything, accountID, directory)
+
+    val feedEntry: OPDSAcquisitionFeedEntry = this.acquisitionFeedEntryWithPDF()
+    val bookID = BookID.newFromText("abcd")
+    val databaseEntry = database0.createOrUpdate(bookID, feedEntry)
+
+    val format = databaseEntry.findFormatHandle(BookDatabaseEntryFormatHandlePDF::class.java)!!
+    val file = copyToTempFile("/org/nypl/simplified/tests/books/empty.epub")
+    val bytes = file.readBytes()
+    format.moveInBook(file)
+
+    Assertions.assertFalse(file.exists(), "Source file was moved")
+    Assertions.assertTrue(format.format.isDownloaded)
+    Assertions.assertArrayEquals(bytes, format.format.file!!.readBytes())
+  }
+
   /**
    * Creating a book database entry with an epub format, and copying in a book and then
    * destroying the entry, works.
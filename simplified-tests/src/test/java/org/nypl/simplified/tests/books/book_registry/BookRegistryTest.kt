@@ -0,0 +1,240 @@
+package org.nypl.simplified.tests.books.book_registry
+
+import io.reactivex.disposables.Disposable
+import org.joda.time.DateTime
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.Book
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_registry.BookRegistry
+import org.nypl.simplified.books.book_registry.BookRegistryType
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.book_registry.BookStatusEvent
+import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoanable
+import java.util.Collections
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+class BookRegistryTest {
+
+  private lateinit var accountID: AccountID
+  private lateinit var bookRegistry: BookRegistryType
+  private lateinit var events: MutableList<BookStatusEvent>
+  private lateinit var subscription: Disposable
+
+  @BeforeEach
+  fun setup() {
+    this.accountID =
+      AccountID(UUID.randomUUID())
+    this.bookRegistry =
+      BookRegistry.create()
+    this.events =
+      Collections.synchronizedList(mutableListOf())
+    this.subscription =
+      this.bookRegistry.bookEvents()
+        .subscribe { event -> this.events.add(event) }
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.subscription.dispose()
+  }
+
+  private fun bookWithStatus(
+    name: String
+  ): BookWithStatus {
+    val book =
+      Book(
+        BookID.newFromText(name),
+        this.accountID,
+        null,
+        null,
+        OPDSAcquisitionFeedEntry.newBuilder(
+          name, name, DateTime.now(), OPDSAvailabilityLoanable.get()
+        ).build(),
+        listOf()
+      )
+    return BookWithStatus(book, BookStatus.fromBook(book))
+  }
+
+  /**
+   * Replacing the contents of the registry publishes a single snapshot event.
+   */
+
+  @Test
+  fun testReplaceAllPublishesSnapshot() {
+    val book0 = this.bookWithStatus("0")
+    val book1 = this.bookWithStatus("1")
+    val book2 = this.bookWithStatus("2")
+
+    this.bookRegistry.update(book0)
+    this.bookRegistry.update(book1)
+    this.events.clear()
+
+    this.bookRegistry.replaceAll(listOf(book1, book2))
+
+    Assertions.assertEquals(1, this.events.size)
+    val event = this.events[0] as BookStatusEvent.BookStatusEventSnapshot
+    Assertions.assertEquals(setOf(book0.book.id, book1.book.id), event.booksPrevious.keys)
+    Assertions.assertEquals(setOf(book1.book.id, book2.book.id), event.booksNow.keys)
+    Assertions.assertNull(event.statusNow)
+    Assertions.assertNull(event.statusPrevious)
+
+    Assertions.assertEquals(setOf(book1.book.id, book2.book.id), this.bookRegistry.books().keys)
+    Assertions.assertNull(this.bookRegistry.bookOrNull(book0.book.id))
+    Assertions.assertEquals(book2, this.bookRegistry.bookOrNull(book2.book.id))
+  }
+
+  /**
+   * Run `iterations` calls of `f` on each of `threads` threads, all starting at once.
+   */
+
+  private fun runConcurrently(
+    threads: Int,
+    iterations: Int,
+    f: (Int) -> Unit
+  ) {
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val start = CountDownLatch(1)
+      val futures =
+        (0 until threads).map { thread ->
+          executor.submit {
+            start.await()
+            for (i in 0 until iterations) {
+              f(thread)
+            }
+          }
+        }
+      start.countDown()
+      for (future in futures) {
+        future.get(60L, TimeUnit.SECONDS)
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  /**
+   * The events published for each book must form a chain in which each event starts
+   * from the status that the previous event ended with, and the chain must end with
+   * the status that is now in the registry.
+   */
+
+  private fun checkEventChains(ids: List<BookID>) {
+    val events = synchronized(this.events) { this.events.toList() }
+    for (id in ids) {
+      var last: BookStatus? = null
+      for (event in events) {
+        if (event is BookStatusEvent.BookStatusEventForBook && event.bookId == id) {
+          Assertions.assertEquals(last, event.statusPrevious, "Event $event follows $last")
+          last = event.statusNow
+        }
+      }
+      Assertions.assertEquals(this.bookRegistry.bookStatusOrNull(id), last)
+    }
+  }
+
+  /**
+   * Conditional updates racing on the same books never replace a status with a status of
+   * lower priority, never lose the most important status, and publish events in order.
+   */
+
+  @Test
+  fun testConcurrentConditionalUpdates() {
+    val books = (0 until 8).map { i -> this.bookWithStatus("book-$i") }
+    val ids = books.map { book -> book.book.id }
+
+    fun statusesFor(id: BookID): List<BookStatus> {
+      return listOf(
+        BookStatus.Holdable(id),
+        BookStatus.Loanable(id),
+        BookStatus.RequestingLoan(id, ""),
+        BookStatus.Loaned.LoanedNotDownloaded(id, null, true),
+        BookStatus.RequestingDownload(id),
+        BookStatus.DownloadExternalAuthenticationInProgress(id),
+        BookStatus.Loaned.LoanedDownloaded(id, null, true)
+      )
+    }
+
+    val submitted = Collections.synchronizedList(mutableListOf<BookStatus>())
+    this.runConcurrently(threads = 8, iterations = 5_000) {
+      val random = ThreadLocalRandom.current()
+      val book = books[random.nextInt(books.size)]
+      val statuses = statusesFor(book.book.id)
+      val status = statuses[random.nextInt(statuses.size)]
+      submitted.add(status)
+      this.bookRegistry.updateIfStatusIsMoreImportant(book.copy(status = status))
+    }
+
+    for (id in ids) {
+      val expected =
+        submitted.filter { status -> status.id == id }
+          .maxByOrNull { status -> status.priority.priority }
+
+      Assertions.assertEquals(expected, this.bookRegistry.bookStatusOrNull(id))
+
+      val priorities =
+        synchronized(this.events) { this.events.toList() }
+          .filterIsInstance<BookStatusEvent.BookStatusEventForBook>()
+          .filter { event -> event.bookId == id }
+          .map { event -> event.statusNow!!.priority.priority }
+
+      Assertions.assertEquals(priorities.sorted(), priorities, "Priorities for $id never decrease")
+    }
+
+    this.checkEventChains(ids)
+  }
+
+  /**
+   * Unconditional updates and removals racing on the same books publish a consistent
+   * sequence of events for each book.
+   */
+
+  @Test
+  fun testConcurrentUpdatesAndRemovals() {
+    val books = (0 until 4).map { i -> this.bookWithStatus("book-$i") }
+    val ids = books.map { book -> book.book.id }
+
+    this.runConcurrently(threads = 8, iterations = 5_000) { thread ->
+      val random = ThreadLocalRandom.current()
+      val book = books[random.nextInt(books.size)]
+      if (random.nextInt(10) == 0) {
+        this.bookRegistry.clearFor(book.book.id)
+      } else {
+        val status = BookStatus.RequestingLoan(book.book.id, "$thread:${random.nextInt(4)}")
+        this.bookRegistry.update(book.copy(status = status))
+      }
+    }
+
+    this.checkEventChains(ids)
+  }
+
+  /**
+   * Updates after a replacement apply to the new contents of the registry.
+   */
+
+  @Test
+  fun testReplaceAllThenUpdate() {
+    val book0 = this.bookWithStatus("0")
+    val book1 = this.bookWithStatus("1")
+
+    this.bookRegistry.replaceAll(listOf(book0))
+    this.bookRegistry.update(book1)
+    this.bookRegistry.clearFor(book0.book.id)
+
+    Assertions.assertEquals(setOf(book1.book.id), this.bookRegistry.books().keys)
+    Assertions.assertEquals(3, this.events.size)
+    Assertions.assertTrue(this.events[0] is BookStatusEvent.BookStatusEventSnapshot)
+    Assertions.assertTrue(this.events[1] is BookStatusEvent.BookStatusEventAdded)
+    Assertions.assertTrue(this.events[2] is BookStatusEvent.BookStatusEventRemoved)
+  }
+}
@@ -38,6 +38,7 @@ import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpConnect
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpContentTypeIncompatible
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.httpRequestFailed
 import org.nypl.simplified.books.borrowing.internal.BorrowErrorCodes.requiredURIMissing
+import org.nypl.simplified.books.borrowing.internal.BorrowPartialDownload
 import org.nypl.simplified.books.formats.api.BookFormatSupportType
 import org.nypl.simplified.books.formats.api.StandardFormatNames.genericEPUBFiles
 import org.nypl.simplified.books.formats.api.StandardFormatNames.genericPDFFiles
@@ -459,4 +460,118 @@ class BorrowDirectDownloadTest {
     assertEquals(LoanedDownloaded::class.java, this.bookStates.removeAt(0).javaClass)
     assertEquals(0, this.bookStates.size)
   }
+
+  private fun partialDownloadOf(uri: URI): BorrowPartialDownload {
+    return BorrowPartialDownload.create(
+      cacheDirectory = this.context.cacheDirectory(),
+      bookID = this.bookID,
+      uri = uri
+    )
+  }
+
+  /**
+   * A partial download is resumed with a range request.
+   */
+
+  @Test
+  fun testDownloadResumed() {
+    val task = BorrowDirectDownload.createSubtask()
+
+    val uri = this.webServer.url("/book.epub").toUri()
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial = this.partialDownloadOf(uri)
+    partial.file.writeText("EPUB")
+    partial.saveValidators(mapOf("ETag" to listOf("\"abcd\"")))
+
+    val response =
+      MockResponse()
+        .setResponseCode(206)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("Content-Range", "bytes 4-9/10")
+        .setBody(" DATA!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    val sent = this.webServer.takeRequest()
+    assertEquals("bytes=4-", sent.getHeader("Range"))
+    assertEquals("\"abcd\"", sent.getHeader("If-Range"))
+    assertEquals(1, this.webServer.requestCount)
+
+    this.verifyBookRegistryHasStatus(LoanedDownloaded::class.java)
+    assertEquals("EPUB DATA!", this.epubHandle.bookData)
+    assertEquals(false, partial.file.exists())
+    assertEquals(false, partial.rangeFile.exists())
+
+    val attributes = this.taskRecorder.finishSuccess(Unit).attributes
+    assertEquals("4", attributes["Download bytes resumed"])
+    assertEquals("6", attributes["Download bytes fetched"])
+  }
+
+  /**
+   * A partial download is discarded if the server indicates that the content has changed.
+   */
+
+  @Test
+  fun testDownloadResumeContentChanged() {
+    val task = BorrowDirectDownload.createSubtask()
+
+    val uri = this.webServer.url("/book.epub").toUri()
+    this.context.currentURIField = uri
+    this.context.currentAcquisitionPathElement =
+      OPDSAcquisitionPathElement(genericEPUBFiles, null)
+
+    this.bookDatabaseEntry.formatHandlesField.clear()
+    this.bookDatabaseEntry.formatHandlesField.add(this.epubHandle)
+
+    val partial = this.partialDownloadOf(uri)
+    partial.file.writeText("OLD")
+    partial.saveValidators(mapOf("ETag" to listOf("\"abcd\"")))
+
+    val response =
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("Content-Type", "application/epub+zip")
+        .setHeader("ETag", "\"efgh\"")
+        .setBody("EPUB!")
+
+    this.webServer.enqueue(response)
+
+    task.execute(this.context)
+
+    assertEquals(1, this.webServer.requestCount)
+    this.verifyBookRegistryHasStatus(LoanedDownloaded::class.java)
+    assertEquals("EPUB!", this.epubHandle.bookData)
+    assertEquals(false, partial.file.exists())
+
+    val attributes = this.taskRecorder.finishSuccess(Unit).attributes
+    assertEquals("0", attributes["Download bytes resumed"])
+    assertEquals("5", attributes["Download bytes fetched"])
+  }
+
+  /**
+   * All of the partial downloads of a book can be deleted.
+   */
+
+  @Test
+  fun testPartialDownloadsDeleted() {
+    val partial0 = this.partialDownloadOf(URI.create("http://www.example.com/0.epub"))
+    val partial1 = this.partialDownloadOf(URI.create("http://www.example.com/1.epub"))
+    partial0.file.writeText("EPUB")
+    partial0.saveValidators(mapOf("ETag" to listOf("\"abcd\"")))
+    partial1.file.writeText("EPUB")
+
+    BorrowPartialDownload.deleteAll(this.context.cacheDirectory(), this.bookID)
+
+    assertEquals(false, partial0.file.exists())
+    assertEquals(null, partial0.validators())
+    assertEquals(false, partial1.file.exists())
+  }
 }
@@ -0,0 +1,173 @@
+package org.nypl.simplified.tests.books.borrowing
+
+import org.joda.time.Instant
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.borrowing.BorrowProgressConfiguration
+import org.nypl.simplified.books.borrowing.internal.BorrowProgressPublisher
+import java.util.Collections
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class BorrowProgressPublisherTest {
+
+  private val bookID =
+    BookID.newFromText("x")
+
+  private var timeNow = 0L
+  private lateinit var published: MutableList<BookStatus.Downloading>
+  private lateinit var publisher: BorrowProgressPublisher
+  private lateinit var scheduler: ScheduledExecutorService
+
+  @BeforeEach
+  fun setup() {
+    this.timeNow = 0L
+    this.published = Collections.synchronizedList(mutableListOf())
+    this.scheduler = Executors.newSingleThreadScheduledExecutor()
+    this.publisher =
+      BorrowProgressPublisher(
+        clock = { Instant(this.timeNow) },
+        configuration = BorrowProgressConfiguration(250L, TimeUnit.MILLISECONDS, 1.0),
+        scheduler = this.scheduler,
+        publish = { status -> this.published.add(status) }
+      )
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.scheduler.shutdownNow()
+  }
+
+  private fun downloading(
+    received: Long,
+    expected: Long? = 1000L
+  ): BookStatus.Downloading {
+    return BookStatus.Downloading(
+      id = this.bookID,
+      currentTotalBytes = received,
+      expectedTotalBytes = expected,
+      detailMessage = "Downloading..."
+    )
+  }
+
+  /**
+   * Rapid updates that each advance the progress by little are coalesced, but the first and
+   * last are always published.
+   */
+
+  @Test
+  fun testRapidUpdatesCoalesced() {
+    for (received in 0L until 1000L) {
+      this.timeNow = received
+      this.publisher.update(this.downloading(received, 100_000L))
+    }
+    this.publisher.update(this.downloading(100_000L, 100_000L))
+
+    Assertions.assertEquals(0L, this.published.first().currentTotalBytes)
+    Assertions.assertEquals(100_000L, this.published.last().currentTotalBytes)
+    Assertions.assertTrue(this.published.size <= 6, "${this.published.size} updates published")
+    Assertions.assertEquals(1001L - this.published.size, this.publisher.suppressed)
+  }
+
+  /**
+   * Updates that advance the progress by enough are published even if the interval has
+   * not elapsed, and other updates are held back until it has.
+   */
+
+  @Test
+  fun testLargeChangesPublished() {
+    this.publisher.update(this.downloading(100L))
+    this.timeNow = 10L
+    this.publisher.update(this.downloading(105L))
+    Assertions.assertEquals(1, this.published.size)
+
+    this.timeNow = 20L
+    this.publisher.update(this.downloading(110L))
+    Assertions.assertEquals(2, this.published.size)
+    Assertions.assertEquals(110L, this.published.last().currentTotalBytes)
+
+    this.timeNow = 270L
+    this.publisher.update(this.downloading(111L))
+    Assertions.assertEquals(listOf(100L, 110L, 111L), this.published.map { it.currentTotalBytes })
+    Assertions.assertEquals(1L, this.publisher.suppressed)
+  }
+
+  /**
+   * A held back update is published once the interval has elapsed, even if no further
+   * updates arrive.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testHeldBackPublishedAfterInterval() {
+    this.publisher.update(this.downloading(100L))
+    this.publisher.update(this.downloading(102L))
+    Assertions.assertEquals(1, this.published.size)
+
+    while (this.published.size < 2) {
+      Thread.sleep(10L)
+    }
+    Assertions.assertEquals(listOf(100L, 102L), this.published.map { it.currentTotalBytes })
+    Assertions.assertEquals(0L, this.publisher.suppressed)
+  }
+
+  /**
+   * Downloads of unknown size are limited only by time.
+   */
+
+  @Test
+  fun testUnknownSizeLimitedByTime() {
+    this.publisher.update(this.downloading(1L, null))
+    this.publisher.update(this.downloading(2L, null))
+    this.timeNow = 250L
+    this.publisher.update(this.downloading(3L, null))
+
+    Assertions.assertEquals(listOf(1L, 3L), this.published.map { it.currentTotalBytes })
+  }
+
+  /**
+   * Flushing publishes the held back update exactly once.
+   */
+
+  @Test
+  fun testFlushPublishesPending() {
+    this.publisher.update(this.downloading(100L))
+    this.publisher.update(this.downloading(105L))
+    Assertions.assertEquals(1, this.published.size)
+
+    this.publisher.flush()
+    this.publisher.flush()
+    Assertions.assertEquals(listOf(100L, 105L), this.published.map { it.currentTotalBytes })
+    Assertions.assertEquals(0L, this.publisher.suppressed)
+  }
+
+  /**
+   * An update that is held back when the publisher is closed (for example, because the
+   * download failed) is never published, and nor are any later updates.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testClosedDiscardsPending() {
+    this.publisher.update(this.downloading(100L))
+    this.publisher.update(this.downloading(102L))
+    this.publisher.close()
+    this.publisher.update(this.downloading(1000L))
+    this.publisher.flush()
+
+    /*
+     * The scheduler runs tasks in order of their scheduled times, so the held back update's
+     * flush has run by the time this task has.
+     */
+
+    this.scheduler.schedule({ }, 300L, TimeUnit.MILLISECONDS).get()
+    Assertions.assertEquals(listOf(100L), this.published.map { it.currentTotalBytes })
+    Assertions.assertEquals(1L, this.publisher.suppressed)
+  }
+}
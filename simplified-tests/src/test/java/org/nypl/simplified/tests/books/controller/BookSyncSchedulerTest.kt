@@ -0,0 +1,205 @@
+package org.nypl.simplified.tests.books.controller
+
+import com.google.common.util.concurrent.MoreExecutors
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.controller.BookSyncScheduler
+import org.nypl.simplified.books.controller.ControllerTaskScheduler
+import org.nypl.simplified.books.controller.api.BooksControllerLane.TRANSFER
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BookSyncSchedulerTest {
+
+  private lateinit var executor: ExecutorService
+  private lateinit var taskScheduler: ControllerTaskScheduler
+  private lateinit var scheduler: BookSyncScheduler
+
+  @BeforeEach
+  fun setup() {
+    this.executor = Executors.newFixedThreadPool(4)
+    this.taskScheduler = ControllerTaskScheduler.withExecutor(this.executor)
+    this.scheduler = BookSyncScheduler(this.taskScheduler)
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.executor.shutdown()
+  }
+
+  private fun success(): TaskResult<Unit> {
+    val recorder = TaskRecorder.create()
+    recorder.beginNewStep("Syncing...")
+    return recorder.finishSuccess(Unit)
+  }
+
+  /**
+   * Tasks for the same account run one at a time, in submission order.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testSameAccountSequential() {
+    val account = AccountID.generate()
+    val order = Collections.synchronizedList(mutableListOf<Int>())
+    val running = AtomicInteger(0)
+    val overlapped = AtomicInteger(0)
+
+    val futures = (0 until 10).map { index ->
+      this.scheduler.submit(account) {
+        if (running.incrementAndGet() > 1) {
+          overlapped.incrementAndGet()
+        }
+        Thread.sleep(5L)
+        order.add(index)
+        running.decrementAndGet()
+      }
+    }
+
+    futures.forEach { future -> future.get() }
+    Assertions.assertEquals((0 until 10).toList(), order.toList())
+    Assertions.assertEquals(0, overlapped.get())
+  }
+
+  /**
+   * Tasks for different accounts run concurrently.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testDifferentAccountsConcurrent() {
+    val latch = CountDownLatch(2)
+
+    val future0 = this.scheduler.submit(AccountID.generate()) {
+      latch.countDown()
+      latch.await(2L, TimeUnit.SECONDS)
+    }
+    val future1 = this.scheduler.submit(AccountID.generate()) {
+      latch.countDown()
+      latch.await(2L, TimeUnit.SECONDS)
+    }
+
+    Assertions.assertTrue(future0.get())
+    Assertions.assertTrue(future1.get())
+  }
+
+  /**
+   * A sync requested whilst another sync of the same account is waiting is coalesced.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testSyncCoalesced() {
+    val account = AccountID.generate()
+    val release = CountDownLatch(1)
+    val syncs = AtomicInteger(0)
+
+    val blocker = this.scheduler.submit(account) { release.await() }
+    val sync0 = this.scheduler.sync(account) { syncs.incrementAndGet(); this.success() }
+    val sync1 = this.scheduler.sync(account) { syncs.incrementAndGet(); this.success() }
+    Assertions.assertSame(sync0, sync1)
+
+    release.countDown()
+    blocker.get()
+    sync0.get()
+    Assertions.assertEquals(1, syncs.get())
+
+    this.scheduler.sync(account) { syncs.incrementAndGet(); this.success() }.get()
+    Assertions.assertEquals(2, syncs.get())
+  }
+
+  /**
+   * A sync that runs before its submission returns is not left registered as waiting, and
+   * so does not swallow later syncs.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testSyncDirectExecutor() {
+    val scheduler = BookSyncScheduler(MoreExecutors.directExecutor())
+    val account = AccountID.generate()
+    val syncs = AtomicInteger(0)
+
+    val sync0 = scheduler.sync(account) { syncs.incrementAndGet(); this.success() }
+    Assertions.assertTrue(sync0.isDone)
+    val sync1 = scheduler.sync(account) { syncs.incrementAndGet(); this.success() }
+    Assertions.assertNotSame(sync0, sync1)
+    Assertions.assertEquals(2, syncs.get())
+  }
+
+  /**
+   * A failing task does not prevent later tasks for the same account from running.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testFailureDoesNotBlockLane() {
+    val account = AccountID.generate()
+
+    val failed = this.scheduler.submit<Int>(account) { throw IllegalStateException("Failed!") }
+    val succeeded = this.scheduler.submit(account) { 23 }
+
+    Assertions.assertThrows(Exception::class.java) { failed.get() }
+    Assertions.assertEquals(23, succeeded.get())
+  }
+
+  /**
+   * A sync of an account never runs at the same time as a borrow of one of the account's
+   * books, but borrows of different books of the account run concurrently.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testSyncAndBorrowNeverOverlap() {
+    val account = AccountID.generate()
+    val book0 = BookID.newFromText("0")
+    val book1 = BookID.newFromText("1")
+    val borrowing = AtomicInteger(0)
+    val syncing = AtomicInteger(0)
+    val overlapped = AtomicInteger(0)
+    val borrowsStarted = CountDownLatch(2)
+
+    fun borrow(bookID: BookID) =
+      this.taskScheduler.submit(TRANSFER, bookID, setOf(account)) {
+        borrowing.incrementAndGet()
+        borrowsStarted.countDown()
+        if (syncing.get() > 0) {
+          overlapped.incrementAndGet()
+        }
+        val concurrent = borrowsStarted.await(2L, TimeUnit.SECONDS)
+        Thread.sleep(10L)
+        borrowing.decrementAndGet()
+        concurrent
+      }
+
+    val borrow0 = borrow(book0)
+    val borrow1 = borrow(book1)
+    val sync = this.scheduler.sync(account) {
+      syncing.incrementAndGet()
+      if (borrowing.get() > 0) {
+        overlapped.incrementAndGet()
+      }
+      Thread.sleep(10L)
+      syncing.decrementAndGet()
+      this.success()
+    }
+    val borrowAgain = borrow(book0)
+
+    Assertions.assertTrue(borrow0.get())
+    Assertions.assertTrue(borrow1.get())
+    sync.get()
+    borrowAgain.get()
+    Assertions.assertEquals(0, overlapped.get())
+  }
+}
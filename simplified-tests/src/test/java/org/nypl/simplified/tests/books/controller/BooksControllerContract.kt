@@ -563,6 +563,199 @@ abstract class BooksControllerContract {
     )
   }
 
+  /**
+   * Syncing against an unchanged feed neither rewrites nor republishes any books.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  @Timeout(value = 3L, unit = TimeUnit.SECONDS)
+  @Throws(Exception::class)
+  fun testBooksSyncUnchangedEntries() {
+    val controller =
+      createController(
+        exec = this.executorBooks,
+        feedExecutor = this.executorFeeds,
+        accountEvents = this.accountEvents,
+        profileEvents = this.profileEvents,
+        http = this.lsHTTP,
+        books = this.bookRegistry,
+        profiles = this.profiles,
+        accountProviders = MockAccountProviders.fakeAccountProviders(),
+        patronUserProfileParsers = this.patronUserProfileParsers
+      )
+
+    val provider =
+      MockAccountProviders.fakeAuthProvider(
+        uri = "urn:fake-auth:0",
+        host = this.server.hostName,
+        port = this.server.port
+      )
+
+    val profile = this.profiles.createProfile(provider, "Kermit")
+    this.profiles.setProfileCurrent(profile.id)
+    val account = profile.accountsByProvider()[provider.id]!!
+    account.setLoginState(AccountLoggedIn(correctCredentials()))
+
+    for (i in 0..1) {
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(200)
+          .setBody(this.simpleUserProfile())
+      )
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(200)
+          .setBody(Buffer().readFrom(resource("testBooksSyncNewEntries.xml")))
+      )
+    }
+
+    val result0 = controller.booksSync(account.id).get()
+    Assertions.assertEquals("3", result0.attributes["Books written"])
+    Assertions.assertEquals("0", result0.attributes["Books skipped"])
+
+    this.bookRegistry.bookEvents().subscribe({ this.bookEvents.add(it) })
+
+    val result1 = controller.booksSync(account.id).get()
+    Assertions.assertEquals("0", result1.attributes["Books written"])
+    Assertions.assertEquals("3", result1.attributes["Books skipped"])
+    Assertions.assertEquals("0", result1.attributes["Books deleted"])
+    Assertions.assertEquals(3L, this.bookRegistry.books().size.toLong())
+    Assertions.assertEquals(listOf<BookEvent>(), this.bookEvents.toList())
+  }
+
+  /**
+   * Syncing against an unchanged feed resets the statuses of books left behind by failed
+   * or interrupted book tasks, without rewriting the books.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  @Timeout(value = 3L, unit = TimeUnit.SECONDS)
+  @Throws(Exception::class)
+  fun testBooksSyncUnchangedEntriesResetsTransientStatus() {
+    val controller =
+      createController(
+        exec = this.executorBooks,
+        feedExecutor = this.executorFeeds,
+        accountEvents = this.accountEvents,
+        profileEvents = this.profileEvents,
+        http = this.lsHTTP,
+        books = this.bookRegistry,
+        profiles = this.profiles,
+        accountProviders = MockAccountProviders.fakeAccountProviders(),
+        patronUserProfileParsers = this.patronUserProfileParsers
+      )
+
+    val provider =
+      MockAccountProviders.fakeAuthProvider(
+        uri = "urn:fake-auth:0",
+        host = this.server.hostName,
+        port = this.server.port
+      )
+
+    val profile = this.profiles.createProfile(provider, "Kermit")
+    this.profiles.setProfileCurrent(profile.id)
+    val account = profile.accountsByProvider()[provider.id]!!
+    account.setLoginState(AccountLoggedIn(correctCredentials()))
+
+    for (i in 0..1) {
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(200)
+          .setBody(this.simpleUserProfile())
+      )
+      this.server.enqueue(
+        MockResponse()
+          .setResponseCode(200)
+          .setBody(Buffer().readFrom(resource("testBooksSyncNewEntries.xml")))
+      )
+    }
+
+    controller.booksSync(account.id).get()
+
+    val synced = this.bookRegistry.books().values.first()
+    val requesting = BookStatus.RequestingLoan(synced.book.id, "Requesting...")
+    this.bookRegistry.update(BookWithStatus(synced.book, requesting))
+
+    val result1 = controller.booksSync(account.id).get()
+    Assertions.assertEquals("0", result1.attributes["Books written"])
+    Assertions.assertEquals("3", result1.attributes["Books skipped"])
+    Assertions.assertEquals(synced.status, this.bookRegistry.bookStatusOrNull(synced.book.id))
+  }
+
+  /**
+   * A loans feed that the server reports as unchanged is not reconciled again.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  @Timeout(value = 3L, unit = TimeUnit.SECONDS)
+  @Throws(Exception::class)
+  fun testBooksSyncNotModified() {
+    val controller =
+      createController(
+        exec = this.executorBooks,
+        feedExecutor = this.executorFeeds,
+        accountEvents = this.accountEvents,
+        profileEvents = this.profileEvents,
+        http = this.lsHTTP,
+        books = this.bookRegistry,
+        profiles = this.profiles,
+        accountProviders = MockAccountProviders.fakeAccountProviders(),
+        patronUserProfileParsers = this.patronUserProfileParsers
+      )
+
+    val provider =
+      MockAccountProviders.fakeAuthProvider(
+        uri = "urn:fake-auth:0",
+        host = this.server.hostName,
+        port = this.server.port
+      )
+
+    val profile = this.profiles.createProfile(provider, "Kermit")
+    this.profiles.setProfileCurrent(profile.id)
+    val account = profile.accountsByProvider()[provider.id]!!
+    account.setLoginState(AccountLoggedIn(correctCredentials()))
+
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(200)
+        .setBody(this.simpleUserProfile())
+    )
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(200)
+        .setHeader("ETag", "\"loans-0\"")
+        .setBody(Buffer().readFrom(resource("testBooksSyncNewEntries.xml")))
+    )
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(200)
+        .setBody(this.simpleUserProfile())
+    )
+    this.server.enqueue(
+      MockResponse()
+        .setResponseCode(304)
+    )
+
+    controller.booksSync(account.id).get()
+    Assertions.assertEquals(3L, this.bookRegistry.books().size.toLong())
+
+    val result = controller.booksSync(account.id).get()
+    Assertions.assertEquals("Not modified", result.attributes["Loans"])
+    Assertions.assertEquals(3L, this.bookRegistry.books().size.toLong())
+    Assertions.assertEquals(3, account.bookDatabase.books().size)
+
+    this.server.takeRequest()
+    Assertions.assertNull(this.server.takeRequest().getHeader("If-None-Match"))
+    this.server.takeRequest()
+    Assertions.assertEquals("\"loans-0\"", this.server.takeRequest().getHeader("If-None-Match"))
+  }
+
   /**
    * If the remote side returns few books than the account has, database entries are removed.
    *
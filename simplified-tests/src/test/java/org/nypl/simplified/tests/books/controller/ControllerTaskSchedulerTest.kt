@@ -0,0 +1,247 @@
+package org.nypl.simplified.tests.books.controller
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.Timeout
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.controller.ControllerTaskScheduler
+import org.nypl.simplified.books.controller.api.BooksControllerLane.INTERACTIVE
+import org.nypl.simplified.books.controller.api.BooksControllerLane.SYNC
+import org.nypl.simplified.books.controller.api.BooksControllerLane.TRANSFER
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class ControllerTaskSchedulerTest {
+
+  private lateinit var executorInteractive: ExecutorService
+  private lateinit var executorSync: ExecutorService
+  private lateinit var executorTransfer: ExecutorService
+  private lateinit var scheduler: ControllerTaskScheduler
+
+  @BeforeEach
+  fun setup() {
+    this.executorInteractive = Executors.newFixedThreadPool(1)
+    this.executorSync = Executors.newFixedThreadPool(2)
+    this.executorTransfer = Executors.newFixedThreadPool(1)
+    this.scheduler =
+      ControllerTaskScheduler(
+        mapOf(
+          INTERACTIVE to this.executorInteractive,
+          SYNC to this.executorSync,
+          TRANSFER to this.executorTransfer
+        )
+      )
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.executorInteractive.shutdown()
+    this.executorSync.shutdown()
+    this.executorTransfer.shutdown()
+  }
+
+  /**
+   * A long-running transfer does not delay interactive tasks.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testTransferDoesNotBlockInteractive() {
+    val release = CountDownLatch(1)
+
+    val transfer = this.scheduler.submit(TRANSFER, null) { release.await() }
+    val interactive = this.scheduler.submit(INTERACTIVE, null) { 23 }
+
+    Assertions.assertEquals(23, interactive.get())
+    Assertions.assertFalse(transfer.isDone)
+    release.countDown()
+    transfer.get()
+  }
+
+  /**
+   * Tasks with the same key run in submission order, even on different lanes.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testSameKeySequentialAcrossLanes() {
+    val account = AccountID.generate()
+    val order = Collections.synchronizedList(mutableListOf<Int>())
+    val lanes = listOf(INTERACTIVE, SYNC, TRANSFER)
+
+    val futures = (0 until 12).map { index ->
+      this.scheduler.submit(lanes[index % lanes.size], account) {
+        Thread.sleep(2L)
+        order.add(index)
+      }
+    }
+
+    futures.forEach { future -> future.get() }
+    Assertions.assertEquals((0 until 12).toList(), order.toList())
+  }
+
+  /**
+   * A task rejected by its lane's executor fails, and does not prevent later tasks with the
+   * same key from running.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testRejectedDoesNotBlockKey() {
+    val account = AccountID.generate()
+    this.executorTransfer.shutdown()
+
+    val rejected = this.scheduler.submit(TRANSFER, account) { 23 }
+    val failure = Assertions.assertThrows(ExecutionException::class.java) { rejected.get() }
+    Assertions.assertTrue(failure.cause is RejectedExecutionException)
+
+    Assertions.assertEquals(42, this.scheduler.submit(INTERACTIVE, account) { 42 }.get())
+    Assertions.assertEquals(0, this.scheduler.metrics().getValue(TRANSFER).queued)
+  }
+
+  /**
+   * A task keyed on the profiles (such as an account deletion) waits for a running task
+   * that holds the profiles as a shared key (such as a sync).
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testProfileTaskWaitsForSync() {
+    val profiles = Any()
+    val account = AccountID.generate()
+    val order = Collections.synchronizedList(mutableListOf<String>())
+    val release = CountDownLatch(1)
+    val started = CountDownLatch(1)
+
+    val sync = this.scheduler.submit(SYNC, account, setOf(profiles)) {
+      started.countDown()
+      release.await()
+      order.add("sync")
+    }
+    started.await()
+
+    val delete = this.scheduler.submit(INTERACTIVE, profiles) { order.add("delete") }
+    Thread.sleep(50L)
+    Assertions.assertFalse(delete.isDone)
+
+    release.countDown()
+    sync.get()
+    delete.get()
+    Assertions.assertEquals(listOf("sync", "delete"), order.toList())
+  }
+
+  /**
+   * A borrow that releases its account key once its transfer starts lets a sync of the
+   * account run, whilst a task keyed on the profiles (such as an account deletion) still
+   * waits for the borrow to finish.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testProfileTaskWaitsForBorrow() {
+    val profiles = Any()
+    val account = AccountID.generate()
+    val book = "book"
+    val order = Collections.synchronizedList(mutableListOf<String>())
+    val release = CountDownLatch(1)
+    val transferring = CountDownLatch(1)
+
+    val borrow = this.scheduler.submitReleasing(TRANSFER, book, setOf(profiles, account)) { keys ->
+      keys.release(account)
+      transferring.countDown()
+      release.await()
+      order.add("borrow")
+    }
+    transferring.await()
+    Assertions.assertTrue(this.scheduler.isActive(book))
+
+    val delete = this.scheduler.submit(INTERACTIVE, profiles) { order.add("delete") }
+    val sync = this.scheduler.submit(SYNC, account, setOf(profiles)) { order.add("sync") }
+    Thread.sleep(50L)
+    Assertions.assertFalse(delete.isDone)
+
+    release.countDown()
+    borrow.get()
+    delete.get()
+    sync.get()
+    Assertions.assertEquals(listOf("borrow", "delete", "sync"), order.toList())
+    Assertions.assertFalse(this.scheduler.isActive(book))
+  }
+
+  /**
+   * Releasing the account key of a running borrow lets a sync of the account run
+   * whilst the borrow continues.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testReleasedSharedKeyUnblocksSync() {
+    val profiles = Any()
+    val account = AccountID.generate()
+    val release = CountDownLatch(1)
+    val requesting = CountDownLatch(1)
+    val transfer = CountDownLatch(1)
+
+    val borrow = this.scheduler.submitReleasing(TRANSFER, "book", setOf(profiles, account)) { keys ->
+      requesting.countDown()
+      transfer.await()
+      keys.release(account)
+      release.await()
+    }
+    requesting.await()
+
+    val sync = this.scheduler.submit(SYNC, account, setOf(profiles)) { 23 }
+    Thread.sleep(50L)
+    Assertions.assertFalse(sync.isDone)
+
+    transfer.countDown()
+    Assertions.assertEquals(23, sync.get())
+    Assertions.assertFalse(borrow.isDone)
+    release.countDown()
+    borrow.get()
+  }
+
+  /**
+   * Lane metrics report queued tasks and waiting times.
+   */
+
+  @Test
+  @Timeout(value = 5L, unit = TimeUnit.SECONDS)
+  fun testMetrics() {
+    val release = CountDownLatch(1)
+    val started = CountDownLatch(1)
+
+    val blocker = this.scheduler.submit(TRANSFER, null) {
+      started.countDown()
+      release.await()
+    }
+    started.await()
+
+    val waiting = this.scheduler.submit(TRANSFER, null) { }
+    val metricsBefore = this.scheduler.metrics().getValue(TRANSFER)
+    Assertions.assertEquals(1, metricsBefore.queued)
+    Assertions.assertEquals(1, metricsBefore.running)
+
+    Thread.sleep(50L)
+    release.countDown()
+    blocker.get()
+    waiting.get()
+
+    while (this.scheduler.metrics().getValue(TRANSFER).completed < 2L) {
+      Thread.sleep(1L)
+    }
+
+    val metricsAfter = this.scheduler.metrics().getValue(TRANSFER)
+    Assertions.assertEquals(0, metricsAfter.queued)
+    Assertions.assertEquals(2L, metricsAfter.completed)
+    Assertions.assertTrue(metricsAfter.waitTimeMaximumMillis >= 50L)
+    Assertions.assertEquals(0L, this.scheduler.metrics().getValue(INTERACTIVE).completed)
+  }
+}
@@ -0,0 +1,146 @@
+package org.nypl.simplified.tests.books.controller
+
+import org.joda.time.DateTime
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.accounts.api.AccountID
+import org.nypl.simplified.books.api.Book
+import org.nypl.simplified.books.api.BookID
+import org.nypl.simplified.books.book_registry.BookRegistry
+import org.nypl.simplified.books.book_registry.BookRegistryType
+import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.book_registry.BookWithStatus
+import org.nypl.simplified.books.controller.ProfileFeedIndex
+import org.nypl.simplified.feeds.api.FeedFacet.FeedFacetPseudo.Sorting.SortBy
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry
+import org.nypl.simplified.opds.core.OPDSAvailabilityLoanable
+import java.util.Locale
+import java.util.UUID
+
+class ProfileFeedIndexTest {
+
+  private lateinit var accountID: AccountID
+  private lateinit var bookRegistry: BookRegistryType
+  private lateinit var index: ProfileFeedIndex
+
+  @BeforeEach
+  fun setup() {
+    this.accountID =
+      AccountID(UUID.randomUUID())
+    this.bookRegistry =
+      BookRegistry.create()
+
+    this.bookRegistry.update(this.bookWithStatus("0", "Émile", "Jean-Jacques Rousseau"))
+    this.bookRegistry.update(this.bookWithStatus("1", "bleak House", "Charles Dickens"))
+
+    this.index =
+      ProfileFeedIndex.create(this.bookRegistry, Locale.ENGLISH)
+
+    this.bookRegistry.update(this.bookWithStatus("2", "Anna Karenina", "Leo Tolstoy"))
+    this.bookRegistry.update(this.bookWithStatus("3", "Zeno"))
+  }
+
+  @AfterEach
+  fun tearDown() {
+    this.index.close()
+  }
+
+  private fun bookWithStatus(
+    id: String,
+    title: String,
+    vararg authors: String
+  ): BookWithStatus {
+    val entry =
+      OPDSAcquisitionFeedEntry.newBuilder(id, title, DateTime.now(), OPDSAvailabilityLoanable.get())
+    for (author in authors) {
+      entry.addAuthor(author)
+    }
+
+    val book =
+      Book(
+        BookID.newFromText(id),
+        this.accountID,
+        null,
+        null,
+        entry.build(),
+        listOf()
+      )
+    return BookWithStatus(book, BookStatus.fromBook(book))
+  }
+
+  private fun titles(
+    search: String?,
+    sortBy: SortBy = SortBy.SORT_BY_TITLE
+  ): List<String> {
+    return this.index.search(search, sortBy) { true }
+      .map { book -> book.book.entry.title }
+  }
+
+  /**
+   * Books are sorted using the collation rules of the locale, with books without
+   * authors last when sorting by author.
+   */
+
+  @Test
+  fun testSorting() {
+    Assertions.assertEquals(
+      listOf("Anna Karenina", "bleak House", "Émile", "Zeno"),
+      this.titles(null)
+    )
+    Assertions.assertEquals(
+      listOf("bleak House", "Émile", "Anna Karenina", "Zeno"),
+      this.titles("", SortBy.SORT_BY_AUTHOR)
+    )
+  }
+
+  /**
+   * Search terms match the starts of words in titles and authors, ignoring case and
+   * accents, and a book matches if any term matches.
+   */
+
+  @Test
+  fun testSearchPrefixes() {
+    Assertions.assertEquals(listOf("Émile"), this.titles("emi"))
+    Assertions.assertEquals(listOf("Émile"), this.titles("JEAN"))
+    Assertions.assertEquals(listOf("bleak House", "Émile"), this.titles("dick rous"))
+    Assertions.assertEquals(listOf<String>(), this.titles("mile"))
+  }
+
+  /**
+   * Searches only return books accepted by the filter.
+   */
+
+  @Test
+  fun testSearchFilter() {
+    val books =
+      this.index.search("a", SortBy.SORT_BY_TITLE) { book -> book.book.entry.title != "Anna Karenina" }
+    Assertions.assertEquals(listOf<BookWithStatus>(), books)
+  }
+
+  /**
+   * The index follows changes to the registry, and returns the current status of books.
+   */
+
+  @Test
+  fun testRegistryChanges() {
+    val book2 = this.bookWithStatus("2", "War and Peace", "Leo Tolstoy")
+    this.bookRegistry.update(book2)
+    Assertions.assertEquals(listOf<String>(), this.titles("anna"))
+    Assertions.assertEquals(listOf("War and Peace"), this.titles("war"))
+
+    this.bookRegistry.update(book2.copy(status = BookStatus.Holdable(book2.book.id)))
+    Assertions.assertEquals(
+      BookStatus.Holdable(book2.book.id),
+      this.index.search("war", SortBy.SORT_BY_TITLE) { true }.single().status
+    )
+
+    this.bookRegistry.clearFor(BookID.newFromText("0"))
+    Assertions.assertEquals(listOf<String>(), this.titles("emile"))
+
+    this.bookRegistry.replaceAll(listOf(this.bookWithStatus("9", "Middlemarch", "George Eliot")))
+    Assertions.assertEquals(listOf("Middlemarch"), this.titles(null))
+    Assertions.assertEquals(listOf<String>(), this.titles("war"))
+  }
+}
@@ -0,0 +1,70 @@
+package org.nypl.simplified.tests.books.covers
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.books.covers.BookCoverGeneratorCache
+import org.nypl.simplified.tests.TestDirectories
+import java.io.File
+
+class BookCoverGeneratorCacheTest {
+
+  private lateinit var directory: File
+
+  @BeforeEach
+  fun testSetup() {
+    this.directory = TestDirectories.temporaryDirectory()
+  }
+
+  private fun keyOf(title: String, width: Int = 100, height: Int = 150): BookCoverGeneratorCache.Key =
+    BookCoverGeneratorCache.Key(title = title, author = "Author", width = width, height = height)
+
+  /**
+   * Covers are keyed by title, author, and dimensions.
+   */
+
+  @Test
+  fun testKeyed() {
+    val cache = BookCoverGeneratorCache(this.directory, 1024L)
+    cache.put(this.keyOf("A"), byteArrayOf(1, 2, 3))
+
+    Assertions.assertArrayEquals(byteArrayOf(1, 2, 3), cache.get(this.keyOf("A")))
+    Assertions.assertNull(cache.get(this.keyOf("B")))
+    Assertions.assertNull(cache.get(this.keyOf("A", width = 200)))
+    Assertions.assertEquals(3L, cache.size)
+  }
+
+  /**
+   * The least recently used covers are evicted when the cache is full.
+   */
+
+  @Test
+  fun testEvictsLeastRecentlyUsed() {
+    val cache = BookCoverGeneratorCache(this.directory, 30L)
+    cache.put(this.keyOf("A"), ByteArray(10))
+    cache.put(this.keyOf("B"), ByteArray(10))
+    cache.put(this.keyOf("C"), ByteArray(10))
+    Assertions.assertNotNull(cache.get(this.keyOf("A")))
+
+    cache.put(this.keyOf("D"), ByteArray(10))
+    Assertions.assertNotNull(cache.get(this.keyOf("A")))
+    Assertions.assertNull(cache.get(this.keyOf("B")))
+    Assertions.assertNotNull(cache.get(this.keyOf("C")))
+    Assertions.assertNotNull(cache.get(this.keyOf("D")))
+    Assertions.assertEquals(30L, cache.size)
+  }
+
+  /**
+   * Covers are still cached after the cache is reopened.
+   */
+
+  @Test
+  fun testPersistent() {
+    val cache0 = BookCoverGeneratorCache(this.directory, 1024L)
+    cache0.put(this.keyOf("A"), byteArrayOf(1, 2, 3))
+
+    val cache1 = BookCoverGeneratorCache(this.directory, 1024L)
+    Assertions.assertArrayEquals(byteArrayOf(1, 2, 3), cache1.get(this.keyOf("A")))
+    Assertions.assertEquals(3L, cache1.size)
+  }
+}
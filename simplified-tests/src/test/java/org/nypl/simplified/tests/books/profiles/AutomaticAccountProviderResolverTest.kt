@@ -0,0 +1,211 @@
+package org.nypl.simplified.tests.books.profiles
+
+import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.nypl.simplified.accounts.api.AccountEvent
+import org.nypl.simplified.accounts.api.AccountEventCreation.AccountEventCreationFailed
+import org.nypl.simplified.accounts.api.AccountProviderDescription
+import org.nypl.simplified.accounts.api.AccountProviderResolutionListenerType
+import org.nypl.simplified.accounts.api.AccountProviderType
+import org.nypl.simplified.accounts.api.AccountSearchQuery
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryEvent
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryStatus
+import org.nypl.simplified.accounts.registry.api.AccountProviderRegistryType
+import org.nypl.simplified.profiles.AutomaticAccountProviderResolver
+import org.nypl.simplified.profiles.api.ProfileID
+import org.nypl.simplified.taskrecorder.api.TaskRecorder
+import org.nypl.simplified.taskrecorder.api.TaskResult
+import org.nypl.simplified.tests.mocking.MockAccountProviders
+import java.net.URI
+import java.util.Collections
+import java.util.UUID
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class AutomaticAccountProviderResolverTest {
+
+  private lateinit var events: PublishSubject<AccountEvent>
+  private lateinit var eventsReceived: MutableList<AccountEvent>
+  private val profile = ProfileID(UUID.randomUUID())
+
+  /**
+   * A registry whose resolutions are performed by a given function.
+   */
+
+  private class Registry(
+    val descriptions: List<AccountProviderDescription>,
+    override val resolvedProviders: MutableMap<URI, AccountProviderType>,
+    val onResolve: (AccountProviderDescription) -> Unit
+  ) : AccountProviderRegistryType {
+
+    val resolved: MutableList<URI> =
+      Collections.synchronizedList(mutableListOf())
+
+    override val events: Observable<AccountProviderRegistryEvent> =
+      PublishSubject.create()
+    override val defaultProvider: AccountProviderType =
+      MockAccountProviders.fakeProvider("urn:fake:default")
+    override val status: AccountProviderRegistryStatus =
+      AccountProviderRegistryStatus.Idle
+
+    override fun refresh(includeTestingLibraries: Boolean) = Unit
+    override fun query(query: AccountSearchQuery) = Unit
+    override fun clear() = Unit
+
+    override fun accountProviderDescriptions(): Map<URI, AccountProviderDescription> =
+      this.descriptions.associateBy { description -> description.id }
+
+    override fun updateProvider(accountProvider: AccountProviderType): AccountProviderType =
+      accountProvider
+
+    override fun updateDescription(description: AccountProviderDescription): AccountProviderDescription =
+      description
+
+    override fun resolve(
+      onProgress: AccountProviderResolutionListenerType,
+      description: AccountProviderDescription
+    ): TaskResult<AccountProviderType> {
+      this.onResolve.invoke(description)
+      this.resolved.add(description.id)
+      val taskRecorder = TaskRecorder.create()
+      taskRecorder.beginNewStep("Resolving...")
+      return taskRecorder.finishSuccess(
+        MockAccountProviders.fakeProviderAuto(description.id.toString())
+      )
+    }
+  }
+
+  @BeforeEach
+  fun setup() {
+    this.events = PublishSubject.create()
+    this.eventsReceived = Collections.synchronizedList(mutableListOf())
+    this.events.subscribe { event -> this.eventsReceived.add(event) }
+  }
+
+  private fun descriptions(count: Int): List<AccountProviderDescription> =
+    (0 until count).map { index ->
+      MockAccountProviders.fakeProviderAuto("urn:fake:$index").toDescription()
+    }
+
+  private fun resolver(
+    threads: Int,
+    timeoutMilliseconds: Long
+  ): AutomaticAccountProviderResolver =
+    AutomaticAccountProviderResolver(
+      threads = threads,
+      timeout = timeoutMilliseconds,
+      timeoutUnit = TimeUnit.MILLISECONDS,
+      executors = { count -> Executors.newFixedThreadPool(count) }
+    )
+
+  /**
+   * Providers are resolved concurrently: four resolutions that each wait for the others
+   * can only complete if they run at the same time.
+   */
+
+  @Test
+  fun testResolvesConcurrently() {
+    val barrier = CyclicBarrier(4)
+    val descriptions = this.descriptions(4)
+    val registry = Registry(descriptions, mutableMapOf()) {
+      barrier.await(10L, TimeUnit.SECONDS)
+    }
+
+    val providers =
+      this.resolver(threads = 4, timeoutMilliseconds = 10_000L)
+        .resolve(this.profile, this.events, registry)
+
+    Assertions.assertEquals(descriptions.map { d -> d.id }, providers.map { p -> p.id })
+    Assertions.assertEquals(listOf<AccountEvent>(), this.eventsReceived.toList())
+  }
+
+  /**
+   * Providers are returned in the order of their descriptions, regardless of the order in
+   * which they were resolved.
+   */
+
+  @Test
+  fun testResultsInDescriptionOrder() {
+    val descriptions = this.descriptions(4)
+    val registry = Registry(descriptions, mutableMapOf()) { description ->
+      val index = descriptions.indexOf(description)
+      Thread.sleep((descriptions.size - index) * 100L)
+    }
+
+    val providers =
+      this.resolver(threads = 4, timeoutMilliseconds = 10_000L)
+        .resolve(this.profile, this.events, registry)
+
+    Assertions.assertEquals(descriptions.map { d -> d.id }, providers.map { p -> p.id })
+    Assertions.assertEquals(descriptions.map { d -> d.id }.reversed(), registry.resolved.toList())
+  }
+
+  /**
+   * The timeout applies to each resolution from the moment it starts, so resolutions that
+   * wait for a thread are not timed out, but a resolution that takes too long is.
+   */
+
+  @Test
+  fun testTimeoutPerResolution() {
+    val descriptions = this.descriptions(4)
+    val slow = descriptions[2]
+    val registry = Registry(descriptions, mutableMapOf()) { description ->
+      if (description == slow) {
+        Thread.sleep(10_000L)
+      } else {
+        Thread.sleep(300L)
+      }
+    }
+
+    val providers =
+      this.resolver(threads = 1, timeoutMilliseconds = 1_000L)
+        .resolve(this.profile, this.events, registry)
+
+    Assertions.assertEquals(
+      descriptions.filter { d -> d != slow }.map { d -> d.id },
+      providers.map { p -> p.id }
+    )
+
+    val failures = this.eventsReceived.filterIsInstance<AccountEventCreationFailed>()
+    Assertions.assertEquals(1, failures.size)
+    Assertions.assertEquals(
+      "resolutionTimedOut ${slow.id}",
+      failures[0].taskResult.lastErrorCode
+    )
+  }
+
+  /**
+   * Providers that are already resolved, and that are at least as recent as their
+   * descriptions, are used without being resolved again.
+   */
+
+  @Test
+  fun testFreshProvidersReused() {
+    val fresh = MockAccountProviders.fakeProviderAuto("urn:fake:0")
+    val stale = MockAccountProviders.fakeProviderAuto("urn:fake:1")
+    val descriptions =
+      listOf(
+        fresh.toDescription(),
+        stale.toDescription().copy(updated = stale.updated.plusDays(1)),
+        MockAccountProviders.fakeProviderAuto("urn:fake:2").toDescription()
+      )
+
+    val registry =
+      Registry(descriptions, mutableMapOf(fresh.id to fresh, stale.id to stale)) { }
+
+    val providers =
+      this.resolver(threads = 4, timeoutMilliseconds = 10_000L)
+        .resolve(this.profile, this.events, registry)
+
+    Assertions.assertEquals(descriptions.map { d -> d.id }, providers.map { p -> p.id })
+    Assertions.assertSame(fresh, providers[0])
+    Assertions.assertEquals(
+      setOf(descriptions[1].id, descriptions[2].id),
+      registry.resolved.toSet()
+    )
+  }
+}
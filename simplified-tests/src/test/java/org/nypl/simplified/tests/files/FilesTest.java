@@ -25,4 +25,31 @@ public final class FilesTest {
     Assertions.assertFalse(file0.exists(), file0 + " does not exist");
   }
 
+  @Test
+  public final void testMoveReplaces()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File file0 = new File(tmp, "file0.txt");
+    final File file1 = new File(tmp, "file1.txt");
+
+    FileUtilities.fileWriteUTF8(file0, "Hello.");
+    FileUtilities.fileWriteUTF8(file1, "Goodbye.");
+    FileUtilities.fileMove(file0, file1);
+
+    Assertions.assertFalse(file0.exists(), file0 + " does not exist");
+    Assertions.assertEquals("Hello.", FileUtilities.fileReadUTF8(file1));
+  }
+
+  @Test
+  public final void testMoveMissing()
+    throws Exception {
+    final File tmp = DirectoryUtilities.directoryCreateTemporary();
+    final File file0 = new File(tmp, "file0.txt");
+    final File file1 = new File(tmp, "file1.txt");
+
+    Assertions.assertThrows(
+      java.io.IOException.class,
+      () -> FileUtilities.fileMove(file0, file1));
+    Assertions.assertFalse(file1.exists(), file1 + " does not exist");
+  }
 }
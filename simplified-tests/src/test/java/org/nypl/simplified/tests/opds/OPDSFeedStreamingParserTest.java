@@ -0,0 +1,306 @@
+package org.nypl.simplified.tests.opds;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeed;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParserType;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryStreamingParser;
+import org.nypl.simplified.opds.core.OPDSFeedParser;
+import org.nypl.simplified.opds.core.OPDSFeedParserType;
+import org.nypl.simplified.opds.core.OPDSFeedStreamingParser;
+import org.nypl.simplified.opds.core.OPDSParseException;
+import org.nypl.simplified.parser.api.ParseError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * Check that the streaming parsers produce exactly the same results as the DOM parsers
+ * over the corpus of test feeds.
+ */
+
+public final class OPDSFeedStreamingParserTest {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(OPDSFeedStreamingParserTest.class);
+
+  private static final URI FEED_URI =
+    URI.create("http://circulation.alpha.librarysimplified.org/groups/");
+
+  private static final String[] FEEDS = {
+    "acquisition-categories-0.xml",
+    "acquisition-facets-0.xml",
+    "acquisition-facets-1.xml",
+    "acquisition-fiction-0.xml",
+    "acquisition-groups-0.xml",
+    "acquisition-paginated-0.xml",
+    "analytics-20190509.xml",
+    "bad-not-xml.xml",
+    "bad-uri-syntax.xml",
+    "dpla-test-feed.xml",
+    "empty-0.xml",
+    "feedbooks-20190808.xml",
+    "loans.xml",
+    "namespaces-0.xml",
+    "navigation-0.xml",
+    "navigation-bad-entry-featured-link-without-href.xml",
+    "navigation-bad-entry-link-without-href.xml",
+    "navigation-bad-entry-no-links.xml",
+    "navigation-bad-entry-subsection-link-without-href.xml",
+  };
+
+  private static final String[] ENTRIES = {
+    "entry-0.xml",
+    "entry-SMA-83.xml",
+    "entry-availability-held-indefinite-queued.xml",
+    "entry-availability-held-indefinite.xml",
+    "entry-availability-held-timed-queued.xml",
+    "entry-availability-held-timed.xml",
+    "entry-availability-heldready-specific0.xml",
+    "entry-availability-heldready-timed.xml",
+    "entry-availability-heldready.xml",
+    "entry-availability-holdable.xml",
+    "entry-availability-loanable.xml",
+    "entry-availability-loaned-indefinite.xml",
+    "entry-availability-loaned-timed.xml",
+    "entry-availability-open-access.xml",
+    "entry-classics-0.xml",
+    "entry-no-supported-format.xml",
+    "entry-no-supported-relations.xml",
+    "entry-with-drm.xml",
+    "entry-with-formats-0.xml",
+    "entry-with-formats-1.xml",
+  };
+
+  private static InputStream getResource(
+    final String name)
+    throws Exception {
+
+    final String path = "/org/nypl/simplified/tests/opds/" + name;
+    final URL url = OPDSFeedStreamingParserTest.class.getResource(path);
+    if (url == null) {
+      throw new FileNotFoundException(path);
+    }
+    return url.openStream();
+  }
+
+  private static OPDSFeedParserType domParser() {
+    return OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser());
+  }
+
+  private static Object parseOrFail(
+    final OPDSFeedParserType parser,
+    final String name)
+    throws Exception {
+    try (InputStream stream = getResource(name)) {
+      return parser.parse(FEED_URI, stream);
+    } catch (final OPDSParseException e) {
+      return e;
+    }
+  }
+
+  private static Object parseEntryOrFail(
+    final OPDSAcquisitionFeedEntryParserType parser,
+    final String name)
+    throws Exception {
+    try (InputStream stream = getResource(name)) {
+      return parser.parseEntryStream(FEED_URI, stream);
+    } catch (final OPDSParseException e) {
+      return e;
+    }
+  }
+
+  private static List<String> errorMessages(final List<ParseError> errors) {
+    final List<String> messages = new ArrayList<>(errors.size());
+    for (final ParseError error : errors) {
+      messages.add(error.getMessage());
+    }
+    return messages;
+  }
+
+  private static void checkEntriesEqual(
+    final String name,
+    final OPDSAcquisitionFeedEntry expected,
+    final OPDSAcquisitionFeedEntry received) {
+    Assertions.assertEquals(expected, received, name);
+    Assertions.assertEquals(
+      errorMessages(expected.getErrors()), errorMessages(received.getErrors()), name);
+  }
+
+  private static void checkFeedsEqual(
+    final String name,
+    final OPDSAcquisitionFeed expected,
+    final OPDSAcquisitionFeed received) {
+
+    Assertions.assertEquals(expected.getFeedID(), received.getFeedID(), name);
+    Assertions.assertEquals(expected.getFeedTitle(), received.getFeedTitle(), name);
+    Assertions.assertEquals(expected.getFeedURI(), received.getFeedURI(), name);
+    Assertions.assertEquals(expected.getFeedNext(), received.getFeedNext(), name);
+    Assertions.assertEquals(expected.getFeedSearchURI(), received.getFeedSearchURI(), name);
+    Assertions.assertEquals(expected.getFeedAbout(), received.getFeedAbout(), name);
+    Assertions.assertEquals(expected.getFeedLicenses(), received.getFeedLicenses(), name);
+    Assertions.assertEquals(
+      expected.getFeedTermsOfService(), received.getFeedTermsOfService(), name);
+    Assertions.assertEquals(
+      expected.getFeedPrivacyPolicy(), received.getFeedPrivacyPolicy(), name);
+    Assertions.assertEquals(expected.getAuthDocument(), received.getAuthDocument(), name);
+    Assertions.assertEquals(expected.getAnnotations(), received.getAnnotations(), name);
+    Assertions.assertEquals(expected.getLicensor(), received.getLicensor(), name);
+    Assertions.assertEquals(expected.getFeedFacetsOrder(), received.getFeedFacetsOrder(), name);
+    Assertions.assertEquals(
+      expected.getFeedFacetsByGroup(), received.getFeedFacetsByGroup(), name);
+    Assertions.assertEquals(expected.getFeedGroupsOrder(), received.getFeedGroupsOrder(), name);
+    Assertions.assertEquals(
+      expected.getFeedGroups().keySet(), received.getFeedGroups().keySet(), name);
+    Assertions.assertEquals(
+      errorMessages(expected.getErrors()), errorMessages(received.getErrors()), name);
+
+    /*
+     * Single-entry documents are given a synthesized update time.
+     */
+
+    if (!"urn:simplified-entry".equals(expected.getFeedID())) {
+      Assertions.assertEquals(expected.getFeedUpdated(), received.getFeedUpdated(), name);
+    }
+
+    for (final String group : expected.getFeedGroupsOrder()) {
+      final List<OPDSAcquisitionFeedEntry> expectedEntries =
+        expected.getFeedGroups().get(group).getGroupEntries();
+      final List<OPDSAcquisitionFeedEntry> receivedEntries =
+        received.getFeedGroups().get(group).getGroupEntries();
+      Assertions.assertEquals(expectedEntries.size(), receivedEntries.size(), name);
+      for (int index = 0; index < expectedEntries.size(); ++index) {
+        checkEntriesEqual(name, expectedEntries.get(index), receivedEntries.get(index));
+      }
+    }
+
+    final List<OPDSAcquisitionFeedEntry> expectedEntries = expected.getFeedEntries();
+    final List<OPDSAcquisitionFeedEntry> receivedEntries = received.getFeedEntries();
+    Assertions.assertEquals(expectedEntries.size(), receivedEntries.size(), name);
+    for (int index = 0; index < expectedEntries.size(); ++index) {
+      checkEntriesEqual(name, expectedEntries.get(index), receivedEntries.get(index));
+    }
+  }
+
+  private static void checkResultsEqual(
+    final String name,
+    final Object expected,
+    final Object received) {
+    LOG.debug("{}: expected {}, received {}", name, expected.getClass(), received.getClass());
+
+    if (expected instanceof OPDSParseException) {
+      Assertions.assertEquals(OPDSParseException.class, received.getClass(), name);
+      return;
+    }
+    if (expected instanceof OPDSAcquisitionFeed) {
+      Assertions.assertEquals(OPDSAcquisitionFeed.class, received.getClass(), name);
+      checkFeedsEqual(name, (OPDSAcquisitionFeed) expected, (OPDSAcquisitionFeed) received);
+      return;
+    }
+    Assertions.assertEquals(OPDSAcquisitionFeedEntry.class, received.getClass(), name);
+    checkEntriesEqual(
+      name, (OPDSAcquisitionFeedEntry) expected, (OPDSAcquisitionFeedEntry) received);
+  }
+
+  /**
+   * Every feed in the corpus produces the same result with both parsers.
+   */
+
+  @Test
+  public void testFeedCorpusMatchesDOM()
+    throws Exception {
+    final OPDSFeedParserType dom = domParser();
+    final OPDSFeedParserType streaming = OPDSFeedStreamingParser.newParser();
+
+    for (final String name : FEEDS) {
+      checkResultsEqual(name, parseOrFail(dom, name), parseOrFail(streaming, name));
+    }
+    for (final String name : ENTRIES) {
+      checkResultsEqual(name, parseOrFail(dom, name), parseOrFail(streaming, name));
+    }
+  }
+
+  /**
+   * Every entry in the corpus produces the same result with both entry parsers.
+   */
+
+  @Test
+  public void testEntryCorpusMatchesDOM()
+    throws Exception {
+    final OPDSAcquisitionFeedEntryParserType dom =
+      OPDSAcquisitionFeedEntryParser.newParser();
+    final OPDSAcquisitionFeedEntryParserType streaming =
+      OPDSAcquisitionFeedEntryStreamingParser.newParser();
+
+    for (final String name : ENTRIES) {
+      checkResultsEqual(name, parseEntryOrFail(dom, name), parseEntryOrFail(streaming, name));
+    }
+  }
+
+  /**
+   * Entries given as DOM elements produce the same result with both entry parsers.
+   */
+
+  @Test
+  public void testEntryElementsMatchDOM()
+    throws Exception {
+    final OPDSAcquisitionFeedEntryParserType dom =
+      OPDSAcquisitionFeedEntryParser.newParser();
+    final OPDSAcquisitionFeedEntryParserType streaming =
+      OPDSAcquisitionFeedEntryStreamingParser.newParser();
+
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    for (final String name : ENTRIES) {
+      final Document document;
+      try (InputStream stream = getResource(name)) {
+        document = factory.newDocumentBuilder().parse(stream);
+      }
+
+      checkEntriesEqual(
+        name,
+        dom.parseEntry(FEED_URI, document.getDocumentElement()),
+        streaming.parseEntry(FEED_URI, document.getDocumentElement()));
+    }
+  }
+
+  @Test
+  public void testStreamIOException() {
+    final OPDSFeedParserType p = OPDSFeedStreamingParser.newParser();
+    final InputStream d = new InputStream() {
+      @Override
+      public int read()
+        throws IOException {
+        throw new IOException();
+      }
+    };
+
+    Assertions.assertThrows(OPDSParseException.class, () -> {
+      p.parse(FEED_URI, d);
+    });
+  }
+
+  @Test
+  public void testNotFeedRoot() {
+    final OPDSFeedParserType p = OPDSFeedStreamingParser.newParser();
+    final InputStream d = new java.io.ByteArrayInputStream(
+      "<html xmlns='http://www.w3.org/1999/xhtml'/>".getBytes());
+
+    Assertions.assertThrows(OPDSParseException.class, () -> {
+      p.parse(FEED_URI, d);
+    });
+  }
+}
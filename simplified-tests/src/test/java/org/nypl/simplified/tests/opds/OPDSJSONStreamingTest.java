@@ -0,0 +1,213 @@
+package org.nypl.simplified.tests.opds;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeed;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntry;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParser;
+import org.nypl.simplified.opds.core.OPDSAcquisitionFeedEntryParserType;
+import org.nypl.simplified.opds.core.OPDSFeedParser;
+import org.nypl.simplified.opds.core.OPDSFeedParserType;
+import org.nypl.simplified.opds.core.OPDSJSONParser;
+import org.nypl.simplified.opds.core.OPDSJSONParserType;
+import org.nypl.simplified.opds.core.OPDSJSONSerializer;
+import org.nypl.simplified.opds.core.OPDSJSONSerializerType;
+import org.nypl.simplified.opds.core.OPDSJSONStreamingParser;
+import org.nypl.simplified.opds.core.OPDSJSONStreamingSerializer;
+import org.nypl.simplified.opds.core.OPDSParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Check that the streaming JSON parser and serializer are interchangeable with
+ * the tree-based implementations.
+ */
+
+public final class OPDSJSONStreamingTest {
+
+  private static final String[] ENTRIES = {
+    "entry-0.xml",
+    "entry-SMA-83.xml",
+    "entry-availability-held-indefinite-queued.xml",
+    "entry-availability-held-indefinite.xml",
+    "entry-availability-held-timed-queued.xml",
+    "entry-availability-held-timed.xml",
+    "entry-availability-heldready-specific0.xml",
+    "entry-availability-heldready-timed.xml",
+    "entry-availability-heldready.xml",
+    "entry-availability-holdable.xml",
+    "entry-availability-loanable.xml",
+    "entry-availability-loaned-indefinite.xml",
+    "entry-availability-loaned-timed.xml",
+    "entry-availability-open-access.xml",
+    "entry-classics-0.xml",
+    "entry-with-drm.xml",
+    "entry-with-formats-0.xml",
+    "entry-with-formats-1.xml",
+  };
+
+  private static InputStream getResource(
+    final String name)
+    throws Exception {
+
+    final String path = "/org/nypl/simplified/tests/opds/" + name;
+    final URL url = OPDSJSONStreamingTest.class.getResource(path);
+    if (url == null) {
+      throw new FileNotFoundException(path);
+    }
+    return url.openStream();
+  }
+
+  private static InputStream streamOf(final String text) {
+    return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The streaming serializer produces exactly the same text as the tree-based serializer,
+   * and both parsers read that text back to the same entry.
+   */
+
+  @Test
+  public void testEntriesEquivalent()
+    throws Exception {
+    final OPDSAcquisitionFeedEntryParserType p =
+      OPDSAcquisitionFeedEntryParser.newParser();
+
+    final OPDSJSONSerializerType treeSerializer =
+      OPDSJSONSerializer.newSerializer();
+    final OPDSJSONSerializerType streamSerializer =
+      OPDSJSONStreamingSerializer.newSerializer();
+    final OPDSJSONParserType treeParser =
+      OPDSJSONParser.newParser();
+    final OPDSJSONParserType streamParser =
+      OPDSJSONStreamingParser.newParser();
+
+    for (final String name : ENTRIES) {
+      final OPDSAcquisitionFeedEntry e0 =
+        p.parseEntryStream(URI.create("urn:test"), getResource(name));
+
+      final String treeText =
+        treeSerializer.serializeFeedEntryToString(e0);
+      final String streamText =
+        streamSerializer.serializeFeedEntryToString(e0);
+
+      Assertions.assertEquals(treeText, streamText, name);
+      Assertions.assertEquals(
+        treeSerializer.serializeFeedEntry(e0),
+        streamSerializer.serializeFeedEntry(e0),
+        name);
+
+      final OPDSAcquisitionFeedEntry e1 =
+        treeParser.parseAcquisitionFeedEntryFromStream(streamOf(streamText));
+      final OPDSAcquisitionFeedEntry e2 =
+        streamParser.parseAcquisitionFeedEntryFromStream(streamOf(streamText));
+
+      Assertions.assertEquals(e1.getAvailability(), e2.getAvailability(), name);
+      Assertions.assertEquals(
+        treeSerializer.serializeFeedEntryToString(e1),
+        treeSerializer.serializeFeedEntryToString(e2),
+        name);
+      Assertions.assertEquals(
+        treeSerializer.serializeFeedEntryToString(e1),
+        treeSerializer.serializeFeedEntryToString(
+          streamParser.parseAcquisitionFeedEntry(treeSerializer.serializeFeedEntry(e0))),
+        name);
+    }
+  }
+
+  /**
+   * Both parsers accept the older formats that may be present in existing book databases.
+   */
+
+  @Test
+  public void testCompatibilityEquivalent()
+    throws Exception {
+    final OPDSJSONSerializerType serializer =
+      OPDSJSONSerializer.newSerializer();
+    final OPDSJSONParserType treeParser =
+      OPDSJSONParser.newParser();
+    final OPDSJSONParserType streamParser =
+      OPDSJSONStreamingParser.newParser();
+
+    final String[] names = {
+      "compatibility-20180921-test-old.json",
+      "compatibility-20180921-test-new-0.json",
+      "compatibility-20180921-test-new-1.json",
+    };
+
+    for (final String name : names) {
+      final OPDSAcquisitionFeedEntry e0 =
+        treeParser.parseAcquisitionFeedEntryFromStream(getResource(name));
+      final OPDSAcquisitionFeedEntry e1 =
+        streamParser.parseAcquisitionFeedEntryFromStream(getResource(name));
+
+      Assertions.assertEquals(
+        serializer.serializeFeedEntryToString(e0),
+        serializer.serializeFeedEntryToString(e1),
+        name);
+    }
+  }
+
+  /**
+   * Feeds survive a round trip through the streaming serializer and parser.
+   */
+
+  @Test
+  public void testFeedRoundTrip()
+    throws Exception {
+    final OPDSFeedParserType p =
+      OPDSFeedParser.newParser(OPDSAcquisitionFeedEntryParser.newParser());
+
+    final OPDSJSONSerializerType treeSerializer =
+      OPDSJSONSerializer.newSerializer();
+    final OPDSJSONSerializerType streamSerializer =
+      OPDSJSONStreamingSerializer.newSerializer();
+    final OPDSJSONParserType streamParser =
+      OPDSJSONStreamingParser.newParser();
+
+    final OPDSAcquisitionFeed f0 =
+      p.parse(new URI("http://example.com"), getResource("loans.xml"));
+
+    Assertions.assertEquals(
+      treeSerializer.serializeFeed(f0),
+      streamSerializer.serializeFeed(f0));
+
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    streamSerializer.serializeToStream(streamSerializer.serializeFeed(f0), bao);
+
+    final OPDSAcquisitionFeed f1 =
+      streamParser.parseAcquisitionFeedFromStream(new ByteArrayInputStream(bao.toByteArray()));
+
+    Assertions.assertEquals(f0.getFeedEntries().size(), f1.getFeedEntries().size());
+    Assertions.assertEquals(
+      treeSerializer.serializeFeed(f0),
+      treeSerializer.serializeFeed(f1));
+  }
+
+  /**
+   * Malformed input is reported as a parse error.
+   */
+
+  @Test
+  public void testMalformed()
+    throws Exception {
+    final OPDSJSONParserType streamParser =
+      OPDSJSONStreamingParser.newParser();
+
+    Assertions.assertThrows(OPDSParseException.class, () -> {
+      streamParser.parseAcquisitionFeedEntryFromStream(streamOf("{ \"id\": "));
+    });
+    Assertions.assertThrows(OPDSParseException.class, () -> {
+      streamParser.parseAcquisitionFeedEntryFromStream(streamOf("[]"));
+    });
+    Assertions.assertThrows(OPDSParseException.class, () -> {
+      streamParser.parseAcquisitionFeedEntryFromStream(streamOf("{ \"id\": \"x\" }"));
+    });
+  }
+}
@@ -46,7 +46,7 @@ class CatalogBookDetailViewModel(
   private val subscriptions =
     CompositeDisposable(
       this.bookRegistry.bookEvents()
-        .filter { event -> event.bookId == this.parameters.bookID }
+        .filter(this::isRelevantEvent)
         .observeOn(AndroidSchedulers.mainThread())
         .subscribe(this::onBookStatusEvent)
     )
@@ -57,6 +57,16 @@ class CatalogBookDetailViewModel(
   private val bookWithStatus: BookWithStatus
     get() = bookWithStatusMutable.value!!
 
+  private fun isRelevantEvent(event: BookStatusEvent): Boolean {
+    return when (event) {
+      is BookStatusEvent.BookStatusEventForBook ->
+        event.bookId == this.parameters.bookID
+      is BookStatusEvent.BookStatusEventSnapshot ->
+        event.booksPrevious[this.parameters.bookID]?.status !=
+          event.booksNow[this.parameters.bookID]?.status
+    }
+  }
+
   private fun onBookStatusEvent(event: BookStatusEvent) {
     val bookWithStatus = this.createBookWithStatus()
     this.bookWithStatusMutable.value = bookWithStatus
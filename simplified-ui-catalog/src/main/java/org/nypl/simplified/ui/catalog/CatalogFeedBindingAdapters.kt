@@ -17,7 +17,8 @@ internal fun View.showWhenFeedWithGroups(feedState: CatalogFeedState) {
 
 @BindingAdapter("showWhenFeedWithoutGroups")
 internal fun View.showWhenFeedWithoutGroups(feedState: CatalogFeedState) {
-  visibility = if (feedState is CatalogFeedState.CatalogFeedLoaded.CatalogFeedWithoutGroups)
+  visibility = if (feedState is CatalogFeedState.CatalogFeedLoaded.CatalogFeedWithoutGroups ||
+    feedState is CatalogFeedState.CatalogFeedLoadingPartial)
     View.VISIBLE else View.INVISIBLE
 }
 
@@ -28,10 +28,12 @@ import androidx.fragment.app.Fragment
 import androidx.fragment.app.viewModels
 import androidx.lifecycle.flowWithLifecycle
 import androidx.lifecycle.lifecycleScope
+import androidx.paging.PagingData
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import androidx.recyclerview.widget.SimpleItemAnimator
 import com.google.android.material.textfield.TextInputEditText
+import io.reactivex.disposables.Disposable
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.launch
@@ -51,6 +53,7 @@ import org.nypl.simplified.ui.catalog.CatalogFeedOwnership.CollectedFromAccounts
 import org.nypl.simplified.ui.catalog.CatalogFeedOwnership.OwnedByAccount
 import org.nypl.simplified.ui.catalog.CatalogFeedState.CatalogFeedAgeGate
 import org.nypl.simplified.ui.catalog.CatalogFeedState.CatalogFeedLoadFailed
+import org.nypl.simplified.ui.catalog.CatalogFeedState.CatalogFeedLoadingPartial
 import org.nypl.simplified.ui.catalog.CatalogFeedState.CatalogFeedLoaded.CatalogFeedWithGroups
 import org.nypl.simplified.ui.catalog.CatalogFeedState.CatalogFeedLoaded.CatalogFeedWithoutGroups
 import org.nypl.simplified.ui.catalog.databinding.FeedBinding
@@ -128,6 +131,7 @@ class CatalogFeedFragment : Fragment(), AgeGateDialog.BirthYearSelectedListener
   private val feedWithGroupsData: MutableList<FeedGroup> = mutableListOf()
 
   private var pagedWithoutGroupsUpdatesJob: Job? = null
+  private var bookItemUpdatesSubscription: Disposable? = null
 
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
@@ -217,6 +221,9 @@ class CatalogFeedFragment : Fragment(), AgeGateDialog.BirthYearSelectedListener
         bookCoverProvider
       )
     )
+
+    bookItemUpdatesSubscription =
+      viewModel.bookItemUpdates.subscribe(withoutGroupsAdapter::updateItem)
   }
 
   override fun onCreateOptionsMenu(menu: Menu, inflater: MenuInflater) {
@@ -259,6 +266,7 @@ class CatalogFeedFragment : Fragment(), AgeGateDialog.BirthYearSelectedListener
     when (feedState) {
       is CatalogFeedWithGroups -> onCatalogFeedWithGroups(feedState)
       is CatalogFeedWithoutGroups -> onCatalogFeedWithoutGroups(feedState)
+      is CatalogFeedLoadingPartial -> onCatalogFeedLoadingPartial(feedState)
       is CatalogFeedLoadFailed -> onCatalogFeedLoadFailed(feedState)
       else -> {
       }
@@ -268,6 +276,7 @@ class CatalogFeedFragment : Fragment(), AgeGateDialog.BirthYearSelectedListener
   override fun onStop() {
     super.onStop()
     binding.feedWithoutGroups.feedWithoutGroupsList.clearOnScrollListeners()
+    bookItemUpdatesSubscription?.dispose()
   }
 
   private fun onCatalogFeedWithoutGroups(
@@ -282,11 +291,24 @@ class CatalogFeedFragment : Fragment(), AgeGateDialog.BirthYearSelectedListener
       feedState.bookItems
         .flowWithLifecycle(lifecycle)
         .collect {
+          withoutGroupsAdapter.clearUpdatedItems()
           withoutGroupsAdapter.submitData(it)
         }
     }
   }
 
+  private fun onCatalogFeedLoadingPartial(
+    feedState: CatalogFeedLoadingPartial
+  ) {
+    configureFacets(
+      headerBinding = binding.feedWithoutGroups.feedWithoutGroupsHeader,
+      facetsByGroup = emptyMap()
+    )
+
+    withoutGroupsAdapter.clearUpdatedItems()
+    withoutGroupsAdapter.submitData(lifecycle, PagingData.from(feedState.bookItems))
+  }
+
   private fun onCatalogFeedWithGroups(
     feedState: CatalogFeedWithGroups
   ) {
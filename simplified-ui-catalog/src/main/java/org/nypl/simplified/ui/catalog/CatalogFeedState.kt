@@ -54,6 +54,19 @@ sealed class CatalogFeedState {
     override val search: FeedSearch? = null
   }
 
+  /**
+   * The feed is still loading, but the entries received so far can already be displayed.
+   * Only feeds without groups are displayed in this way.
+   */
+
+  data class CatalogFeedLoadingPartial(
+    override val arguments: CatalogFeedArguments,
+    val bookItems: List<BookItem>
+  ) : CatalogFeedState() {
+    override val title: String = ""
+    override val search: FeedSearch? = null
+  }
+
   /**
    * Loading a feed failed.
    */
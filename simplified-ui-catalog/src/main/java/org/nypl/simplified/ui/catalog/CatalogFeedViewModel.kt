@@ -14,6 +14,7 @@ import androidx.paging.PagingData
 import androidx.paging.cachedIn
 import androidx.paging.map
 import com.google.common.util.concurrent.FluentFuture
+import io.reactivex.Observable
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.CompositeDisposable
 import io.reactivex.subjects.PublishSubject
@@ -48,6 +49,8 @@ import org.nypl.simplified.feeds.api.FeedFacet.FeedFacetPseudo
 import org.nypl.simplified.feeds.api.FeedFacet.FeedFacetPseudo.FilteringForAccount
 import org.nypl.simplified.feeds.api.FeedFacet.FeedFacetPseudo.Sorting
 import org.nypl.simplified.feeds.api.FeedFacetPseudoTitleProviderType
+import org.nypl.simplified.feeds.api.FeedLoaderEntry
+import org.nypl.simplified.feeds.api.FeedLoaderRefreshEvent
 import org.nypl.simplified.feeds.api.FeedLoaderResult
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.feeds.api.FeedSearch
@@ -75,6 +78,7 @@ import org.nypl.simplified.ui.thread.api.UIExecutor
 import org.slf4j.LoggerFactory
 import java.net.URI
 import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 import javax.annotation.concurrent.GuardedBy
 
 /**
@@ -96,6 +100,15 @@ class CatalogFeedViewModel(
   doInitialLoad: Boolean = true // Adding this temporarily to enable easier testing
 ) : ViewModel(), CatalogPagedViewListener {
 
+  companion object {
+
+    /**
+     * The number of entries that must be received before a loading feed is displayed.
+     */
+
+    private const val PARTIAL_FEED_FIRST_PUBLISH = 8
+  }
+
   private val instanceId =
     UUID.randomUUID()
 
@@ -105,6 +118,26 @@ class CatalogFeedViewModel(
   private val stateMutable: MutableLiveData<CatalogFeedState> =
     MutableLiveData(CatalogFeedState.CatalogFeedLoading(feedArguments))
 
+  /**
+   * The entries for which book items have been built, by book ID. A status change for one
+   * of these books causes a single new book item to be published on [bookItemUpdates];
+   * entries are added to this map on the paging thread.
+   */
+
+  private val entriesDisplayed =
+    ConcurrentHashMap<BookID, FeedEntry.FeedEntryOPDS>()
+
+  private val bookItemUpdatesSubject =
+    PublishSubject.create<BookItem>()
+
+  /**
+   * An observable that publishes a rebuilt book item each time the status of a displayed
+   * book changes. Items are published on the UI thread.
+   */
+
+  val bookItemUpdates: Observable<BookItem>
+    get() = bookItemUpdatesSubject
+
   init {
     if (doInitialLoad) loadFeed(feedArguments)
   }
@@ -131,11 +164,21 @@ class CatalogFeedViewModel(
         .subscribe(::onBookStatusEvent),
       loaderResults
         .observeOn(AndroidSchedulers.mainThread())
-        .subscribe(::onFeedLoaderResult)
+        .subscribe(::onFeedLoaderResult),
+      feedLoader.feedRefreshes()
+        .observeOn(AndroidSchedulers.mainThread())
+        .subscribe(::onFeedRefreshed)
     )
 
   private val downloadingBooks = mutableMapOf<BookID, BookStatus>()
 
+  /**
+   * Whether the most recently requested remote feed was requested with only supported
+   * books shown. The loader caches filtered and unfiltered feeds separately.
+   */
+
+  private var remoteFeedShowOnlySupportedBooks: Boolean? = null
+
   private fun onAccountEvent(event: AccountEvent) {
     when (event) {
       is AccountEventCreation.AccountEventCreationSucceeded,
@@ -220,19 +263,21 @@ class CatalogFeedViewModel(
   }
 
   private fun onBookStatusEvent(event: BookStatusEvent) {
-    /*
-    Re-emit the existing state, which will cause the observing CatalogFragment to 'reconfigureUI'
-    and resubscribe to the book items Pager flow ensuring a fresh emission with updated book statuses.
-    Not a great setup but a temporarily working one until additional refactoring work is done in here.
-
-    Only emit this value if in a WithoutGroups state because the VM is always subscribed to
-    book events, but this is the only state that uses these events to drive a UI state change
+    return when (event) {
+      is BookStatusEvent.BookStatusEventForBook ->
+        onBookStatusEventForBook(event)
+      is BookStatusEvent.BookStatusEventSnapshot ->
+        onBookStatusEventSnapshot(event)
+    }
+  }
 
-    FeedArguments are never locally generated in current builds of the app.
+  private fun onBookStatusEventForBook(event: BookStatusEvent.BookStatusEventForBook) {
+    /*
+     * Rebuild the item for the affected book only, if it is displayed. The observing
+     * CatalogFeedFragment rebinds the single row showing the book.
      */
-    if (stateMutable.hasActiveObservers() &&
-      stateMutable.value is CatalogFeedWithoutGroups
-    ) stateMutable.value = stateMutable.value
+
+    rebuildDisplayedItem(event.bookId)
 
     when (event.statusNow) {
       is BookStatus.Held, is BookStatus.Loaned, is BookStatus.Revoked -> {
@@ -243,6 +288,33 @@ class CatalogFeedViewModel(
     }
   }
 
+  private fun onBookStatusEventSnapshot(event: BookStatusEvent.BookStatusEventSnapshot) {
+    /*
+     * A locally generated feed is built from the registry, so it is regenerated once.
+     * Otherwise, only the displayed books whose status differs between the two
+     * snapshots are rebuilt.
+     */
+
+    if (state.arguments.isLocallyGenerated) {
+      reloadFeed()
+      return
+    }
+
+    for (bookID in entriesDisplayed.keys.toList()) {
+      if (event.booksPrevious[bookID]?.status != event.booksNow[bookID]?.status) {
+        rebuildDisplayedItem(bookID)
+      }
+    }
+  }
+
+  private fun rebuildDisplayedItem(bookID: BookID) {
+    val entry = entriesDisplayed[bookID]
+    if (entry != null) {
+      val bookWithStatus = bookRegistry.bookOrNull(entry.bookID) ?: synthesizeBookWithStatus(entry)
+      bookItemUpdatesSubject.onNext(buildBookItem(entry, bookWithStatus, this))
+    }
+  }
+
   private fun synthesizeBookWithStatus(
     item: FeedEntry.FeedEntryOPDS
   ): BookWithStatus {
@@ -276,6 +348,7 @@ class CatalogFeedViewModel(
   private fun loadFeed(
     arguments: CatalogFeedArguments
   ) {
+    entriesDisplayed.clear()
     return when (arguments) {
       is CatalogFeedArgumentsRemote ->
         doLoadRemoteFeed(arguments)
@@ -342,11 +415,16 @@ class CatalogFeedViewModel(
       return
     }
 
+    remoteFeedShowOnlySupportedBooks = feedLoader.showOnlySupportedBooks
+
+    val partialEntries =
+      CatalogFeedPartialEntries(arguments)
     val future =
-      feedLoader.fetchURI(
+      feedLoader.fetchURICached(
         account = account,
         uri = arguments.feedURI,
-        method = "GET"
+        method = "GET",
+        onEntry = partialEntries::onEntry
       )
 
     createNewStatus(
@@ -355,6 +433,62 @@ class CatalogFeedViewModel(
     )
   }
 
+  /**
+   * Entries received from a feed that is still loading. Entries are accumulated on the
+   * loader's thread and published to the UI thread each time the number of entries
+   * doubles, so that the first screenful appears quickly without re-rendering the list
+   * for every entry. Feeds that turn out to have groups are never published partially,
+   * because they are rendered as lanes rather than as a list.
+   */
+
+  private inner class CatalogFeedPartialEntries(
+    private val arguments: CatalogFeedArguments
+  ) {
+    private val entries = mutableListOf<FeedEntry.FeedEntryOPDS>()
+    private var publishAt = PARTIAL_FEED_FIRST_PUBLISH
+    private var grouped = false
+
+    fun onEntry(entry: FeedLoaderEntry) {
+      if (grouped || entry.groups.isNotEmpty()) {
+        grouped = true
+        return
+      }
+
+      entries.add(entry.entry)
+      if (entries.size >= publishAt) {
+        publishAt *= 2
+        val snapshot = entries.toList()
+        uiExecutor.execute { onPartialEntries(arguments, snapshot) }
+      }
+    }
+  }
+
+  private fun onPartialEntries(
+    arguments: CatalogFeedArguments,
+    entries: List<FeedEntry.FeedEntryOPDS>
+  ) {
+    /*
+     * Ignore entries from a load that has been superseded or that has already finished.
+     */
+
+    val currentState = state
+    if (currentState.arguments != arguments) {
+      return
+    }
+    if (currentState !is CatalogFeedState.CatalogFeedLoading &&
+      currentState !is CatalogFeedState.CatalogFeedLoadingPartial
+    ) {
+      return
+    }
+
+    val bookItems = entries.map { entry ->
+      entriesDisplayed[entry.bookID] = entry
+      val bookWithStatus = bookRegistry.bookOrNull(entry.bookID) ?: synthesizeBookWithStatus(entry)
+      buildBookItem(entry, bookWithStatus, this)
+    }
+    stateMutable.value = CatalogFeedState.CatalogFeedLoadingPartial(arguments, bookItems)
+  }
+
   private fun shouldDisplayAgeGate(
     authentication: AccountProviderAuthenticationDescription,
     preferences: ProfilePreferences
@@ -393,6 +527,31 @@ class CatalogFeedViewModel(
     onFeedStatusUpdated(resultWithArguments.result, resultWithArguments.arguments)
   }
 
+  /**
+   * A feed that was served from the loader's cache has changed on the server. Replace the
+   * displayed feed if, and only if, it is the feed that changed.
+   */
+
+  private fun onFeedRefreshed(event: FeedLoaderRefreshEvent) {
+    val arguments = state.arguments
+    if (arguments !is CatalogFeedArgumentsRemote || state !is CatalogFeedLoaded) {
+      return
+    }
+    if (arguments.feedURI != event.uri) {
+      return
+    }
+    val ownership = arguments.ownership
+    if (ownership !is CatalogFeedOwnership.OwnedByAccount || ownership.accountId != event.accountID) {
+      return
+    }
+    if (remoteFeedShowOnlySupportedBooks != event.showOnlySupportedBooks) {
+      return
+    }
+
+    logger.debug("[{}]: feed refreshed {}", instanceId, event.uri)
+    onFeedStatusUpdated(event.result, arguments)
+  }
+
   private fun onFeedStatusUpdated(
     result: FeedLoaderResult,
     arguments: CatalogFeedArguments
@@ -542,6 +701,7 @@ class CatalogFeedViewModel(
       when (it) {
         is FeedEntry.FeedEntryCorrupt -> BookItem.Corrupt(it)
         is FeedEntry.FeedEntryOPDS -> {
+          entriesDisplayed[it.bookID] = it
           val bookWithStatus = bookRegistry.bookOrNull(it.bookID) ?: synthesizeBookWithStatus(it)
           buildBookItem(it, bookWithStatus, this)
         }
@@ -6,6 +6,7 @@ import androidx.paging.PagingDataAdapter
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import kotlinx.coroutines.CoroutineScope
+import org.nypl.simplified.books.api.BookID
 import org.nypl.simplified.books.covers.BookCoverProviderType
 import org.nypl.simplified.buildconfig.api.BuildConfigurationServiceType
 import org.nypl.simplified.ui.catalog.databinding.BookCellCorruptBinding
@@ -23,9 +24,61 @@ class CatalogPagedAdapter(
   CatalogPagedAdapterDiffing.comparisonCallback
 ) {
 
+  /**
+   * Items that have been rebuilt since the current paging data was submitted, by book ID.
+   * These take precedence over the items in the paging data.
+   */
+
+  private val itemsUpdated =
+    mutableMapOf<BookID, BookItem>()
+
+  /**
+   * The view holders currently bound to each book.
+   */
+
+  private val holdersBound =
+    mutableMapOf<BookID, RecyclerView.ViewHolder>()
+
+  /**
+   * Replace the item for a single book, rebinding only the row that displays the book
+   * (if any).
+   */
+
+  fun updateItem(item: BookItem) {
+    val bookID = item.bookID()
+    itemsUpdated[bookID] = item
+
+    val holder = holdersBound[bookID] ?: return
+    val position = holder.bindingAdapterPosition
+    if (position != RecyclerView.NO_POSITION) {
+      notifyItemChanged(position)
+    }
+  }
+
+  /**
+   * Discard any items replaced with [updateItem]. This should be called before new
+   * paging data is submitted.
+   */
+
+  fun clearUpdatedItems() {
+    itemsUpdated.clear()
+  }
+
+  private fun itemAt(position: Int): BookItem? {
+    val item = getItem(position) ?: return null
+    return itemsUpdated[item.bookID()] ?: item
+  }
+
+  override fun onViewRecycled(holder: RecyclerView.ViewHolder) {
+    super.onViewRecycled(holder)
+    holdersBound.values.remove(holder)
+  }
+
   override fun onBindViewHolder(holder: RecyclerView.ViewHolder, position: Int) {
-    val item = getItem(position)
+    val item = itemAt(position)
+    holdersBound.values.remove(holder)
     item?.let {
+      holdersBound[it.bookID()] = holder
       when (it) {
         is BookItem.Corrupt -> (holder as BookCorruptViewHolder).bind(it)
         is BookItem.Error -> (holder as BookErrorViewHolder).bind(it)
@@ -58,7 +111,15 @@ class CatalogPagedAdapter(
   }
 
   override fun getItemViewType(position: Int): Int {
-    return getItem(position)?.type?.ordinal ?: -1
+    return itemAt(position)?.type?.ordinal ?: -1
+  }
+
+  private fun BookItem.bookID(): BookID {
+    return when (this) {
+      is BookItem.Corrupt -> this.entry.bookID
+      is BookItem.Error -> this.entry.bookID
+      is BookItem.Idle -> this.entry.bookID
+    }
   }
 }
 
@@ -12,6 +12,7 @@ import io.mockk.impl.annotations.MockK
 import io.mockk.mockk
 import io.mockk.verify
 import io.reactivex.Observable
+import io.reactivex.subjects.PublishSubject
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.test.TestCoroutineDispatcher
@@ -36,6 +37,7 @@ import org.nypl.simplified.books.api.BookFormat
 import org.nypl.simplified.books.api.BookID
 import org.nypl.simplified.books.book_registry.BookRegistryType
 import org.nypl.simplified.books.book_registry.BookStatus
+import org.nypl.simplified.books.book_registry.BookStatusEvent
 import org.nypl.simplified.books.book_registry.BookWithStatus
 import org.nypl.simplified.buildconfig.api.BuildConfigurationServiceType
 import org.nypl.simplified.feeds.api.FeedEntry
@@ -76,6 +78,7 @@ class CatalogFeedViewModelTest {
 
     every { mockProfilesController.accountEvents() } returns Observable.empty()
     every { mockBookRegistry.bookEvents() } returns Observable.empty()
+    every { mockFeedLoader.feedRefreshes() } returns Observable.empty()
 
     subject = CatalogFeedViewModel(
       resources = mockResources,
@@ -154,6 +157,87 @@ class CatalogFeedViewModelTest {
     confirmVerified(mockBookRegistry)
   }
 
+  @Test
+  internal fun `status events rebuild only the item for the affected book`() = testDispatcher.runBlockingTest {
+    val bookEvents = PublishSubject.create<BookStatusEvent>()
+    every { mockBookRegistry.bookEvents() } returns bookEvents
+    every { mockBookRegistry.bookOrNull(any()) } returns mockk {
+      every { status } returns mockk<BookStatus.Loanable>()
+    }
+
+    subject = CatalogFeedViewModel(
+      resources = mockResources,
+      profilesController = mockProfilesController,
+      feedLoader = mockFeedLoader,
+      bookRegistry = mockBookRegistry,
+      buildConfiguration = mockBuildConfiguration,
+      analytics = mockAnalytics,
+      borrowViewModel = mockBorrowViewModel,
+      feedArguments = mockFeedArguments,
+      listener = mockListener,
+      uiExecutor = mockUiExecutor,
+      pagingFetchDispatcher = testDispatcher,
+      doInitialLoad = false
+    )
+
+    val pageSize = 50
+    val bookIds = (0 until pageSize).map { BookID.newFromText("testBook$it") }
+    val entries = bookIds.map { id ->
+      mockk<FeedEntry.FeedEntryOPDS>(relaxed = true) { every { bookID } returns id }
+    }
+
+    val differ = AsyncPagingDataDiffer(
+      diffCallback = CatalogPagedAdapterDiffing.comparisonCallback,
+      updateCallback = NoopListCallback(),
+    )
+    differ.submitData(subject.buildBookItems(PagingData.from(entries)))
+    advanceUntilIdle()
+    differ.snapshot().items.size shouldBeEqualTo pageSize
+
+    val updates = subject.bookItemUpdates.test()
+    val events = 20
+    val targetId = bookIds[3]
+    repeat(events) {
+      bookEvents.onNext(
+        BookStatusEvent.BookStatusEventChanged(
+          bookId = targetId,
+          statusPrevious = null,
+          statusNow = mockk<BookStatus.Downloading>()
+        )
+      )
+    }
+
+    /*
+     * Each event produces exactly one rebuilt item, and only the affected book is looked
+     * up again.
+     */
+
+    updates.assertValueCount(events)
+    updates.values().forEach { item ->
+      if (item is BookItem.Idle) {
+        item.entry shouldBe entries[3]
+      } else fail("BookItem should be expected type")
+    }
+
+    verify(exactly = 1 + events) { mockBookRegistry.bookOrNull(targetId) }
+    bookIds.filter { it != targetId }.forEach { id ->
+      verify(exactly = 1) { mockBookRegistry.bookOrNull(id) }
+    }
+
+    /*
+     * Events for books that are not displayed produce nothing.
+     */
+
+    bookEvents.onNext(
+      BookStatusEvent.BookStatusEventChanged(
+        bookId = BookID.newFromText("notDisplayed"),
+        statusPrevious = null,
+        statusNow = mockk<BookStatus.Downloading>()
+      )
+    )
+    updates.assertValueCount(events)
+  }
+
   @Test
   internal fun `buildBookItem when FailedDownload builds error item`() {
     val testEntry = CatalogTestUtils.buildTestFeedEntryOPDS()
@@ -21,6 +21,7 @@ import org.nypl.simplified.taskrecorder.api.TaskStep
 import org.nypl.simplified.taskrecorder.api.TaskStepResolution
 import org.nypl.simplified.ui.errorpage.ErrorPageParameters
 import org.slf4j.LoggerFactory
+import kotlin.math.roundToInt
 
 /**
  * A fragment that shows various debug options for testing app functionality at runtime.
@@ -256,6 +257,25 @@ class SettingsDebugFragment : Fragment(R.layout.settings_debug) {
     message.append(context.cacheDir?.isDirectory ?: false)
     message.append("\n")
 
+    val covers = this.viewModel.generatedCoverStatistics
+    message.append("\n")
+    message.append("Generated covers:\n")
+    message.append("  Cache hits: ${covers.cacheHits} (${(covers.cacheHitRate * 100.0).roundToInt()}%)\n")
+    message.append("  Cache misses: ${covers.cacheMisses}\n")
+    message.append("  Cache size: ${covers.cacheSizeBytes} bytes\n")
+    message.append("  Render time (average): ${covers.renderTimeAverageMillis}ms\n")
+    message.append("  Render time (maximum): ${covers.renderTimeMaximumMillis}ms\n")
+
+    val feeds = this.viewModel.feedCacheStatistics
+    if (feeds != null) {
+      message.append("\n")
+      message.append("Feeds:\n")
+      message.append("  Cache hits: ${feeds.hits}\n")
+      message.append("  Cache misses: ${feeds.misses}\n")
+      message.append("  Revalidations: ${feeds.revalidations}\n")
+      message.append("  Offline hits: ${feeds.offlineHits}\n")
+    }
+
     AlertDialog.Builder(context)
       .setTitle("Cache Directory")
       .setMessage(message.toString())
@@ -18,9 +18,12 @@ import org.nypl.simplified.adobe.extensions.AdobeDRMExtensions
 import org.nypl.simplified.analytics.api.AnalyticsEvent
 import org.nypl.simplified.analytics.api.AnalyticsType
 import org.nypl.simplified.books.controller.api.BooksControllerType
+import org.nypl.simplified.books.covers.BookCoverGeneratorStatistics
+import org.nypl.simplified.books.covers.BookCoverProviderType
 import org.nypl.simplified.boot.api.BootFailureTesting
 import org.nypl.simplified.buildconfig.api.BuildConfigurationServiceType
 import org.nypl.simplified.crashlytics.api.CrashlyticsServiceType
+import org.nypl.simplified.feeds.api.FeedHTTPCache
 import org.nypl.simplified.feeds.api.FeedLoaderType
 import org.nypl.simplified.profiles.api.ProfileEvent
 import org.nypl.simplified.profiles.api.ProfileUpdated
@@ -49,6 +52,9 @@ class SettingsDebugViewModel(application: Application) : AndroidViewModel(applic
   private val booksController =
     services.requireService(BooksControllerType::class.java)
 
+  private val coverProvider =
+    services.requireService(BookCoverProviderType::class.java)
+
   private val adeptExecutor =
     services.optionalService(AdobeAdeptExecutorType::class.java)
 
@@ -58,6 +64,9 @@ class SettingsDebugViewModel(application: Application) : AndroidViewModel(applic
   private val feedLoader =
     services.requireService(FeedLoaderType::class.java)
 
+  private val feedCache =
+    services.optionalService(FeedHTTPCache::class.java)
+
   private val crashlytics =
     services.optionalService(CrashlyticsServiceType::class.java)
 
@@ -105,6 +114,12 @@ class SettingsDebugViewModel(application: Application) : AndroidViewModel(applic
   val adeptSupported: Boolean =
     this.adeptExecutor != null
 
+  val generatedCoverStatistics: BookCoverGeneratorStatistics
+    get() = this.coverProvider.generatedCoverStatistics()
+
+  val feedCacheStatistics: FeedHTTPCache.Statistics?
+    get() = this.feedCache?.statistics()
+
   val adeptActivations: LiveData<List<AdobeDRMExtensions.Activation>> =
     fetchAdeptActivations()
 